@@ -0,0 +1,59 @@
+/*
+ * Copyright 2019 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.ehviewer.benchmark;
+
+import com.hippo.ehviewer.Settings;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import okio.BufferedSource;
+import okio.Okio;
+import org.joor.Reflect;
+
+/**
+ * Benchmarks run on JVM without application, there is no context and no database.
+ * Settings are all default values.
+ *
+ * Run benchmarks with {@code ./gradlew :app:jmh -Pjmh='<regexp> -prof gc'},
+ * the gc profiler reports allocation rates.
+ */
+public final class BenchmarkEnvironment {
+
+  private static boolean sInitialized;
+
+  private BenchmarkEnvironment() {}
+
+  public static synchronized void initialize() {
+    if (!sInitialized) {
+      Reflect.on(Settings.class).set("sSettingsPre", new DefaultSharedPreferences());
+      sInitialized = true;
+    }
+  }
+
+  /**
+   * Reads a resource of unit tests.
+   */
+  public static String readResource(String path) throws IOException {
+    InputStream is = BenchmarkEnvironment.class.getClassLoader().getResourceAsStream(path);
+    if (is == null) {
+      throw new FileNotFoundException(path);
+    }
+    try (BufferedSource source = Okio.buffer(Okio.source(is))) {
+      return source.readUtf8();
+    }
+  }
+}
@@ -0,0 +1,337 @@
+/*
+ * Copyright 2019 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.ehviewer.benchmark;
+
+import com.hippo.ehviewer.client.EhFilter;
+import com.hippo.ehviewer.client.data.GalleryInfo;
+import com.hippo.ehviewer.dao.Filter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import okio.Buffer;
+import okio.ByteString;
+
+/**
+ * Inputs of benchmarks. The checked-in fixtures of unit tests, and synthetic
+ * ones which are generated with fixed seeds, so every run measures the same data.
+ */
+public final class Corpus {
+
+  private static final String PARSER_RESOURCES = "com/hippo/ehviewer/client/parser/";
+
+  private static final String[] NAMESPACES = {
+      "language", "parody", "character", "group", "artist", "male", "female", "misc"
+  };
+
+  private static final String[] WORDS = {
+      "Yuri", "Sakura", "Cafe", "Summer", "Night", "Story", "Book", "Collection",
+      "Vol", "Chapter", "Extra", "Comic", "Market", "Fantasy", "School", "Diary"
+  };
+
+  private Corpus() {}
+
+  /**
+   * Returns a gallery list page. The name is a fixture of {@code GalleryListParserTest},
+   * like {@code ECompat}, with an optional suffix like {@code -x8}, which repeats
+   * the galleries of the fixture 8 times in the same page.
+   */
+  public static String galleryList(String name) throws IOException {
+    int times = 1;
+    int index = name.indexOf("-x");
+    if (index >= 0) {
+      times = Integer.parseInt(name.substring(index + 2));
+      name = name.substring(0, index);
+    }
+    String body = BenchmarkEnvironment.readResource(
+        PARSER_RESOURCES + "GalleryListParserTest" + name + ".html");
+    return times == 1 ? body : repeatGalleries(body, times);
+  }
+
+  private static String repeatGalleries(String body, int times) {
+    int itg = body.indexOf("class=\"itg");
+    if (itg < 0) {
+      throw new IllegalArgumentException("No gallery list");
+    }
+    int tagStart = body.lastIndexOf('<', itg);
+    String tag = body.substring(tagStart + 1, body.indexOf(' ', tagStart));
+    int contentStart = body.indexOf('>', itg) + 1;
+    int contentEnd = findEndTag(body, tag, contentStart);
+
+    // Keep the table header once
+    int galleriesStart = contentStart;
+    if (body.startsWith("<tr><th", galleriesStart)) {
+      galleriesStart = body.indexOf("</tr>", galleriesStart) + "</tr>".length();
+    }
+    String galleries = body.substring(galleriesStart, contentEnd);
+
+    StringBuilder sb = new StringBuilder(body.length() + galleries.length() * (times - 1));
+    sb.append(body, 0, galleriesStart);
+    for (int i = 0; i < times; i++) {
+      sb.append(galleries);
+    }
+    sb.append(body, contentEnd, body.length());
+    return sb.toString();
+  }
+
+  // Returns the index of the end tag which closes the element of the content
+  private static int findEndTag(String body, String tag, int from) {
+    String startTag = "<" + tag;
+    String endTag = "</" + tag + ">";
+    int depth = 1;
+    int i = from;
+    while (true) {
+      int start = body.indexOf(startTag, i);
+      int end = body.indexOf(endTag, i);
+      if (end < 0) {
+        throw new IllegalArgumentException("No end tag of " + tag);
+      }
+      if (start >= 0 && start < end) {
+        depth++;
+        i = start + startTag.length();
+      } else if (--depth == 0) {
+        return end;
+      } else {
+        i = end + endTag.length();
+      }
+    }
+  }
+
+  public static String galleryPageApi() throws IOException {
+    return BenchmarkEnvironment.readResource(PARSER_RESOURCES + "GalleryPageApiParserTest.json");
+  }
+
+  /**
+   * Returns a gallery detail page which has all parts {@code GalleryDetailParser} reads.
+   */
+  public static String galleryDetail(int tagGroups, int tagsPerGroup, int comments, int previews) {
+    Random random = new Random(tagGroups * 31 + comments);
+    StringBuilder sb = new StringBuilder(4096 + tagGroups * tagsPerGroup * 200 + comments * 600 + previews * 300);
+    sb.append("<!DOCTYPE html><html><head><title>Gallery</title>")
+        .append("<script type=\"text/javascript\">\n")
+        .append("var base_url = \"https://e-hentai.org/\";\n")
+        .append("var gid = 1366222;\n")
+        .append("var token = \"7e7a4305a4\";\n")
+        .append("var apiuid = 1234567;\n")
+        .append("var apikey = \"0123456789abcdef0123\";\n")
+        .append("</script></head><body>");
+
+    // Header
+    sb.append("<div class=\"gm\">")
+        .append("<div id=\"gleft\"><div id=\"gd1\"><div style=\"width:250px; height:354px; background:transparent url(https://ehgt.org/7e/7a/7e7a4305a4-250.jpg) 0 0 no-repeat\"></div></div></div>")
+        .append("<div id=\"gd2\"><h1 id=\"gn\">").append(title(random)).append("</h1>")
+        .append("<h1 id=\"gj\">").append(title(random)).append("</h1></div>")
+        .append("<div id=\"gmid\"><div id=\"gd3\">")
+        .append("<div id=\"gdc\"><div class=\"cs ct2\" onclick=\"\">Doujinshi</div></div>")
+        .append("<div id=\"gdn\"><a href=\"https://e-hentai.org/uploader/uploader\">uploader</a></div>")
+        .append("<div id=\"gdd\"><table>")
+        .append("<tr><td class=\"gdt1\">Posted:</td><td class=\"gdt2\">2019-01-25 10:59</td></tr>")
+        .append("<tr><td class=\"gdt1\">Parent:</td><td class=\"gdt2\"><a href=\"https://e-hentai.org/g/1366221/34972180ed/\">1366221</a></td></tr>")
+        .append("<tr><td class=\"gdt1\">Visible:</td><td class=\"gdt2\">Yes</td></tr>")
+        .append("<tr><td class=\"gdt1\">Language:</td><td class=\"gdt2\">Japanese &nbsp;</td></tr>")
+        .append("<tr><td class=\"gdt1\">File Size:</td><td class=\"gdt2\">48.12 MB</td></tr>")
+        .append("<tr><td class=\"gdt1\">Length:</td><td class=\"gdt2\">").append(previews).append(" pages</td></tr>")
+        .append("<tr><td class=\"gdt1\">Favorited:</td><td class=\"gdt2\" id=\"favcount\">1234 times</td></tr>")
+        .append("</table></div>")
+        .append("<div id=\"gdr\"><table><tr><td id=\"rating_count\">321</td>")
+        .append("<td id=\"rating_label\">Average: 4.52</td></tr></table></div>")
+        .append("<div id=\"gdf\"><a id=\"favoritelink\" href=\"#\">Add to Favorites</a></div>")
+        .append("</div>");
+
+    // Tags
+    sb.append("<div id=\"gd4\"><div id=\"taglist\"><table>");
+    for (int i = 0; i < tagGroups; i++) {
+      String namespace = NAMESPACES[i % NAMESPACES.length];
+      sb.append("<tr><td class=\"tc\">").append(namespace).append(":</td><td>");
+      for (int j = 0; j < tagsPerGroup; j++) {
+        String tag = word(random) + " " + word(random) + " " + j;
+        sb.append("<div id=\"td_").append(tag.replace(' ', '_')).append("\" class=\"gt\" style=\"opacity:1.0\">")
+            .append("<a id=\"ta_").append(tag.replace(' ', '_')).append("\" href=\"https://e-hentai.org/tag/")
+            .append(namespace).append(':').append(tag.replace(' ', '+')).append("\">")
+            .append(tag).append("</a></div>");
+      }
+      sb.append("</td></tr>");
+    }
+    sb.append("</table></div></div></div></div>");
+
+    // Preview pages and previews
+    int previewPages = Math.max(1, (previews + 19) / 20);
+    sb.append("<table class=\"ptt\"><tr><td onclick=\"sp(0)\">&lt;</td>");
+    for (int i = 1; i <= previewPages; i++) {
+      sb.append("<td onclick=\"sp(").append(i - 1).append(")\"><a href=\"https://e-hentai.org/g/1366222/7e7a4305a4/?p=")
+          .append(i - 1).append("\">").append(i).append("</a></td>");
+    }
+    sb.append("<td onclick=\"sp(1)\">&gt;</td></tr></table>");
+    sb.append("<div id=\"gdt\">");
+    for (int i = 1; i <= previews; i++) {
+      sb.append("<div class=\"gdtl\" style=\"height:320px\"><a href=\"https://e-hentai.org/s/")
+          .append(Long.toHexString(random.nextLong() & 0xffffffffffL)).append("/1366222-").append(i).append("\">")
+          .append("<img alt=\"").append(i).append("\" title=\"Page ").append(i).append(": ").append(i).append(".jpg\" src=\"https://ehgt.org/7e/7a/7e7a4305a4-")
+          .append(i).append("-1280-1810-jpg_l.jpg\" /></a></div>");
+    }
+    sb.append("<div class=\"c\"></div></div>");
+
+    // Comments
+    sb.append("<div id=\"cdiv\" class=\"gm\">");
+    for (int i = 1; i <= comments; i++) {
+      sb.append("<a name=\"c").append(i).append("\"></a><div class=\"c1\">")
+          .append("<div class=\"c2\"><div class=\"c3\">Posted on ").append(1 + i % 28)
+          .append(" April 2019, 10:").append(10 + i % 50).append(" UTC by: &nbsp; <a href=\"https://e-hentai.org/uploader/user")
+          .append(i).append("\">user").append(i).append("</a></div>")
+          .append("<div class=\"c4 nosel\">[<a style=\"\" onclick=\"vote_comment_up(").append(i).append(")\">Vote+</a>] ")
+          .append("[<a onclick=\"vote_comment_down(").append(i).append(")\">Vote-</a>]</div>")
+          .append("<div class=\"c5 nosel\">Score <span id=\"comment_score_").append(i).append("\">+")
+          .append(random.nextInt(100)).append("</span></div><div class=\"c\"></div></div>")
+          .append("<div class=\"c6\" id=\"comment_").append(i).append("\">").append(title(random))
+          .append("<br />").append(title(random)).append(" &amp; ").append(title(random)).append("</div>")
+          .append("<div class=\"c7\" id=\"cvotes_").append(i).append("\" style=\"display:none\">Base +3, user +")
+          .append(i).append("</div></div>");
+    }
+    sb.append("<div id=\"chd\"><p>There are more comments - <a href=\"#\" onclick=\"\">click to show all</a></p></div>")
+        .append("</div></body></html>");
+    return sb.toString();
+  }
+
+  /**
+   * Returns galleries with titles, uploaders and tags, like the ones of gallery lists.
+   */
+  public static List<GalleryInfo> galleryInfos(int count, long seed) {
+    Random random = new Random(seed);
+    List<GalleryInfo> list = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      GalleryInfo gi = new GalleryInfo();
+      gi.gid = 1000000 + i;
+      gi.token = "0123456789";
+      gi.title = title(random);
+      gi.uploader = "uploader" + random.nextInt(200);
+      String[] tags = new String[10 + random.nextInt(20)];
+      for (int j = 0; j < tags.length; j++) {
+        tags[j] = tag(random);
+      }
+      gi.simpleTags = tags;
+      list.add(gi);
+    }
+    return list;
+  }
+
+  /**
+   * Returns enabled filters of all modes, most of them match nothing like most of real filters.
+   */
+  public static List<Filter> filters(int count, long seed) {
+    Random random = new Random(seed);
+    List<Filter> list = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      Filter filter = new Filter();
+      filter.enable = true;
+      switch (i % 4) {
+        case 0:
+          filter.mode = EhFilter.MODE_TITLE;
+          filter.text = word(random).toLowerCase(Locale.US) + " " + i;
+          break;
+        case 1:
+          filter.mode = EhFilter.MODE_UPLOADER;
+          filter.text = "uploader" + (200 + i);
+          break;
+        case 2:
+          filter.mode = EhFilter.MODE_TAG;
+          filter.text = tag(random) + i;
+          break;
+        default:
+          filter.mode = EhFilter.MODE_TAG_NAMESPACE;
+          filter.text = "namespace" + i;
+          break;
+      }
+      list.add(filter);
+    }
+    return list;
+  }
+
+  /**
+   * Returns the keys of {@link #tagDatabase(int)}.
+   */
+  public static String tagDatabaseKey(int index) {
+    return String.format(Locale.US, "%s:tag%06d", NAMESPACES[index % NAMESPACES.length], index);
+  }
+
+  /**
+   * Returns the data of a {@code EhTagDatabase} in the downloaded format.
+   */
+  public static Buffer tagDatabase(int count) {
+    List<String> keys = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      keys.add(tagDatabaseKey(i));
+    }
+    // Keys are ASCII, so the order of strings is the order of bytes
+    Collections.sort(keys);
+
+    Buffer lines = new Buffer();
+    for (String key : keys) {
+      lines.writeUtf8(key)
+          .writeByte('\r')
+          .writeUtf8(ByteString.encodeUtf8("翻译 " + key).base64())
+          .writeByte('\n');
+    }
+    Buffer buffer = new Buffer();
+    buffer.writeInt((int) lines.size());
+    buffer.writeAll(lines);
+    return buffer;
+  }
+
+  /**
+   * Returns file names like the ones in archives and download dirs,
+   * with numbers of different widths.
+   */
+  public static List<String> fileNames(int count, long seed) {
+    Random random = new Random(seed);
+    List<String> list = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      switch (random.nextInt(3)) {
+        case 0:
+          list.add(random.nextInt(count) + ".jpg");
+          break;
+        case 1:
+          list.add(String.format(Locale.US, "%05d.png", random.nextInt(count)));
+          break;
+        default:
+          list.add(word(random) + " " + random.nextInt(100) + " - " + random.nextInt(1000) + ".jpg");
+          break;
+      }
+    }
+    return list;
+  }
+
+  private static String word(Random random) {
+    return WORDS[random.nextInt(WORDS.length)];
+  }
+
+  private static String title(Random random) {
+    StringBuilder sb = new StringBuilder();
+    sb.append('[').append(word(random)).append("] ");
+    for (int i = 0, n = 3 + random.nextInt(6); i < n; i++) {
+      sb.append(word(random)).append(' ');
+    }
+    sb.append(random.nextInt(100));
+    return sb.toString();
+  }
+
+  private static String tag(Random random) {
+    return NAMESPACES[random.nextInt(NAMESPACES.length)] + ":" + word(random).toLowerCase(Locale.US)
+        + " " + word(random).toLowerCase(Locale.US);
+  }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright 2019 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.ehviewer.benchmark;
+
+import android.content.SharedPreferences;
+import androidx.annotation.Nullable;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Empty and read-only, every getter returns the default value.
+ */
+final class DefaultSharedPreferences implements SharedPreferences {
+
+  @Override
+  public Map<String, ?> getAll() {
+    return Collections.emptyMap();
+  }
+
+  @Nullable
+  @Override
+  public String getString(String key, @Nullable String defValue) {
+    return defValue;
+  }
+
+  @Nullable
+  @Override
+  public Set<String> getStringSet(String key, @Nullable Set<String> defValues) {
+    return defValues;
+  }
+
+  @Override
+  public int getInt(String key, int defValue) {
+    return defValue;
+  }
+
+  @Override
+  public long getLong(String key, long defValue) {
+    return defValue;
+  }
+
+  @Override
+  public float getFloat(String key, float defValue) {
+    return defValue;
+  }
+
+  @Override
+  public boolean getBoolean(String key, boolean defValue) {
+    return defValue;
+  }
+
+  @Override
+  public boolean contains(String key) {
+    return false;
+  }
+
+  @Override
+  public Editor edit() {
+    throw new UnsupportedOperationException("Settings are read-only in benchmarks");
+  }
+
+  @Override
+  public void registerOnSharedPreferenceChangeListener(OnSharedPreferenceChangeListener listener) {}
+
+  @Override
+  public void unregisterOnSharedPreferenceChangeListener(OnSharedPreferenceChangeListener listener) {}
+}
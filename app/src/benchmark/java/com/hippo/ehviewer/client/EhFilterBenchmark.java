@@ -0,0 +1,73 @@
+/*
+ * Copyright 2019 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.ehviewer.client;
+
+import com.hippo.ehviewer.benchmark.BenchmarkEnvironment;
+import com.hippo.ehviewer.benchmark.Corpus;
+import com.hippo.ehviewer.client.data.GalleryInfo;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Filters a page of 1000 galleries, like {@code GalleryListScene} does.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EhFilterBenchmark {
+
+  @Param({"10", "100"})
+  public int filters;
+
+  private EhFilter filter;
+  private List<GalleryInfo> infos;
+
+  @Setup
+  public void setup() {
+    BenchmarkEnvironment.initialize();
+    filter = new EhFilter(Corpus.filters(filters, 1));
+    infos = Corpus.galleryInfos(1000, 2);
+  }
+
+  @Benchmark
+  public int filter() {
+    EhFilter filter = this.filter;
+    int count = 0;
+    for (int i = 0, n = infos.size(); i < n; i++) {
+      GalleryInfo info = infos.get(i);
+      if (filter.filterTitle(info) && filter.filterUploader(info) &&
+          filter.filterTag(info) && filter.filterTagNamespace(info)) {
+        count++;
+      }
+    }
+    return count;
+  }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright 2019 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.ehviewer.client;
+
+import com.hippo.ehviewer.benchmark.BenchmarkEnvironment;
+import com.hippo.ehviewer.benchmark.Corpus;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EhTagDatabaseBenchmark {
+
+  private static final int QUERIES = 1024;
+
+  @Param({"1000", "50000"})
+  public int tags;
+
+  private EhTagDatabase database;
+  private final String[] queries = new String[QUERIES];
+
+  @Setup
+  public void setup() throws IOException {
+    BenchmarkEnvironment.initialize();
+    database = new EhTagDatabase("benchmark", Corpus.tagDatabase(tags));
+
+    // Half of them are hits
+    Random random = new Random(3);
+    for (int i = 0; i < QUERIES; i++) {
+      String key = Corpus.tagDatabaseKey(random.nextInt(tags));
+      queries[i] = (i & 1) == 0 ? key : key + "x";
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(QUERIES)
+  public void getTranslation(Blackhole blackhole) {
+    EhTagDatabase database = this.database;
+    for (String query : queries) {
+      blackhole.consume(database.getTranslation(query));
+    }
+  }
+}
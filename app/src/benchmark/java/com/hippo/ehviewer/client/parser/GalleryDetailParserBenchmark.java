@@ -0,0 +1,63 @@
+/*
+ * Copyright 2019 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.ehviewer.client.parser;
+
+import com.hippo.ehviewer.benchmark.BenchmarkEnvironment;
+import com.hippo.ehviewer.benchmark.Corpus;
+import com.hippo.ehviewer.client.data.GalleryDetail;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GalleryDetailParserBenchmark {
+
+  // small is a usual gallery, large is a long one with many tags and comments
+  @Param({"small", "large"})
+  public String page;
+
+  private String body;
+
+  @Setup
+  public void setup() {
+    BenchmarkEnvironment.initialize();
+    if ("large".equals(page)) {
+      body = Corpus.galleryDetail(8, 30, 50, 40);
+    } else {
+      body = Corpus.galleryDetail(4, 5, 5, 20);
+    }
+  }
+
+  @Benchmark
+  public GalleryDetail parse() throws Exception {
+    return GalleryDetailParser.parse(body);
+  }
+}
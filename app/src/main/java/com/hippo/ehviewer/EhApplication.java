@@ -30,7 +30,6 @@ import android.os.Debug;
 import android.util.Log;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
-import androidx.collection.LruCache;
 import com.getkeepsafe.relinker.ReLinker;
 import com.hippo.a7zip.A7Zip;
 import com.hippo.a7zip.A7ZipExtractLite;
@@ -41,7 +40,6 @@ import com.hippo.ehviewer.client.EhClient;
 import com.hippo.ehviewer.client.EhCookieStore;
 import com.hippo.ehviewer.client.EhDns;
 import com.hippo.ehviewer.client.EhEngine;
-import com.hippo.ehviewer.client.data.GalleryDetail;
 import com.hippo.ehviewer.download.DownloadManager;
 import com.hippo.ehviewer.spider.SpiderDen;
 import com.hippo.ehviewer.ui.CommonOperations;
@@ -64,6 +62,7 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.concurrent.TimeUnit;
+import okhttp3.Cache;
 import okhttp3.OkHttpClient;
 
 public class EhApplication extends RecordingApplication {
@@ -88,8 +87,9 @@ public class EhApplication extends RecordingApplication {
     private OkHttpClient mOkHttpClient;
     private ImageBitmapHelper mImageBitmapHelper;
     private Conaco<ImageBitmap> mConaco;
-    private LruCache<Long, GalleryDetail> mGalleryDetailCache;
+    private GalleryDetailCache mGalleryDetailCache;
     private SimpleDiskCache mSpiderInfoCache;
+    private Cache mHttpCache;
     private DownloadManager mDownloadManager;
     private Hosts mHosts;
     private FavouriteStatusRouter mFavouriteStatusRouter;
@@ -217,7 +217,7 @@ public class EhApplication extends RecordingApplication {
             mConaco.getBeerBelly().clearMemory();
         }
         if (null != mGalleryDetailCache) {
-            mGalleryDetailCache.evictAll();
+            mGalleryDetailCache.evictMemory();
         }
     }
 
@@ -299,18 +299,30 @@ public class EhApplication extends RecordingApplication {
     public static OkHttpClient getOkHttpClient(@NonNull Context context) {
         EhApplication application = ((EhApplication) context.getApplicationContext());
         if (application.mOkHttpClient == null) {
+            EhDns dns = new EhDns(application);
             application.mOkHttpClient = new OkHttpClient.Builder()
                     .connectTimeout(10, TimeUnit.SECONDS)
                     .readTimeout(10, TimeUnit.SECONDS)
                     .writeTimeout(10, TimeUnit.SECONDS)
                     .cookieJar(getEhCookieStore(application))
-                    .dns(new EhDns(application))
+                    .dns(dns)
+                    .eventListenerFactory(dns.getEventListenerFactory())
                     .proxySelector(getEhProxySelector(application))
                     .build();
         }
         return application.mOkHttpClient;
     }
 
+    @NonNull
+    public static Cache getHttpCache(@NonNull Context context) {
+        EhApplication application = ((EhApplication) context.getApplicationContext());
+        if (application.mHttpCache == null) {
+            application.mHttpCache = new Cache(
+                    new File(context.getCacheDir(), "http"), 20 * 1024 * 1024); // 20M
+        }
+        return application.mHttpCache;
+    }
+
     @NonNull
     public static ImageBitmapHelper getImageBitmapHelper(@NonNull Context context) {
         EhApplication application = ((EhApplication) context.getApplicationContext());
@@ -343,17 +355,11 @@ public class EhApplication extends RecordingApplication {
     }
 
     @NonNull
-    public static LruCache<Long, GalleryDetail> getGalleryDetailCache(@NonNull Context context) {
+    public static GalleryDetailCache getGalleryDetailCache(@NonNull Context context) {
         EhApplication application = ((EhApplication) context.getApplicationContext());
         if (application.mGalleryDetailCache == null) {
-            // Max size 25, 3 min timeout
-            application.mGalleryDetailCache = new LruCache<>(25);
-            getFavouriteStatusRouter().addListener((gid, slot) -> {
-                GalleryDetail gd = application.mGalleryDetailCache.get(gid);
-                if (gd != null) {
-                    gd.favoriteSlot = slot;
-                }
-            });
+            application.mGalleryDetailCache = new GalleryDetailCache(application);
+            getFavouriteStatusRouter().addListener(application.mGalleryDetailCache::onModifyFavourites);
         }
         return application.mGalleryDetailCache;
     }
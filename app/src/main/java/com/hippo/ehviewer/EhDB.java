@@ -43,11 +43,13 @@ import com.hippo.ehviewer.dao.QuickSearch;
 import com.hippo.ehviewer.dao.QuickSearchDao;
 import com.hippo.ehviewer.download.DownloadManager;
 import com.hippo.util.ExceptionUtils;
-import com.hippo.util.SqlUtils;
+import com.hippo.util.IoThreadPoolExecutor;
 import com.hippo.yorozuya.IOUtils;
 import com.hippo.yorozuya.ObjectUtils;
+import com.hippo.yorozuya.SimpleHandler;
 import com.hippo.yorozuya.collect.SparseJLArray;
 import de.greenrobot.dao.AbstractDao;
+import de.greenrobot.dao.Property;
 import de.greenrobot.dao.query.CloseableListIterator;
 import de.greenrobot.dao.query.LazyList;
 import java.io.File;
@@ -57,16 +59,53 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 public class EhDB {
 
     private static final String TAG = EhDB.class.getSimpleName();
 
     private static final int MAX_HISTORY_COUNT = 100;
+    // Galleries opened in this time are written to history in one batch
+    private static final long HISTORY_FLUSH_DELAY = 3000;
 
     private static DaoSession sDaoSession;
 
+    // Writes of each table are serialized by its lock. Reads take no lock,
+    // in WAL mode they run on other connections and never wait for a writer.
+    private static final Object sDownloadsLock = new Object();
+    private static final Object sDownloadDirnameLock = new Object();
+    private static final Object sDownloadLabelLock = new Object();
+    private static final Object sLocalFavoritesLock = new Object();
+    private static final Object sQuickSearchLock = new Object();
+    private static final Object sHistoryLock = new Object();
+    private static final Object sFilterLock = new Object();
+
+    // History not written yet, the latest visit of each gallery, guarded by itself
+    private static final LinkedHashMap<Long, HistoryInfo> sPendingHistory = new LinkedHashMap<>();
+    private static boolean sHistoryFlushScheduled;
+    // Row count of history table, -1 for unknown, guarded by sHistoryLock
+    private static long sHistoryCount = -1;
+
+    /**
+     * Result of a bulk write. Galleries already in the table are skipped.
+     */
+    public static final class BulkResult {
+        public final int inserted;
+        public final int skipped;
+
+        BulkResult(int inserted, int skipped) {
+            this.inserted = inserted;
+            this.skipped = skipped;
+        }
+    }
+
     private static boolean sHasOldDB;
     private static boolean sNewDB;
 
@@ -154,6 +193,10 @@ public class EhDB {
                 context.getApplicationContext(), "eh.db", null);
 
         SQLiteDatabase db = helper.getWritableDatabase();
+        db.enableWriteAheadLogging();
+        // For trimming history
+        db.execSQL("CREATE INDEX IF NOT EXISTS IDX_HISTORY_TIME ON HISTORY (TIME)");
+        GallerySearchIndex.create(db);
         DaoMaster daoMaster = new DaoMaster(db);
 
         sDaoSession = daoMaster.newSession();
@@ -356,9 +399,15 @@ public class EhDB {
             ExceptionUtils.throwIfFatal(e);
             // Ignore
         }
+
+        // Galleries are inserted without index
+        GallerySearchIndex.rebuild(sDaoSession.getDatabase());
+        synchronized (sHistoryLock) {
+            sHistoryCount = -1;
+        }
     }
 
-    public static synchronized List<DownloadInfo> getAllDownloadInfo() {
+    public static List<DownloadInfo> getAllDownloadInfo() {
         DownloadsDao dao = sDaoSession.getDownloadsDao();
         List<DownloadInfo> list = dao.queryBuilder().orderDesc(DownloadsDao.Properties.Time).list();
         // Fix state
@@ -371,23 +420,39 @@ public class EhDB {
     }
 
     // Insert or update
-    public static synchronized void putDownloadInfo(DownloadInfo downloadInfo) {
-        DownloadsDao dao = sDaoSession.getDownloadsDao();
-        if (null != dao.load(downloadInfo.gid)) {
-            // Update
-            dao.update(downloadInfo);
-        } else {
-            // Insert
-            dao.insert(downloadInfo);
+    public static void putDownloadInfo(DownloadInfo downloadInfo) {
+        synchronized (sDownloadsLock) {
+            DownloadsDao dao = sDaoSession.getDownloadsDao();
+            if (null != dao.load(downloadInfo.gid)) {
+                // Update
+                dao.update(downloadInfo);
+            } else {
+                // Insert
+                dao.insert(downloadInfo);
+            }
+            GallerySearchIndex.put(sDaoSession.getDatabase(), GallerySearchIndex.DOWNLOADS, downloadInfo);
+        }
+    }
+
+    public static void removeDownloadInfo(long gid) {
+        synchronized (sDownloadsLock) {
+            sDaoSession.getDownloadsDao().deleteByKey(gid);
+            GallerySearchIndex.delete(sDaoSession.getDatabase(), GallerySearchIndex.DOWNLOADS, gid);
         }
     }
 
-    public static synchronized void removeDownloadInfo(long gid) {
-        sDaoSession.getDownloadsDao().deleteByKey(gid);
+    /**
+     * Returns download info ranked by the query. The state of them might be out of date,
+     * get the current ones from {@link com.hippo.ehviewer.download.DownloadManager} by gid.
+     */
+    public static List<DownloadInfo> searchDownloadInfo(String query) {
+        DownloadsDao dao = sDaoSession.getDownloadsDao();
+        return search(dao, DownloadsDao.Properties.Gid, DownloadsDao.Properties.Time,
+                GallerySearchIndex.DOWNLOADS, query, (lhs, rhs) -> Long.compare(rhs.time, lhs.time));
     }
 
     @Nullable
-    public static synchronized String getDownloadDirname(long gid) {
+    public static String getDownloadDirname(long gid) {
         DownloadDirnameDao dao = sDaoSession.getDownloadDirnameDao();
         DownloadDirname raw = dao.load(gid);
         if (raw != null) {
@@ -400,89 +465,105 @@ public class EhDB {
     /**
      * Insert or update
      */
-    public static synchronized void putDownloadDirname(long gid, String dirname) {
-        DownloadDirnameDao dao = sDaoSession.getDownloadDirnameDao();
-        DownloadDirname raw = dao.load(gid);
-        if (raw != null) { // Update
-            raw.setDirname(dirname);
-            dao.update(raw);
-        } else { // Insert
-            raw = new DownloadDirname();
-            raw.setGid(gid);
-            raw.setDirname(dirname);
-            dao.insert(raw);
+    public static void putDownloadDirname(long gid, String dirname) {
+        synchronized (sDownloadDirnameLock) {
+            DownloadDirnameDao dao = sDaoSession.getDownloadDirnameDao();
+            DownloadDirname raw = dao.load(gid);
+            if (raw != null) { // Update
+                raw.setDirname(dirname);
+                dao.update(raw);
+            } else { // Insert
+                raw = new DownloadDirname();
+                raw.setGid(gid);
+                raw.setDirname(dirname);
+                dao.insert(raw);
+            }
         }
     }
 
-    public static synchronized void removeDownloadDirname(long gid) {
-        DownloadDirnameDao dao = sDaoSession.getDownloadDirnameDao();
-        dao.deleteByKey(gid);
+    public static void removeDownloadDirname(long gid) {
+        synchronized (sDownloadDirnameLock) {
+            DownloadDirnameDao dao = sDaoSession.getDownloadDirnameDao();
+            dao.deleteByKey(gid);
+        }
     }
 
-    public static synchronized void clearDownloadDirname() {
-        DownloadDirnameDao dao = sDaoSession.getDownloadDirnameDao();
-        dao.deleteAll();
+    public static void clearDownloadDirname() {
+        synchronized (sDownloadDirnameLock) {
+            DownloadDirnameDao dao = sDaoSession.getDownloadDirnameDao();
+            dao.deleteAll();
+        }
     }
 
     @NonNull
-    public static synchronized List<DownloadLabel> getAllDownloadLabelList() {
+    public static List<DownloadLabel> getAllDownloadLabelList() {
         DownloadLabelDao dao = sDaoSession.getDownloadLabelDao();
         return dao.queryBuilder().orderAsc(DownloadLabelDao.Properties.Time).list();
     }
 
-    public static synchronized DownloadLabel addDownloadLabel(String label) {
-        DownloadLabelDao dao = sDaoSession.getDownloadLabelDao();
-        DownloadLabel raw = new DownloadLabel();
-        raw.setLabel(label);
-        raw.setTime(System.currentTimeMillis());
-        raw.setId(dao.insert(raw));
-        return raw;
+    public static DownloadLabel addDownloadLabel(String label) {
+        synchronized (sDownloadLabelLock) {
+            DownloadLabelDao dao = sDaoSession.getDownloadLabelDao();
+            DownloadLabel raw = new DownloadLabel();
+            raw.setLabel(label);
+            raw.setTime(System.currentTimeMillis());
+            raw.setId(dao.insert(raw));
+            return raw;
+        }
     }
 
-    public static synchronized DownloadLabel addDownloadLabel(DownloadLabel raw) {
-        // Reset id
-        raw.setId(null);
-        DownloadLabelDao dao = sDaoSession.getDownloadLabelDao();
-        raw.setId(dao.insert(raw));
-        return raw;
+    public static DownloadLabel addDownloadLabel(DownloadLabel raw) {
+        synchronized (sDownloadLabelLock) {
+            // Reset id
+            raw.setId(null);
+            DownloadLabelDao dao = sDaoSession.getDownloadLabelDao();
+            raw.setId(dao.insert(raw));
+            return raw;
+        }
     }
 
-    public static synchronized void updateDownloadLabel(DownloadLabel raw) {
-        DownloadLabelDao dao = sDaoSession.getDownloadLabelDao();
-        dao.update(raw);
+    public static void updateDownloadLabel(DownloadLabel raw) {
+        synchronized (sDownloadLabelLock) {
+            DownloadLabelDao dao = sDaoSession.getDownloadLabelDao();
+            dao.update(raw);
+        }
     }
 
-    public static synchronized void moveDownloadLabel(int fromPosition, int toPosition) {
-        if (fromPosition == toPosition) {
-            return;
-        }
+    public static void moveDownloadLabel(int fromPosition, int toPosition) {
+        synchronized (sDownloadLabelLock) {
+            if (fromPosition == toPosition) {
+                return;
+            }
 
-        boolean reverse = fromPosition > toPosition;
-        int offset = reverse ? toPosition : fromPosition;
-        int limit = reverse ? fromPosition - toPosition + 1 : toPosition - fromPosition + 1;
+            boolean reverse = fromPosition > toPosition;
+            int offset = reverse ? toPosition : fromPosition;
+            int limit = reverse ? fromPosition - toPosition + 1 : toPosition - fromPosition + 1;
 
-        DownloadLabelDao dao = sDaoSession.getDownloadLabelDao();
-        List<DownloadLabel> list = dao.queryBuilder().orderAsc(DownloadLabelDao.Properties.Time)
-                .offset(offset).limit(limit).list();
+            DownloadLabelDao dao = sDaoSession.getDownloadLabelDao();
+            List<DownloadLabel> list = dao.queryBuilder().orderAsc(DownloadLabelDao.Properties.Time)
+                    .offset(offset).limit(limit).list();
 
-        int step = reverse ? 1 : -1;
-        int start = reverse ? limit - 1 : 0;
-        int end = reverse ? 0 : limit - 1;
-        long toTime = list.get(end).getTime();
-        for (int i = end; reverse ? i < start : i > start; i += step) {
-            list.get(i).setTime(list.get(i + step).getTime());
-        }
-        list.get(start).setTime(toTime);
+            int step = reverse ? 1 : -1;
+            int start = reverse ? limit - 1 : 0;
+            int end = reverse ? 0 : limit - 1;
+            long toTime = list.get(end).getTime();
+            for (int i = end; reverse ? i < start : i > start; i += step) {
+                list.get(i).setTime(list.get(i + step).getTime());
+            }
+            list.get(start).setTime(toTime);
 
-        dao.updateInTx(list);
+            dao.updateInTx(list);
+        }
     }
 
-    public static synchronized void removeDownloadLabel(DownloadLabel raw) {
-        DownloadLabelDao dao = sDaoSession.getDownloadLabelDao();
-        dao.delete(raw);
+    public static void removeDownloadLabel(DownloadLabel raw) {
+        synchronized (sDownloadLabelLock) {
+            DownloadLabelDao dao = sDaoSession.getDownloadLabelDao();
+            dao.delete(raw);
+        }
     }
 
-    public static synchronized List<GalleryInfo> getAllLocalFavorites() {
+    public static List<GalleryInfo> getAllLocalFavorites() {
         LocalFavoritesDao dao = sDaoSession.getLocalFavoritesDao();
         List<LocalFavoriteInfo> list = dao.queryBuilder().orderDesc(LocalFavoritesDao.Properties.Time).list();
         List<GalleryInfo> result = new ArrayList<>();
@@ -490,160 +571,424 @@ public class EhDB {
         return result;
     }
 
-    public static synchronized List<GalleryInfo> searchLocalFavorites(String query) {
-        query = SqlUtils.sqlEscapeString("%" + query+ "%");
+    public static List<GalleryInfo> searchLocalFavorites(String query) {
         LocalFavoritesDao dao = sDaoSession.getLocalFavoritesDao();
-        List<LocalFavoriteInfo> list = dao.queryBuilder().orderDesc(LocalFavoritesDao.Properties.Time)
-                .where(LocalFavoritesDao.Properties.Title.like(query)).list();
+        List<LocalFavoriteInfo> list = search(dao, LocalFavoritesDao.Properties.Gid,
+                LocalFavoritesDao.Properties.Time, GallerySearchIndex.LOCAL_FAVORITES, query,
+                (lhs, rhs) -> Long.compare(rhs.time, lhs.time));
         List<GalleryInfo> result = new ArrayList<>();
         result.addAll(list);
         return result;
     }
 
-    public static synchronized void removeLocalFavorites(long gid) {
-        sDaoSession.getLocalFavoritesDao().deleteByKey(gid);
+    public static void removeLocalFavorites(long gid) {
+        synchronized (sLocalFavoritesLock) {
+            sDaoSession.getLocalFavoritesDao().deleteByKey(gid);
+            GallerySearchIndex.delete(sDaoSession.getDatabase(), GallerySearchIndex.LOCAL_FAVORITES, gid);
+        }
     }
 
-    public static synchronized void removeLocalFavorites(long[] gidArray) {
-        LocalFavoritesDao dao = sDaoSession.getLocalFavoritesDao();
-        for (long gid: gidArray) {
-            dao.deleteByKey(gid);
+    /**
+     * Removes the local favorites in one transaction.
+     *
+     * @return the count of removed local favorites
+     */
+    public static int removeLocalFavorites(long[] gidArray) {
+        synchronized (sLocalFavoritesLock) {
+            LocalFavoritesDao dao = sDaoSession.getLocalFavoritesDao();
+            SQLiteDatabase db = sDaoSession.getDatabase();
+            int removed = 0;
+            db.beginTransaction();
+            try {
+                for (int i = 0, n = gidArray.length; i < n; i += MAX_IN_SIZE) {
+                    int end = Math.min(n, i + MAX_IN_SIZE);
+                    String[] args = new String[end - i];
+                    for (int j = i; j < end; j++) {
+                        args[j - i] = Long.toString(gidArray[j]);
+                        GallerySearchIndex.delete(db, GallerySearchIndex.LOCAL_FAVORITES, gidArray[j]);
+                    }
+                    removed += db.delete(dao.getTablename(),
+                            LocalFavoritesDao.Properties.Gid.columnName + " IN (" + placeholders(args.length) + ")", args);
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+            // Deleted without the dao
+            dao.detachAll();
+            return removed;
         }
     }
 
-    public static synchronized boolean containLocalFavorites(long gid) {
+    public static boolean containLocalFavorites(long gid) {
         LocalFavoritesDao dao = sDaoSession.getLocalFavoritesDao();
         return null != dao.load(gid);
     }
 
-    public static synchronized void putLocalFavorites(GalleryInfo galleryInfo) {
-        LocalFavoritesDao dao = sDaoSession.getLocalFavoritesDao();
-        if (null == dao.load(galleryInfo.gid)) {
-            LocalFavoriteInfo info;
-            if (galleryInfo instanceof LocalFavoriteInfo) {
-                info = (LocalFavoriteInfo) galleryInfo;
-            } else {
-                info = new LocalFavoriteInfo(galleryInfo);
-                info.time = System.currentTimeMillis();
+    public static void putLocalFavorites(GalleryInfo galleryInfo) {
+        synchronized (sLocalFavoritesLock) {
+            LocalFavoritesDao dao = sDaoSession.getLocalFavoritesDao();
+            if (null == dao.load(galleryInfo.gid)) {
+                LocalFavoriteInfo info;
+                if (galleryInfo instanceof LocalFavoriteInfo) {
+                    info = (LocalFavoriteInfo) galleryInfo;
+                } else {
+                    info = new LocalFavoriteInfo(galleryInfo);
+                    info.time = System.currentTimeMillis();
+                }
+                dao.insert(info);
+                // Tags are only in the original one
+                GallerySearchIndex.put(sDaoSession.getDatabase(), GallerySearchIndex.LOCAL_FAVORITES, galleryInfo);
             }
-            dao.insert(info);
         }
     }
 
-    public static synchronized void putLocalFavorites(List<GalleryInfo> galleryInfoList) {
-        for (GalleryInfo gi: galleryInfoList) {
-            putLocalFavorites(gi);
+    /**
+     * Puts the local favorites in one transaction, skips the existing ones.
+     */
+    public static BulkResult putLocalFavorites(List<? extends GalleryInfo> galleryInfoList) {
+        synchronized (sLocalFavoritesLock) {
+            LocalFavoritesDao dao = sDaoSession.getLocalFavoritesDao();
+            SQLiteDatabase db = sDaoSession.getDatabase();
+            long now = System.currentTimeMillis();
+            List<LocalFavoriteInfo> insertList = new ArrayList<>();
+            db.beginTransaction();
+            try {
+                Set<Long> skipGids = queryGids(db, dao.getTablename(),
+                        LocalFavoritesDao.Properties.Gid.columnName, galleryInfoList);
+                for (GalleryInfo galleryInfo: galleryInfoList) {
+                    // Also skip duplicates in the list
+                    if (!skipGids.add(galleryInfo.gid)) {
+                        continue;
+                    }
+                    LocalFavoriteInfo info;
+                    if (galleryInfo instanceof LocalFavoriteInfo) {
+                        info = (LocalFavoriteInfo) galleryInfo;
+                    } else {
+                        info = new LocalFavoriteInfo(galleryInfo);
+                        info.time = now;
+                    }
+                    insertList.add(info);
+                    // Tags are only in the original one
+                    GallerySearchIndex.put(db, GallerySearchIndex.LOCAL_FAVORITES, galleryInfo);
+                }
+                dao.insertInTx(insertList);
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+            return new BulkResult(insertList.size(), galleryInfoList.size() - insertList.size());
         }
     }
 
-    public static synchronized List<QuickSearch> getAllQuickSearch() {
+    public static List<QuickSearch> getAllQuickSearch() {
         QuickSearchDao dao = sDaoSession.getQuickSearchDao();
         return dao.queryBuilder().orderAsc(QuickSearchDao.Properties.Time).list();
     }
 
-    public static synchronized void insertQuickSearch(QuickSearch quickSearch) {
-        QuickSearchDao dao = sDaoSession.getQuickSearchDao();
-        quickSearch.id = null;
-        quickSearch.time = System.currentTimeMillis();
-        quickSearch.id = dao.insert(quickSearch);
+    public static void insertQuickSearch(QuickSearch quickSearch) {
+        synchronized (sQuickSearchLock) {
+            QuickSearchDao dao = sDaoSession.getQuickSearchDao();
+            quickSearch.id = null;
+            quickSearch.time = System.currentTimeMillis();
+            quickSearch.id = dao.insert(quickSearch);
+        }
     }
 
-    public static synchronized void updateQuickSearch(QuickSearch quickSearch) {
-        QuickSearchDao dao = sDaoSession.getQuickSearchDao();
-        dao.update(quickSearch);
+    public static void updateQuickSearch(QuickSearch quickSearch) {
+        synchronized (sQuickSearchLock) {
+            QuickSearchDao dao = sDaoSession.getQuickSearchDao();
+            dao.update(quickSearch);
+        }
     }
 
-    public static synchronized void deleteQuickSearch(QuickSearch quickSearch) {
-        QuickSearchDao dao = sDaoSession.getQuickSearchDao();
-        dao.delete(quickSearch);
+    public static void deleteQuickSearch(QuickSearch quickSearch) {
+        synchronized (sQuickSearchLock) {
+            QuickSearchDao dao = sDaoSession.getQuickSearchDao();
+            dao.delete(quickSearch);
+        }
     }
 
-    public static synchronized void moveQuickSearch(int fromPosition, int toPosition) {
-        if (fromPosition == toPosition) {
-            return;
-        }
+    public static void moveQuickSearch(int fromPosition, int toPosition) {
+        synchronized (sQuickSearchLock) {
+            if (fromPosition == toPosition) {
+                return;
+            }
 
-        boolean reverse = fromPosition > toPosition;
-        int offset = reverse ? toPosition : fromPosition;
-        int limit = reverse ? fromPosition - toPosition + 1 : toPosition - fromPosition + 1;
+            boolean reverse = fromPosition > toPosition;
+            int offset = reverse ? toPosition : fromPosition;
+            int limit = reverse ? fromPosition - toPosition + 1 : toPosition - fromPosition + 1;
 
-        QuickSearchDao dao = sDaoSession.getQuickSearchDao();
-        List<QuickSearch> list = dao.queryBuilder().orderAsc(QuickSearchDao.Properties.Time)
-                .offset(offset).limit(limit).list();
+            QuickSearchDao dao = sDaoSession.getQuickSearchDao();
+            List<QuickSearch> list = dao.queryBuilder().orderAsc(QuickSearchDao.Properties.Time)
+                    .offset(offset).limit(limit).list();
 
-        int step = reverse ? 1 : -1;
-        int start = reverse ? limit - 1 : 0;
-        int end = reverse ? 0 : limit - 1;
-        long toTime = list.get(end).getTime();
-        for (int i = end; reverse ? i < start : i > start; i += step) {
-            list.get(i).setTime(list.get(i + step).getTime());
-        }
-        list.get(start).setTime(toTime);
+            int step = reverse ? 1 : -1;
+            int start = reverse ? limit - 1 : 0;
+            int end = reverse ? 0 : limit - 1;
+            long toTime = list.get(end).getTime();
+            for (int i = end; reverse ? i < start : i > start; i += step) {
+                list.get(i).setTime(list.get(i + step).getTime());
+            }
+            list.get(start).setTime(toTime);
 
-        dao.updateInTx(list);
+            dao.updateInTx(list);
+        }
     }
 
-    public static synchronized LazyList<HistoryInfo> getHistoryLazyList() {
+    /**
+     * Recorded visits which are not written yet are not in the list,
+     * see {@link #flushHistoryInfoAsync(Runnable)}.
+     */
+    public static LazyList<HistoryInfo> getHistoryLazyList() {
         return sDaoSession.getHistoryDao().queryBuilder().orderDesc(HistoryDao.Properties.Time).listLazy();
     }
 
-    public static synchronized void putHistoryInfo(GalleryInfo galleryInfo) {
-        HistoryDao dao = sDaoSession.getHistoryDao();
-        HistoryInfo info = dao.load(galleryInfo.gid);
-        if (null != info) {
-            // Update time
-            info.time = System.currentTimeMillis();
-            dao.update(info);
+    public static List<HistoryInfo> searchHistoryInfo(String query) {
+        return search(sDaoSession.getHistoryDao(), HistoryDao.Properties.Gid, HistoryDao.Properties.Time,
+                GallerySearchIndex.HISTORY, query, (lhs, rhs) -> Long.compare(rhs.time, lhs.time));
+    }
+
+    /**
+     * Removes the oldest history over the limit. The count is maintained
+     * so the time index is only walked when there is something to remove.
+     */
+    private static void trimHistoryInfo(HistoryDao dao, int inserted) {
+        if (sHistoryCount < 0) {
+            sHistoryCount = dao.count();
         } else {
-            // New history
-            info = new HistoryInfo(galleryInfo);
-            info.time = System.currentTimeMillis();
-            dao.insert(info);
-            List<HistoryInfo> list = dao.queryBuilder().orderDesc(HistoryDao.Properties.Time)
-                    .limit(-1).offset(MAX_HISTORY_COUNT).list();
-            dao.deleteInTx(list);
+            sHistoryCount += inserted;
+        }
+        if (sHistoryCount <= MAX_HISTORY_COUNT) {
+            return;
+        }
+
+        List<HistoryInfo> list = dao.queryBuilder().orderAsc(HistoryDao.Properties.Time)
+                .limit((int) (sHistoryCount - MAX_HISTORY_COUNT)).list();
+        dao.deleteInTx(list);
+        for (HistoryInfo info: list) {
+            GallerySearchIndex.delete(sDaoSession.getDatabase(), GallerySearchIndex.HISTORY, info.gid);
         }
+        sHistoryCount -= list.size();
     }
 
-    public static synchronized void putHistoryInfo(List<HistoryInfo> historyInfoList) {
-        HistoryDao dao = sDaoSession.getHistoryDao();
-        for (HistoryInfo info: historyInfoList) {
-            if (null == dao.load(info.gid)) {
-                dao.insert(info);
+    /**
+     * Records the visit of the gallery. It is written in background later,
+     * together with other visits in a short time. Visits of the same gallery are merged.
+     */
+    public static void putHistoryInfo(GalleryInfo galleryInfo) {
+        HistoryInfo info = new HistoryInfo(galleryInfo);
+        info.time = System.currentTimeMillis();
+        synchronized (sPendingHistory) {
+            // Keep the order of visits
+            sPendingHistory.remove(info.gid);
+            sPendingHistory.put(info.gid, info);
+            if (!sHistoryFlushScheduled) {
+                sHistoryFlushScheduled = true;
+                SimpleHandler.getInstance().postDelayed(() ->
+                        IoThreadPoolExecutor.getInstance().execute(EhDB::flushHistoryInfo), HISTORY_FLUSH_DELAY);
             }
         }
+    }
 
-        List<HistoryInfo> list = dao.queryBuilder().orderDesc(HistoryDao.Properties.Time)
-                .limit(-1).offset(MAX_HISTORY_COUNT).list();
-        dao.deleteInTx(list);
+    /**
+     * Writes recorded visits in background. The callback is called
+     * on the main thread if any visit is written.
+     */
+    public static void flushHistoryInfoAsync(Runnable callback) {
+        IoThreadPoolExecutor.getInstance().execute(() -> {
+            if (flushHistoryInfo()) {
+                SimpleHandler.getInstance().post(callback);
+            }
+        });
     }
 
-    public static synchronized void deleteHistoryInfo(HistoryInfo info) {
-        HistoryDao dao = sDaoSession.getHistoryDao();
-        dao.delete(info);
+    /**
+     * Writes recorded visits now.
+     *
+     * @return true if any visit is written
+     */
+    public static boolean flushHistoryInfo() {
+        synchronized (sHistoryLock) {
+            List<HistoryInfo> pending;
+            synchronized (sPendingHistory) {
+                sHistoryFlushScheduled = false;
+                if (sPendingHistory.isEmpty()) {
+                    return false;
+                }
+                pending = new ArrayList<>(sPendingHistory.values());
+                sPendingHistory.clear();
+            }
+
+            HistoryDao dao = sDaoSession.getHistoryDao();
+            SQLiteDatabase db = sDaoSession.getDatabase();
+            List<HistoryInfo> updateList = new ArrayList<>();
+            List<HistoryInfo> insertList = new ArrayList<>();
+            db.beginTransaction();
+            try {
+                for (HistoryInfo info: pending) {
+                    HistoryInfo old = dao.load(info.gid);
+                    if (null != old) {
+                        // Update time
+                        old.time = info.time;
+                        updateList.add(old);
+                    } else {
+                        insertList.add(info);
+                        GallerySearchIndex.put(db, GallerySearchIndex.HISTORY, info);
+                    }
+                }
+                dao.updateInTx(updateList);
+                dao.insertInTx(insertList);
+                trimHistoryInfo(dao, insertList.size());
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+            return true;
+        }
     }
 
-    public static synchronized void clearHistoryInfo() {
-        HistoryDao dao = sDaoSession.getHistoryDao();
-        dao.deleteAll();
+    /**
+     * Puts the history in one transaction, skips the existing ones.
+     * Old history over the limit is removed after that.
+     */
+    public static BulkResult putHistoryInfo(List<HistoryInfo> historyInfoList) {
+        flushHistoryInfo();
+        synchronized (sHistoryLock) {
+            HistoryDao dao = sDaoSession.getHistoryDao();
+            SQLiteDatabase db = sDaoSession.getDatabase();
+            List<HistoryInfo> insertList = new ArrayList<>();
+            db.beginTransaction();
+            try {
+                Set<Long> skipGids = queryGids(db, dao.getTablename(),
+                        HistoryDao.Properties.Gid.columnName, historyInfoList);
+                for (HistoryInfo info: historyInfoList) {
+                    // Also skip duplicates in the list
+                    if (skipGids.add(info.gid)) {
+                        insertList.add(info);
+                        GallerySearchIndex.put(db, GallerySearchIndex.HISTORY, info);
+                    }
+                }
+                dao.insertInTx(insertList);
+                trimHistoryInfo(dao, insertList.size());
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+            return new BulkResult(insertList.size(), historyInfoList.size() - insertList.size());
+        }
     }
 
-    public static synchronized List<Filter> getAllFilter() {
+    public static void deleteHistoryInfo(HistoryInfo info) {
+        synchronized (sPendingHistory) {
+            sPendingHistory.remove(info.gid);
+        }
+        synchronized (sHistoryLock) {
+            HistoryDao dao = sDaoSession.getHistoryDao();
+            dao.delete(info);
+            GallerySearchIndex.delete(sDaoSession.getDatabase(), GallerySearchIndex.HISTORY, info.gid);
+            // Count again next time
+            sHistoryCount = -1;
+        }
+    }
+
+    public static void clearHistoryInfo() {
+        synchronized (sPendingHistory) {
+            sPendingHistory.clear();
+        }
+        synchronized (sHistoryLock) {
+            HistoryDao dao = sDaoSession.getHistoryDao();
+            dao.deleteAll();
+            GallerySearchIndex.clear(sDaoSession.getDatabase(), GallerySearchIndex.HISTORY);
+            sHistoryCount = 0;
+        }
+    }
+
+    public static List<Filter> getAllFilter() {
         return sDaoSession.getFilterDao().queryBuilder().list();
     }
 
-    public static synchronized void addFilter(Filter filter) {
-        filter.setId(null);
-        filter.setId(sDaoSession.getFilterDao().insert(filter));
+    public static void addFilter(Filter filter) {
+        synchronized (sFilterLock) {
+            filter.setId(null);
+            filter.setId(sDaoSession.getFilterDao().insert(filter));
+        }
+    }
+
+    public static void deleteFilter(Filter filter) {
+        synchronized (sFilterLock) {
+            sDaoSession.getFilterDao().delete(filter);
+        }
+    }
+
+    public static void triggerFilter(Filter filter) {
+        synchronized (sFilterLock) {
+            filter.setEnable(!filter.enable);
+            sDaoSession.getFilterDao().update(filter);
+        }
+    }
+
+    // SQLite allows 999 variables in a statement
+    private static final int MAX_IN_SIZE = 500;
+
+    /**
+     * Returns galleries matched by the query, ranked by the search index,
+     * then in the order. Returns all galleries in the order if the query has no keyword.
+     */
+    private static <T extends GalleryInfo> List<T> search(AbstractDao<T, Long> dao, Property gid,
+            Property time, String index, String query, Comparator<T> order) {
+        final Map<Long, Float> scores = GallerySearchIndex.search(sDaoSession.getDatabase(), index, query);
+        if (scores == null) {
+            return dao.queryBuilder().orderDesc(time).list();
+        }
+
+        List<T> result = new ArrayList<>(scores.size());
+        List<Long> gids = new ArrayList<>(scores.keySet());
+        for (int i = 0, n = gids.size(); i < n; i += MAX_IN_SIZE) {
+            result.addAll(dao.queryBuilder()
+                    .where(gid.in(gids.subList(i, Math.min(n, i + MAX_IN_SIZE)))).list());
+        }
+        Collections.sort(result, (lhs, rhs) -> {
+            int c = Float.compare(scores.get(rhs.gid), scores.get(lhs.gid));
+            return c != 0 ? c : order.compare(lhs, rhs);
+        });
+        return result;
     }
 
-    public static synchronized void deleteFilter(Filter filter) {
-        sDaoSession.getFilterDao().delete(filter);
+    private static String placeholders(int count) {
+        StringBuilder sb = new StringBuilder(count * 2);
+        for (int i = 0; i < count; i++) {
+            if (i != 0) {
+                sb.append(',');
+            }
+            sb.append('?');
+        }
+        return sb.toString();
     }
 
-    public static synchronized void triggerFilter(Filter filter) {
-        filter.setEnable(!filter.enable);
-        sDaoSession.getFilterDao().update(filter);
+    /**
+     * Returns gids of the galleries which are in the table.
+     */
+    private static Set<Long> queryGids(SQLiteDatabase db, String table, String gidColumn,
+            List<? extends GalleryInfo> list) {
+        Set<Long> result = new HashSet<>();
+        for (int i = 0, n = list.size(); i < n; i += MAX_IN_SIZE) {
+            int end = Math.min(n, i + MAX_IN_SIZE);
+            String[] args = new String[end - i];
+            for (int j = i; j < end; j++) {
+                args[j - i] = Long.toString(list.get(j).gid);
+            }
+            Cursor cursor = db.rawQuery("SELECT " + gidColumn + " FROM \"" + table + "\" WHERE " +
+                    gidColumn + " IN (" + placeholders(args.length) + ")", args);
+            try {
+                while (cursor.moveToNext()) {
+                    result.add(cursor.getLong(0));
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+        return result;
     }
 
     private static <T> boolean copyDao(AbstractDao<T, ?> from, AbstractDao<T, ?> to) {
@@ -660,6 +1005,9 @@ public class EhDB {
     public static synchronized boolean exportDB(Context context, File file) {
         final String ehExportName = "eh.export.db";
 
+        // Recorded visits are exported too
+        flushHistoryInfo();
+
         // Delete old export db
         context.deleteDatabase(ehExportName);
 
@@ -765,9 +1113,7 @@ public class EhDB {
 
             // LocalFavorites
             List<LocalFavoriteInfo> localFavoriteInfoList = session.getLocalFavoritesDao().queryBuilder().list();
-            for (LocalFavoriteInfo info: localFavoriteInfoList) {
-                putLocalFavorites(info);
-            }
+            putLocalFavorites(localFavoriteInfoList);
 
             // Bookmarks
             // TODO
@@ -31,6 +31,9 @@ public class FavouriteStatusRouter {
   private final IntIdGenerator idGenerator = new IntIdGenerator(Settings.getInt(KEY_DATA_MAP_NEXT_ID, 0));
   @SuppressLint("UseSparseArrays")
   private final HashMap<Integer, Map<Long, GalleryInfo>> maps = new HashMap<>();
+  // Gid to favourite slot of galleries which are not in memory
+  @SuppressLint("UseSparseArrays")
+  private final HashMap<Integer, Map<Long, Integer>> slotMaps = new HashMap<>();
 
   private List<Listener> listeners = new ArrayList<>();
 
@@ -41,10 +44,21 @@ public class FavouriteStatusRouter {
     return id;
   }
 
+  /**
+   * Saves the slot map with the data map of the id, it is kept up to date too.
+   */
+  public void saveSlotMap(int id, Map<Long, Integer> slotMap) {
+    slotMaps.put(id, slotMap);
+  }
+
   public Map<Long, GalleryInfo> restoreDataMap(int id) {
     return maps.remove(id);
   }
 
+  public Map<Long, Integer> restoreSlotMap(int id) {
+    return slotMaps.remove(id);
+  }
+
   public void modifyFavourites(long gid, int slot) {
     for (Map<Long, GalleryInfo> map : maps.values()) {
       GalleryInfo info = map.get(gid);
@@ -52,6 +66,11 @@ public class FavouriteStatusRouter {
         info.favoriteSlot = slot;
       }
     }
+    for (Map<Long, Integer> slotMap : slotMaps.values()) {
+      if (slotMap.containsKey(gid)) {
+        slotMap.put(gid, slot);
+      }
+    }
 
     for (Listener listener : listeners) {
       listener.onModifyFavourites(gid, slot);
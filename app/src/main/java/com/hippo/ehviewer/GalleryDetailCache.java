@@ -0,0 +1,582 @@
+/*
+ * Copyright 2019 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.ehviewer;
+
+import android.content.Context;
+import androidx.annotation.Nullable;
+import androidx.collection.LruCache;
+import com.hippo.beerbelly.SimpleDiskCache;
+import com.hippo.ehviewer.client.EhCookieStore;
+import com.hippo.ehviewer.client.data.GalleryComment;
+import com.hippo.ehviewer.client.data.GalleryCommentList;
+import com.hippo.ehviewer.client.data.GalleryDetail;
+import com.hippo.ehviewer.client.data.GalleryInfo;
+import com.hippo.ehviewer.client.data.GalleryPreview;
+import com.hippo.ehviewer.client.data.GalleryTagGroup;
+import com.hippo.ehviewer.client.data.LargePreviewSet;
+import com.hippo.ehviewer.client.data.NormalPreviewSet;
+import com.hippo.ehviewer.client.data.PreviewSet;
+import com.hippo.streampipe.InputStreamPipe;
+import com.hippo.streampipe.OutputStreamPipe;
+import com.hippo.util.IoThreadPoolExecutor;
+import com.hippo.yorozuya.SimpleHandler;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Parsed gallery details, in memory and on disk. Entries expire after {@link #TTL}.
+ */
+public class GalleryDetailCache {
+
+  private static final int MEMORY_SIZE = 25;
+  private static final int DISK_SIZE = 5 * 1024 * 1024; // 5M
+  // Comments and ratings change
+  static final long TTL = 60 * 60 * 1000; // 1 hour
+
+  private static final int MAGIC = 0x45484744;
+  private static final int VERSION = 2;
+
+  private static final int PREVIEW_SET_NONE = 0;
+  private static final int PREVIEW_SET_NORMAL = 1;
+  private static final int PREVIEW_SET_LARGE = 2;
+
+  static final class Entry {
+    final GalleryDetail detail;
+    final long time;
+
+    private Entry(GalleryDetail detail, long time) {
+      this.detail = detail;
+      this.time = time;
+    }
+  }
+
+  public interface Callback {
+    void onGetGalleryDetail(@Nullable GalleryDetail detail);
+  }
+
+  // Marks a pending removal in pendingWrites
+  private static final byte[] REMOVED = new byte[0];
+
+  private final LruCache<String, Entry> memory = new LruCache<>(MEMORY_SIZE);
+  private final SimpleDiskCache disk;
+  private final EhCookieStore cookieStore;
+  // Disk writes are done on IO threads, readers check here first
+  private final Map<String, byte[]> pendingWrites = new HashMap<>();
+  private final Object diskLock = new Object();
+
+  public GalleryDetailCache(Context context) {
+    disk = new SimpleDiskCache(new File(context.getCacheDir(), "gallery_detail"), DISK_SIZE);
+    cookieStore = EhApplication.getEhCookieStore(context);
+  }
+
+  private static boolean isExpired(long time, long now) {
+    return now - time >= TTL || now < time;
+  }
+
+  /**
+   * Entries contain the API key of the account, so they are keyed by account.
+   */
+  private String getKey(long gid) {
+    String memberId = cookieStore.getMemberId();
+    return memberId == null ? Long.toString(gid) : gid + ":" + memberId;
+  }
+
+  /**
+   * Returns the gallery detail in memory.
+   */
+  @Nullable
+  public GalleryDetail getFromMemory(long gid) {
+    String key = getKey(gid);
+    Entry entry = memory.get(key);
+    if (entry != null) {
+      if (!isExpired(entry.time, System.currentTimeMillis())) {
+        return entry.detail;
+      }
+      memory.remove(key);
+    }
+    return null;
+  }
+
+  /**
+   * Reads the gallery detail from disk on an IO thread.
+   * The callback is called on the main thread.
+   */
+  public void getFromDisk(long gid, Callback callback) {
+    String key = getKey(gid);
+    IoThreadPoolExecutor.getInstance().execute(() -> {
+      Entry entry = readFromDisk(key);
+      if (entry != null && (entry.detail.gid != gid || isExpired(entry.time, System.currentTimeMillis()))) {
+        entry = null;
+      }
+      Entry result = entry;
+      SimpleHandler.getInstance().post(() -> {
+        if (result != null && memory.get(key) == null) {
+          memory.put(key, result);
+        }
+        callback.onGetGalleryDetail(result != null ? result.detail : null);
+      });
+    });
+  }
+
+  /**
+   * Puts the gallery detail to memory. It's written to disk later on an IO thread.
+   */
+  public void put(GalleryDetail detail) {
+    String key = getKey(detail.gid);
+    Entry entry = new Entry(detail, System.currentTimeMillis());
+    memory.put(key, entry);
+    writeBehind(key, entry);
+  }
+
+  /**
+   * Replaces the gallery detail in memory but keeps its time, so the entry doesn't live longer.
+   * Drops the stale one on disk if it's not in memory.
+   */
+  public void update(GalleryDetail detail) {
+    String key = getKey(detail.gid);
+    Entry old = memory.get(key);
+    if (old != null) {
+      Entry entry = new Entry(detail, old.time);
+      memory.put(key, entry);
+      writeBehind(key, entry);
+    } else {
+      scheduleWrite(key, REMOVED);
+    }
+  }
+
+  public void remove(long gid) {
+    String key = getKey(gid);
+    memory.remove(key);
+    scheduleWrite(key, REMOVED);
+  }
+
+  /**
+   * Keeps the entry in memory up to date, or drops the stale one on disk.
+   */
+  void onModifyFavourites(long gid, int slot) {
+    String key = getKey(gid);
+    Entry entry = memory.get(key);
+    if (entry != null) {
+      entry.detail.favoriteSlot = slot;
+      writeBehind(key, entry);
+    } else {
+      scheduleWrite(key, REMOVED);
+    }
+  }
+
+  public void evictMemory() {
+    memory.evictAll();
+  }
+
+  private void writeBehind(String key, Entry entry) {
+    // Serialize it here, the detail might be modified later
+    ByteArrayOutputStream os = new ByteArrayOutputStream();
+    try {
+      write(entry.detail, entry.time, os);
+    } catch (IOException e) {
+      // Ignore
+      return;
+    }
+    scheduleWrite(key, os.toByteArray());
+  }
+
+  private void scheduleWrite(String key, byte[] data) {
+    synchronized (pendingWrites) {
+      pendingWrites.put(key, data);
+    }
+    IoThreadPoolExecutor.getInstance().execute(() -> flush(key));
+  }
+
+  private void flush(String key) {
+    synchronized (diskLock) {
+      byte[] data;
+      synchronized (pendingWrites) {
+        data = pendingWrites.remove(key);
+      }
+      if (data == null) {
+        // Flushed by the task of a newer write
+        return;
+      }
+      if (data == REMOVED) {
+        disk.remove(key);
+      } else {
+        writeToDisk(key, data);
+      }
+    }
+  }
+
+  @Nullable
+  private Entry readFromDisk(String key) {
+    synchronized (diskLock) {
+      byte[] data;
+      synchronized (pendingWrites) {
+        data = pendingWrites.get(key);
+      }
+      if (data == REMOVED) {
+        return null;
+      }
+      if (data != null) {
+        return readQuietly(new ByteArrayInputStream(data));
+      }
+
+      InputStreamPipe pipe = disk.getInputStreamPipe(key);
+      if (pipe == null) {
+        return null;
+      }
+      try {
+        pipe.obtain();
+        return readQuietly(pipe.open());
+      } catch (IOException e) {
+        return null;
+      } finally {
+        pipe.close();
+        pipe.release();
+      }
+    }
+  }
+
+  @Nullable
+  private static Entry readQuietly(InputStream is) {
+    try {
+      return read(is);
+    } catch (IOException | RuntimeException e) {
+      // Broken or from other version
+      return null;
+    }
+  }
+
+  private void writeToDisk(String key, byte[] data) {
+    OutputStreamPipe pipe = disk.getOutputStreamPipe(key);
+    try {
+      pipe.obtain();
+      OutputStream os = pipe.open();
+      os.write(data);
+      os.flush();
+    } catch (IOException e) {
+      // Ignore
+    } finally {
+      pipe.close();
+      pipe.release();
+    }
+  }
+
+  static void write(GalleryDetail gd, long time, OutputStream os) throws IOException {
+    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(os));
+    out.writeInt(MAGIC);
+    out.writeInt(VERSION);
+    out.writeLong(time);
+
+    // GalleryInfo
+    out.writeLong(gd.gid);
+    writeString(out, gd.token);
+    writeString(out, gd.title);
+    writeString(out, gd.titleJpn);
+    writeString(out, gd.thumb);
+    out.writeInt(gd.category);
+    writeString(out, gd.posted);
+    writeString(out, gd.uploader);
+    out.writeFloat(gd.rating);
+    out.writeBoolean(gd.rated);
+    writeStringArray(out, gd.simpleTags);
+    out.writeInt(((GalleryInfo) gd).pages);
+    out.writeInt(gd.thumbWidth);
+    out.writeInt(gd.thumbHeight);
+    writeString(out, gd.simpleLanguage);
+    out.writeInt(gd.favoriteSlot);
+    writeString(out, gd.favoriteName);
+
+    // GalleryDetail
+    out.writeLong(gd.apiUid);
+    writeString(out, gd.apiKey);
+    out.writeInt(gd.torrentCount);
+    writeString(out, gd.torrentUrl);
+    writeString(out, gd.archiveUrl);
+    writeString(out, gd.parent);
+    writeString(out, gd.visible);
+    writeString(out, gd.language);
+    writeString(out, gd.size);
+    out.writeInt(gd.pages);
+    out.writeInt(gd.favoriteCount);
+    out.writeBoolean(gd.isFavorited);
+    out.writeInt(gd.ratingCount);
+    writeTags(out, gd.tags);
+    writeComments(out, gd.comments);
+    out.writeInt(gd.previewPages);
+    writePreviewSet(out, gd.gid, gd.previewSet);
+
+    out.flush();
+  }
+
+  @Nullable
+  static Entry read(InputStream is) throws IOException {
+    DataInputStream in = new DataInputStream(new BufferedInputStream(is));
+    if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+      return null;
+    }
+    long time = in.readLong();
+
+    GalleryDetail gd = new GalleryDetail();
+    gd.gid = in.readLong();
+    gd.token = readString(in);
+    gd.title = readString(in);
+    gd.titleJpn = readString(in);
+    gd.thumb = readString(in);
+    gd.category = in.readInt();
+    gd.posted = readString(in);
+    gd.uploader = readString(in);
+    gd.rating = in.readFloat();
+    gd.rated = in.readBoolean();
+    gd.simpleTags = readStringArray(in);
+    ((GalleryInfo) gd).pages = in.readInt();
+    gd.thumbWidth = in.readInt();
+    gd.thumbHeight = in.readInt();
+    gd.simpleLanguage = readString(in);
+    gd.favoriteSlot = in.readInt();
+    gd.favoriteName = readString(in);
+
+    gd.apiUid = in.readLong();
+    gd.apiKey = readString(in);
+    gd.torrentCount = in.readInt();
+    gd.torrentUrl = readString(in);
+    gd.archiveUrl = readString(in);
+    gd.parent = readString(in);
+    gd.visible = readString(in);
+    gd.language = readString(in);
+    gd.size = readString(in);
+    gd.pages = in.readInt();
+    gd.favoriteCount = in.readInt();
+    gd.isFavorited = in.readBoolean();
+    gd.ratingCount = in.readInt();
+    gd.tags = readTags(in);
+    gd.comments = readComments(in);
+    gd.previewPages = in.readInt();
+    gd.previewSet = readPreviewSet(in, gd.gid);
+
+    return new Entry(gd, time);
+  }
+
+  private static void writeString(DataOutputStream out, @Nullable String str) throws IOException {
+    if (str == null) {
+      out.writeInt(-1);
+    } else {
+      // writeUTF() can't handle long comments
+      byte[] bytes = str.getBytes("UTF-8");
+      out.writeInt(bytes.length);
+      out.write(bytes);
+    }
+  }
+
+  @Nullable
+  private static String readString(DataInputStream in) throws IOException {
+    int length = in.readInt();
+    if (length < 0) {
+      return null;
+    }
+    byte[] bytes = new byte[length];
+    in.readFully(bytes);
+    return new String(bytes, "UTF-8");
+  }
+
+  private static void writeStringArray(DataOutputStream out, @Nullable String[] array) throws IOException {
+    if (array == null) {
+      out.writeInt(-1);
+      return;
+    }
+    out.writeInt(array.length);
+    for (String str : array) {
+      writeString(out, str);
+    }
+  }
+
+  @Nullable
+  private static String[] readStringArray(DataInputStream in) throws IOException {
+    int length = in.readInt();
+    if (length < 0) {
+      return null;
+    }
+    String[] array = new String[length];
+    for (int i = 0; i < length; i++) {
+      array[i] = readString(in);
+    }
+    return array;
+  }
+
+  private static void writeTags(DataOutputStream out, @Nullable GalleryTagGroup[] tags) throws IOException {
+    if (tags == null) {
+      out.writeInt(-1);
+      return;
+    }
+    out.writeInt(tags.length);
+    for (GalleryTagGroup group : tags) {
+      writeString(out, group.groupName);
+      int size = group.size();
+      out.writeInt(size);
+      for (int i = 0; i < size; i++) {
+        writeString(out, group.getTagAt(i));
+      }
+    }
+  }
+
+  @Nullable
+  private static GalleryTagGroup[] readTags(DataInputStream in) throws IOException {
+    int length = in.readInt();
+    if (length < 0) {
+      return null;
+    }
+    GalleryTagGroup[] tags = new GalleryTagGroup[length];
+    for (int i = 0; i < length; i++) {
+      GalleryTagGroup group = new GalleryTagGroup();
+      group.groupName = readString(in);
+      for (int j = 0, size = in.readInt(); j < size; j++) {
+        group.addTag(readString(in));
+      }
+      tags[i] = group;
+    }
+    return tags;
+  }
+
+  private static void writeComments(DataOutputStream out, @Nullable GalleryCommentList list) throws IOException {
+    if (list == null) {
+      out.writeBoolean(false);
+      return;
+    }
+    out.writeBoolean(true);
+    out.writeBoolean(list.hasMore);
+    GalleryComment[] comments = list.comments;
+    if (comments == null) {
+      out.writeInt(-1);
+      return;
+    }
+    out.writeInt(comments.length);
+    for (GalleryComment comment : comments) {
+      out.writeLong(comment.id);
+      out.writeInt(comment.score);
+      out.writeBoolean(comment.editable);
+      out.writeBoolean(comment.voteUpAble);
+      out.writeBoolean(comment.voteUpEd);
+      out.writeBoolean(comment.voteDownAble);
+      out.writeBoolean(comment.voteDownEd);
+      writeString(out, comment.voteState);
+      out.writeLong(comment.time);
+      writeString(out, comment.user);
+      writeString(out, comment.comment);
+      out.writeLong(comment.lastEdited);
+    }
+  }
+
+  @Nullable
+  private static GalleryCommentList readComments(DataInputStream in) throws IOException {
+    if (!in.readBoolean()) {
+      return null;
+    }
+    boolean hasMore = in.readBoolean();
+    int length = in.readInt();
+    GalleryComment[] comments = null;
+    if (length >= 0) {
+      comments = new GalleryComment[length];
+      for (int i = 0; i < length; i++) {
+        GalleryComment comment = new GalleryComment();
+        comment.id = in.readLong();
+        comment.score = in.readInt();
+        comment.editable = in.readBoolean();
+        comment.voteUpAble = in.readBoolean();
+        comment.voteUpEd = in.readBoolean();
+        comment.voteDownAble = in.readBoolean();
+        comment.voteDownEd = in.readBoolean();
+        comment.voteState = readString(in);
+        comment.time = in.readLong();
+        comment.user = readString(in);
+        comment.comment = readString(in);
+        comment.lastEdited = in.readLong();
+        comments[i] = comment;
+      }
+    }
+    return new GalleryCommentList(comments, hasMore);
+  }
+
+  private static void writePreviewSet(DataOutputStream out, long gid, @Nullable PreviewSet set) throws IOException {
+    if (set instanceof NormalPreviewSet) {
+      out.writeInt(PREVIEW_SET_NORMAL);
+      out.writeInt(set.size());
+      for (int i = 0, n = set.size(); i < n; i++) {
+        GalleryPreview preview = set.getGalleryPreview(gid, i);
+        out.writeInt(preview.getPosition());
+        writeString(out, preview.getImageUrl());
+        out.writeInt(preview.getOffsetX());
+        out.writeInt(preview.getOffsetY());
+        out.writeInt(preview.getClipWidth());
+        out.writeInt(preview.getClipHeight());
+        writeString(out, preview.getPageUrl());
+      }
+    } else if (set instanceof LargePreviewSet) {
+      out.writeInt(PREVIEW_SET_LARGE);
+      out.writeInt(set.size());
+      for (int i = 0, n = set.size(); i < n; i++) {
+        GalleryPreview preview = set.getGalleryPreview(gid, i);
+        out.writeInt(preview.getPosition());
+        writeString(out, preview.getImageUrl());
+        writeString(out, preview.getPageUrl());
+      }
+    } else {
+      out.writeInt(PREVIEW_SET_NONE);
+    }
+  }
+
+  @Nullable
+  private static PreviewSet readPreviewSet(DataInputStream in, long gid) throws IOException {
+    switch (in.readInt()) {
+      case PREVIEW_SET_NORMAL: {
+        NormalPreviewSet set = new NormalPreviewSet();
+        for (int i = 0, n = in.readInt(); i < n; i++) {
+          int position = in.readInt();
+          String imageUrl = readString(in);
+          int offsetX = in.readInt();
+          int offsetY = in.readInt();
+          int clipWidth = in.readInt();
+          int clipHeight = in.readInt();
+          String pageUrl = readString(in);
+          set.addItem(position, imageUrl, offsetX, offsetY, clipWidth, clipHeight, pageUrl);
+        }
+        return set;
+      }
+      case PREVIEW_SET_LARGE: {
+        LargePreviewSet set = new LargePreviewSet();
+        for (int i = 0, n = in.readInt(); i < n; i++) {
+          int position = in.readInt();
+          String imageUrl = readString(in);
+          String pageUrl = readString(in);
+          set.addItem(position, imageUrl, pageUrl);
+        }
+        return set;
+      }
+      case PREVIEW_SET_NONE:
+        return null;
+      default:
+        throw new IOException("Unknown preview set type");
+    }
+  }
+}
@@ -0,0 +1,283 @@
+/*
+ * Copyright 2019 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.ehviewer;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import androidx.annotation.Nullable;
+import com.hippo.ehviewer.client.data.GalleryDetail;
+import com.hippo.ehviewer.client.data.GalleryInfo;
+import com.hippo.ehviewer.client.data.GalleryTagGroup;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Full-text index of gallery tables, one FTS table for each gallery table.
+ * The docid of the FTS table is gid.
+ * <p>
+ * Tags are not stored in gallery tables, so they are only indexed if the gallery is put
+ * with simple tags or as a gallery detail. Galleries filled by {@link #rebuild(SQLiteDatabase)}
+ * are found by titles and uploader.
+ */
+final class GallerySearchIndex {
+
+  static final String LOCAL_FAVORITES = "LOCAL_FAVORITES";
+  static final String HISTORY = "HISTORY";
+  static final String DOWNLOADS = "DOWNLOADS";
+
+  private static final String[] TABLES = { LOCAL_FAVORITES, HISTORY, DOWNLOADS };
+  private static final String SUFFIX = "_FTS";
+
+  private static final String COLUMN_TITLE = "TITLE";
+  private static final String COLUMN_TITLE_JPN = "TITLE_JPN";
+  private static final String COLUMN_UPLOADER = "UPLOADER";
+  private static final String COLUMN_TAGS = "TAGS";
+
+  // Weights of the columns above
+  private static final float[] WEIGHTS = { 1.0f, 1.0f, 0.5f, 0.75f };
+  // Term frequency saturation, as BM25
+  private static final float K1 = 1.2f;
+
+  private static final String SEPARATORS = "[\\x00-\\x2f\\x3a-\\x40\\x5b-\\x60\\x7b-\\x7f]+";
+
+  private GallerySearchIndex() {}
+
+  /**
+   * Creates missing FTS tables, and fills them from the gallery tables.
+   */
+  static void create(SQLiteDatabase db) {
+    for (String table : TABLES) {
+      Cursor cursor = db.rawQuery("SELECT 1 FROM sqlite_master WHERE type = 'table' AND name = ?",
+          new String[] { table + SUFFIX });
+      boolean exists;
+      try {
+        exists = cursor.moveToFirst();
+      } finally {
+        cursor.close();
+      }
+      if (!exists) {
+        db.execSQL("CREATE VIRTUAL TABLE \"" + table + SUFFIX + "\" USING fts4(" +
+            COLUMN_TITLE + ", " + COLUMN_TITLE_JPN + ", " + COLUMN_UPLOADER + ", " + COLUMN_TAGS + ")");
+        rebuild(db, table);
+      }
+    }
+  }
+
+  /**
+   * Fills all FTS tables from the gallery tables again, without tags.
+   */
+  static void rebuild(SQLiteDatabase db) {
+    for (String table : TABLES) {
+      rebuild(db, table);
+    }
+  }
+
+  private static void rebuild(SQLiteDatabase db, String table) {
+    db.beginTransaction();
+    try {
+      db.delete(table + SUFFIX, null, null);
+      // Tags are not stored in gallery tables
+      Cursor cursor = db.rawQuery("SELECT GID, " + COLUMN_TITLE + ", " + COLUMN_TITLE_JPN +
+          ", " + COLUMN_UPLOADER + " FROM \"" + table + "\"", null);
+      try {
+        while (cursor.moveToNext()) {
+          insert(db, table, cursor.getLong(0), cursor.getString(1), cursor.getString(2),
+              cursor.getString(3), null);
+        }
+      } finally {
+        cursor.close();
+      }
+      db.setTransactionSuccessful();
+    } finally {
+      db.endTransaction();
+    }
+  }
+
+  private static void insert(SQLiteDatabase db, String table, long gid, String title,
+      String titleJpn, String uploader, @Nullable String[] tags) {
+    ContentValues values = new ContentValues();
+    values.put("docid", gid);
+    values.put(COLUMN_TITLE, toDocument(title));
+    values.put(COLUMN_TITLE_JPN, toDocument(titleJpn));
+    values.put(COLUMN_UPLOADER, toDocument(uploader));
+    values.put(COLUMN_TAGS, toDocument(joinTags(tags)));
+    db.insert(table + SUFFIX, null, values);
+  }
+
+  /**
+   * Inserts or replaces the gallery.
+   */
+  static void put(SQLiteDatabase db, String table, GalleryInfo info) {
+    delete(db, table, info.gid);
+    insert(db, table, info.gid, info.title, info.titleJpn, info.uploader, getTags(info));
+  }
+
+  // Gallery details have full tags instead of simple tags
+  @Nullable
+  private static String[] getTags(GalleryInfo info) {
+    if (!(info instanceof GalleryDetail) || ((GalleryDetail) info).tags == null) {
+      return info.simpleTags;
+    }
+    List<String> tags = new ArrayList<>();
+    for (GalleryTagGroup group : ((GalleryDetail) info).tags) {
+      for (int i = 0, n = group.size(); i < n; i++) {
+        tags.add(group.groupName + ":" + group.getTagAt(i));
+      }
+    }
+    return tags.toArray(new String[tags.size()]);
+  }
+
+  static void delete(SQLiteDatabase db, String table, long gid) {
+    db.delete(table + SUFFIX, "docid = ?", new String[] { Long.toString(gid) });
+  }
+
+  static void clear(SQLiteDatabase db, String table) {
+    db.delete(table + SUFFIX, null, null);
+  }
+
+  /**
+   * Returns gid to score of the matched galleries, higher is better.
+   * Returns {@code null} if the query has no term.
+   */
+  @Nullable
+  static Map<Long, Float> search(SQLiteDatabase db, String table, String query) {
+    String match = toQuery(query);
+    if (match == null) {
+      return null;
+    }
+
+    Map<Long, Float> result = new HashMap<>();
+    String fts = "\"" + table + SUFFIX + "\"";
+    Cursor cursor = db.rawQuery("SELECT docid, matchinfo(" + fts + ") FROM " + fts +
+        " WHERE " + fts + " MATCH ?", new String[] { match });
+    try {
+      while (cursor.moveToNext()) {
+        result.put(cursor.getLong(0), score(cursor.getBlob(1)));
+      }
+    } finally {
+      cursor.close();
+    }
+    return result;
+  }
+
+  @Nullable
+  private static String joinTags(@Nullable String[] tags) {
+    if (tags == null || tags.length == 0) {
+      return null;
+    }
+    StringBuilder sb = new StringBuilder();
+    for (String tag : tags) {
+      if (tag != null) {
+        sb.append(tag).append(' ');
+      }
+    }
+    return sb.toString();
+  }
+
+  // Scripts without spaces between words
+  private static boolean isCjk(int cp) {
+    return (cp >= 0x3040 && cp <= 0x30ff) || // Hiragana, Katakana
+        (cp >= 0x31f0 && cp <= 0x31ff) || // Katakana Phonetic Extensions
+        (cp >= 0x3400 && cp <= 0x4dbf) || // CJK Unified Ideographs Extension A
+        (cp >= 0x4e00 && cp <= 0x9fff) || // CJK Unified Ideographs
+        (cp >= 0xac00 && cp <= 0xd7af) || // Hangul Syllables
+        (cp >= 0xf900 && cp <= 0xfaff) || // CJK Compatibility Ideographs
+        (cp >= 0xff66 && cp <= 0xff9f) || // Halfwidth Katakana
+        (cp >= 0x20000 && cp <= 0x2ffff); // CJK Unified Ideographs Extension B and later
+  }
+
+  private static boolean isCjkPunctuation(int cp) {
+    return (cp >= 0x3000 && cp <= 0x303f) || // CJK Symbols and Punctuation
+        (cp >= 0xff01 && cp <= 0xff0f) || (cp >= 0xff1a && cp <= 0xff20) ||
+        (cp >= 0xff3b && cp <= 0xff40) || (cp >= 0xff5b && cp <= 0xff65); // Fullwidth punctuation
+  }
+
+  /**
+   * The simple tokenizer only splits at ASCII non-alphanumeric chars.
+   * Each CJK char is made a token, so any substring can be found as a phrase.
+   */
+  @Nullable
+  static String toDocument(@Nullable String text) {
+    if (text == null) {
+      return null;
+    }
+    StringBuilder sb = new StringBuilder(text.length() + 16);
+    for (int i = 0, n = text.length(); i < n; ) {
+      int cp = text.codePointAt(i);
+      if (isCjk(cp)) {
+        sb.append(' ').appendCodePoint(cp).append(' ');
+      } else if (isCjkPunctuation(cp)) {
+        sb.append(' ');
+      } else {
+        sb.appendCodePoint(cp);
+      }
+      i += Character.charCount(cp);
+    }
+    return sb.toString();
+  }
+
+  /**
+   * Every keyword must be matched as a prefix phrase.
+   * Returns {@code null} if there is no keyword.
+   */
+  @Nullable
+  static String toQuery(@Nullable String query) {
+    if (query == null) {
+      return null;
+    }
+    StringBuilder sb = new StringBuilder();
+    for (String keyword : query.trim().split("\\s+")) {
+      // ASCII non-alphanumeric chars are separators, they also hide query syntax
+      String term = toDocument(keyword.toLowerCase()).replaceAll(SEPARATORS, " ").trim();
+      if (term.isEmpty()) {
+        continue;
+      }
+      if (sb.length() > 0) {
+        sb.append(' ');
+      }
+      sb.append('"').append(term.replaceAll("\\s+", " ")).append("*\"");
+    }
+    return sb.length() == 0 ? null : sb.toString();
+  }
+
+  /**
+   * Scores a row from matchinfo() in the default "pcx" format.
+   * Rare phrases in heavy columns count more.
+   */
+  static float score(byte[] matchinfo) {
+    ByteBuffer buffer = ByteBuffer.wrap(matchinfo).order(ByteOrder.nativeOrder());
+    int phraseCount = buffer.getInt(0);
+    int columnCount = buffer.getInt(4);
+    float score = 0.0f;
+    for (int p = 0; p < phraseCount; p++) {
+      for (int c = 0; c < columnCount && c < WEIGHTS.length; c++) {
+        int offset = (2 + (p * columnCount + c) * 3) * 4;
+        int hits = buffer.getInt(offset);
+        int rows = buffer.getInt(offset + 8);
+        if (hits > 0) {
+          score += WEIGHTS[c] * hits / (hits + K1) / (float) Math.log(2 + rows);
+        }
+      }
+    }
+    return score;
+  }
+}
@@ -45,6 +45,8 @@ public class Hosts {
 
   private final SQLiteOpenHelper helper;
   private final SQLiteDatabase db;
+  // Changes every time hosts are changed
+  private volatile int version;
 
   public Hosts(Context context, String name) {
     helper = new MSQLiteBuilder()
@@ -104,6 +106,7 @@ public class Hosts {
     } else {
       db.insert(TABLE_HOSTS, null, values);
     }
+    version++;
 
     return true;
   }
@@ -113,6 +116,15 @@ public class Hosts {
    */
   public void delete(String host) {
     db.delete(TABLE_HOSTS, COLUMN_HOST + " = ?", new String[] { host });
+    version++;
+  }
+
+  /**
+   * Returns the version of this hosts. It changes if any entry is changed,
+   * so results of {@link #get(String)} can be cached.
+   */
+  public int getVersion() {
+    return version;
   }
 
   /**
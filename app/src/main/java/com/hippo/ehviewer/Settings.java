@@ -37,7 +37,9 @@ import com.hippo.yorozuya.FileUtils;
 import com.hippo.yorozuya.MathUtils;
 import com.hippo.yorozuya.NumberUtils;
 import java.io.File;
+import java.util.List;
 import java.util.Locale;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 public class Settings {
 
@@ -46,12 +48,18 @@ public class Settings {
     private static Context sContext;
     private static SharedPreferences sSettingsPre;
     private static EhConfig sEhConfig;
+    private static volatile Snapshot sSnapshot;
+    private static final List<OnSnapshotChangedListener> sSnapshotListeners = new CopyOnWriteArrayList<>();
+    // SharedPreferences only keeps a weak reference to it
+    private static final SharedPreferences.OnSharedPreferenceChangeListener sPreferenceListener =
+            (sharedPreferences, key) -> updateSnapshot();
 
     public static void initialize(Context context) {
         sContext = context.getApplicationContext();
         sSettingsPre = PreferenceManager.getDefaultSharedPreferences(sContext);
         sEhConfig = loadEhConfig();
         fixDefaultValue(context);
+        sSettingsPre.registerOnSharedPreferenceChangeListener(sPreferenceListener);
     }
 
     private static void fixDefaultValue(Context context) {
@@ -151,6 +159,79 @@ public class Settings {
         sSettingsPre.edit().putString(key, Integer.toString(value)).apply();
     }
 
+    /**
+     * Settings read on hot paths, like binding gallery items and downloading images.
+     * It's rebuilt when preferences change, reading it doesn't look up or parse anything.
+     */
+    public static final class Snapshot {
+
+        public final int gallerySite;
+        public final int listMode;
+        public final int detailSize;
+        public final int thumbSize;
+        public final int thumbResolution;
+        public final boolean fixThumbUrl;
+        public final boolean showJpnTitle;
+        public final boolean showGalleryPages;
+        public final boolean showTagTranslations;
+        public final boolean volumePage;
+        public final int multiThreadDownload;
+        public final int concurrentDownload;
+        public final int preloadImage;
+        public final boolean downloadOriginImage;
+
+        private Snapshot() {
+            gallerySite = getIntFromStr(KEY_GALLERY_SITE, DEFAULT_GALLERY_SITE);
+            listMode = getIntFromStr(KEY_LIST_MODE, DEFAULT_LIST_MODE);
+            detailSize = getIntFromStr(KEY_DETAIL_SIZE, DEFAULT_DETAIL_SIZE);
+            thumbSize = getIntFromStr(KEY_THUMB_SIZE, DEFAULT_THUMB_SIZE);
+            thumbResolution = getIntFromStr(KEY_THUMB_RESOLUTION, DEFAULT_THUMB_RESOLUTION);
+            fixThumbUrl = getBoolean(KEY_FIX_THUMB_URL, DEFAULT_FIX_THUMB_URL);
+            showJpnTitle = getBoolean(KEY_SHOW_JPN_TITLE, DEFAULT_SHOW_JPN_TITLE);
+            showGalleryPages = getBoolean(KEY_SHOW_GALLERY_PAGES, DEFAULT_SHOW_GALLERY_PAGES);
+            showTagTranslations = getBoolean(KEY_SHOW_TAG_TRANSLATIONS, DEFAULT_SHOW_TAG_TRANSLATIONS);
+            volumePage = getBoolean(KEY_VOLUME_PAGE, DEFAULT_VOLUME_PAGE);
+            multiThreadDownload = getIntFromStr(KEY_MULTI_THREAD_DOWNLOAD, DEFAULT_MULTI_THREAD_DOWNLOAD);
+            concurrentDownload = getIntFromStr(KEY_CONCURRENT_DOWNLOAD, DEFAULT_CONCURRENT_DOWNLOAD);
+            preloadImage = getIntFromStr(KEY_PRELOAD_IMAGE, DEFAULT_PRELOAD_IMAGE);
+            downloadOriginImage = getBoolean(KEY_DOWNLOAD_ORIGIN_IMAGE, DEFAULT_DOWNLOAD_ORIGIN_IMAGE);
+        }
+    }
+
+    public interface OnSnapshotChangedListener {
+
+        /**
+         * Called on the main thread.
+         */
+        void onSnapshotChanged(@NonNull Snapshot snapshot);
+    }
+
+    @NonNull
+    public static Snapshot getSnapshot() {
+        Snapshot snapshot = sSnapshot;
+        if (snapshot == null) {
+            snapshot = new Snapshot();
+            sSnapshot = snapshot;
+        }
+        return snapshot;
+    }
+
+    public static void addOnSnapshotChangedListener(@NonNull OnSnapshotChangedListener listener) {
+        sSnapshotListeners.add(listener);
+    }
+
+    public static void removeOnSnapshotChangedListener(@NonNull OnSnapshotChangedListener listener) {
+        sSnapshotListeners.remove(listener);
+    }
+
+    private static void updateSnapshot() {
+        Snapshot snapshot = new Snapshot();
+        sSnapshot = snapshot;
+        for (OnSnapshotChangedListener listener : sSnapshotListeners) {
+            listener.onSnapshotChanged(snapshot);
+        }
+    }
+
     private static final String KEY_VERSION_CODE = "version_code";
     private static final int DEFAULT_VERSION_CODE = 0;
 
@@ -272,7 +353,7 @@ public class Settings {
     private static final int DEFAULT_GALLERY_SITE = 1;
 
     public static int getGallerySite() {
-        return getIntFromStr(KEY_GALLERY_SITE, DEFAULT_GALLERY_SITE);
+        return getSnapshot().gallerySite;
     }
 
     public static void putGallerySite(int value) {
@@ -299,14 +380,14 @@ public class Settings {
     private static final int DEFAULT_LIST_MODE = 0;
 
     public static int getListMode() {
-        return getIntFromStr(KEY_LIST_MODE, DEFAULT_LIST_MODE);
+        return getSnapshot().listMode;
     }
 
     public static final String KEY_DETAIL_SIZE = "detail_size";
     private static final int DEFAULT_DETAIL_SIZE = 0;
 
     public static int getDetailSize() {
-        return getIntFromStr(KEY_DETAIL_SIZE, DEFAULT_DETAIL_SIZE);
+        return getSnapshot().detailSize;
     }
 
     @DimenRes
@@ -324,7 +405,7 @@ public class Settings {
     private static final int DEFAULT_THUMB_SIZE = 1;
 
     public static int getThumbSize() {
-        return getIntFromStr(KEY_THUMB_SIZE, DEFAULT_THUMB_SIZE);
+        return getSnapshot().thumbSize;
     }
 
     @DimenRes
@@ -344,35 +425,35 @@ public class Settings {
     private static final int DEFAULT_THUMB_RESOLUTION = 0;
 
     public static int getThumbResolution() {
-        return getIntFromStr(KEY_THUMB_RESOLUTION, DEFAULT_THUMB_RESOLUTION);
+        return getSnapshot().thumbResolution;
     }
 
     private static final String KEY_FIX_THUMB_URL = "fix_thumb_url";
     private static final boolean DEFAULT_FIX_THUMB_URL = false;
 
     public static boolean getFixThumbUrl() {
-        return getBoolean(KEY_FIX_THUMB_URL, DEFAULT_FIX_THUMB_URL);
+        return getSnapshot().fixThumbUrl;
     }
 
     private static final String KEY_SHOW_JPN_TITLE = "show_jpn_title";
     private static final boolean DEFAULT_SHOW_JPN_TITLE = false;
 
     public static boolean getShowJpnTitle() {
-        return getBoolean(KEY_SHOW_JPN_TITLE, DEFAULT_SHOW_JPN_TITLE);
+        return getSnapshot().showJpnTitle;
     }
 
     private static final String KEY_SHOW_GALLERY_PAGES = "show_gallery_pages";
     private static final boolean DEFAULT_SHOW_GALLERY_PAGES = false;
 
     public static boolean getShowGalleryPages() {
-        return getBoolean(KEY_SHOW_GALLERY_PAGES, DEFAULT_SHOW_GALLERY_PAGES);
+        return getSnapshot().showGalleryPages;
     }
 
     public static final String KEY_SHOW_TAG_TRANSLATIONS = "show_tag_translations";
     private static final boolean DEFAULT_SHOW_TAG_TRANSLATIONS = false;
 
     public static boolean getShowTagTranslations() {
-        return getBoolean(KEY_SHOW_TAG_TRANSLATIONS, DEFAULT_SHOW_TAG_TRANSLATIONS);
+        return getSnapshot().showTagTranslations;
     }
 
     public static final String KEY_DEFAULT_CATEGORIES = "default_categories";
@@ -530,7 +611,7 @@ public class Settings {
     private static final boolean DEFAULT_VOLUME_PAGE = false;
 
     public static boolean getVolumePage() {
-        return getBoolean(KEY_VOLUME_PAGE, DEFAULT_VOLUME_PAGE);
+        return getSnapshot().volumePage;
     }
 
     public static void putVolumePage(boolean value) {
@@ -669,18 +750,29 @@ public class Settings {
     private static final int DEFAULT_MULTI_THREAD_DOWNLOAD = 3;
 
     public static int getMultiThreadDownload() {
-        return getIntFromStr(KEY_MULTI_THREAD_DOWNLOAD, DEFAULT_MULTI_THREAD_DOWNLOAD);
+        return getSnapshot().multiThreadDownload;
     }
 
     public static void putMultiThreadDownload(int value) {
         putIntToStr(KEY_MULTI_THREAD_DOWNLOAD, value);
     }
 
+    private static final String KEY_CONCURRENT_DOWNLOAD = "concurrent_download";
+    private static final int DEFAULT_CONCURRENT_DOWNLOAD = 1;
+
+    public static int getConcurrentDownload() {
+        return getSnapshot().concurrentDownload;
+    }
+
+    public static void putConcurrentDownload(int value) {
+        putIntToStr(KEY_CONCURRENT_DOWNLOAD, value);
+    }
+
     private static final String KEY_PRELOAD_IMAGE = "preload_image";
     private static final int DEFAULT_PRELOAD_IMAGE = 5;
 
     public static int getPreloadImage() {
-        return getIntFromStr(KEY_PRELOAD_IMAGE, DEFAULT_PRELOAD_IMAGE);
+        return getSnapshot().preloadImage;
     }
 
     public static void putPreloadImage(int value) {
@@ -704,7 +796,7 @@ public class Settings {
     private static final boolean DEFAULT_DOWNLOAD_ORIGIN_IMAGE = false;
 
     public static boolean getDownloadOriginImage() {
-        return getBoolean(KEY_DOWNLOAD_ORIGIN_IMAGE, DEFAULT_DOWNLOAD_ORIGIN_IMAGE);
+        return getSnapshot().downloadOriginImage;
     }
 
     public static void putDownloadOriginImage(boolean value) {
@@ -0,0 +1,99 @@
+/*
+ * Copyright 2019 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.ehviewer.client;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Remembers connect latency and failures of each address,
+ * sorts addresses so that the fastest healthy one is tried first.
+ */
+final class AddressTable {
+
+  // An address failed recently goes to the end
+  static final long FAILURE_PENALTY = 5 * 60 * 1000;
+  // Weight of the new latency in the moving average
+  private static final float LATENCY_WEIGHT = 0.3f;
+
+  private static class Stats {
+    private long latency = -1;
+    private long lastFailure = -1;
+  }
+
+  private final Map<InetAddress, Stats> stats = new HashMap<>();
+
+  synchronized void onConnected(InetAddress address, long latency) {
+    Stats s = stats.get(address);
+    if (s == null) {
+      s = new Stats();
+      stats.put(address, s);
+    }
+    s.latency = s.latency < 0 ? latency : (long) (s.latency + (latency - s.latency) * LATENCY_WEIGHT);
+    s.lastFailure = -1;
+  }
+
+  synchronized void onFailed(InetAddress address, long now) {
+    Stats s = stats.get(address);
+    if (s == null) {
+      s = new Stats();
+      stats.put(address, s);
+    }
+    s.lastFailure = now;
+  }
+
+  /**
+   * Returns true if the address has connected before and has not failed recently.
+   */
+  synchronized boolean isHealthy(InetAddress address, long now) {
+    Stats s = stats.get(address);
+    return s != null && s.latency >= 0 && !isFailed(s, now);
+  }
+
+  private static boolean isFailed(Stats s, long now) {
+    return s.lastFailure >= 0 && now - s.lastFailure < FAILURE_PENALTY;
+  }
+
+  /**
+   * Known fast addresses first, then unknown ones, then failed ones.
+   * The order is kept for addresses of the same rank.
+   */
+  synchronized List<InetAddress> sort(List<InetAddress> addresses, long now) {
+    if (addresses.size() <= 1) {
+      return addresses;
+    }
+
+    List<InetAddress> result = new ArrayList<>(addresses);
+    Collections.sort(result, (a1, a2) -> Long.compare(rank(a1, now), rank(a2, now)));
+    return result;
+  }
+
+  private long rank(InetAddress address, long now) {
+    Stats s = stats.get(address);
+    if (s == null) {
+      return Long.MAX_VALUE / 2;
+    }
+    if (isFailed(s, now)) {
+      return Long.MAX_VALUE;
+    }
+    return s.latency >= 0 ? s.latency : Long.MAX_VALUE / 2;
+  }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright 2019 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.ehviewer.client;
+
+import java.io.IOException;
+import okhttp3.CacheControl;
+import okhttp3.Interceptor;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * A network interceptor which makes pages cacheable. Cached pages are stale at once,
+ * so they are always requested again, with validators if the server gave any.
+ * They are read by {@link CacheOnlyInterceptor} to show something before the network result.
+ */
+public class EhCacheInterceptor implements Interceptor {
+
+    private static final String CACHE_CONTROL = "max-age=0";
+    // Pages depend on the account and its settings
+    private static final String VARY = "Cookie";
+
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        Request request = chain.request();
+        Response response = chain.proceed(request);
+
+        int code = response.code();
+        if (!"GET".equals(request.method()) || (code != 200 && code != 304)) {
+            return response;
+        }
+
+        String vary = response.header("Vary");
+        return response.newBuilder()
+                .header("Cache-Control", CACHE_CONTROL)
+                .removeHeader("Pragma")
+                .removeHeader("Expires")
+                .header("Vary", vary == null ? VARY : vary + ", " + VARY)
+                .build();
+    }
+
+    /**
+     * An application interceptor which only reads cache, even if the page is stale.
+     * Throws {@link IOException} if the page is not in cache.
+     */
+    public static class CacheOnlyInterceptor implements Interceptor {
+
+        @Override
+        public Response intercept(Chain chain) throws IOException {
+            Request request = chain.request().newBuilder()
+                    .cacheControl(CacheControl.FORCE_CACHE)
+                    .build();
+            Response response = chain.proceed(request);
+            if (response.cacheResponse() == null) {
+                response.close();
+                throw new IOException("Not in cache: " + request.url());
+            }
+            return response;
+        }
+    }
+}
@@ -54,10 +54,26 @@ public class EhClient {
 
     private final ThreadPoolExecutor mRequestThreadPool;
     private final OkHttpClient mOkHttpClient;
+    // For pages which could be read from cache
+    private final OkHttpClient mCacheOkHttpClient;
+    private final OkHttpClient mCacheOnlyOkHttpClient;
 
     public EhClient(Context context) {
         mRequestThreadPool = IoThreadPoolExecutor.getInstance();
         mOkHttpClient = EhApplication.getOkHttpClient(context);
+        mCacheOkHttpClient = mOkHttpClient.newBuilder()
+                .cache(EhApplication.getHttpCache(context))
+                .addNetworkInterceptor(new EhCacheInterceptor())
+                .build();
+        mCacheOnlyOkHttpClient = mCacheOkHttpClient.newBuilder()
+                .addInterceptor(new EhCacheInterceptor.CacheOnlyInterceptor())
+                .build();
+    }
+
+    // Gallery details are cached after parsing, see GalleryDetailCache
+    private static boolean isCacheable(int method) {
+        return method == METHOD_GET_GALLERY_LIST ||
+                method == METHOD_GET_PREVIEW_SET;
     }
 
     public void execute(EhRequest request) {
@@ -70,9 +86,10 @@ public class EhClient {
         }
     }
 
-    public class Task extends AsyncTask<Object, Void, Object> {
+    public class Task extends AsyncTask<Object, Object, Object> {
 
         private final int mMethod;
+        private final boolean mCacheFirst;
         private Callback mCallback;
         private EhConfig mEhConfig;
 
@@ -81,6 +98,7 @@ public class EhClient {
 
         public Task(int method, Callback callback, EhConfig ehConfig) {
             mMethod = method;
+            mCacheFirst = callback instanceof CacheCallback && isCacheable(method);
             mCallback = callback;
             mEhConfig = ehConfig;
         }
@@ -133,53 +151,75 @@ public class EhClient {
         }
 
         @Override
-        @SuppressWarnings("unchecked")
         protected Object doInBackground(Object... params) {
-            try {
-                switch (mMethod) {
-                    case METHOD_SIGN_IN:
-                        return EhEngine.signIn(this, mOkHttpClient, (String) params[0], (String) params[1]);
-                    case METHOD_GET_GALLERY_LIST:
-                        return EhEngine.getGalleryList(this, mOkHttpClient, (String) params[0]);
-                    case METHOD_GET_GALLERY_DETAIL:
-                        return EhEngine.getGalleryDetail(this, mOkHttpClient, (String) params[0]);
-                    case METHOD_GET_PREVIEW_SET:
-                        return EhEngine.getPreviewSet(this, mOkHttpClient, (String) params[0]);
-                    case METHOD_GET_RATE_GALLERY:
-                        return EhEngine.rateGallery(this, mOkHttpClient, (Long) params[0], (String) params[1], (Long) params[2], (String) params[3], (Float) params[4]);
-                    case METHOD_GET_COMMENT_GALLERY:
-                        return EhEngine.commentGallery(this, mOkHttpClient, (String) params[0], (String) params[1], (String) params[2]);
-                    case METHOD_GET_GALLERY_TOKEN:
-                        return EhEngine.getGalleryToken(this, mOkHttpClient, (Long) params[0], (String) params[1], (Integer) params[2]);
-                    case METHOD_GET_FAVORITES:
-                        return EhEngine.getFavorites(this, mOkHttpClient, (String) params[0], (Boolean) params[1]);
-                    case METHOD_ADD_FAVORITES:
-                        return EhEngine.addFavorites(this, mOkHttpClient, (Long) params[0], (String) params[1], (Integer) params[2], (String) params[3]);
-                    case METHOD_ADD_FAVORITES_RANGE:
-                        return EhEngine.addFavoritesRange(this, mOkHttpClient, (long[]) params[0], (String[]) params[1], (Integer) params[2]);
-                    case METHOD_MODIFY_FAVORITES:
-                        return EhEngine.modifyFavorites(this, mOkHttpClient, (String) params[0], (long[]) params[1], (Integer) params[2], (Boolean) params[3]);
-                    case METHOD_GET_TORRENT_LIST:
-                        return EhEngine.getTorrentList(this, mOkHttpClient, (String) params[0], (Long) params[1], (String) params[2]);
-                    case METHOD_GET_PROFILE:
-                        return EhEngine.getProfile(this, mOkHttpClient);
-                    case METHOD_VOTE_COMMENT:
-                        return EhEngine.voteComment(this, mOkHttpClient, (Long) params[0], (String) params[1], (Long) params[2], (String) params[3], (Long) params[4], (Integer) params[5]);
-                    case METHOD_IMAGE_SEARCH:
-                        return EhEngine.imageSearch(this, mOkHttpClient, (File) params[0], (Boolean) params[1], (Boolean) params[2], (Boolean) params[3]);
-                    case METHOD_ARCHIVE_LIST:
-                        return EhEngine.getArchiveList(this, mOkHttpClient, (String) params[0], (Long) params[1], (String) params[2]);
-                    case METHOD_DOWNLOAD_ARCHIVE:
-                        return EhEngine.downloadArchive(this, mOkHttpClient, (Long) params[0], (String) params[1], (String) params[2], (String) params[3]);
-                    default:
-                        return new IllegalStateException("Can't detect method " + mMethod);
+            // Show the cached page first, then check the network
+            if (mCacheFirst) {
+                try {
+                    publishProgress(doMethod(mCacheOnlyOkHttpClient, params));
+                } catch (Throwable e) {
+                    ExceptionUtils.throwIfFatal(e);
+                    // Not in cache, or stopped
                 }
+            }
+
+            try {
+                return doMethod(isCacheable(mMethod) ? mCacheOkHttpClient : mOkHttpClient, params);
             } catch (Throwable e) {
                 ExceptionUtils.throwIfFatal(e);
                 return e;
             }
         }
 
+        @SuppressWarnings("unchecked")
+        private Object doMethod(OkHttpClient okHttpClient, Object... params) throws Throwable {
+            switch (mMethod) {
+                case METHOD_SIGN_IN:
+                    return EhEngine.signIn(this, okHttpClient, (String) params[0], (String) params[1]);
+                case METHOD_GET_GALLERY_LIST:
+                    return EhEngine.getGalleryList(this, okHttpClient, (String) params[0]);
+                case METHOD_GET_GALLERY_DETAIL:
+                    return EhEngine.getGalleryDetail(this, okHttpClient, (String) params[0]);
+                case METHOD_GET_PREVIEW_SET:
+                    return EhEngine.getPreviewSet(this, okHttpClient, (String) params[0]);
+                case METHOD_GET_RATE_GALLERY:
+                    return EhEngine.rateGallery(this, okHttpClient, (Long) params[0], (String) params[1], (Long) params[2], (String) params[3], (Float) params[4]);
+                case METHOD_GET_COMMENT_GALLERY:
+                    return EhEngine.commentGallery(this, okHttpClient, (String) params[0], (String) params[1], (String) params[2]);
+                case METHOD_GET_GALLERY_TOKEN:
+                    return EhEngine.getGalleryToken(this, okHttpClient, (Long) params[0], (String) params[1], (Integer) params[2]);
+                case METHOD_GET_FAVORITES:
+                    return EhEngine.getFavorites(this, okHttpClient, (String) params[0], (Boolean) params[1]);
+                case METHOD_ADD_FAVORITES:
+                    return EhEngine.addFavorites(this, okHttpClient, (Long) params[0], (String) params[1], (Integer) params[2], (String) params[3]);
+                case METHOD_ADD_FAVORITES_RANGE:
+                    return EhEngine.addFavoritesRange(this, okHttpClient, (long[]) params[0], (String[]) params[1], (Integer) params[2]);
+                case METHOD_MODIFY_FAVORITES:
+                    return EhEngine.modifyFavorites(this, okHttpClient, (String) params[0], (long[]) params[1], (Integer) params[2], (Boolean) params[3]);
+                case METHOD_GET_TORRENT_LIST:
+                    return EhEngine.getTorrentList(this, okHttpClient, (String) params[0], (Long) params[1], (String) params[2]);
+                case METHOD_GET_PROFILE:
+                    return EhEngine.getProfile(this, okHttpClient);
+                case METHOD_VOTE_COMMENT:
+                    return EhEngine.voteComment(this, okHttpClient, (Long) params[0], (String) params[1], (Long) params[2], (String) params[3], (Long) params[4], (Integer) params[5]);
+                case METHOD_IMAGE_SEARCH:
+                    return EhEngine.imageSearch(this, okHttpClient, (File) params[0], (Boolean) params[1], (Boolean) params[2], (Boolean) params[3]);
+                case METHOD_ARCHIVE_LIST:
+                    return EhEngine.getArchiveList(this, okHttpClient, (String) params[0], (Long) params[1], (String) params[2]);
+                case METHOD_DOWNLOAD_ARCHIVE:
+                    return EhEngine.downloadArchive(this, okHttpClient, (Long) params[0], (String) params[1], (String) params[2], (String) params[3]);
+                default:
+                    return new IllegalStateException("Can't detect method " + mMethod);
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        @Override
+        protected void onProgressUpdate(Object... values) {
+            if (mCallback instanceof CacheCallback) {
+                ((CacheCallback) mCallback).onCacheSuccess(values[0]);
+            }
+        }
+
         @SuppressWarnings("unchecked")
         @Override
         protected void onPostExecute(Object result) {
@@ -211,4 +251,13 @@ public class EhClient {
 
         void onCancel();
     }
+
+    /**
+     * Gets the cached result before the result from the network,
+     * if the page of the method could be read from cache.
+     */
+    public interface CacheCallback<E> extends Callback<E> {
+
+        void onCacheSuccess(E result);
+    }
 }
@@ -18,6 +18,8 @@ package com.hippo.ehviewer.client;
 
 import android.content.Context;
 
+import androidx.annotation.Nullable;
+
 import com.hippo.network.CookieRepository;
 
 import java.util.ArrayList;
@@ -56,6 +58,20 @@ public class EhCookieStore extends CookieRepository {
                 contains(url, KEY_IPD_PASS_HASH);
     }
 
+    /**
+     * Returns the member id of the signed in account, or null for guests.
+     */
+    @Nullable
+    public String getMemberId() {
+        HttpUrl url = HttpUrl.parse(EhUrl.HOST_E);
+        for (Cookie cookie : getCookies(url)) {
+            if (KEY_IPD_MEMBER_ID.equals(cookie.name())) {
+                return cookie.value();
+            }
+        }
+        return null;
+    }
+
     public static Cookie newCookie(Cookie cookie, String newDomain, boolean forcePersistent,
             boolean forceLongLive, boolean forceNotHostOnly) {
         Cookie.Builder builder = new Cookie.Builder();
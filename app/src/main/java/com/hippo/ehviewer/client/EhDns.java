@@ -21,24 +21,46 @@ package com.hippo.ehviewer.client;
  */
 
 import android.content.Context;
+import android.os.SystemClock;
 import com.hippo.ehviewer.EhApplication;
 import com.hippo.ehviewer.Hosts;
 import com.hippo.ehviewer.Settings;
+import com.hippo.util.IoThreadPoolExecutor;
+import java.io.IOException;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.net.ProxySelector;
+import java.net.Socket;
+import java.net.URI;
 import java.net.UnknownHostException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import okhttp3.Call;
 import okhttp3.Dns;
+import okhttp3.EventListener;
+import okhttp3.Protocol;
 
 public class EhDns implements Dns {
 
-  private static final Map<String, InetAddress> builtInHosts;
+  // Happy eyeballs: start the next address if the previous one doesn't connect in time
+  private static final long RACE_DELAY = 250;
+  private static final int RACE_TIMEOUT = 3000;
+  private static final int RACE_PORT = 443;
+
+  private static final Map<String, List<InetAddress>> builtInHosts;
 
   static {
-    Map<String, InetAddress> map = new HashMap<>();
+    Map<String, List<InetAddress>> map = new HashMap<>();
     put(map, "e-hentai.org", "104.20.26.25");
     put(map, "repo.e-hentai.org", "94.100.29.73");
     put(map, "forums.e-hentai.org", "94.100.18.243");
@@ -49,42 +71,214 @@ public class EhDns implements Dns {
     builtInHosts = map;
   }
 
-  private static void put(Map<String, InetAddress> map, String host, String ip) {
+  private static void put(Map<String, List<InetAddress>> map, String host, String ip) {
     InetAddress address = Hosts.toInetAddress(host, ip);
     if (address != null) {
-      map.put(host, address);
+      List<InetAddress> list = map.get(host);
+      if (list == null) {
+        list = new ArrayList<>();
+        map.put(host, list);
+      }
+      list.add(address);
+    }
+  }
+
+  // Hosts and built-in hosts of a hostname, they only change with their versions
+  private static class CacheEntry {
+    // Null to resolve it with the system, which keeps its own cache with the right ttl
+    private final List<InetAddress> addresses;
+    private final int hostsVersion;
+    private final boolean builtIn;
+
+    private CacheEntry(List<InetAddress> addresses, int hostsVersion, boolean builtIn) {
+      this.addresses = addresses;
+      this.hostsVersion = hostsVersion;
+      this.builtIn = builtIn;
     }
   }
 
   private final Hosts hosts;
+  private final ProxySelector proxySelector;
+  private final Map<String, CacheEntry> cache = new ConcurrentHashMap<>();
+  private final AddressTable addressTable = new AddressTable();
+  private final Set<String> racingHosts = Collections.newSetFromMap(new ConcurrentHashMap<>());
 
   public EhDns(Context context) {
     hosts = EhApplication.getHosts(context);
+    proxySelector = EhApplication.getEhProxySelector(context);
   }
 
   @Override
   public List<InetAddress> lookup(String hostname) throws UnknownHostException {
     if (hostname == null) throw new UnknownHostException("hostname == null");
 
+    boolean builtIn = Settings.getBuiltInHosts();
+    CacheEntry entry = cache.get(hostname);
+    if (entry == null || entry.hostsVersion != hosts.getVersion() || entry.builtIn != builtIn) {
+      entry = lookupHosts(hostname, builtIn);
+      cache.put(hostname, entry);
+    }
+
+    List<InetAddress> addresses = entry.addresses;
+    if (addresses == null) {
+      try {
+        addresses = Arrays.asList(InetAddress.getAllByName(hostname));
+      } catch (NullPointerException e) {
+        UnknownHostException unknownHostException =
+            new UnknownHostException("Broken system behaviour for dns lookup of " + hostname);
+        unknownHostException.initCause(e);
+        throw unknownHostException;
+      }
+    }
+
+    // Don't wait for the race, later lookups get the order
+    long now = SystemClock.elapsedRealtime();
+    raceInBackground(hostname, addresses, now);
+    return addressTable.sort(addresses, now);
+  }
+
+  private CacheEntry lookupHosts(String hostname, boolean builtIn) {
+    int hostsVersion = hosts.getVersion();
+
     InetAddress inetAddress = hosts.get(hostname);
     if (inetAddress != null) {
-      return Collections.singletonList(inetAddress);
+      return new CacheEntry(Collections.singletonList(inetAddress), hostsVersion, builtIn);
+    }
+
+    return new CacheEntry(builtIn ? builtInHosts.get(hostname) : null, hostsVersion, builtIn);
+  }
+
+  private boolean isDirect(String hostname) {
+    try {
+      List<Proxy> proxies = proxySelector.select(URI.create("https://" + hostname));
+      return proxies == null || proxies.isEmpty() || proxies.get(0).type() == Proxy.Type.DIRECT;
+    } catch (IllegalArgumentException e) {
+      return false;
+    }
+  }
+
+  /**
+   * Connects to the addresses one by one with a small delay, without waiting
+   * for the previous one to fail. Connect latency and failures are put to
+   * the address table in background, so later lookups try the first connected address first.
+   */
+  private void raceInBackground(String hostname, List<InetAddress> addresses, long now) {
+    // Nothing to choose, or the fastest one is known
+    if (addresses.size() <= 1 || addressTable.isHealthy(addressTable.sort(addresses, now).get(0), now)) {
+      return;
+    }
+    // One race for a hostname at a time
+    if (!racingHosts.add(hostname)) {
+      return;
+    }
+    IoThreadPoolExecutor.getInstance().execute(() -> {
+      try {
+        // Connections through proxy don't go to these addresses
+        if (isDirect(hostname)) {
+          race(addresses, SystemClock.elapsedRealtime());
+        }
+      } finally {
+        racingHosts.remove(hostname);
+      }
+    });
+  }
+
+  private void race(List<InetAddress> addresses, long now) {
+    List<InetAddress> ordered = addressTable.sort(addresses, now);
+    CountDownLatch connected = new CountDownLatch(1);
+    AtomicBoolean done = new AtomicBoolean();
+    List<Socket> sockets = Collections.synchronizedList(new ArrayList<>());
+
+    for (int i = 0, n = ordered.size(); i < n; i++) {
+      InetAddress address = ordered.get(i);
+      long delay = i * RACE_DELAY;
+      IoThreadPoolExecutor.getInstance().execute(() -> {
+        try {
+          if (delay > 0 && connected.await(delay, TimeUnit.MILLISECONDS)) {
+            // Others have connected
+            return;
+          }
+        } catch (InterruptedException e) {
+          return;
+        }
+        if (done.get()) {
+          return;
+        }
+
+        Socket socket = new Socket();
+        sockets.add(socket);
+        long start = SystemClock.elapsedRealtime();
+        try {
+          socket.connect(new InetSocketAddress(address, RACE_PORT), RACE_TIMEOUT);
+          addressTable.onConnected(address, SystemClock.elapsedRealtime() - start);
+          connected.countDown();
+        } catch (IOException e) {
+          // Closed by the race, not a failure
+          if (!done.get()) {
+            addressTable.onFailed(address, SystemClock.elapsedRealtime());
+          }
+        } finally {
+          closeQuietly(socket);
+        }
+      });
     }
 
-    if (Settings.getBuiltInHosts()) {
-      inetAddress = builtInHosts.get(hostname);
-      if (inetAddress != null) {
-        return Collections.singletonList(inetAddress);
+    try {
+      connected.await(RACE_TIMEOUT + ordered.size() * RACE_DELAY, TimeUnit.MILLISECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+
+    // Stop the losers
+    done.set(true);
+    synchronized (sockets) {
+      for (Socket socket : sockets) {
+        closeQuietly(socket);
       }
     }
+  }
 
+  private static void closeQuietly(Socket socket) {
     try {
-      return Arrays.asList(InetAddress.getAllByName(hostname));
-    } catch (NullPointerException e) {
-      UnknownHostException unknownHostException =
-          new UnknownHostException("Broken system behaviour for dns lookup of " + hostname);
-      unknownHostException.initCause(e);
-      throw unknownHostException;
+      socket.close();
+    } catch (IOException e) {
+      // Ignore
+    }
+  }
+
+  /**
+   * Returns a factory of {@link EventListener}s which report connect latency
+   * and failures of every connection, to sort the addresses of later lookups.
+   */
+  public EventListener.Factory getEventListenerFactory() {
+    return call -> new ConnectListener();
+  }
+
+  private class ConnectListener extends EventListener {
+
+    private long connectStart;
+
+    @Override
+    public void connectStart(Call call, InetSocketAddress inetSocketAddress, Proxy proxy) {
+      connectStart = SystemClock.elapsedRealtime();
+    }
+
+    @Override
+    public void connectEnd(Call call, InetSocketAddress inetSocketAddress, Proxy proxy,
+        Protocol protocol) {
+      if (proxy.type() == Proxy.Type.DIRECT && inetSocketAddress.getAddress() != null) {
+        addressTable.onConnected(inetSocketAddress.getAddress(),
+            SystemClock.elapsedRealtime() - connectStart);
+      }
+    }
+
+    @Override
+    public void connectFailed(Call call, InetSocketAddress inetSocketAddress, Proxy proxy,
+        Protocol protocol, IOException ioe) {
+      if (proxy.type() == Proxy.Type.DIRECT && inetSocketAddress.getAddress() != null &&
+          !call.isCanceled()) {
+        addressTable.onFailed(inetSocketAddress.getAddress(), SystemClock.elapsedRealtime());
+      }
     }
   }
 }
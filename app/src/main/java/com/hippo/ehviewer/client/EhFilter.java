@@ -18,12 +18,18 @@ package com.hippo.ehviewer.client;
 
 import android.util.Log;
 
+import androidx.annotation.VisibleForTesting;
+
 import com.hippo.ehviewer.EhDB;
 import com.hippo.ehviewer.client.data.GalleryInfo;
 import com.hippo.ehviewer.dao.Filter;
+import com.hippo.util.AhoCorasick;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 public final class EhFilter {
 
@@ -39,6 +45,9 @@ public final class EhFilter {
     private final List<Filter> mTagFilterList = new ArrayList<>();
     private final List<Filter> mTagNamespaceFilterList = new ArrayList<>();
 
+    // Compiled from the lists above, read without lock
+    private volatile Matchers mMatchers = new Matchers();
+
     private static EhFilter sInstance;
 
     public static EhFilter getInstance() {
@@ -49,7 +58,11 @@ public final class EhFilter {
     }
 
     private EhFilter() {
-        List<Filter> list = EhDB.getAllFilter();
+        this(EhDB.getAllFilter());
+    }
+
+    @VisibleForTesting
+    EhFilter(List<Filter> list) {
         for (int i = 0, n = list.size(); i < n; i++) {
             Filter filter = list.get(i);
             switch (filter.mode) {
@@ -73,6 +86,7 @@ public final class EhFilter {
                     break;
             }
         }
+        updateMatchers();
     }
 
     public List<Filter> getTitleFilterList() {
@@ -116,10 +130,12 @@ public final class EhFilter {
                 Log.d(TAG, "Unknown mode: " + filter.mode);
                 break;
         }
+        updateMatchers();
     }
 
     public synchronized void triggerFilter(Filter filter) {
         EhDB.triggerFilter(filter);
+        updateMatchers();
     }
 
     public synchronized void deleteFilter(Filter filter) {
@@ -142,101 +158,75 @@ public final class EhFilter {
                 Log.d(TAG, "Unknown mode: " + filter.mode);
                 break;
         }
+        updateMatchers();
     }
 
-    public synchronized boolean needTags() {
-        return 0 != mTagFilterList.size() || 0 != mTagNamespaceFilterList.size();
+    // Called with lock held, after the filter lists are changed
+    private void updateMatchers() {
+        mMatchers = new Matchers(mTitleFilterList, mUploaderFilterList,
+                mTagFilterList, mTagNamespaceFilterList);
     }
 
-    public synchronized boolean filterTitle(GalleryInfo info) {
+    public boolean needTags() {
+        Matchers matchers = mMatchers;
+        return !matchers.mTagNames.isEmpty() || !matchers.mNamespaces.isEmpty();
+    }
+
+    public boolean filterTitle(GalleryInfo info) {
         if (null == info) {
             return false;
         }
 
         // Title
         String title = info.title;
-        List<Filter> filters = mTitleFilterList;
-        if (null != title && filters.size() > 0) {
-            for (int i = 0, n = filters.size(); i < n; i++) {
-                if (filters.get(i).enable && title.toLowerCase().contains(filters.get(i).text)) {
-                    return false;
-                }
-            }
-        }
-
-        return true;
+        AhoCorasick matcher = mMatchers.mTitle;
+        return null == title || matcher.isEmpty() || !matcher.containsAny(title.toLowerCase());
     }
 
-    public synchronized boolean filterUploader(GalleryInfo info) {
+    public boolean filterUploader(GalleryInfo info) {
         if (null == info) {
             return false;
         }
 
         // Uploader
         String uploader = info.uploader;
-        List<Filter> filters = mUploaderFilterList;
-        if (null != uploader && filters.size() > 0) {
-            for (int i = 0, n = filters.size(); i < n; i++) {
-                if (filters.get(i).enable && uploader.equals(filters.get(i).text)) {
-                    return false;
-                }
-            }
-        }
-
-        return true;
+        return null == uploader || !mMatchers.mUploaders.contains(uploader);
     }
 
-    private boolean matchTag(String tag, String filter) {
-        if (null == tag || null == filter) {
+    public boolean filterTag(GalleryInfo info) {
+        if (null == info) {
             return false;
         }
 
-        String tagNamespace;
-        String tagName;
-        String filterNamespace;
-        String filterName;
-        int index = tag.indexOf(':');
-        if (index < 0) {
-            tagNamespace = null;
-            tagName = tag;
-        } else {
-            tagNamespace = tag.substring(0, index);
-            tagName = tag.substring(index + 1);
-        }
-        index = filter.indexOf(':');
-        if (index < 0) {
-            filterNamespace = null;
-            filterName = filter;
-        } else {
-            filterNamespace = filter.substring(0, index);
-            filterName = filter.substring(index + 1);
-        }
-
-        if (null != tagNamespace && null != filterNamespace &&
-                !tagNamespace.equals(filterNamespace)) {
-            return false;
-        }
-        if (!tagName.equals(filterName)) {
-            return false;
+        // Tag
+        String[] tags = info.simpleTags;
+        Matchers matchers = mMatchers;
+        if (null != tags && !matchers.mTagNames.isEmpty()) {
+            for (String tag: tags) {
+                if (null != tag && matchers.matchTag(tag)) {
+                    return false;
+                }
+            }
         }
 
         return true;
     }
 
-    public synchronized boolean filterTag(GalleryInfo info) {
+    public boolean filterTagNamespace(GalleryInfo info) {
         if (null == info) {
             return false;
         }
 
-        // Tag
         String[] tags = info.simpleTags;
-        List<Filter> filters = mTagFilterList;
-        if (null != tags && filters.size() > 0) {
+        Set<String> namespaces = mMatchers.mNamespaces;
+        if (null != tags && !namespaces.isEmpty()) {
             for (String tag: tags) {
-                for (int i = 0, n = filters.size(); i < n; i++) {
-                    if (filters.get(i).enable && matchTag(tag, filters.get(i).text)) {
-                        return false;
-                    }
+                if (null == tag) {
+                    continue;
+                }
+                int index = tag.indexOf(':');
+                if (index >= 0 && namespaces.contains(tag.substring(0, index))) {
+                    return false;
                 }
             }
         }
@@ -244,38 +234,73 @@ public final class EhFilter {
         return true;
     }
 
-    private boolean matchTagNamespace(String tag, String filter) {
-        if (null == tag || null == filter) {
-            return false;
+    /**
+     * Enabled filters compiled for matching. It's immutable,
+     * a new one is built and swapped in when filters are changed.
+     */
+    private static final class Matchers {
+
+        private final AhoCorasick mTitle;
+        private final Set<String> mUploaders = new HashSet<>();
+        // Names of all tag filters
+        private final Set<String> mTagNames = new HashSet<>();
+        // Tag filters without namespace, match tags in any namespace
+        private final Set<String> mAnyNamespaceTagNames = new HashSet<>();
+        // Tag filters with namespace, namespace:name
+        private final Set<String> mNamespaceTags = new HashSet<>();
+        private final Set<String> mNamespaces = new HashSet<>();
+
+        private Matchers() {
+            mTitle = new AhoCorasick(Collections.emptyList());
         }
 
-        String tagNamespace;
-        int index = tag.indexOf(':');
-        if (index >= 0) {
-            tagNamespace = tag.substring(0, index);
-            return tagNamespace.equals(filter);
-        } else {
-            return false;
-        }
-    }
+        private Matchers(List<Filter> titleFilters, List<Filter> uploaderFilters,
+                List<Filter> tagFilters, List<Filter> tagNamespaceFilters) {
+            List<String> titles = new ArrayList<>();
+            for (Filter filter: titleFilters) {
+                if (filter.enable && null != filter.text) {
+                    titles.add(filter.text);
+                }
+            }
+            mTitle = new AhoCorasick(titles);
 
-    public synchronized boolean filterTagNamespace(GalleryInfo info) {
-        if (null == info) {
-            return false;
-        }
+            for (Filter filter: uploaderFilters) {
+                if (filter.enable && null != filter.text) {
+                    mUploaders.add(filter.text);
+                }
+            }
 
-        String[] tags = info.simpleTags;
-        List<Filter> filters = mTagNamespaceFilterList;
-        if (null != tags && filters.size() > 0) {
-            for (String tag: tags) {
-                for (int i = 0, n = filters.size(); i < n; i++) {
-                    if (filters.get(i).enable && matchTagNamespace(tag, filters.get(i).text)) {
-                        return false;
-                    }
+            for (Filter filter: tagFilters) {
+                String text = filter.text;
+                if (!filter.enable || null == text) {
+                    continue;
+                }
+                int index = text.indexOf(':');
+                if (index < 0) {
+                    mTagNames.add(text);
+                    mAnyNamespaceTagNames.add(text);
+                } else {
+                    mTagNames.add(text.substring(index + 1));
+                    mNamespaceTags.add(text);
+                }
+            }
+
+            for (Filter filter: tagNamespaceFilters) {
+                if (filter.enable && null != filter.text) {
+                    mNamespaces.add(filter.text);
                 }
             }
         }
 
-        return true;
+        private boolean matchTag(String tag) {
+            int index = tag.indexOf(':');
+            if (index < 0) {
+                // Tag without namespace matches filters in any namespace
+                return mTagNames.contains(tag);
+            } else {
+                return mNamespaceTags.contains(tag) ||
+                        mAnyNamespaceTagNames.contains(tag.substring(index + 1));
+            }
+        }
     }
 }
@@ -27,15 +27,20 @@ import com.hippo.util.IoThreadPoolExecutor;
 import com.hippo.util.TextUrl;
 import com.hippo.yorozuya.FileUtils;
 import com.hippo.yorozuya.IOUtils;
+import com.hippo.yorozuya.collect.IntList;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
@@ -44,88 +49,238 @@ import okhttp3.OkHttpClient;
 import okhttp3.Request;
 import okhttp3.Response;
 import okhttp3.ResponseBody;
+import okio.Buffer;
+import okio.BufferedSink;
 import okio.BufferedSource;
 import okio.Okio;
 
 public class EhTagDatabase {
 
+  /*
+   * Indexed format, translations are decoded:
+   *
+   * MAGIC
+   * entry: u16 key length, key, u16 value length, value
+   * ...
+   * offset of each entry, sorted by key
+   * ...
+   * entry count, offset of the offset table
+   */
+  private static final int MAGIC = 0x45485444; // EHTD
+  private static final int TRAILER_SIZE = 8;
+
+  private static final String INDEX_EXTENSION = ".index";
+
   private final String name;
-  private final byte[] tags;
+  private final ByteBuffer buffer;
+  private final int count;
+  private final int offsetTable;
 
   public EhTagDatabase(String name, BufferedSource source) throws IOException {
+    this(name, toIndex(source));
+  }
+
+  private EhTagDatabase(String name, ByteBuffer buffer) throws IOException {
     this.name = name;
-    int totalBytes = source.readInt();
-    tags = new byte[totalBytes];
-    source.readFully(tags);
+    this.buffer = buffer;
+    int limit = buffer.limit();
+    if (limit < 4 + TRAILER_SIZE || buffer.getInt(0) != MAGIC) {
+      throw new IOException("Invalid tag database");
+    }
+    count = buffer.getInt(limit - TRAILER_SIZE);
+    offsetTable = buffer.getInt(limit - TRAILER_SIZE + 4);
+    if (count < 0 || offsetTable < 4 || (long) offsetTable + 4L * count != limit - TRAILER_SIZE) {
+      throw new IOException("Invalid tag database");
+    }
   }
 
-  public String getTranslation(String tag) {
-    return search(tags, tag.getBytes(TextUrl.UTF_8));
+  /**
+   * Maps the index file, nothing is copied to the heap.
+   */
+  private static EhTagDatabase map(String name, File indexFile) throws IOException {
+    try (FileInputStream is = new FileInputStream(indexFile)) {
+      FileChannel channel = is.getChannel();
+      return new EhTagDatabase(name, channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+    }
   }
 
-  @Nullable
-  private String search(byte[] tags, byte[] tag) {
-    int low = 0;
-    int high = tags.length;
-    while (low < high) {
-      int start = (low + high) / 2;
-      // Look for the starting '\n'
-      while (start > -1 && tags[start] != '\n') {
-        start--;
+  private static ByteBuffer toIndex(BufferedSource source) throws IOException {
+    Buffer buffer = new Buffer();
+    writeIndex(source, buffer);
+    return ByteBuffer.wrap(buffer.readByteArray());
+  }
+
+  /**
+   * Converts the downloaded data, lines of "tag\rbase64(translation)\n"
+   * sorted by tag, to the indexed format.
+   */
+  private static void writeIndex(BufferedSource source, BufferedSink sink) throws IOException {
+    IntList offsets = new IntList();
+    int offset = 4;
+    sink.writeInt(MAGIC);
+
+    long remaining = source.readInt();
+    while (remaining > 0) {
+      long lineEnd = source.indexOf((byte) '\n', 0, remaining);
+      long lineLength = lineEnd == -1 ? remaining : lineEnd;
+      byte[] line = source.readByteArray(lineLength);
+      remaining -= lineLength;
+      if (lineEnd != -1) {
+        source.skip(1);
+        remaining--;
       }
-      start++;
 
-      // Look for the middle '\r'.
-      int middle = 1;
-      while (tags[start + middle] != '\r') {
-        middle++;
+      int middle = -1;
+      for (int i = 0; i < line.length; i++) {
+        if (line[i] == '\r') {
+          middle = i;
+          break;
+        }
+      }
+      if (middle <= 0) {
+        continue;
       }
 
-      // Look for the ending '\n'
-      int end = middle + 1;
-      while (tags[start + end] != '\n') {
-        end++;
+      byte[] value = Base64.decode(line, middle + 1, line.length - middle - 1, Base64.DEFAULT);
+      if (middle > 0xffff || value.length > 0xffff) {
+        continue;
       }
 
-      int compare;
-      int tagIndex = 0;
-      int curIndex = start;
+      offsets.add(offset);
+      sink.writeShort(middle);
+      sink.write(line, 0, middle);
+      sink.writeShort(value.length);
+      sink.write(value);
+      offset += 4 + middle + value.length;
+    }
 
-      for (;;) {
-        int tagByte = tag[tagIndex] & 0xff;
-        int curByte = tags[curIndex] & 0xff;
-        compare = tagByte - curByte;
-        if (compare != 0) {
-          break;
-        }
+    for (int i = 0, n = offsets.size(); i < n; i++) {
+      sink.writeInt(offsets.get(i));
+    }
+    sink.writeInt(offsets.size());
+    sink.writeInt(offset);
+  }
 
-        tagIndex++;
-        curIndex++;
-        if (tagIndex == tag.length && curIndex == start + middle) {
-          break;
-        }
-        if (tagIndex == tag.length) {
-          compare = -1;
-          break;
-        }
-        if (curIndex == start + middle) {
-          compare = 1;
-          break;
-        }
+  private int getEntryOffset(int index) {
+    return buffer.getInt(offsetTable + 4 * index);
+  }
+
+  // Compares the key of the entry with bytes, like strcmp
+  private int compareKey(int entry, byte[] bytes, boolean prefix) {
+    int keyLength = buffer.getShort(entry) & 0xffff;
+    int keyStart = entry + 2;
+    int n = Math.min(keyLength, bytes.length);
+    for (int i = 0; i < n; i++) {
+      int compare = (buffer.get(keyStart + i) & 0xff) - (bytes[i] & 0xff);
+      if (compare != 0) {
+        return compare;
       }
+    }
+    if (prefix && keyLength >= bytes.length) {
+      return 0;
+    }
+    return keyLength - bytes.length;
+  }
 
-      if (compare < 0) {
-        high = start - 1;
-      } else if (compare > 0) {
-        low = start + end + 1;
+  // Returns the first entry index whose key >= bytes
+  private int lowerBound(byte[] bytes) {
+    int low = 0;
+    int high = count;
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (compareKey(getEntryOffset(mid), bytes, false) < 0) {
+        low = mid + 1;
       } else {
-        byte[] bytes = Base64.decode(tags, start + middle + 1, end - middle - 1, Base64.DEFAULT);
-        return new String(bytes, TextUrl.UTF_8);
+        high = mid;
+      }
+    }
+    return low;
+  }
+
+  private String readString(int start, int length) {
+    byte[] bytes = new byte[length];
+    for (int i = 0; i < length; i++) {
+      bytes[i] = buffer.get(start + i);
+    }
+    return new String(bytes, TextUrl.UTF_8);
+  }
+
+  private String getKey(int entry) {
+    return readString(entry + 2, buffer.getShort(entry) & 0xffff);
+  }
+
+  private String getValue(int entry) {
+    int valueStart = entry + 2 + (buffer.getShort(entry) & 0xffff);
+    return readString(valueStart + 2, buffer.getShort(valueStart) & 0xffff);
+  }
+
+  // Whether the bytes in [start, start + length) contain the pattern
+  private boolean contains(int start, int length, byte[] pattern) {
+    outer:
+    for (int i = start, end = start + length - pattern.length; i <= end; i++) {
+      for (int j = 0; j < pattern.length; j++) {
+        if (buffer.get(i + j) != pattern[j]) {
+          continue outer;
+        }
+      }
+      return true;
+    }
+    return false;
+  }
+
+  @Nullable
+  public String getTranslation(String tag) {
+    byte[] bytes = tag.getBytes(TextUrl.UTF_8);
+    int index = lowerBound(bytes);
+    if (index < count) {
+      int entry = getEntryOffset(index);
+      if (compareKey(entry, bytes, false) == 0) {
+        return getValue(entry);
       }
     }
     return null;
   }
 
+  /**
+   * Returns the tags starting with the prefix, in order.
+   * It's a binary search, cheap enough for the UI thread.
+   */
+  public List<String> prefixSearch(String prefix, int limit) {
+    List<String> result = new ArrayList<>();
+    byte[] bytes = prefix.getBytes(TextUrl.UTF_8);
+    for (int i = lowerBound(bytes); i < count && result.size() < limit; i++) {
+      int entry = getEntryOffset(i);
+      if (compareKey(entry, bytes, true) != 0) {
+        break;
+      }
+      result.add(getKey(entry));
+    }
+    return result;
+  }
+
+  /**
+   * Returns the tags whose tag or translation contains the keyword,
+   * except the ones from {@link #prefixSearch(String, int)}, in order.
+   * It scans all entries, don't call it on the UI thread.
+   */
+  public List<String> substringSearch(String keyword, int limit) {
+    List<String> result = new ArrayList<>();
+    byte[] bytes = keyword.getBytes(TextUrl.UTF_8);
+    if (bytes.length == 0) {
+      return result;
+    }
+    for (int i = 0; i < count && result.size() < limit; i++) {
+      int entry = getEntryOffset(i);
+      int keyLength = buffer.getShort(entry) & 0xffff;
+      int valueStart = entry + 2 + keyLength;
+      int valueLength = buffer.getShort(valueStart) & 0xffff;
+      if (compareKey(entry, bytes, true) != 0 &&
+          (contains(entry + 2, keyLength, bytes) || contains(valueStart + 2, valueLength, bytes))) {
+        result.add(getKey(entry));
+      }
+    }
+    return result;
+  }
 
   private static final Map<String, String> NAMESPACE_TO_PREFIX = new HashMap<>();
 
@@ -259,6 +414,27 @@ public class EhTagDatabase {
     }
   }
 
+  /**
+   * Maps the index file, builds it from the data file first if it's missing.
+   */
+  private static EhTagDatabase load(String name, File dataFile, File indexFile) throws IOException {
+    if (!indexFile.exists()) {
+      File tempIndexFile = new File(indexFile.getPath() + ".tmp");
+      try (BufferedSource source = Okio.buffer(Okio.source(dataFile));
+          BufferedSink sink = Okio.buffer(Okio.sink(tempIndexFile))) {
+        writeIndex(source, sink);
+      } catch (IOException e) {
+        FileUtils.delete(tempIndexFile);
+        throw e;
+      }
+      if (!tempIndexFile.renameTo(indexFile)) {
+        FileUtils.delete(tempIndexFile);
+        throw new IOException("Can't rename " + tempIndexFile);
+      }
+    }
+    return map(name, indexFile);
+  }
+
   public static void update(Context context) {
     String[] urls = getMetadata(context);
     if (urls == null || urls.length != 4) {
@@ -292,18 +468,21 @@ public class EhTagDatabase {
         // Check current sha1 and current data
         File sha1File = new File(dir, sha1Name);
         File dataFile = new File(dir, dataName);
+        File indexFile = new File(dir, dataName + INDEX_EXTENSION);
         if (!checkData(sha1File, dataFile)) {
           FileUtils.delete(sha1File);
           FileUtils.delete(dataFile);
+          FileUtils.delete(indexFile);
         }
 
         // Read current EhTagDatabase
         if (instance == null && dataFile.exists()) {
-          try (BufferedSource source = Okio.buffer(Okio.source(dataFile))) {
-            instance = new EhTagDatabase(dataName, source);
+          try {
+            instance = load(dataName, dataFile, indexFile);
           } catch (IOException e) {
             FileUtils.delete(sha1File);
             FileUtils.delete(dataFile);
+            FileUtils.delete(indexFile);
           }
         }
 
@@ -340,14 +519,15 @@ public class EhTagDatabase {
         // Replace current sha1 and current data with new sha1 and new data
         FileUtils.delete(sha1File);
         FileUtils.delete(dataFile);
+        FileUtils.delete(indexFile);
         tempSha1File.renameTo(sha1File);
         tempDataFile.renameTo(dataFile);
 
         // Read new EhTagDatabase
-        try (BufferedSource source = Okio.buffer(Okio.source(dataFile))) {
-          instance = new EhTagDatabase(dataName, source);
+        try {
+          instance = load(dataName, dataFile, indexFile);
         } catch (IOException e) {
-          // Ignore
+          FileUtils.delete(indexFile);
         }
       } finally {
         lock.unlock();
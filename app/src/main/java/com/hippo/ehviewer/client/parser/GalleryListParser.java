@@ -19,34 +19,29 @@ package com.hippo.ehviewer.client.parser;
 import android.text.TextUtils;
 import android.util.Log;
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
 import com.hippo.ehviewer.EhDB;
 import com.hippo.ehviewer.client.EhUtils;
 import com.hippo.ehviewer.client.data.GalleryInfo;
-import com.hippo.ehviewer.client.data.GalleryTagGroup;
 import com.hippo.ehviewer.client.exception.ParseException;
 import com.hippo.util.ExceptionUtils;
-import com.hippo.util.JsoupUtils;
 import com.hippo.yorozuya.NumberUtils;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-import org.jsoup.Jsoup;
-import org.jsoup.nodes.Document;
-import org.jsoup.nodes.Element;
-import org.jsoup.select.Elements;
 
+/**
+ * Parses gallery list in one pass of {@link HtmlTokenizer}, no document tree is built.
+ * Only a stack of open elements is kept, with the tree construction rules
+ * of jsoup which matter for gallery list pages, so the result is the same
+ * as selecting elements from the document of jsoup.
+ */
 public class GalleryListParser {
 
     private static final String TAG = GalleryListParser.class.getSimpleName();
 
-    private static final Pattern PATTERN_RATING = Pattern.compile("\\d+px");
-    private static final Pattern PATTERN_THUMB_SIZE = Pattern.compile("height:(\\d+)px;width:(\\d+)px");
-    private static final Pattern PATTERN_FAVORITE_SLOT = Pattern.compile("background-color:rgba\\((\\d+),(\\d+),(\\d+),");
-    private static final Pattern PATTERN_PAGES = Pattern.compile("(\\d+) page");
-    private static final Pattern PATTERN_NEXT_PAGE = Pattern.compile("page=(\\d+)");
-
     private static final String[][] FAVORITE_SLOT_RGB = new String[][] {
         new String[] { "0", "0", "0"},
         new String[] { "240", "0", "0"},
@@ -67,97 +62,890 @@ public class GalleryListParser {
         public List<GalleryInfo> galleryInfoList;
     }
 
-    private static int parsePages(Document d, String body) throws ParseException {
-        try {
-            Elements es = d.getElementsByClass("ptt").first().child(0).child(0).children();
-            return Integer.parseInt(es.get(es.size() - 2).text().trim());
-        } catch (Throwable e) {
-            ExceptionUtils.throwIfFatal(e);
-            throw new ParseException("Can't parse gallery list pages", body);
+    // Tags with special tree construction rules
+    private static final int TAG_UNKNOWN = -1;
+    private static final int TAG_A = 0;
+    private static final int TAG_IMG = 1;
+    private static final int TAG_DIV = 2;
+    private static final int TAG_P = 3;
+    private static final int TAG_TABLE = 4;
+    private static final int TAG_TBODY = 5;
+    private static final int TAG_THEAD = 6;
+    private static final int TAG_TFOOT = 7;
+    private static final int TAG_TR = 8;
+    private static final int TAG_TD = 9;
+    private static final int TAG_TH = 10;
+    private static final int TAG_BR = 11;
+
+    private static final String[] TAG_NAMES = {
+        "a", "img", "div", "p", "table", "tbody", "thead", "tfoot", "tr", "td", "th", "br",
+        "area", "base", "col", "embed", "hr", "input", "keygen", "link", "meta", "param",
+        "source", "track", "wbr", "html", "head", "body", "frameset", "script", "noscript",
+        "style", "title", "frame", "noframes", "section", "nav", "aside", "hgroup", "header",
+        "footer", "h1", "h2", "h3", "h4", "h5", "h6", "ul", "ol", "pre", "blockquote", "address",
+        "figure", "figcaption", "form", "fieldset", "ins", "del", "dl", "dt", "dd", "li",
+        "caption", "colgroup", "video", "audio", "canvas", "details", "menu", "plaintext",
+        "template", "article", "main", "svg", "math", "center", "dir", "summary", "listing",
+    };
+    private static final List<String> VOID_TAGS = Arrays.asList(
+        "img", "br", "area", "base", "col", "embed", "hr", "input", "keygen", "link", "meta",
+        "param", "source", "track", "wbr");
+    // Known tags which are not block, same as jsoup
+    private static final List<String> INLINE_TAGS = Arrays.asList(
+        "a", "img", "br", "area", "base", "embed", "input", "keygen", "param", "source", "track",
+        "wbr", "center", "dir", "summary", "listing");
+    // Tags which close the open p element
+    private static final List<String> CLOSING_P_TAGS = Arrays.asList(
+        "div", "p", "table", "hr", "section", "nav", "aside", "hgroup", "header", "footer", "h1",
+        "h2", "h3", "h4", "h5", "h6", "ul", "ol", "pre", "blockquote", "address", "figure",
+        "figcaption", "form", "fieldset", "dl", "dt", "dd", "li", "details", "menu", "plaintext",
+        "article", "main", "center", "dir", "summary", "listing");
+
+    private static final boolean[] IS_VOID = new boolean[TAG_NAMES.length];
+    private static final boolean[] IS_BLOCK = new boolean[TAG_NAMES.length];
+    private static final boolean[] IS_CLOSING_P = new boolean[TAG_NAMES.length];
+
+    static {
+        for (int i = 0; i < TAG_NAMES.length; i++) {
+            IS_VOID[i] = VOID_TAGS.contains(TAG_NAMES[i]);
+            IS_BLOCK[i] = !INLINE_TAGS.contains(TAG_NAMES[i]);
+            IS_CLOSING_P[i] = CLOSING_P_TAGS.contains(TAG_NAMES[i]);
+        }
+    }
+
+    private static int getTag(HtmlTokenizer tokenizer) {
+        for (int i = 0; i < TAG_NAMES.length; i++) {
+            if (tokenizer.isName(TAG_NAMES[i])) {
+                return i;
+            }
+        }
+        return TAG_UNKNOWN;
+    }
+
+    private static boolean isVoid(int tag) {
+        return tag != TAG_UNKNOWN && IS_VOID[tag];
+    }
+
+    private static boolean isBlock(int tag) {
+        return tag != TAG_UNKNOWN && IS_BLOCK[tag];
+    }
+
+    private static boolean isClosingP(int tag) {
+        return tag != TAG_UNKNOWN && IS_CLOSING_P[tag];
+    }
+
+    private static boolean isTableTag(int tag) {
+        return tag >= TAG_TABLE && tag <= TAG_TH;
+    }
+
+    /**
+     * Jsoup's {@code Element.text()} of an element, built while it's read.
+     */
+    private static class TextCapture {
+        private final int depth;
+        private final StringBuilder sb = new StringBuilder();
+        // A block element just ended, a space before the next text
+        private boolean pendingSpace;
+        @Nullable
+        private String text;
+
+        private TextCapture(int depth) {
+            this.depth = depth;
+        }
+
+        private boolean lastIsWhitespace() {
+            return sb.length() != 0 && sb.charAt(sb.length() - 1) == ' ';
+        }
+
+        @Nullable
+        private String getText() {
+            return text;
+        }
+    }
+
+    private static class PostedCandidate {
+        private final String id;
+        private final int offset;
+        private final TextCapture text;
+
+        private PostedCandidate(String id, int offset, TextCapture text) {
+            this.id = id;
+            this.offset = offset;
+            this.text = text;
+        }
+    }
+
+    /**
+     * Everything in a gallery row which is needed by {@link #parseGalleryInfo(Row)}.
+     */
+    private static class Row {
+        private final int depth;
+
+        private int glnameDepth = -1;
+        private boolean glnameClosed;
+        private int glnameParentA = -1;
+        private int a = -1;
+        // The first-child chain from glname to a leaf
+        private int titleDepth = -1;
+        @Nullable
+        private TextCapture title;
+
+        private int tbodyDepth = -1;
+        private boolean tbodyClosed;
+        @Nullable
+        private List<String> tags;
+        @Nullable
+        private TextCapture groupName;
+        private boolean hasGroupTags;
+        @Nullable
+        private List<TextCapture> groupTags;
+
+        @Nullable
+        private TextCapture cn;
+        @Nullable
+        private TextCapture cs;
+
+        private int glthumbDepth = -1;
+        private boolean glthumbClosed;
+        private int glthumbImg = -1;
+        @Nullable
+        private TextCapture glthumbPages;
+
+        private int gl1eDepth = -1;
+        private boolean gl1eClosed;
+        private int gl1eImg = -1;
+        private int gl3tDepth = -1;
+        private boolean gl3tClosed;
+        private int gl3tImg = -1;
+
+        @Nullable
+        private List<PostedCandidate> posted;
+
+        private int ir = -1;
+
+        private int glhideDepth = -1;
+        private boolean glhideClosed;
+        @Nullable
+        private TextCapture glhideUploader;
+        @Nullable
+        private TextCapture glhidePages;
+        private int gl3eDepth = -1;
+        private boolean gl3eClosed;
+        @Nullable
+        private TextCapture gl3eUploader;
+        @Nullable
+        private TextCapture gl3ePages;
+
+        private int gl5tDepth = -1;
+        private boolean gl5tClosed;
+        @Nullable
+        private TextCapture gl5tPages;
+
+        private Row(int depth) {
+            this.depth = depth;
+        }
+    }
+
+    private static class Reader {
+
+        private final HtmlTokenizer tokenizer;
+
+        // Stack of open elements, 0 is the document
+        private int depth;
+        private int[] tags = new int[32];
+        private int[] nameStarts = new int[32];
+        private int[] nameLengths = new int[32];
+        private int[] offsets = new int[32];
+        // 1-based index in element siblings
+        private int[] indexes = new int[32];
+        private int[] childCounts = new int[32];
+
+        private final List<TextCapture> captures = new ArrayList<>();
+
+        private boolean hasPtt;
+        private int pttDepth = -1;
+        private boolean pttClosed;
+        private int pttCellsDepth = -1;
+        private boolean pttCellsClosed;
+        @Nullable
+        private List<TextCapture> pttCells;
+        private int pttLastCellFirstChild = -1;
+
+        private boolean hasItg;
+        private int itgDepth = -1;
+        private boolean itgClosed;
+        private boolean itgIsTable;
+        private boolean itgHasRowParent;
+
+        @Nullable
+        private Row row;
+        private final List<GalleryInfo> list = new ArrayList<>();
+
+        private Reader(String body) {
+            tokenizer = new HtmlTokenizer(body);
+        }
+
+        private void read() {
+            for (;;) {
+                switch (tokenizer.next()) {
+                    case HtmlTokenizer.START_TAG:
+                        onStartTag(getTag(tokenizer));
+                        break;
+                    case HtmlTokenizer.END_TAG:
+                        onEndTag(getTag(tokenizer));
+                        break;
+                    case HtmlTokenizer.TEXT:
+                        onText(tokenizer.getTextStart(), tokenizer.getTextEnd());
+                        break;
+                    case HtmlTokenizer.EOF:
+                        while (depth > 0) {
+                            pop();
+                        }
+                        return;
+                }
+            }
+        }
+
+        // Returns the depth of the open element with the tag, stops at table
+        private int findInTableScope(int tag) {
+            for (int i = depth; i > 0; i--) {
+                if (tags[i] == tag) {
+                    return i;
+                }
+                if (tags[i] == TAG_TABLE) {
+                    break;
+                }
+            }
+            return -1;
+        }
+
+        private void popTo(int d) {
+            while (depth >= d) {
+                pop();
+            }
+        }
+
+        private void onStartTag(int tag) {
+            int offset = tokenizer.getTagOffset();
+            int nameStart = tokenizer.getNameStart();
+            int nameLength = tokenizer.getNameLength();
+            boolean selfClosing = tokenizer.isSelfClosing();
+
+            if (isTableTag(tag) && tag != TAG_TABLE && findInTableScope(TAG_TABLE) == -1) {
+                // Ignored out of table
+                return;
+            }
+
+            switch (tag) {
+                case TAG_TD:
+                case TAG_TH: {
+                    int d = Math.max(findInTableScope(TAG_TD), findInTableScope(TAG_TH));
+                    if (d > 0) {
+                        popTo(d);
+                    }
+                    if (tags[depth] == TAG_TABLE) {
+                        push(TAG_TBODY, -1, 0, -1);
+                    }
+                    if (tags[depth] == TAG_TBODY || tags[depth] == TAG_THEAD || tags[depth] == TAG_TFOOT) {
+                        push(TAG_TR, -1, 0, -1);
+                    }
+                    break;
+                }
+                case TAG_TR: {
+                    int d = findInTableScope(TAG_TR);
+                    if (d > 0) {
+                        popTo(d);
+                    }
+                    if (tags[depth] == TAG_TABLE) {
+                        push(TAG_TBODY, -1, 0, -1);
+                    }
+                    break;
+                }
+                case TAG_TBODY:
+                case TAG_THEAD:
+                case TAG_TFOOT: {
+                    int d = findInTableScope(TAG_TABLE);
+                    if (d > 0) {
+                        popTo(d + 1);
+                    }
+                    break;
+                }
+                default:
+                    // Block elements close paragraph
+                    if (tags[depth] == TAG_P && isClosingP(tag)) {
+                        pop();
+                    }
+                    break;
+            }
+
+            push(tag, nameStart, nameLength, offset);
+            if (selfClosing || isVoid(tag)) {
+                pop();
+            }
+        }
+
+        private void onEndTag(int tag) {
+            if (tag == TAG_BR) {
+                // </br> is <br>
+                push(TAG_BR, tokenizer.getNameStart(), tokenizer.getNameLength(), -1);
+                pop();
+                return;
+            }
+
+            boolean tableTag = isTableTag(tag);
+            for (int i = depth; i > 0; i--) {
+                if (tag == TAG_UNKNOWN ? (tags[i] == TAG_UNKNOWN &&
+                        tokenizer.isSameName(nameStarts[i], nameLengths[i])) : tags[i] == tag) {
+                    popTo(i);
+                    return;
+                }
+                if (tableTag ? tags[i] == TAG_TABLE : isBlock(tags[i])) {
+                    break;
+                }
+            }
+
+            if (tag == TAG_P) {
+                // </p> without <p> is <p></p>
+                push(TAG_P, tokenizer.getNameStart(), tokenizer.getNameLength(), -1);
+                pop();
+            }
+        }
+
+        private static int[] grow(int[] array) {
+            int[] newArray = new int[array.length * 2];
+            System.arraycopy(array, 0, newArray, 0, array.length);
+            return newArray;
+        }
+
+        private void push(int tag, int nameStart, int nameLength, int offset) {
+            if (depth + 1 == tags.length) {
+                tags = grow(tags);
+                nameStarts = grow(nameStarts);
+                nameLengths = grow(nameLengths);
+                offsets = grow(offsets);
+                indexes = grow(indexes);
+                childCounts = grow(childCounts);
+            }
+            int parent = depth;
+            int d = ++depth;
+            tags[d] = tag;
+            nameStarts[d] = nameStart;
+            nameLengths[d] = nameLength;
+            offsets[d] = offset;
+            indexes[d] = ++childCounts[parent];
+            childCounts[d] = 0;
+            onOpen(d);
+        }
+
+        private void pop() {
+            onClose(depth);
+            depth--;
+        }
+
+        private boolean hasClass(int d, String className) {
+            return offsets[d] >= 0 && tokenizer.hasClass(offsets[d], className);
+        }
+
+        // Whether the element matches "div:nth-child(index)"
+        private boolean isNthDiv(int d, int index) {
+            // Children of the document are not counted
+            return d > 1 && tags[d] == TAG_DIV && indexes[d] == index;
+        }
+
+        private TextCapture capture(int d) {
+            TextCapture capture = new TextCapture(d);
+            captures.add(capture);
+            return capture;
+        }
+
+        private void onText(int start, int end) {
+            for (int i = 0, n = captures.size(); i < n; i++) {
+                TextCapture capture = captures.get(i);
+                if (capture.pendingSpace) {
+                    capture.pendingSpace = false;
+                    if (!capture.lastIsWhitespace()) {
+                        capture.sb.append(' ');
+                    }
+                }
+                tokenizer.appendNormalisedText(capture.sb, start, end);
+            }
+        }
+
+        private void onOpen(int d) {
+            int tag = tags[d];
+            for (int i = 0, n = captures.size(); i < n; i++) {
+                TextCapture capture = captures.get(i);
+                capture.pendingSpace = false;
+                if ((isBlock(tag) || tag == TAG_BR) && capture.sb.length() != 0 && !capture.lastIsWhitespace()) {
+                    capture.sb.append(' ');
+                }
+            }
+
+            onOpenPtt(d);
+            onOpenItg(d);
+            if (row != null) {
+                onOpenInRow(row, d);
+            }
+        }
+
+        private void onOpenPtt(int d) {
+            if (!hasPtt) {
+                if (hasClass(d, "ptt")) {
+                    hasPtt = true;
+                    pttDepth = d;
+                }
+            } else if (!pttClosed) {
+                // ptt.child(0).child(0).children()
+                if (pttCellsDepth == -1 && d == pttDepth + 2 &&
+                        indexes[d] == 1 && indexes[d - 1] == 1) {
+                    pttCellsDepth = d;
+                    pttCells = new ArrayList<>();
+                } else if (pttCellsDepth != -1 && !pttCellsClosed) {
+                    if (d == pttCellsDepth + 1) {
+                        pttCells.add(capture(d));
+                        pttLastCellFirstChild = -1;
+                    } else if (d == pttCellsDepth + 2 && indexes[d] == 1) {
+                        pttLastCellFirstChild = offsets[d];
+                    }
+                }
+            }
+        }
+
+        private void onOpenItg(int d) {
+            if (!hasItg) {
+                if (hasClass(d, "itg")) {
+                    hasItg = true;
+                    itgDepth = d;
+                    itgIsTable = tags[d] == TAG_TABLE;
+                    itgHasRowParent = !itgIsTable;
+                }
+            } else if (!itgClosed && row == null) {
+                if (itgIsTable) {
+                    // itg.child(0).children()
+                    if (d == itgDepth + 1 && indexes[d] == 1) {
+                        itgHasRowParent = true;
+                    } else if (d == itgDepth + 2 && indexes[d - 1] == 1) {
+                        row = new Row(d);
+                    }
+                } else if (d == itgDepth + 1) {
+                    row = new Row(d);
+                }
+            }
+        }
+
+        private void onOpenInRow(Row row, int d) {
+            int tag = tags[d];
+            int offset = offsets[d];
+
+            // Title, gid, token, tags
+            if (row.glnameDepth == -1) {
+                if (hasClass(d, "glname")) {
+                    row.glnameDepth = d;
+                    if (tag == TAG_A) {
+                        row.a = offset;
+                    } else if (tags[d - 1] == TAG_A) {
+                        row.glnameParentA = offsets[d - 1];
+                    }
+                    row.titleDepth = d;
+                    row.title = capture(d);
+                }
+            } else if (!row.glnameClosed) {
+                if (row.a == -1 && tag == TAG_A) {
+                    row.a = offset;
+                }
+                if (row.titleDepth == d - 1 && row.title.getText() == null) {
+                    // The first child, go down
+                    captures.remove(row.title);
+                    row.titleDepth = d;
+                    row.title = capture(d);
+                }
+
+                if (row.tbodyDepth == -1) {
+                    if (tag == TAG_TBODY) {
+                        row.tbodyDepth = d;
+                        row.tags = new ArrayList<>();
+                    }
+                } else if (!row.tbodyClosed) {
+                    if (d == row.tbodyDepth + 1) {
+                        row.groupName = null;
+                        row.hasGroupTags = false;
+                        row.groupTags = null;
+                    } else if (d == row.tbodyDepth + 2) {
+                        if (indexes[d] == 1) {
+                            row.groupName = capture(d);
+                        } else if (indexes[d] == 2) {
+                            row.hasGroupTags = true;
+                            row.groupTags = new ArrayList<>();
+                        }
+                    } else if (d == row.tbodyDepth + 3 && indexes[d - 1] == 2) {
+                        row.groupTags.add(capture(d));
+                    }
+                }
+            }
+
+            // Category
+            if (row.cn == null && hasClass(d, "cn")) {
+                row.cn = capture(d);
+            }
+            if (row.cs == null && hasClass(d, "cs")) {
+                row.cs = capture(d);
+            }
+
+            // Thumb
+            if (row.glthumbDepth == -1) {
+                if (hasClass(d, "glthumb")) {
+                    row.glthumbDepth = d;
+                }
+            }
+            if (row.glthumbDepth != -1 && !row.glthumbClosed) {
+                // div:nth-child(1)>img
+                if (row.glthumbImg == -1 && tag == TAG_IMG && isNthDiv(d - 1, 1)) {
+                    row.glthumbImg = offset;
+                }
+                // div:nth-child(2)>div:nth-child(2)>div:nth-child(2)
+                if (row.glthumbPages == null && isNthDiv(d, 2) &&
+                        isNthDiv(d - 1, 2) && isNthDiv(d - 2, 2)) {
+                    row.glthumbPages = capture(d);
+                }
+            }
+            if (row.gl1eDepth == -1) {
+                if (hasClass(d, "gl1e")) {
+                    row.gl1eDepth = d;
+                }
+            }
+            if (row.gl1eDepth != -1 && !row.gl1eClosed && row.gl1eImg == -1 && tag == TAG_IMG) {
+                row.gl1eImg = offset;
+            }
+            if (row.gl3tDepth == -1) {
+                if (hasClass(d, "gl3t")) {
+                    row.gl3tDepth = d;
+                }
+            }
+            if (row.gl3tDepth != -1 && !row.gl3tClosed && row.gl3tImg == -1 && tag == TAG_IMG) {
+                row.gl3tImg = offset;
+            }
+
+            // Posted
+            if (offset >= 0 && tokenizer.attributeStartsWith(offset, "id", "posted_")) {
+                if (row.posted == null) {
+                    row.posted = new ArrayList<>(1);
+                }
+                row.posted.add(new PostedCandidate(tokenizer.getAttribute(offset, "id"), offset, capture(d)));
+            }
+
+            // Rating
+            if (row.ir == -1 && hasClass(d, "ir")) {
+                row.ir = offset;
+            }
+
+            // Uploader and pages
+            if (row.glhideDepth == -1) {
+                if (hasClass(d, "glhide")) {
+                    row.glhideDepth = d;
+                }
+            } else if (!row.glhideClosed) {
+                // Uploader in the first child of children[0], pages in children[1]
+                if (d == row.glhideDepth + 1 && indexes[d] == 2) {
+                    row.glhidePages = capture(d);
+                } else if (d == row.glhideDepth + 2 && indexes[d] == 1 && indexes[d - 1] == 1) {
+                    row.glhideUploader = capture(d);
+                }
+            }
+            if (row.gl3eDepth == -1) {
+                if (hasClass(d, "gl3e")) {
+                    row.gl3eDepth = d;
+                }
+            } else if (!row.gl3eClosed) {
+                // Uploader in the first child of children[3], pages in children[4]
+                if (d == row.gl3eDepth + 1 && indexes[d] == 5) {
+                    row.gl3ePages = capture(d);
+                } else if (d == row.gl3eDepth + 2 && indexes[d] == 1 && indexes[d - 1] == 4) {
+                    row.gl3eUploader = capture(d);
+                }
+            }
+
+            // For thumbnail
+            if (row.gl5tDepth == -1) {
+                if (hasClass(d, "gl5t")) {
+                    row.gl5tDepth = d;
+                }
+            }
+            if (row.gl5tDepth != -1 && !row.gl5tClosed && row.gl5tPages == null &&
+                    isNthDiv(d, 2) && isNthDiv(d - 1, 2)) {
+                // div:nth-child(2)>div:nth-child(2)
+                row.gl5tPages = capture(d);
+            }
+        }
+
+        private void onClose(int d) {
+            boolean block = isBlock(tags[d]);
+            for (int i = captures.size() - 1; i >= 0; i--) {
+                TextCapture capture = captures.get(i);
+                if (capture.depth == d) {
+                    capture.text = capture.sb.toString().trim();
+                    captures.remove(i);
+                } else {
+                    capture.pendingSpace = block;
+                }
+            }
+
+            if (d == pttDepth) {
+                pttClosed = true;
+            }
+            if (d == pttCellsDepth) {
+                pttCellsClosed = true;
+            }
+            if (d == itgDepth) {
+                itgClosed = true;
+            }
+
+            Row row = this.row;
+            if (row == null) {
+                return;
+            }
+            if (d == row.depth) {
+                this.row = null;
+                GalleryInfo gi = parseGalleryInfo(tokenizer, row);
+                if (gi != null) {
+                    list.add(gi);
+                }
+                return;
+            }
+
+            if (d == row.glnameDepth) {
+                row.glnameClosed = true;
+            }
+            if (d == row.tbodyDepth) {
+                row.tbodyClosed = true;
+            } else if (row.tbodyDepth != -1 && !row.tbodyClosed && d == row.tbodyDepth + 1) {
+                addTagGroup(row);
+            }
+            if (d == row.glthumbDepth) {
+                row.glthumbClosed = true;
+            }
+            if (d == row.gl1eDepth) {
+                row.gl1eClosed = true;
+            }
+            if (d == row.gl3tDepth) {
+                row.gl3tClosed = true;
+            }
+            if (d == row.glhideDepth) {
+                row.glhideClosed = true;
+            }
+            if (d == row.gl3eDepth) {
+                row.gl3eClosed = true;
+            }
+            if (d == row.gl5tDepth) {
+                row.gl5tClosed = true;
+            }
+        }
+
+        // Same as GalleryDetailParser.parseTagGroup()
+        private static void addTagGroup(Row row) {
+            if (row.groupName == null || !row.hasGroupTags) {
+                return;
+            }
+            String nameSpace = row.groupName.getText();
+            if (TextUtils.isEmpty(nameSpace)) {
+                return;
+            }
+            // Remove last ':'
+            nameSpace = nameSpace.substring(0, nameSpace.length() - 1);
+            for (TextCapture capture : row.groupTags) {
+                String tag = capture.getText();
+                // Sometimes parody tag is followed with '|' and english translate, just remove them
+                int index = tag.indexOf('|');
+                if (index >= 0) {
+                    tag = tag.substring(0, index).trim();
+                }
+                row.tags.add(nameSpace + ":" + tag);
+            }
+        }
+    }
+
+    /**
+     * Returns the first "\d+px" matched number after the offset,
+     * or {@code -1} if not found.
+     */
+    private static long findPx(String str, int from) {
+        int n = str.length();
+        for (int i = from; i < n; i++) {
+            if (!isDigit(str.charAt(i))) {
+                continue;
+            }
+            int start = i;
+            while (i < n && isDigit(str.charAt(i))) {
+                i++;
+            }
+            if (str.startsWith("px", i)) {
+                return ((long) parseInt(str, start, i, Integer.MIN_VALUE) << 32) | (i + 2);
+            }
+        }
+        return -1;
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    /**
+     * Parses digits in the range, returns {@code defaultValue} if it overflows.
+     */
+    private static int parseInt(String str, int start, int end, int defaultValue) {
+        if (start == end) {
+            return defaultValue;
+        }
+        long value = 0;
+        for (int i = start; i < end; i++) {
+            value = value * 10 + (str.charAt(i) - '0');
+            if (value > Integer.MAX_VALUE) {
+                return defaultValue;
+            }
         }
+        return (int) value;
+    }
+
+    // Returns the end of the digits from the index
+    private static int skipDigits(String str, int index) {
+        while (index < str.length() && isDigit(str.charAt(index))) {
+            index++;
+        }
+        return index;
     }
 
     private static String parseRating(String ratingStyle) {
-        Matcher m = PATTERN_RATING.matcher(ratingStyle);
-        int num1 = Integer.MIN_VALUE;
-        int num2 = Integer.MIN_VALUE;
-        int rate = 5;
-        String re;
-        if (m.find()) {
-            num1 = ParserUtils.parseInt(m.group().replace("px", ""), Integer.MIN_VALUE);
-        }
-        if (m.find()) {
-            num2 = ParserUtils.parseInt(m.group().replace("px", ""), Integer.MIN_VALUE);
-        }
-        if (num1 == Integer.MIN_VALUE || num2 == Integer.MIN_VALUE) {
+        long num1 = findPx(ratingStyle, 0);
+        long num2 = num1 == -1 ? -1 : findPx(ratingStyle, (int) num1);
+        if (num1 == -1 || num2 == -1 ||
+                (int) (num1 >> 32) == Integer.MIN_VALUE || (int) (num2 >> 32) == Integer.MIN_VALUE) {
             return null;
         }
-        rate = rate - num1 / 16;
-        if (num2 == 21) {
+        int rate = 5 - (int) (num1 >> 32) / 16;
+        if ((int) (num2 >> 32) == 21) {
             rate--;
-            re = Integer.toString(rate);
-            re = re + ".5";
-        } else
-            re = Integer.toString(rate);
-        return re;
+            return rate + ".5";
+        } else {
+            return Integer.toString(rate);
+        }
     }
 
+    /**
+     * Finds "background-color:rgba(r,g,b," in style.
+     */
     private static int parseFavoriteSlot(String style) {
-        Matcher m = PATTERN_FAVORITE_SLOT.matcher(style);
-        if (m.find()) {
-            String r = m.group(1);
-            String g = m.group(2);
-            String b = m.group(3);
+        String prefix = "background-color:rgba(";
+        for (int i = style.indexOf(prefix); i >= 0; i = style.indexOf(prefix, i + 1)) {
+            int[] ends = new int[4];
+            ends[0] = i + prefix.length() - 1;
+            boolean matched = true;
+            for (int j = 1; j < 4; j++) {
+                int start = ends[j - 1] + 1;
+                ends[j] = skipDigits(style, start);
+                if (ends[j] == start || ends[j] == style.length() || style.charAt(ends[j]) != ',') {
+                    matched = false;
+                    break;
+                }
+            }
+            if (!matched) {
+                continue;
+            }
             int slot = 0;
             for (String[] rgb : FAVORITE_SLOT_RGB) {
-                if (r.equals(rgb[0]) && g.equals(rgb[1]) && b.equals(rgb[2])) {
+                if (regionEquals(style, ends[0] + 1, ends[1], rgb[0]) &&
+                        regionEquals(style, ends[1] + 1, ends[2], rgb[1]) &&
+                        regionEquals(style, ends[2] + 1, ends[3], rgb[2])) {
                     return slot;
                 }
                 slot++;
             }
+            return -2;
         }
         return -2;
     }
 
-    private static GalleryInfo parseGalleryInfo(Element e) {
+    private static boolean regionEquals(String str, int start, int end, String other) {
+        return end - start == other.length() && str.startsWith(other, start);
+    }
+
+    /**
+     * Finds "height:(\d+)px;width:(\d+)px" in style,
+     * sets thumb size, or zero if not found.
+     */
+    private static void parseThumbSize(GalleryInfo gi, String style) {
+        String heightPrefix = "height:";
+        String widthPrefix = "px;width:";
+        for (int i = style.indexOf(heightPrefix); i >= 0; i = style.indexOf(heightPrefix, i + 1)) {
+            int heightStart = i + heightPrefix.length();
+            int heightEnd = skipDigits(style, heightStart);
+            if (heightEnd == heightStart || !style.startsWith(widthPrefix, heightEnd)) {
+                continue;
+            }
+            int widthStart = heightEnd + widthPrefix.length();
+            int widthEnd = skipDigits(style, widthStart);
+            if (widthEnd == widthStart || !style.startsWith("px", widthEnd)) {
+                continue;
+            }
+            gi.thumbWidth = parseInt(style, widthStart, widthEnd, 0);
+            gi.thumbHeight = parseInt(style, heightStart, heightEnd, 0);
+            return;
+        }
+        Log.w(TAG, "Can't parse gallery info thumb size");
+        gi.thumbWidth = 0;
+        gi.thumbHeight = 0;
+    }
+
+    /**
+     * Finds "(\d+) page" in text, or returns {@code -1}.
+     */
+    private static int parsePages(@Nullable String text) {
+        if (text == null) {
+            return -1;
+        }
+        for (int i = text.indexOf(" page"); i >= 0; i = text.indexOf(" page", i + 1)) {
+            int start = i;
+            while (start > 0 && isDigit(text.charAt(start - 1))) {
+                start--;
+            }
+            if (start != i) {
+                return parseInt(text, start, i, 0);
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Finds "page=(\d+)" in url, or returns {@code -1}.
+     */
+    private static int parseNextPage(String url) {
+        for (int i = url.indexOf("page="); i >= 0; i = url.indexOf("page=", i + 1)) {
+            int start = i + 5;
+            int end = skipDigits(url, start);
+            if (end != start) {
+                return parseInt(url, start, end, 0);
+            }
+        }
+        return -1;
+    }
+
+    @Nullable
+    private static GalleryInfo parseGalleryInfo(HtmlTokenizer tokenizer, Row row) {
         GalleryInfo gi = new GalleryInfo();
 
         // Title, gid, token (required), tags
-        Element glname = JsoupUtils.getElementByClass(e, "glname");
-        if (glname != null) {
-            Element a = JsoupUtils.getElementByTag(glname, "a");
-            if (a == null) {
-                Element parent = glname.parent();
-                if (parent != null && "a".equals(parent.tagName())) {
-                    a = parent;
-                }
-            }
-            if (a != null) {
-                GalleryDetailUrlParser.Result result = GalleryDetailUrlParser.parse(a.attr("href"));
+        if (row.glnameDepth != -1) {
+            int a = row.a != -1 ? row.a : row.glnameParentA;
+            if (a != -1) {
+                GalleryDetailUrlParser.Result result = GalleryDetailUrlParser.parse(tokenizer.attr(a, "href"));
                 if (result != null) {
                     gi.gid = result.gid;
                     gi.token = result.token;
                 }
             }
 
-            Element child = glname;
-            Elements children = glname.children();
-            while (children.size() != 0) {
-                child = children.get(0);
-                children = child.children();
-            }
-            gi.title = child.text().trim();
+            gi.title = row.title.getText();
 
-            Element tbody = JsoupUtils.getElementByTag(glname, "tbody");
-            if (tbody != null) {
-                ArrayList<String> tags = new ArrayList<>();
-                GalleryTagGroup[] groups = GalleryDetailParser.parseTagGroups(tbody.children());
-                for (GalleryTagGroup group : groups) {
-                    for (int j = 0; j < group.size(); j++) {
-                        tags.add(group.groupName + ":" + group.getTagAt(j));
-                    }
-                }
-                gi.simpleTags = tags.toArray(new String[tags.size()]);
+            if (row.tags != null) {
+                gi.simpleTags = row.tags.toArray(new String[row.tags.size()]);
             }
         }
         if (gi.title == null) {
@@ -166,126 +954,85 @@ public class GalleryListParser {
 
         // Category
         gi.category = EhUtils.UNKNOWN;
-        Element ce = JsoupUtils.getElementByClass(e, "cn");
-        if (ce == null) {
-            ce = JsoupUtils.getElementByClass(e, "cs");
-        }
+        TextCapture ce = row.cn != null ? row.cn : row.cs;
         if (ce != null) {
-            gi.category = EhUtils.getCategory(ce.text());
+            gi.category = EhUtils.getCategory(ce.getText());
         }
 
         // Thumb
-        Element glthumb = JsoupUtils.getElementByClass(e, "glthumb");
-        if (glthumb != null) {
-            Element img = glthumb.select("div:nth-child(1)>img").first();
-            if (img != null) {
-                // Thumb size
-                Matcher m = PATTERN_THUMB_SIZE.matcher(img.attr("style"));
-                if (m.find()) {
-                    gi.thumbWidth = NumberUtils.parseIntSafely(m.group(2), 0);
-                    gi.thumbHeight = NumberUtils.parseIntSafely(m.group(1), 0);
-                } else {
-                    Log.w(TAG, "Can't parse gallery info thumb size");
-                    gi.thumbWidth = 0;
-                    gi.thumbHeight = 0;
-                }
-                // Thumb url
-                String url = img.attr("data-src");
-                if (TextUtils.isEmpty(url)) {
-                    url = img.attr("src");
-                }
-                if (TextUtils.isEmpty(url)) {
-                    url = null;
-                }
-                gi.thumb = EhUtils.handleThumbUrlResolution(url);
+        if (row.glthumbImg != -1) {
+            int img = row.glthumbImg;
+            parseThumbSize(gi, tokenizer.attr(img, "style"));
+            String url = tokenizer.attr(img, "data-src");
+            if (TextUtils.isEmpty(url)) {
+                url = tokenizer.attr(img, "src");
             }
-
-            // Pages
-            Element div = glthumb.select("div:nth-child(2)>div:nth-child(2)>div:nth-child(2)").first();
-            if (div != null) {
-                Matcher matcher = PATTERN_PAGES.matcher(div.text());
-                if (matcher.find()) {
-                    gi.pages = NumberUtils.parseIntSafely(matcher.group(1), 0);
-                }
+            if (TextUtils.isEmpty(url)) {
+                url = null;
+            }
+            gi.thumb = EhUtils.handleThumbUrlResolution(url);
+        }
+        if (row.glthumbPages != null) {
+            int pages = parsePages(row.glthumbPages.getText());
+            if (pages != -1) {
+                gi.pages = pages;
             }
         }
         // Try extended and thumbnail version
         if (gi.thumb == null) {
-            Element gl = JsoupUtils.getElementByClass(e, "gl1e");
-            if (gl == null) {
-                gl = JsoupUtils.getElementByClass(e, "gl3t");
-            }
-            if (gl != null) {
-                Element img = JsoupUtils.getElementByTag(gl, "img");
-                if (img != null) {
-                    // Thumb size
-                    Matcher m = PATTERN_THUMB_SIZE.matcher(img.attr("style"));
-                    if (m.find()) {
-                        gi.thumbWidth = NumberUtils.parseIntSafely(m.group(2), 0);
-                        gi.thumbHeight = NumberUtils.parseIntSafely(m.group(1), 0);
-                    } else {
-                        Log.w(TAG, "Can't parse gallery info thumb size");
-                        gi.thumbWidth = 0;
-                        gi.thumbHeight = 0;
-                    }
-                    gi.thumb = EhUtils.handleThumbUrlResolution(img.attr("src"));
-                }
+            int img = row.gl1eDepth != -1 ? row.gl1eImg : row.gl3tImg;
+            if (img != -1) {
+                parseThumbSize(gi, tokenizer.attr(img, "style"));
+                gi.thumb = EhUtils.handleThumbUrlResolution(tokenizer.attr(img, "src"));
             }
         }
 
         // Posted
         gi.favoriteSlot = -2;
-        Element posted = e.getElementById("posted_" + gi.gid);
-        if (posted != null) {
-            gi.posted = posted.text().trim();
-            gi.favoriteSlot = parseFavoriteSlot(posted.attr("style"));
-        }
-        if (gi.favoriteSlot == -2) {
-            gi.favoriteSlot = EhDB.containLocalFavorites(gi.gid) ? -1 : -2;
+        if (row.posted != null) {
+            String id = "posted_" + gi.gid;
+            for (PostedCandidate posted : row.posted) {
+                if (id.equals(posted.id)) {
+                    gi.posted = posted.text.getText();
+                    gi.favoriteSlot = parseFavoriteSlot(tokenizer.attr(posted.offset, "style"));
+                    break;
+                }
+            }
         }
 
         // Rating
-        Element ir = JsoupUtils.getElementByClass(e, "ir");
-        if (ir != null) {
-            gi.rating = NumberUtils.parseFloatSafely(parseRating(ir.attr("style")), -1.0f);
+        if (row.ir != -1) {
+            gi.rating = NumberUtils.parseFloatSafely(parseRating(tokenizer.attr(row.ir, "style")), -1.0f);
             // TODO The gallery may be rated even if it doesn't has one of these classes
-            gi.rated = ir.hasClass("irr") || ir.hasClass("irg") || ir.hasClass("irb");
+            gi.rated = tokenizer.hasClass(row.ir, "irr") || tokenizer.hasClass(row.ir, "irg") ||
+                    tokenizer.hasClass(row.ir, "irb");
         }
 
         // Uploader and pages
-        Element gl = JsoupUtils.getElementByClass(e, "glhide");
-        int uploaderIndex = 0;
-        int pagesIndex = 1;
-        if (gl == null) {
+        TextCapture uploader;
+        TextCapture pages;
+        if (row.glhideDepth != -1) {
+            uploader = row.glhideUploader;
+            pages = row.glhidePages;
+        } else {
             // For extended
-            gl = JsoupUtils.getElementByClass(e, "gl3e");
-            uploaderIndex = 3;
-            pagesIndex = 4;
+            uploader = row.gl3eUploader;
+            pages = row.gl3ePages;
         }
-        if (gl != null) {
-            Elements children = gl.children();
-            if (children.size() > uploaderIndex) {
-                Element a = children.get(uploaderIndex).children().first();
-                if (a != null) {
-                    gi.uploader = a.text().trim();
-                }
-            }
-            if (children.size() > pagesIndex) {
-                Matcher matcher = PATTERN_PAGES.matcher(children.get(pagesIndex).text());
-                if (matcher.find()) {
-                    gi.pages = NumberUtils.parseIntSafely(matcher.group(1), 0);
-                }
+        if (uploader != null) {
+            gi.uploader = uploader.getText();
+        }
+        if (pages != null) {
+            int p = parsePages(pages.getText());
+            if (p != -1) {
+                gi.pages = p;
             }
         }
         // For thumbnail
-        Element gl5t = JsoupUtils.getElementByClass(e, "gl5t");
-        if (gl5t != null) {
-            Element div = gl5t.select("div:nth-child(2)>div:nth-child(2)").first();
-            if (div != null) {
-                Matcher matcher = PATTERN_PAGES.matcher(div.text());
-                if (matcher.find()) {
-                    gi.pages = NumberUtils.parseIntSafely(matcher.group(1), 0);
-                }
+        if (row.gl5tPages != null) {
+            int p = parsePages(row.gl5tPages.getText());
+            if (p != -1) {
+                gi.pages = p;
             }
         }
 
@@ -295,65 +1042,68 @@ public class GalleryListParser {
     }
 
     public static Result parse(@NonNull String body) throws Exception {
+        return parse(body, true);
+    }
+
+    /**
+     * Like {@link #parse(String)}, but galleries in local favorites
+     * are only marked if {@code checkLocalFavorites} is true, it needs database.
+     */
+    @VisibleForTesting
+    static Result parse(@NonNull String body, boolean checkLocalFavorites) throws Exception {
         Result result = new Result();
-        Document d = Jsoup.parse(body);
+        Reader reader = new Reader(body);
 
         try {
-            Element ptt = d.getElementsByClass("ptt").first();
-            Elements es = ptt.child(0).child(0).children();
-            result.pages = Integer.parseInt(es.get(es.size() - 2).text().trim());
-
-            Element e = es.get(es.size() - 1);
-            if (e != null) {
-                e = e.children().first();
-                if (e != null) {
-                    String href = e.attr("href");
-                    Matcher matcher = PATTERN_NEXT_PAGE.matcher(href);
-                    if (matcher.find()) {
-                        result.nextPage = NumberUtils.parseIntSafely(matcher.group(1), 0);
-                    }
-                }
-            }
+            reader.read();
         } catch (Throwable e) {
             ExceptionUtils.throwIfFatal(e);
+            e.printStackTrace();
+            throw new ParseException("Can't parse gallery list", body);
+        }
+
+        boolean hasPages = false;
+        List<TextCapture> cells = reader.pttCells;
+        if (cells != null && cells.size() >= 2) {
+            try {
+                result.pages = Integer.parseInt(cells.get(cells.size() - 2).getText());
+                hasPages = true;
+            } catch (NumberFormatException e) {
+                // Ignore
+            }
+        }
+        if (hasPages) {
+            if (reader.pttLastCellFirstChild != -1) {
+                int nextPage = parseNextPage(reader.tokenizer.attr(reader.pttLastCellFirstChild, "href"));
+                if (nextPage != -1) {
+                    result.nextPage = nextPage;
+                }
+            }
+        } else {
             result.noWatchedTags = body.contains("<p>You do not have any watched tags");
             if (body.contains("No hits found</p>")) {
                 result.pages = 0;
                 //noinspection unchecked
                 result.galleryInfoList = Collections.EMPTY_LIST;
                 return result;
-            } else if (d.getElementsByClass("ptt").isEmpty()) {
+            } else if (!reader.hasPtt) {
                 result.pages = 1;
             } else {
                 result.pages = Integer.MAX_VALUE;
             }
         }
 
-        try {
-            Element itg = d.getElementsByClass("itg").first();
-            Elements es;
-            if ("table".equalsIgnoreCase(itg.tagName())) {
-                es = itg.child(0).children();
-            } else {
-                es = itg.children();
-            }
-            List<GalleryInfo> list = new ArrayList<>(es.size());
-            // First one is table header, skip it
-            for (int i = 0; i < es.size(); i++) {
-                GalleryInfo gi = parseGalleryInfo(es.get(i));
-                if (null != gi) {
-                    list.add(gi);
+        if (!reader.hasItg || !reader.itgHasRowParent || reader.list.isEmpty()) {
+            throw new ParseException("Can't parse gallery list", body);
+        }
+        if (checkLocalFavorites) {
+            for (GalleryInfo gi : reader.list) {
+                if (gi.favoriteSlot == -2) {
+                    gi.favoriteSlot = EhDB.containLocalFavorites(gi.gid) ? -1 : -2;
                 }
             }
-            if (list.isEmpty()) {
-                throw new ParseException("No gallery", body);
-            }
-            result.galleryInfoList = list;
-        } catch (Throwable e) {
-            ExceptionUtils.throwIfFatal(e);
-            e.printStackTrace();
-            throw new ParseException("Can't parse gallery list", body);
         }
+        result.galleryInfoList = reader.list;
 
         return result;
     }
@@ -0,0 +1,387 @@
+/*
+ * Copyright 2019 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.ehviewer.client.parser;
+
+import androidx.annotation.Nullable;
+import org.jsoup.parser.Parser;
+
+/**
+ * A pull tokenizer of html, it doesn't build any tree.
+ * Tags and texts are ranges of the html string, attributes are only
+ * read when they are asked. Comments, doctype and the content of
+ * raw text elements like script are skipped.
+ */
+final class HtmlTokenizer {
+
+    static final int EOF = 0;
+    static final int START_TAG = 1;
+    static final int END_TAG = 2;
+    static final int TEXT = 3;
+
+    private static final String[] RAW_TEXT_TAGS = { "script", "style", "textarea", "title" };
+
+    private final String html;
+    private final int length;
+    private int pos;
+
+    private int tagStart;
+    private int nameStart;
+    private int nameEnd;
+    private int textStart;
+    private int textEnd;
+    private boolean selfClosing;
+
+    // The end tag to skip to, after a raw text start tag
+    @Nullable
+    private String rawTextTag;
+
+    HtmlTokenizer(String html) {
+        this.html = html;
+        this.length = html.length();
+    }
+
+    int next() {
+        if (rawTextTag != null) {
+            pos = indexOfEndTag(rawTextTag, pos);
+            rawTextTag = null;
+        }
+
+        while (pos < length) {
+            char c = html.charAt(pos);
+            if (c != '<' || pos + 1 >= length) {
+                return readText();
+            }
+
+            char n = html.charAt(pos + 1);
+            if (isLetter(n)) {
+                readTag(pos + 1);
+                for (String tag : RAW_TEXT_TAGS) {
+                    if (!selfClosing && isName(tag)) {
+                        rawTextTag = tag;
+                        break;
+                    }
+                }
+                return START_TAG;
+            } else if (n == '/') {
+                if (pos + 2 < length && isLetter(html.charAt(pos + 2))) {
+                    readTag(pos + 2);
+                    return END_TAG;
+                }
+                // Bogus comment
+                pos = skipTo('>', pos + 2);
+            } else if (n == '!') {
+                if (html.startsWith("<!--", pos)) {
+                    int end = html.indexOf("-->", pos + 4);
+                    pos = end < 0 ? length : end + 3;
+                } else {
+                    // Doctype
+                    pos = skipTo('>', pos + 2);
+                }
+            } else if (n == '?') {
+                pos = skipTo('>', pos + 2);
+            } else {
+                return readText();
+            }
+        }
+        return EOF;
+    }
+
+    private static boolean isLetter(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+    }
+
+    private static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\r' || c == '\f';
+    }
+
+    private int skipTo(char c, int from) {
+        int index = html.indexOf(c, from);
+        return index < 0 ? length : index + 1;
+    }
+
+    private int indexOfEndTag(String tag, int from) {
+        for (int i = html.indexOf("</", from); i >= 0; i = html.indexOf("</", i + 2)) {
+            if (html.regionMatches(true, i + 2, tag, 0, tag.length())) {
+                return i;
+            }
+        }
+        return length;
+    }
+
+    private int readText() {
+        textStart = pos;
+        // A '<' at pos is a text char, not a tag
+        int end = html.indexOf('<', pos + 1);
+        textEnd = end < 0 ? length : end;
+        pos = textEnd;
+        return TEXT;
+    }
+
+    private void readTag(int from) {
+        tagStart = pos;
+        nameStart = from;
+        int i = from;
+        while (i < length) {
+            char c = html.charAt(i);
+            if (isWhitespace(c) || c == '/' || c == '>') {
+                break;
+            }
+            i++;
+        }
+        nameEnd = i;
+
+        // Find the end of the tag, '>' in quoted values doesn't count
+        char quote = 0;
+        char last = 0;
+        char beforeLast = 0;
+        while (i < length) {
+            char c = html.charAt(i);
+            if (quote != 0) {
+                if (c == quote) {
+                    quote = 0;
+                }
+            } else if (c == '"' || c == '\'') {
+                quote = c;
+            } else if (c == '>') {
+                break;
+            }
+            if (!isWhitespace(c)) {
+                beforeLast = last;
+                last = c;
+            }
+            i++;
+        }
+        selfClosing = last == '/' && (i - 1 == nameEnd || isWhitespace(html.charAt(i - 2)) ||
+                beforeLast == '"' || beforeLast == '\'');
+        pos = Math.min(length, i + 1);
+    }
+
+    /**
+     * Returns the offset of current tag. It can be used to read
+     * attributes later, after the tokenizer moves on.
+     */
+    int getTagOffset() {
+        return tagStart;
+    }
+
+    boolean isSelfClosing() {
+        return selfClosing;
+    }
+
+    /**
+     * Case-insensitive.
+     */
+    boolean isName(String name) {
+        return nameEnd - nameStart == name.length() &&
+                html.regionMatches(true, nameStart, name, 0, name.length());
+    }
+
+    int getNameStart() {
+        return nameStart;
+    }
+
+    int getNameLength() {
+        return nameEnd - nameStart;
+    }
+
+    /**
+     * Case-insensitive.
+     */
+    boolean isSameName(int otherNameStart, int otherNameLength) {
+        return nameEnd - nameStart == otherNameLength &&
+                html.regionMatches(true, nameStart, html, otherNameStart, otherNameLength);
+    }
+
+    int getTextStart() {
+        return textStart;
+    }
+
+    int getTextEnd() {
+        return textEnd;
+    }
+
+    /**
+     * Finds the value range of the attribute of the tag at the offset.
+     *
+     * @return start in high 32 bits and end in low 32 bits, or -1 if not found
+     */
+    long findAttribute(int tagOffset, String name) {
+        int i = tagOffset + 1;
+        // Skip tag name
+        while (i < length) {
+            char c = html.charAt(i);
+            if (isWhitespace(c) || c == '/' || c == '>') {
+                break;
+            }
+            i++;
+        }
+
+        while (i < length) {
+            char c = html.charAt(i);
+            if (c == '>') {
+                return -1;
+            }
+            if (isWhitespace(c) || c == '/') {
+                i++;
+                continue;
+            }
+
+            int attrNameStart = i;
+            while (i < length) {
+                c = html.charAt(i);
+                if (isWhitespace(c) || c == '=' || c == '>' || c == '/') {
+                    break;
+                }
+                i++;
+            }
+            int attrNameEnd = i;
+            while (i < length && isWhitespace(html.charAt(i))) {
+                i++;
+            }
+
+            int valueStart = i;
+            int valueEnd = i;
+            if (i < length && html.charAt(i) == '=') {
+                i++;
+                while (i < length && isWhitespace(html.charAt(i))) {
+                    i++;
+                }
+                if (i < length && (html.charAt(i) == '"' || html.charAt(i) == '\'')) {
+                    char quote = html.charAt(i);
+                    valueStart = i + 1;
+                    int end = html.indexOf(quote, valueStart);
+                    valueEnd = end < 0 ? length : end;
+                    i = Math.min(length, valueEnd + 1);
+                } else {
+                    valueStart = i;
+                    while (i < length) {
+                        c = html.charAt(i);
+                        if (isWhitespace(c) || c == '>') {
+                            break;
+                        }
+                        i++;
+                    }
+                    valueEnd = i;
+                }
+            }
+
+            // The first one wins
+            if (attrNameEnd - attrNameStart == name.length() &&
+                    html.regionMatches(true, attrNameStart, name, 0, name.length())) {
+                return ((long) valueStart << 32) | valueEnd;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the unescaped value of the attribute, or {@code null} if not found.
+     */
+    @Nullable
+    String getAttribute(int tagOffset, String name) {
+        long range = findAttribute(tagOffset, name);
+        if (range < 0) {
+            return null;
+        }
+        return unescape((int) (range >>> 32), (int) range, true);
+    }
+
+    /**
+     * Like {@link #getAttribute(int, String)}, but returns empty string if not found.
+     */
+    String attr(int tagOffset, String name) {
+        String value = getAttribute(tagOffset, name);
+        return value != null ? value : "";
+    }
+
+    boolean hasClass(int tagOffset, String className) {
+        long range = findAttribute(tagOffset, "class");
+        if (range < 0) {
+            return false;
+        }
+        int end = (int) range;
+        int i = (int) (range >>> 32);
+        while (i < end) {
+            while (i < end && isWhitespace(html.charAt(i))) {
+                i++;
+            }
+            int start = i;
+            while (i < end && !isWhitespace(html.charAt(i))) {
+                i++;
+            }
+            if (i - start == className.length() &&
+                    html.regionMatches(true, start, className, 0, className.length())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns true if the attribute of the tag at the offset starts with the prefix.
+     */
+    boolean attributeStartsWith(int tagOffset, String name, String prefix) {
+        long range = findAttribute(tagOffset, name);
+        if (range < 0) {
+            return false;
+        }
+        int start = (int) (range >>> 32);
+        int end = (int) range;
+        return end - start >= prefix.length() && html.startsWith(prefix, start);
+    }
+
+    String unescape(int start, int end, boolean inAttribute) {
+        String str = html.substring(start, end);
+        return str.indexOf('&') >= 0 ? Parser.unescapeEntities(str, inAttribute) : str;
+    }
+
+    /**
+     * Appends the text range to the builder, whitespaces are collapsed like {@code Element.text()}.
+     */
+    void appendNormalisedText(StringBuilder sb, int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (html.charAt(i) == '&') {
+                appendNormalisedText(sb, Parser.unescapeEntities(html.substring(start, end), false), 0, -1);
+                return;
+            }
+        }
+        appendNormalisedText(sb, html, start, end);
+    }
+
+    private static void appendNormalisedText(StringBuilder sb, String str, int start, int end) {
+        if (end < 0) {
+            end = str.length();
+        }
+        boolean lastWasWhite = sb.length() > 0 && sb.charAt(sb.length() - 1) == ' ';
+        boolean stripLeading = lastWasWhite;
+        boolean reachedNonWhite = false;
+        for (int i = start; i < end; i++) {
+            char c = str.charAt(i);
+            if (c == ' ' || c == '\t' || c == '\n' || c == '\f' || c == '\r' || c == 160) {
+                if ((stripLeading && !reachedNonWhite) || lastWasWhite) {
+                    continue;
+                }
+                sb.append(' ');
+                lastWasWhite = true;
+            } else if (c != 8203 && c != 173) {
+                sb.append(c);
+                lastWasWhite = false;
+                reachedNonWhite = true;
+            }
+        }
+    }
+}
@@ -23,6 +23,7 @@ import android.util.Log;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import com.hippo.ehviewer.EhDB;
+import com.hippo.ehviewer.Settings;
 import com.hippo.ehviewer.client.data.GalleryInfo;
 import com.hippo.ehviewer.dao.DownloadInfo;
 import com.hippo.ehviewer.dao.DownloadLabel;
@@ -49,7 +50,7 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 
-public class DownloadManager implements SpiderQueen.OnSpiderListener {
+public class DownloadManager {
 
     private static final String TAG = DownloadManager.class.getSimpleName();
 
@@ -67,18 +68,13 @@ public class DownloadManager implements SpiderQueen.OnSpiderListener {
     private final LinkedList<DownloadInfo> mDefaultInfoList;
     // Store download info wait to start
     private final LinkedList<DownloadInfo> mWaitList;
-
-    private final SpeedReminder mSpeedReminder;
+    // Store running download tasks, in start order
+    private final LinkedList<DownloadTask> mActiveTasks;
 
     @Nullable
     private DownloadListener mDownloadListener;
     private final List<DownloadInfoListener> mDownloadInfoListeners;
 
-    @Nullable
-    private DownloadInfo mCurrentTask;
-    @Nullable
-    private SpiderQueen mCurrentSpider;
-
     private final ConcurrentPool<NotifyTask> mNotifyTaskPool = new ConcurrentPool<>(5);
 
     public DownloadManager(Context context) {
@@ -127,8 +123,11 @@ public class DownloadManager implements SpiderQueen.OnSpiderListener {
         }
 
         mWaitList = new LinkedList<>();
-        mSpeedReminder = new SpeedReminder();
+        mActiveTasks = new LinkedList<>();
         mDownloadInfoListeners = new ArrayList<>();
+
+        // Waiting downloads start as soon as concurrent download is raised
+        Settings.addOnSnapshotChangedListener(snapshot -> ensureDownload());
     }
 
     @Nullable
@@ -199,19 +198,26 @@ public class DownloadManager implements SpiderQueen.OnSpiderListener {
         mDownloadListener = listener;
     }
 
-    private void ensureDownload() {
-        if (mCurrentTask != null) {
-            // Only one download
-            return;
+    @Nullable
+    private DownloadTask getActiveTask(long gid) {
+        for (DownloadTask task : mActiveTasks) {
+            if (task.mInfo.gid == gid) {
+                return task;
+            }
         }
+        return null;
+    }
 
-        // Get download from wait list
-        if (!mWaitList.isEmpty()) {
+    private void ensureDownload() {
+        int maxCount = MathUtils.clamp(Settings.getConcurrentDownload(), 1, 5);
+
+        // Get download from wait list, keep the order of wait list
+        while (mActiveTasks.size() < maxCount && !mWaitList.isEmpty()) {
             DownloadInfo info = mWaitList.removeFirst();
             SpiderQueen spider = SpiderQueen.obtainSpiderQueen(mContext, info, SpiderQueen.MODE_DOWNLOAD);
-            mCurrentTask = info;
-            mCurrentSpider = spider;
-            spider.addOnSpiderListener(this);
+            DownloadTask task = new DownloadTask(info, spider);
+            mActiveTasks.add(task);
+            spider.addOnSpiderListener(task);
             info.state = DownloadInfo.STATE_DOWNLOAD;
             info.speed = -1;
             info.remaining = -1;
@@ -222,7 +228,7 @@ public class DownloadManager implements SpiderQueen.OnSpiderListener {
             // Update in DB
             EhDB.putDownloadInfo(info);
             // Start speed count
-            mSpeedReminder.start();
+            task.mSpeedReminder.start();
             // Notify start downloading
             if (mDownloadListener != null) {
                 mDownloadListener.onStart(info);
@@ -238,8 +244,8 @@ public class DownloadManager implements SpiderQueen.OnSpiderListener {
     }
 
     void startDownload(GalleryInfo galleryInfo, @Nullable String label) {
-        if (mCurrentTask != null && mCurrentTask.gid == galleryInfo.gid) {
-            // It is current task
+        if (getActiveTask(galleryInfo.gid) != null) {
+            // It is running task
             return;
         }
 
@@ -466,14 +472,10 @@ public class DownloadManager implements SpiderQueen.OnSpiderListener {
     }
 
     void stopCurrentDownload() {
-        DownloadInfo info = stopCurrentDownloadInternal();
-        if (info != null) {
+        if (stopActiveTasksInternal()) {
             // Update listener
-            List<DownloadInfo> list = getInfoListForLabel(info.label);
-            if (list != null) {
-                for (DownloadInfoListener l: mDownloadInfoListeners) {
-                    l.onUpdate(info, list);
-                }
+            for (DownloadInfoListener l: mDownloadInfoListeners) {
+                l.onUpdateAll();
             }
             // Ensure download
             ensureDownload();
@@ -501,8 +503,8 @@ public class DownloadManager implements SpiderQueen.OnSpiderListener {
         }
         mWaitList.clear();
 
-        // Stop current
-        stopCurrentDownloadInternal();
+        // Stop running
+        stopActiveTasksInternal();
 
         // Notify mDownloadInfoListener
         for (DownloadInfoListener l: mDownloadInfoListeners) {
@@ -620,10 +622,11 @@ public class DownloadManager implements SpiderQueen.OnSpiderListener {
     // Update listener
     // No ensureDownload
     private DownloadInfo stopDownloadInternal(long gid) {
-        // Check current task
-        if (mCurrentTask != null && mCurrentTask.gid == gid) {
-            // Stop current
-            return stopCurrentDownloadInternal();
+        // Check running task
+        DownloadTask task = getActiveTask(gid);
+        if (task != null) {
+            // Stop it
+            return stopTaskInternal(task);
         }
 
         for (Iterator<DownloadInfo> iterator = mWaitList.iterator(); iterator.hasNext();) {
@@ -643,21 +646,11 @@ public class DownloadManager implements SpiderQueen.OnSpiderListener {
 
     // Update in DB
     // Update mDownloadListener
-    private DownloadInfo stopCurrentDownloadInternal() {
-        DownloadInfo info = mCurrentTask;
-        SpiderQueen spider = mCurrentSpider;
+    private DownloadInfo stopTaskInternal(DownloadTask task) {
+        DownloadInfo info = task.mInfo;
+        mActiveTasks.remove(task);
         // Release spider
-        if (spider != null) {
-            spider.removeOnSpiderListener(DownloadManager.this);
-            SpiderQueen.releaseSpiderQueen(spider, SpiderQueen.MODE_DOWNLOAD);
-        }
-        mCurrentTask = null;
-        mCurrentSpider = null;
-        // Stop speed reminder
-        mSpeedReminder.stop();
-        if (info == null) {
-            return null;
-        }
+        task.release();
 
         // Update state
         info.state = DownloadInfo.STATE_NONE;
@@ -670,6 +663,19 @@ public class DownloadManager implements SpiderQueen.OnSpiderListener {
         return info;
     }
 
+    // Update in DB
+    // Update mDownloadListener
+    // Return true if any task is stopped
+    private boolean stopActiveTasksInternal() {
+        if (mActiveTasks.isEmpty()) {
+            return false;
+        }
+        for (DownloadTask task : new ArrayList<>(mActiveTasks)) {
+            stopTaskInternal(task);
+        }
+        return true;
+    }
+
     // Update in DB
     // Update mDownloadListener
     private void stopRangeDownloadInternal(LongList gidList) {
@@ -679,10 +685,11 @@ public class DownloadManager implements SpiderQueen.OnSpiderListener {
                 stopDownloadInternal(gidList.get(i));
             }
         } else {
-            // Check current task
-            if (mCurrentTask != null && gidList.contains(mCurrentTask.gid)) {
-                // Stop current
-                stopCurrentDownloadInternal();
+            // Check running tasks
+            for (DownloadTask task : new ArrayList<>(mActiveTasks)) {
+                if (gidList.contains(task.mInfo.gid)) {
+                    stopTaskInternal(task);
+                }
             }
 
             // Check all in wait list
@@ -838,77 +845,95 @@ public class DownloadManager implements SpiderQueen.OnSpiderListener {
     }
 
     boolean isIdle() {
-        return mCurrentTask == null && mWaitList.isEmpty();
+        return mActiveTasks.isEmpty() && mWaitList.isEmpty();
     }
 
-    @Override
-    public void onGetPages(int pages) {
-        NotifyTask task = mNotifyTaskPool.pop();
-        if (task == null) {
-            task = new NotifyTask();
-        }
-        task.setOnGetPagesData(pages);
-        SimpleHandler.getInstance().post(task);
+    boolean isDownloading() {
+        return !mActiveTasks.isEmpty();
     }
 
-    @Override
-    public void onGet509(int index) {
-        NotifyTask task = mNotifyTaskPool.pop();
-        if (task == null) {
-            task = new NotifyTask();
+    /**
+     * A running download, one for each gallery in {@link #mActiveTasks}.
+     * Spider callbacks are posted to the main thread and applied to the task.
+     */
+    private class DownloadTask implements SpiderQueen.OnSpiderListener {
+
+        private final DownloadInfo mInfo;
+        private final SpiderQueen mSpider;
+        private final SpeedReminder mSpeedReminder;
+
+        public DownloadTask(DownloadInfo info, SpiderQueen spider) {
+            mInfo = info;
+            mSpider = spider;
+            mSpeedReminder = new SpeedReminder(info, spider);
         }
-        task.setOnGet509Data(index);
-        SimpleHandler.getInstance().post(task);
-    }
 
-    @Override
-    public void onPageDownload(int index, long contentLength, long receivedSize, int bytesRead) {
-        NotifyTask task = mNotifyTaskPool.pop();
-        if (task == null) {
-            task = new NotifyTask();
+        public void release() {
+            mSpider.removeOnSpiderListener(this);
+            SpiderQueen.releaseSpiderQueen(mSpider, SpiderQueen.MODE_DOWNLOAD);
+            mSpeedReminder.stop();
         }
-        task.setOnPageDownloadData(index, contentLength, receivedSize, bytesRead);
-        SimpleHandler.getInstance().post(task);
-    }
 
-    @Override
-    public void onPageSuccess(int index, int finished, int downloaded, int total) {
-        NotifyTask task = mNotifyTaskPool.pop();
-        if (task == null) {
-            task = new NotifyTask();
+        private NotifyTask obtainNotifyTask() {
+            NotifyTask task = mNotifyTaskPool.pop();
+            if (task == null) {
+                task = new NotifyTask();
+            }
+            task.mTask = this;
+            return task;
         }
-        task.setOnPageSuccessData(index, finished, downloaded, total);
-        SimpleHandler.getInstance().post(task);
-    }
 
-    @Override
-    public void onPageFailure(int index, String error, int finished, int downloaded, int total) {
-        NotifyTask task = mNotifyTaskPool.pop();
-        if (task == null) {
-            task = new NotifyTask();
+        @Override
+        public void onGetPages(int pages) {
+            NotifyTask task = obtainNotifyTask();
+            task.setOnGetPagesData(pages);
+            SimpleHandler.getInstance().post(task);
         }
-        task.setOnPageFailureDate(index, error, finished, downloaded, total);
-        SimpleHandler.getInstance().post(task);
-    }
 
-    @Override
-    public void onFinish(int finished, int downloaded, int total) {
-        NotifyTask task = mNotifyTaskPool.pop();
-        if (task == null) {
-            task = new NotifyTask();
+        @Override
+        public void onGet509(int index) {
+            NotifyTask task = obtainNotifyTask();
+            task.setOnGet509Data(index);
+            SimpleHandler.getInstance().post(task);
         }
-        task.setOnFinishDate(finished, downloaded, total);
-        SimpleHandler.getInstance().post(task);
-    }
 
-    @Override
-    public void onGetImageSuccess(int index, Image image) {
-        // Ignore
-    }
+        @Override
+        public void onPageDownload(int index, long contentLength, long receivedSize, int bytesRead) {
+            NotifyTask task = obtainNotifyTask();
+            task.setOnPageDownloadData(index, contentLength, receivedSize, bytesRead);
+            SimpleHandler.getInstance().post(task);
+        }
+
+        @Override
+        public void onPageSuccess(int index, int finished, int downloaded, int total) {
+            NotifyTask task = obtainNotifyTask();
+            task.setOnPageSuccessData(index, finished, downloaded, total);
+            SimpleHandler.getInstance().post(task);
+        }
+
+        @Override
+        public void onPageFailure(int index, String error, int finished, int downloaded, int total) {
+            NotifyTask task = obtainNotifyTask();
+            task.setOnPageFailureDate(index, error, finished, downloaded, total);
+            SimpleHandler.getInstance().post(task);
+        }
+
+        @Override
+        public void onFinish(int finished, int downloaded, int total) {
+            NotifyTask task = obtainNotifyTask();
+            task.setOnFinishDate(finished, downloaded, total);
+            SimpleHandler.getInstance().post(task);
+        }
+
+        @Override
+        public void onGetImageSuccess(int index, Image image) {
+            // Ignore
+        }
 
-    @Override
-    public void onGetImageFailure(int index, String error) {
-        // Ignore
+        @Override
+        public void onGetImageFailure(int index, String error) {
+            // Ignore
+        }
     }
 
     private class NotifyTask implements Runnable {
@@ -920,6 +945,7 @@ public class DownloadManager implements SpiderQueen.OnSpiderListener {
         public static final int TYPE_ON_PAGE_FAILURE = 4;
         public static final int TYPE_ON_FINISH = 5;
 
+        private DownloadTask mTask;
         private int mType;
         private int mPages;
         private int mIndex;
@@ -976,18 +1002,23 @@ public class DownloadManager implements SpiderQueen.OnSpiderListener {
 
         @Override
         public void run() {
+            DownloadTask task = mTask;
+            mTask = null;
+
+            // The task might be stopped before this notify arrives
+            if (task == null || !mActiveTasks.contains(task)) {
+                mNotifyTaskPool.push(this);
+                return;
+            }
+
+            DownloadInfo info = task.mInfo;
             switch (mType) {
                 case TYPE_ON_GET_PAGES: {
-                    DownloadInfo info = mCurrentTask;
-                    if (info == null) {
-                        Log.e(TAG, "Current task is null, but it should not be");
-                    } else {
-                        info.total = mPages;
-                        List<DownloadInfo> list = getInfoListForLabel(info.label);
-                        if (list != null) {
-                            for (DownloadInfoListener l: mDownloadInfoListeners) {
-                                l.onUpdate(info, list);
-                            }
+                    info.total = mPages;
+                    List<DownloadInfo> list = getInfoListForLabel(info.label);
+                    if (list != null) {
+                        for (DownloadInfoListener l: mDownloadInfoListeners) {
+                            l.onUpdate(info, list);
                         }
                     }
                     break;
@@ -999,67 +1030,44 @@ public class DownloadManager implements SpiderQueen.OnSpiderListener {
                     break;
                 }
                 case TYPE_ON_PAGE_DOWNLOAD: {
-                    mSpeedReminder.onDownload(mIndex, mContentLength, mReceivedSize, mBytesRead);
+                    task.mSpeedReminder.onDownload(mIndex, mContentLength, mReceivedSize, mBytesRead);
                     break;
                 }
                 case TYPE_ON_PAGE_SUCCESS: {
-                    mSpeedReminder.onDone(mIndex);
-                    DownloadInfo info = mCurrentTask;
-                    if (info == null) {
-                        Log.e(TAG, "Current task is null, but it should not be");
-                    } else {
-                        info.finished = mFinished;
-                        info.downloaded = mDownloaded;
-                        info.total = mTotal;
-                        if (mDownloadListener != null) {
-                            mDownloadListener.onGetPage(info);
-                        }
-                        List<DownloadInfo> list = getInfoListForLabel(info.label);
-                        if (list != null) {
-                            for (DownloadInfoListener l: mDownloadInfoListeners) {
-                                l.onUpdate(info, list);
-                            }
+                    task.mSpeedReminder.onDone(mIndex);
+                    info.finished = mFinished;
+                    info.downloaded = mDownloaded;
+                    info.total = mTotal;
+                    if (mDownloadListener != null) {
+                        mDownloadListener.onGetPage(info);
+                    }
+                    List<DownloadInfo> list = getInfoListForLabel(info.label);
+                    if (list != null) {
+                        for (DownloadInfoListener l: mDownloadInfoListeners) {
+                            l.onUpdate(info, list);
                         }
                     }
                     break;
                 }
                 case TYPE_ON_PAGE_FAILURE: {
-                    mSpeedReminder.onDone(mIndex);
-                    DownloadInfo info = mCurrentTask;
-                    if (info == null) {
-                        Log.e(TAG, "Current task is null, but it should not be");
-                    } else {
-                        info.finished = mFinished;
-                        info.downloaded = mDownloaded;
-                        info.total = mTotal;
-                        List<DownloadInfo> list = getInfoListForLabel(info.label);
-                        if (list != null) {
-                            for (DownloadInfoListener l: mDownloadInfoListeners) {
-                                l.onUpdate(info, list);
-                            }
+                    task.mSpeedReminder.onDone(mIndex);
+                    info.finished = mFinished;
+                    info.downloaded = mDownloaded;
+                    info.total = mTotal;
+                    List<DownloadInfo> list = getInfoListForLabel(info.label);
+                    if (list != null) {
+                        for (DownloadInfoListener l: mDownloadInfoListeners) {
+                            l.onUpdate(info, list);
                         }
                     }
                     break;
                 }
                 case TYPE_ON_FINISH: {
-                    mSpeedReminder.onFinish();
+                    task.mSpeedReminder.onFinish();
                     // Download done
-                    DownloadInfo info = mCurrentTask;
-                    mCurrentTask = null;
-                    SpiderQueen spider = mCurrentSpider;
-                    mCurrentSpider = null;
-                    // Release spider
-                    if (spider != null) {
-                        spider.removeOnSpiderListener(DownloadManager.this);
-                        SpiderQueen.releaseSpiderQueen(spider, SpiderQueen.MODE_DOWNLOAD);
-                    }
-                    // Check null
-                    if (info == null || spider == null) {
-                        Log.e(TAG, "Current stuff is null, but it should not be");
-                        break;
-                    }
-                    // Stop speed count
-                    mSpeedReminder.stop();
+                    mActiveTasks.remove(task);
+                    // Release spider, stop speed count
+                    task.release();
                     // Update state
                     info.finished = mFinished;
                     info.downloaded = mDownloaded;
@@ -1095,6 +1103,9 @@ public class DownloadManager implements SpiderQueen.OnSpiderListener {
 
     class SpeedReminder implements Runnable {
 
+        private final DownloadInfo mInfo;
+        private final SpiderQueen mSpider;
+
         private boolean mStop = true;
 
         private long mBytesRead;
@@ -1103,6 +1114,11 @@ public class DownloadManager implements SpiderQueen.OnSpiderListener {
         private final SparseIJArray mContentLengthMap = new SparseIJArray();
         private final SparseIJArray mReceivedSizeMap = new SparseIJArray();
 
+        public SpeedReminder(DownloadInfo info, SpiderQueen spider) {
+            mInfo = info;
+            mSpider = spider;
+        }
+
         public void start() {
             if (mStop) {
                 mStop = false;
@@ -1139,44 +1155,44 @@ public class DownloadManager implements SpiderQueen.OnSpiderListener {
 
         @Override
         public void run() {
-            DownloadInfo info = mCurrentTask;
-            if (info != null) {
-                long newSpeed = mBytesRead / 2;
-                if (oldSpeed != -1) {
-                    newSpeed = (long) MathUtils.lerp(oldSpeed, newSpeed, 0.75f);
-                }
-                oldSpeed = newSpeed;
-                info.speed = newSpeed;
-
-                // Calculate remaining
-                if (info.total <= 0) {
-                    info.remaining = -1;
-                } else if (newSpeed == 0) {
-                    info.remaining = 300L * 24L * 60L * 60L * 1000L; // 300 days
-                } else {
-                    int downloadingCount = 0;
-                    long downloadingContentLengthSum = 0;
-                    long totalSize = 0;
-                    for (int i = 0, n = Math.max(mContentLengthMap.size(), mReceivedSizeMap.size()); i < n; i++) {
-                        long contentLength = mContentLengthMap.valueAt(i);
-                        long receivedSize = mReceivedSizeMap.valueAt(i);
-                        downloadingCount++;
-                        downloadingContentLengthSum += contentLength;
-                        totalSize += contentLength - receivedSize;
-                    }
-                    if (downloadingCount != 0) {
-                        totalSize += downloadingContentLengthSum * (info.total - info.downloaded - downloadingCount) / downloadingCount;
-                        info.remaining = totalSize / newSpeed * 1000;
-                    }
+            DownloadInfo info = mInfo;
+            long newSpeed = mBytesRead / 2;
+            if (oldSpeed != -1) {
+                newSpeed = (long) MathUtils.lerp(oldSpeed, newSpeed, 0.75f);
+            }
+            oldSpeed = newSpeed;
+            info.speed = newSpeed;
+            info.workers = mSpider.getWorkerTarget();
+            info.workersReason = mSpider.getWorkerTargetReason();
+
+            // Calculate remaining
+            if (info.total <= 0) {
+                info.remaining = -1;
+            } else if (newSpeed == 0) {
+                info.remaining = 300L * 24L * 60L * 60L * 1000L; // 300 days
+            } else {
+                int downloadingCount = 0;
+                long downloadingContentLengthSum = 0;
+                long totalSize = 0;
+                for (int i = 0, n = Math.max(mContentLengthMap.size(), mReceivedSizeMap.size()); i < n; i++) {
+                    long contentLength = mContentLengthMap.valueAt(i);
+                    long receivedSize = mReceivedSizeMap.valueAt(i);
+                    downloadingCount++;
+                    downloadingContentLengthSum += contentLength;
+                    totalSize += contentLength - receivedSize;
                 }
-                if (mDownloadListener != null) {
-                    mDownloadListener.onDownload(info);
+                if (downloadingCount != 0) {
+                    totalSize += downloadingContentLengthSum * (info.total - info.downloaded - downloadingCount) / downloadingCount;
+                    info.remaining = totalSize / newSpeed * 1000;
                 }
-                List<DownloadInfo> list = getInfoListForLabel(info.label);
-                if (list != null) {
-                    for (DownloadInfoListener l: mDownloadInfoListeners) {
-                        l.onUpdate(info, list);
-                    }
+            }
+            if (mDownloadListener != null) {
+                mDownloadListener.onDownload(info);
+            }
+            List<DownloadInfo> list = getInfoListForLabel(info.label);
+            if (list != null) {
+                for (DownloadInfoListener l: mDownloadInfoListeners) {
+                    l.onUpdate(info, list);
                 }
             }
 
@@ -307,6 +307,7 @@ public class DownloadService extends Service implements DownloadManager.Download
 
         mDownloadingBuilder.setContentTitle(EhUtils.getSuitableTitle(info))
                 .setContentText(null)
+                .setSubText(null)
                 .setContentInfo(null)
                 .setProgress(0, 0, true)
                 .setContentIntent(piActivity);
@@ -331,8 +332,16 @@ public class DownloadService extends Service implements DownloadManager.Download
         } else {
             text = getString(R.string.download_speed_text, text);
         }
+        // Threads change with throughput and errors
+        String workers = null;
+        if (info.workers > 0) {
+            workers = info.workersReason == null ?
+                    getString(R.string.download_workers_text, info.workers) :
+                    getString(R.string.download_workers_text_2, info.workers, info.workersReason);
+        }
         mDownloadingBuilder.setContentTitle(EhUtils.getSuitableTitle(info))
                 .setContentText(text)
+                .setSubText(workers)
                 .setContentInfo(info.total == -1 || info.finished == -1 ? null : info.finished + "/" + info.total)
                 .setProgress(info.total, info.finished, false);
 
@@ -355,7 +364,8 @@ public class DownloadService extends Service implements DownloadManager.Download
             return;
         }
 
-        if (null != mDownloadingDelay) {
+        // Keep the notification if other galleries are still downloading
+        if (null != mDownloadingDelay && (mDownloadManager == null || !mDownloadManager.isDownloading())) {
             mDownloadingDelay.cancel();
         }
 
@@ -455,7 +465,8 @@ public class DownloadService extends Service implements DownloadManager.Download
             return;
         }
 
-        if (null != mDownloadingDelay) {
+        // Keep the notification if other galleries are still downloading
+        if (null != mDownloadingDelay && (mDownloadManager == null || !mDownloadManager.isDownloading())) {
             mDownloadingDelay.cancel();
         }
 
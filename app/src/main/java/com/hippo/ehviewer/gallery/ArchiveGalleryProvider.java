@@ -19,25 +19,34 @@ package com.hippo.ehviewer.gallery;
 import android.content.Context;
 import android.net.Uri;
 import android.os.Process;
+import android.os.SystemClock;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import com.hippo.a7zip.ArchiveException;
 import com.hippo.ehviewer.GetText;
 import com.hippo.ehviewer.R;
-import com.hippo.glgallery.GalleryPageView;
 import com.hippo.image.Image;
 import com.hippo.unifile.UniFile;
 import com.hippo.unifile.UniRandomAccessFile;
 import com.hippo.util.NaturalComparator;
+import com.hippo.yorozuya.IOUtils;
+import com.hippo.yorozuya.MathUtils;
 import com.hippo.yorozuya.thread.PriorityThread;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.Stack;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -45,21 +54,35 @@ public class ArchiveGalleryProvider extends GalleryProvider2 {
 
   private static final AtomicInteger sIdGenerator = new AtomicInteger();
 
+  // Neighbouring pages are extracted to memory before they are requested
+  private static final int PREFETCH_MAX_DEPTH = 3;
+  private static final int PREFETCH_MAX_SIZE = 16 * 1024 * 1024;
+
   private final UniFile file;
+  private final int threadCount;
 
-  private Thread archiveThread;
-  private Thread decodeThread;
+  private Thread[] archiveThreads;
+  private Thread[] decodeThreads;
 
   private volatile int size = STATE_WAIT;
   private String error;
+  // Stored zip entry of each page, null for pages which need extraction
+  private volatile ZipStoredEntries.Entry[] storedEntries;
 
   private final Stack<Integer> requests = new Stack<>();
-  private final AtomicInteger extractingIndex = new AtomicInteger(GalleryPageView.INVALID_INDEX);
-  private final LinkedHashMap<Integer, InputStream> streams = new LinkedHashMap<>();
-  private final AtomicInteger decodingIndex = new AtomicInteger(GalleryPageView.INVALID_INDEX);
+  private final LinkedList<Integer> prefetches = new LinkedList<>();
+  private final Set<Integer> extractingIndexes = new HashSet<>();
+  // Pages being prefetched, and those of them which are requested meanwhile
+  private final Set<Integer> prefetchingIndexes = new HashSet<>();
+  private final Set<Integer> requestedPrefetches = new HashSet<>();
+  private final LinkedHashMap<Integer, DecodeJob> streams = new LinkedHashMap<>();
+  private final Set<Integer> decodingIndexes = new HashSet<>();
+  private final PrefetchBuffer prefetched = new PrefetchBuffer(PREFETCH_MAX_SIZE);
 
   public ArchiveGalleryProvider(Context context, Uri uri) {
     file = UniFile.fromUri(context, uri);
+    threadCount = MathUtils.clamp(Runtime.getRuntime().availableProcessors(), 2, 4);
+    setPrefetchPolicy(new DirectionalPrefetchPolicy(PREFETCH_MAX_DEPTH));
   }
 
   @Override
@@ -68,26 +91,33 @@ public class ArchiveGalleryProvider extends GalleryProvider2 {
 
     int id = sIdGenerator.incrementAndGet();
 
-    archiveThread = new PriorityThread(
-        new ArchiveTask(), "ArchiveTask" + '-' + id, Process.THREAD_PRIORITY_BACKGROUND);
-    archiveThread.start();
-
-    decodeThread = new PriorityThread(
-        new DecodeTask(), "DecodeTask" + '-' + id, Process.THREAD_PRIORITY_BACKGROUND);
-    decodeThread.start();
+    archiveThreads = new Thread[threadCount];
+    decodeThreads = new Thread[threadCount];
+    for (int i = 0; i < threadCount; i++) {
+      archiveThreads[i] = new PriorityThread(new ArchiveTask(i == 0),
+          "ArchiveTask" + '-' + id + '-' + i, Process.THREAD_PRIORITY_BACKGROUND);
+      archiveThreads[i].start();
+      decodeThreads[i] = new PriorityThread(new DecodeTask(),
+          "DecodeTask" + '-' + id + '-' + i, Process.THREAD_PRIORITY_BACKGROUND);
+      decodeThreads[i].start();
+    }
   }
 
   @Override
   public void stop() {
     super.stop();
 
-    if (archiveThread != null) {
-      archiveThread.interrupt();
-      archiveThread = null;
+    if (archiveThreads != null) {
+      for (Thread thread : archiveThreads) {
+        thread.interrupt();
+      }
+      archiveThreads = null;
     }
-    if (decodeThread != null) {
-      decodeThread.interrupt();
-      decodeThread = null;
+    if (decodeThreads != null) {
+      for (Thread thread : decodeThreads) {
+        thread.interrupt();
+      }
+      decodeThreads = null;
     }
   }
 
@@ -100,11 +130,17 @@ public class ArchiveGalleryProvider extends GalleryProvider2 {
   protected void onRequest(int index) {
     boolean inDecodeTask;
     synchronized (streams) {
-      inDecodeTask = streams.keySet().contains(index) || index == decodingIndex.get();
+      inDecodeTask = streams.containsKey(index) || decodingIndexes.contains(index);
     }
 
     synchronized (requests) {
-      boolean inArchiveTask = requests.contains(index) || index == extractingIndex.get();
+      if (prefetchingIndexes.contains(index)) {
+        // Decode it when the prefetch is done, don't extract it twice
+        requestedPrefetches.add(index);
+        notifyPageWait(index);
+        return;
+      }
+      boolean inArchiveTask = requests.contains(index) || extractingIndexes.contains(index);
       if (!inArchiveTask && !inDecodeTask) {
         requests.add(index);
         requests.notify();
@@ -122,6 +158,7 @@ public class ArchiveGalleryProvider extends GalleryProvider2 {
   protected void onCancelRequest(int index) {
     synchronized (requests) {
       requests.remove(Integer.valueOf(index));
+      requestedPrefetches.remove(index);
     }
   }
 
@@ -150,48 +187,183 @@ public class ArchiveGalleryProvider extends GalleryProvider2 {
     return null;
   }
 
-  private class ArchiveTask implements Runnable {
-    @Override
-    public void run() {
-      UniRandomAccessFile uraf = null;
-      if (file != null) {
-        try {
-          uraf = file.createRandomAccessFile("r");
-        } catch (IOException e) {
-          e.printStackTrace();
-        }
+  @Nullable
+  private UniRandomAccessFile openFile() {
+    if (file != null) {
+      try {
+        return file.createRandomAccessFile("r");
+      } catch (IOException e) {
+        e.printStackTrace();
+      }
+    }
+    return null;
+  }
+
+  private static void closeQuietly(@Nullable UniRandomAccessFile uraf) {
+    if (uraf != null) {
+      try {
+        uraf.close();
+      } catch (IOException e) {
+        // Ignore
       }
+    }
+  }
+
+  // Called with requests lock held
+  private void schedulePrefetch(int index, ZipStoredEntries.Entry[] stored) {
+    prefetches.clear();
+    for (int i : getPrefetchPolicy().getPrefetchPages(index, stored.length)) {
+      // Stored pages are read directly, no need to prefetch
+      if (stored[i] == null) {
+        prefetches.add(i);
+      }
+    }
+    if (!prefetches.isEmpty()) {
+      requests.notify();
+    }
+  }
+
+  private static class DecodeJob {
+    @Nullable
+    private final InputStream stream;
+    @Nullable
+    private final ZipStoredEntries.Entry stored;
+
+    private DecodeJob(@Nullable InputStream stream, @Nullable ZipStoredEntries.Entry stored) {
+      this.stream = stream;
+      this.stored = stored;
+    }
+  }
+
+  /**
+   * Each task has its own file handle and archive, so they extract in parallel.
+   */
+  private class ArchiveTask implements Runnable {
+
+    // The first task reads the archive and reports errors
+    private final boolean first;
+
+    private UniRandomAccessFile uraf;
+    private A7ZipArchive archive;
+    private List<A7ZipArchive.A7ZipArchiveEntry> entries;
+
+    private ArchiveTask(boolean first) {
+      this.first = first;
+    }
+
+    private boolean openArchive() {
+      uraf = openFile();
       if (uraf == null) {
-        size = STATE_ERROR;
-        error = GetText.getString(R.string.error_reading_failed);
-        notifyDataChanged();
-        return;
+        if (first) {
+          size = STATE_ERROR;
+          error = GetText.getString(R.string.error_reading_failed);
+          notifyDataChanged();
+        }
+        return false;
       }
 
-      A7ZipArchive archive = null;
       try {
         archive = A7ZipArchive.create(uraf);
       } catch (ArchiveException e) {
         e.printStackTrace();
       }
       if (archive == null) {
-        size = STATE_ERROR;
-        error = GetText.getString(R.string.error_invalid_archive);
-        notifyDataChanged();
-        return;
+        closeQuietly(uraf);
+        uraf = null;
+        if (first) {
+          size = STATE_ERROR;
+          error = GetText.getString(R.string.error_invalid_archive);
+          notifyDataChanged();
+        }
+        return false;
       }
 
-      List<A7ZipArchive.A7ZipArchiveEntry> entries = archive.getArchiveEntries();
+      // All tasks get the same order
+      entries = archive.getArchiveEntries();
       Collections.sort(entries, naturalComparator);
+      return true;
+    }
+
+    private ZipStoredEntries.Entry[] findStoredEntries() {
+      ZipStoredEntries.Entry[] stored = new ZipStoredEntries.Entry[entries.size()];
+      UniRandomAccessFile zipFile = openFile();
+      if (zipFile != null) {
+        try {
+          Map<String, ZipStoredEntries.Entry> map = ZipStoredEntries.read(zipFile);
+          for (int i = 0, n = entries.size(); i < n; i++) {
+            stored[i] = map.get(entries.get(i).getPath());
+          }
+        } finally {
+          closeQuietly(zipFile);
+        }
+      }
+      return stored;
+    }
+
+    private void prefetch(int index) {
+      long start = SystemClock.uptimeMillis();
+      ByteArrayOutputStream os = new ByteArrayOutputStream();
+      extract(index, os);
+      getPrefetchPolicy().onPageFetched(os.size(), SystemClock.uptimeMillis() - start);
+
+      boolean requested;
+      synchronized (requests) {
+        prefetchingIndexes.remove(index);
+        requested = requestedPrefetches.remove(index);
+      }
+      if (requested) {
+        // Requested while it was extracted, decode the data right now
+        submit(index, new DecodeJob(new ByteArrayInputStream(os.toByteArray()), null));
+      } else if (prefetched.accepts(os.size())) {
+        prefetched.put(index, os.toByteArray());
+      }
+    }
+
+    private void extract(int index, OutputStream os) {
+      // Others open archive lazily, stored pages don't need it
+      if (archive == null && !openArchive()) {
+        IOUtils.closeQuietly(os);
+        return;
+      }
+      try {
+        entries.get(index).extract(os);
+      } catch (ArchiveException e) {
+        e.printStackTrace();
+      } finally {
+        IOUtils.closeQuietly(os);
+      }
+    }
 
-      // Update size and notify changed
-      size = entries.size();
-      notifyDataChanged();
+    @Override
+    public void run() {
+      try {
+        if (first) {
+          if (!openArchive()) {
+            return;
+          }
+          storedEntries = findStoredEntries();
+          // Update size and notify changed
+          size = entries.size();
+          notifyDataChanged();
+        }
+        work();
+      } finally {
+        if (archive != null) {
+          archive.close();
+        } else {
+          closeQuietly(uraf);
+        }
+      }
+    }
 
+    private void work() {
       while (!Thread.currentThread().isInterrupted()) {
         int index;
+        boolean prefetch;
+        ZipStoredEntries.Entry[] stored;
         synchronized (requests) {
-          if (requests.isEmpty()) {
+          stored = storedEntries;
+          if (stored == null || (requests.isEmpty() && prefetches.isEmpty())) {
             try {
               requests.wait();
             } catch (InterruptedException e) {
@@ -200,44 +372,108 @@ public class ArchiveGalleryProvider extends GalleryProvider2 {
             }
             continue;
           }
-          index = requests.pop();
-          extractingIndex.lazySet(index);
+          if (!requests.isEmpty()) {
+            index = requests.pop();
+            prefetch = false;
+            extractingIndexes.add(index);
+            if (index >= 0 && index < stored.length) {
+              schedulePrefetch(index, stored);
+            }
+          } else {
+            index = prefetches.removeFirst();
+            prefetch = !prefetched.contains(index);
+            if (!prefetch) {
+              continue;
+            }
+            prefetchingIndexes.add(index);
+          }
         }
 
-        // Check index valid
-        if (index < 0 || index >= entries.size()) {
-          extractingIndex.lazySet(GalleryPageView.INVALID_INDEX);
-          notifyPageFailed(index, GetText.getString(R.string.error_out_of_range));
+        if (prefetch) {
+          prefetch(index);
           continue;
         }
 
-        Pipe pipe = new Pipe(4 * 1024);
+        try {
+          // Check index valid
+          if (index < 0 || index >= stored.length) {
+            notifyPageFailed(index, GetText.getString(R.string.error_out_of_range));
+            continue;
+          }
 
-        synchronized (streams) {
-          if (streams.get(index) != null) {
+          Pipe pipe = null;
+          DecodeJob job;
+          byte[] data = prefetched.take(index);
+          if (data != null) {
+            job = new DecodeJob(new ByteArrayInputStream(data), null);
+          } else if (stored[index] != null) {
+            job = new DecodeJob(null, stored[index]);
+          } else {
+            pipe = new Pipe(64 * 1024);
+            job = new DecodeJob(pipe.getInputStream(), null);
+          }
+
+          if (!submit(index, job)) {
             continue;
           }
-          streams.put(index, pipe.getInputStream());
-          streams.notify();
-        }
 
-        try {
-          entries.get(index).extract(pipe.getOutputStream());
-        } catch (ArchiveException e) {
-          e.printStackTrace();
+          if (pipe != null) {
+            extract(index, pipe.getOutputStream());
+          }
         } finally {
-          extractingIndex.lazySet(GalleryPageView.INVALID_INDEX);
+          synchronized (requests) {
+            extractingIndexes.remove(index);
+          }
         }
       }
     }
   }
 
+  /**
+   * @return false if the page is already going to be decoded
+   */
+  private boolean submit(int index, DecodeJob job) {
+    synchronized (streams) {
+      if (streams.get(index) != null) {
+        return false;
+      }
+      streams.put(index, job);
+      streams.notify();
+      return true;
+    }
+  }
+
   private class DecodeTask implements Runnable {
+
+    // For stored pages
+    private UniRandomAccessFile uraf;
+
+    private InputStream openStream(DecodeJob job) throws IOException {
+      if (job.stream != null) {
+        return job.stream;
+      }
+      if (uraf == null) {
+        uraf = openFile();
+        if (uraf == null) {
+          throw new IOException("Can't open file");
+        }
+      }
+      return new BufferedInputStream(ZipStoredEntries.openStream(uraf, job.stored));
+    }
+
     @Override
     public void run() {
+      try {
+        work();
+      } finally {
+        closeQuietly(uraf);
+      }
+    }
+
+    private void work() {
       while (!Thread.currentThread().isInterrupted()) {
         int index;
-        InputStream stream;
+        DecodeJob job;
         synchronized (streams) {
           if (streams.isEmpty()) {
             try {
@@ -249,23 +485,32 @@ public class ArchiveGalleryProvider extends GalleryProvider2 {
             continue;
           }
 
-          Iterator<Map.Entry<Integer, InputStream>> iterator = streams.entrySet().iterator();
-          Map.Entry<Integer, InputStream> entry = iterator.next();
+          Iterator<Map.Entry<Integer, DecodeJob>> iterator = streams.entrySet().iterator();
+          Map.Entry<Integer, DecodeJob> entry = iterator.next();
           iterator.remove();
           index = entry.getKey();
-          stream = entry.getValue();
-          decodingIndex.lazySet(index);
+          job = entry.getValue();
+          decodingIndexes.add(index);
         }
 
+        InputStream stream = null;
         try {
-          Image image = Image.decode(stream, true);
+          stream = openStream(job);
+          Image image = PageDecoder.decode(stream, getDecodeTargetSize());
           if (image != null) {
-            notifyPageSucceed(index, image);
+            notifyPageDecoded(index, image);
           } else {
             notifyPageFailed(index, GetText.getString(R.string.error_decoding_failed));
           }
+        } catch (IOException e) {
+          e.printStackTrace();
+          notifyPageFailed(index, GetText.getString(R.string.error_reading_failed));
         } finally {
-          decodingIndex.lazySet(GalleryPageView.INVALID_INDEX);
+          // Unblock the extraction if the image is not read to the end
+          IOUtils.closeQuietly(stream != null ? stream : job.stream);
+          synchronized (streams) {
+            decodingIndexes.remove(index);
+          }
         }
       }
     }
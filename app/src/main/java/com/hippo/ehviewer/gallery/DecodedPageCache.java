@@ -0,0 +1,103 @@
+/*
+ * Copyright 2019 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.ehviewer.gallery;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Keeps track of decoded pages of a reader and their native sizes.
+ * When they are over the budget, pages farthest from the current page
+ * are evicted first, pages next to the current page are never evicted,
+ * they might be on screen.
+ */
+final class DecodedPageCache {
+
+  interface Evictor {
+    void evict(int index);
+  }
+
+  // Pages within the distance to the current page are always kept
+  static final int KEEP_DISTANCE = 1;
+
+  private final long maxSize;
+  private final Evictor evictor;
+  // Index to native size, sorted, so the farthest page is the first or the last one
+  private final TreeMap<Integer, Long> pages = new TreeMap<>();
+  private long size;
+  private int currentIndex;
+
+  DecodedPageCache(long maxSize, Evictor evictor) {
+    this.maxSize = maxSize;
+    this.evictor = evictor;
+  }
+
+  synchronized long size() {
+    return size;
+  }
+
+  synchronized void put(int index, long bytes) {
+    Long old = pages.put(index, bytes);
+    if (old != null) {
+      size -= old;
+    }
+    size += bytes;
+    trimToSize(maxSize);
+  }
+
+  synchronized void remove(int index) {
+    Long old = pages.remove(index);
+    if (old != null) {
+      size -= old;
+    }
+  }
+
+  synchronized void clear() {
+    pages.clear();
+    size = 0;
+  }
+
+  synchronized void setCurrentIndex(int index) {
+    currentIndex = index;
+    trimToSize(maxSize);
+  }
+
+  /**
+   * Evicts pages until the size is not larger than the fraction of the budget,
+   * or only pages next to the current page are left.
+   */
+  synchronized void trim(float fraction) {
+    trimToSize((long) (maxSize * fraction));
+  }
+
+  private void trimToSize(long targetSize) {
+    while (size > targetSize && !pages.isEmpty()) {
+      Map.Entry<Integer, Long> first = pages.firstEntry();
+      Map.Entry<Integer, Long> last = pages.lastEntry();
+      int firstDistance = currentIndex - first.getKey();
+      int lastDistance = last.getKey() - currentIndex;
+      // Pages behind are less likely to be read again, they go first on a tie
+      Map.Entry<Integer, Long> farthest = firstDistance >= lastDistance ? first : last;
+      if (Math.abs(farthest.getKey() - currentIndex) <= KEEP_DISTANCE) {
+        break;
+      }
+      pages.remove(farthest.getKey());
+      size -= farthest.getValue();
+      evictor.evict(farthest.getKey());
+    }
+  }
+}
@@ -17,6 +17,7 @@
 package com.hippo.ehviewer.gallery;
 
 import android.os.Process;
+import android.os.SystemClock;
 import android.util.Log;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
@@ -31,11 +32,14 @@ import com.hippo.yorozuya.FileUtils;
 import com.hippo.yorozuya.IOUtils;
 import com.hippo.yorozuya.StringUtils;
 import com.hippo.yorozuya.thread.PriorityThread;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.Arrays;
 import java.util.Comparator;
+import java.util.LinkedList;
 import java.util.Stack;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
@@ -45,8 +49,15 @@ public class DirGalleryProvider extends GalleryProvider2 implements Runnable {
     private static final String TAG = DirGalleryProvider.class.getSimpleName();
     private static final AtomicInteger sIdGenerator = new AtomicInteger();
 
+    // Neighbouring pages are read to memory before they are requested
+    private static final int PREFETCH_MAX_DEPTH = 3;
+    private static final int PREFETCH_MAX_SIZE = 16 * 1024 * 1024;
+    private static final int PREFETCH_CHUNK_SIZE = 64 * 1024;
+
     private final UniFile mDir;
     private final Stack<Integer> mRequests = new Stack<>();
+    private final LinkedList<Integer> mPrefetches = new LinkedList<>();
+    private final PrefetchBuffer mPrefetched = new PrefetchBuffer(PREFETCH_MAX_SIZE);
     private final AtomicInteger mDecodingIndex = new AtomicInteger(GalleryPageView.INVALID_INDEX);
     private final AtomicReference<UniFile[]> mFileList = new AtomicReference<>();
     @Nullable
@@ -56,6 +67,7 @@ public class DirGalleryProvider extends GalleryProvider2 implements Runnable {
 
     public DirGalleryProvider(@NonNull UniFile dir) {
         mDir = dir;
+        setPrefetchPolicy(new DirectionalPrefetchPolicy(PREFETCH_MAX_DEPTH));
     }
 
     @Override
@@ -197,8 +209,9 @@ public class DirGalleryProvider extends GalleryProvider2 implements Runnable {
 
         while (!Thread.currentThread().isInterrupted()) {
             int index;
+            boolean prefetch;
             synchronized (mRequests) {
-                if (mRequests.isEmpty()) {
+                if (mRequests.isEmpty() && mPrefetches.isEmpty()) {
                     try {
                         mRequests.wait();
                     } catch (InterruptedException e) {
@@ -207,8 +220,24 @@ public class DirGalleryProvider extends GalleryProvider2 implements Runnable {
                     }
                     continue;
                 }
-                index = mRequests.pop();
-                mDecodingIndex.lazySet(index);
+                if (!mRequests.isEmpty()) {
+                    index = mRequests.pop();
+                    prefetch = false;
+                    mDecodingIndex.lazySet(index);
+                    // Requests go first, prefetch when there is nothing to decode
+                    mPrefetches.clear();
+                    mPrefetches.addAll(getPrefetchPolicy().getPrefetchPages(index, files.length));
+                } else {
+                    index = mPrefetches.removeFirst();
+                    prefetch = true;
+                }
+            }
+
+            if (prefetch) {
+                if (!mPrefetched.contains(index)) {
+                    prefetch(files[index], index);
+                }
+                continue;
             }
 
             // Check index valid
@@ -220,11 +249,12 @@ public class DirGalleryProvider extends GalleryProvider2 implements Runnable {
 
             InputStream is = null;
             try {
-                is = files[index].openInputStream();
-                Image image = Image.decode(is, true);
+                byte[] data = mPrefetched.take(index);
+                is = data != null ? new ByteArrayInputStream(data) : files[index].openInputStream();
+                Image image = PageDecoder.decode(is, getDecodeTargetSize());
                 mDecodingIndex.lazySet(GalleryPageView.INVALID_INDEX);
                 if (image != null) {
-                    notifyPageSucceed(index, image);
+                    notifyPageDecoded(index, image);
                 } else {
                     notifyPageFailed(index, GetText.getString(R.string.error_decoding_failed));
                 }
@@ -243,6 +273,43 @@ public class DirGalleryProvider extends GalleryProvider2 implements Runnable {
         Log.i(TAG, "ImageDecoder end");
     }
 
+    private boolean hasRequest() {
+        synchronized (mRequests) {
+            return !mRequests.isEmpty();
+        }
+    }
+
+    /**
+     * Reads the file to memory in chunks, gives up as soon as a page is requested.
+     */
+    private void prefetch(UniFile file, int index) {
+        long start = SystemClock.uptimeMillis();
+        InputStream is = null;
+        try {
+            is = file.openInputStream();
+            ByteArrayOutputStream os = new ByteArrayOutputStream();
+            byte[] buffer = new byte[PREFETCH_CHUNK_SIZE];
+            int n;
+            while ((n = is.read(buffer)) != -1) {
+                os.write(buffer, 0, n);
+                // Requests can't wait for it, and too large pages are not kept
+                if (hasRequest() || !mPrefetched.accepts(os.size()) ||
+                        Thread.currentThread().isInterrupted()) {
+                    return;
+                }
+            }
+            if (os.size() == 0) {
+                return;
+            }
+            getPrefetchPolicy().onPageFetched(os.size(), SystemClock.uptimeMillis() - start);
+            mPrefetched.put(index, os.toByteArray());
+        } catch (IOException e) {
+            // Ignore, it will be read again when it's requested
+        } finally {
+            IOUtils.closeQuietly(is);
+        }
+    }
+
     private static FilenameFilter imageFilter =
         (dir, name) -> StringUtils.endsWith(name.toLowerCase(), SUPPORT_IMAGE_EXTENSIONS);
 
@@ -0,0 +1,118 @@
+/*
+ * Copyright 2019 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.ehviewer.gallery;
+
+import android.os.SystemClock;
+import androidx.annotation.NonNull;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Prefetches pages in the direction the user is reading, whatever the layout is,
+ * and keeps a small window behind. The depth grows when pages are read faster
+ * than they are fetched, and shrinks when fetching keeps up easily.
+ */
+public class DirectionalPrefetchPolicy implements PrefetchPolicy {
+
+  // Pages behind the current page
+  private static final int TRAILING_PAGES = 1;
+  private static final int MIN_DEPTH = 2;
+  // A page turn further than it is a jump, like seeking, not reading
+  private static final int MAX_STEP = 3;
+  // Reading slower than it is just reading slow
+  private static final float MIN_READ_SPEED = 0.1f;
+  // Weight of the new sample in moving averages
+  private static final float ALPHA = 0.3f;
+
+  private final int maxDepth;
+
+  private int currentIndex = -1;
+  private long lastChange;
+  // 1 for forward, -1 for backward
+  private int direction = 1;
+  // Pages per second
+  private float readSpeed;
+  // Milliseconds to fetch one page
+  private float fetchTime;
+
+  /**
+   * @param maxDepth the max count of pages to prefetch ahead, 0 for no prefetch
+   */
+  public DirectionalPrefetchPolicy(int maxDepth) {
+    this.maxDepth = maxDepth;
+  }
+
+  @Override
+  public void onCurrentIndexChanged(int index) {
+    onCurrentIndexChanged(index, SystemClock.uptimeMillis());
+  }
+
+  synchronized void onCurrentIndexChanged(int index, long now) {
+    int step = index - currentIndex;
+    if (currentIndex >= 0 && step != 0 && Math.abs(step) <= MAX_STEP) {
+      direction = step > 0 ? 1 : -1;
+      float speed = Math.abs(step) * 1000.0f / Math.max(1, now - lastChange);
+      readSpeed = readSpeed == 0 ? speed : readSpeed + ALPHA * (speed - readSpeed);
+    }
+    currentIndex = index;
+    lastChange = now;
+  }
+
+  @Override
+  public synchronized void onPageFetched(long bytes, long time) {
+    if (bytes > 0 && time >= 0) {
+      fetchTime = fetchTime == 0 ? time : fetchTime + ALPHA * (time - fetchTime);
+    }
+  }
+
+  synchronized int getDepth() {
+    if (fetchTime == 0 || readSpeed == 0) {
+      // Nothing observed yet
+      return maxDepth;
+    }
+    // Pages read while one page is fetched, twice of it to be safe
+    float pages = Math.max(readSpeed, MIN_READ_SPEED) * fetchTime / 1000.0f * 2;
+    return Math.max(Math.min(MIN_DEPTH, maxDepth), Math.min((int) Math.ceil(pages), maxDepth));
+  }
+
+  @NonNull
+  @Override
+  public List<Integer> getPrefetchPages(int index, int size) {
+    int depth = getDepth();
+    int direction;
+    synchronized (this) {
+      direction = this.direction;
+    }
+
+    List<Integer> pages = new ArrayList<>(depth + TRAILING_PAGES);
+    for (int i = 1; i <= depth; i++) {
+      addPage(pages, index + direction * i, size);
+    }
+    if (depth > 0) {
+      for (int i = 1; i <= TRAILING_PAGES; i++) {
+        addPage(pages, index - direction * i, size);
+      }
+    }
+    return pages;
+  }
+
+  private static void addPage(List<Integer> pages, int index, int size) {
+    if (index >= 0 && index < size) {
+      pages.add(index);
+    }
+  }
+}
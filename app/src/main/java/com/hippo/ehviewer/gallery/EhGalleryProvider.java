@@ -45,6 +45,9 @@ public class EhGalleryProvider extends GalleryProvider2 implements SpiderQueen.O
 
         mSpiderQueen = SpiderQueen.obtainSpiderQueen(mContext, mGalleryInfo, SpiderQueen.MODE_READ);
         mSpiderQueen.addOnSpiderListener(this);
+        // Downloads ahead follow the pages the user reads
+        setPrefetchPolicy(mSpiderQueen.getPrefetchPolicy());
+        mSpiderQueen.setDecodeTargetSize(getDecodeTargetSize());
     }
 
     @Override
@@ -100,6 +103,22 @@ public class EhGalleryProvider extends GalleryProvider2 implements SpiderQueen.O
         }
     }
 
+    @Override
+    public void setCurrentIndex(int index) {
+        super.setCurrentIndex(index);
+        if (mSpiderQueen != null) {
+            mSpiderQueen.setCurrentIndex(index);
+        }
+    }
+
+    @Override
+    public void setDecodeTargetSize(int size) {
+        super.setDecodeTargetSize(size);
+        if (mSpiderQueen != null) {
+            mSpiderQueen.setDecodeTargetSize(size);
+        }
+    }
+
     @Override
     public int size() {
         if (mSpiderQueen != null) {
@@ -186,7 +205,7 @@ public class EhGalleryProvider extends GalleryProvider2 implements SpiderQueen.O
 
     @Override
     public void onGetImageSuccess(int index, Image image) {
-        notifyPageSucceed(index, image);
+        notifyPageDecoded(index, image);
     }
 
     @Override
@@ -16,10 +16,13 @@
 
 package com.hippo.ehviewer.gallery;
 
+import android.content.ComponentCallbacks2;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import com.hippo.glgallery.GalleryProvider;
+import com.hippo.image.Image;
 import com.hippo.unifile.UniFile;
+import com.hippo.yorozuya.OSUtils;
 
 public abstract class GalleryProvider2 extends GalleryProvider {
 
@@ -31,6 +34,82 @@ public abstract class GalleryProvider2 extends GalleryProvider {
             ".gif", // Graphics Interchange Format
     };
 
+    private static final long MIN_DECODED_CACHE_SIZE = 64 * 1024 * 1024;
+    private static final long MAX_DECODED_CACHE_SIZE = 512 * 1024 * 1024;
+
+    // Decoded images are kept in the cache of GalleryProvider,
+    // this one decides which of them to remove
+    private final DecodedPageCache mDecodedPages = new DecodedPageCache(
+            Math.max(MIN_DECODED_CACHE_SIZE,
+                    Math.min(OSUtils.getTotalMemory() / 16, MAX_DECODED_CACHE_SIZE)),
+            this::removeCache);
+
+    // No prefetch by default
+    private volatile PrefetchPolicy mPrefetchPolicy = new DirectionalPrefetchPolicy(0);
+
+    // Full size by default
+    private volatile int mDecodeTargetSize;
+
+    @Override
+    public void stop() {
+        super.stop();
+        mDecodedPages.clear();
+    }
+
+    /**
+     * Like {@link #notifyPageSucceed(int, Image)}, the decoded image is kept
+     * until it's evicted, so reading it again doesn't decode it again.
+     */
+    protected void notifyPageDecoded(int index, @NonNull Image image) {
+        // Native bytes of the decoded frame
+        long bytes = 4L * image.getWidth() * image.getHeight();
+        notifyPageSucceed(index, image);
+        mDecodedPages.put(index, bytes);
+    }
+
+    /**
+     * Decoded pages farthest from the current page are evicted first.
+     */
+    public void setCurrentIndex(int index) {
+        mDecodedPages.setCurrentIndex(index);
+        mPrefetchPolicy.onCurrentIndexChanged(index);
+    }
+
+    @NonNull
+    public PrefetchPolicy getPrefetchPolicy() {
+        return mPrefetchPolicy;
+    }
+
+    public void setPrefetchPolicy(@NonNull PrefetchPolicy policy) {
+        mPrefetchPolicy = policy;
+    }
+
+    public int getDecodeTargetSize() {
+        return mDecodeTargetSize;
+    }
+
+    /**
+     * Images much larger than {@code size} are decoded subsampled.
+     *
+     * @param size the long side of the screen, {@code 0} to decode full size
+     * @see PageDecoder#decode(java.io.InputStream, int)
+     */
+    public void setDecodeTargetSize(int size) {
+        mDecodeTargetSize = size;
+    }
+
+    /**
+     * @see ComponentCallbacks2#onTrimMemory(int)
+     */
+    public void trimMemory(int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            // Only pages next to the current page are kept
+            mDecodedPages.trim(0.0f);
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_MODERATE) {
+            mDecodedPages.trim(0.5f);
+        }
+    }
+
     public int getStartPage() {
         return 0;
     }
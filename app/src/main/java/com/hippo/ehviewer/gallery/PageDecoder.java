@@ -0,0 +1,181 @@
+/*
+ * Copyright 2019 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.ehviewer.gallery;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import com.hippo.image.Image;
+import com.hippo.yorozuya.IOUtils;
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Decodes pages for the reader. Images much larger than the screen
+ * are subsampled, a page costs the same memory whatever the scan size is.
+ */
+public final class PageDecoder {
+
+  // The size of images is searched in the head of the stream
+  static final int HEAD_SIZE = 64 * 1024;
+
+  private PageDecoder() {}
+
+  /**
+   * Like {@link Image#decode(InputStream, boolean)}, the stream is closed.
+   *
+   * @param targetSize the long side of the screen, {@code 0} to always decode full size
+   */
+  @Nullable
+  public static Image decode(@NonNull InputStream is, int targetSize) throws IOException {
+    if (targetSize <= 0) {
+      return Image.decode(is, true);
+    }
+
+    BufferedInputStream bis = new BufferedInputStream(is, HEAD_SIZE);
+    int sampleSize;
+    try {
+      bis.mark(HEAD_SIZE);
+      byte[] head = new byte[HEAD_SIZE];
+      int length = read(bis, head);
+      bis.reset();
+      int[] size = readSize(head, length);
+      sampleSize = size != null ? computeSampleSize(size[0], size[1], targetSize) : 1;
+    } catch (IOException e) {
+      IOUtils.closeQuietly(bis);
+      throw e;
+    }
+
+    if (sampleSize <= 1) {
+      return Image.decode(bis, true);
+    }
+
+    // Image can't subsample, decode it with BitmapFactory and copy the pixels to Image
+    BitmapFactory.Options options = new BitmapFactory.Options();
+    options.inSampleSize = sampleSize;
+    Bitmap bitmap;
+    try {
+      bitmap = BitmapFactory.decodeStream(bis, null, options);
+    } finally {
+      IOUtils.closeQuietly(bis);
+    }
+    if (bitmap == null) {
+      return null;
+    }
+    try {
+      return Image.create(bitmap);
+    } finally {
+      bitmap.recycle();
+    }
+  }
+
+  /**
+   * The largest power of 2 which keeps both sides of the image
+   * at least {@code targetSize}.
+   */
+  static int computeSampleSize(int width, int height, int targetSize) {
+    int sampleSize = 1;
+    if (targetSize <= 0) {
+      return sampleSize;
+    }
+    int minSide = Math.min(width, height);
+    while (minSide / (sampleSize * 2) >= targetSize) {
+      sampleSize *= 2;
+    }
+    return sampleSize;
+  }
+
+  /**
+   * Reads width and height of JPEG and PNG images.
+   * GIF is not subsampled, it returns {@code null} for it like other formats.
+   */
+  @Nullable
+  static int[] readSize(byte[] head, int length) {
+    if (length >= 24 && (head[0] & 0xff) == 0x89 && head[1] == 'P' && head[2] == 'N' && head[3] == 'G') {
+      // IHDR is always the first chunk
+      int width = readInt(head, 16);
+      int height = readInt(head, 20);
+      return width > 0 && height > 0 ? new int[] {width, height} : null;
+    }
+    if (length >= 4 && (head[0] & 0xff) == 0xff && (head[1] & 0xff) == 0xd8) {
+      return readJpegSize(head, length);
+    }
+    return null;
+  }
+
+  @Nullable
+  private static int[] readJpegSize(byte[] head, int length) {
+    int i = 2;
+    while (i + 1 < length) {
+      if ((head[i] & 0xff) != 0xff) {
+        return null;
+      }
+      int marker = head[i + 1] & 0xff;
+      i += 2;
+      if (marker == 0xff) {
+        // Fill byte
+        i--;
+        continue;
+      }
+      if (marker == 0x01 || (marker >= 0xd0 && marker <= 0xd7)) {
+        // No segment
+        continue;
+      }
+      if (marker == 0xd9 || marker == 0xda || i + 1 >= length) {
+        // End of image or start of scan before any frame
+        return null;
+      }
+      int segmentLength = readShort(head, i);
+      if (marker >= 0xc0 && marker <= 0xcf && marker != 0xc4 && marker != 0xc8 && marker != 0xcc) {
+        // Start of frame: length, precision, height, width
+        if (i + 6 >= length) {
+          return null;
+        }
+        int height = readShort(head, i + 3);
+        int width = readShort(head, i + 5);
+        return width > 0 && height > 0 ? new int[] {width, height} : null;
+      }
+      if (segmentLength < 2) {
+        return null;
+      }
+      i += segmentLength;
+    }
+    return null;
+  }
+
+  private static int readShort(byte[] data, int offset) {
+    return ((data[offset] & 0xff) << 8) | (data[offset + 1] & 0xff);
+  }
+
+  private static int readInt(byte[] data, int offset) {
+    return (readShort(data, offset) << 16) | readShort(data, offset + 2);
+  }
+
+  private static int read(InputStream is, byte[] buffer) throws IOException {
+    int length = 0;
+    while (length < buffer.length) {
+      int n = is.read(buffer, length, buffer.length - length);
+      if (n < 0) {
+        break;
+      }
+      length += n;
+    }
+    return length;
+  }
+}
@@ -20,130 +20,188 @@ import androidx.annotation.NonNull;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.concurrent.locks.LockSupport;
 
+/**
+ * A ring buffer between one writer thread and one reader thread.
+ * It's lock-free, each side only moves its own position,
+ * and a side waiting for the other is parked.
+ */
 class Pipe {
 
   private final int capacity;
   private final byte[] buffer;
 
-  private int head = 0;
-  private int tail = 0;
-  private boolean full = false;
+  // Total bytes read and written, each is only changed by its own side
+  private volatile long readPosition = 0;
+  private volatile long writePosition = 0;
+
+  private volatile boolean inClosed = false;
+  private volatile boolean outClosed = false;
+
+  // The parked thread of each side
+  private volatile Thread reader;
+  private volatile Thread writer;
+
+  private static void unpark(Thread thread) {
+    if (thread != null) {
+      LockSupport.unpark(thread);
+    }
+  }
 
-  private boolean inClosed = false;
-  private boolean outClosed = false;
+  private static void checkInterrupted() throws IOException {
+    if (Thread.currentThread().isInterrupted()) {
+      throw new IOException("The thread interrupted");
+    }
+  }
 
   private InputStream inputStream = new InputStream() {
+
+    /**
+     * Waits until bytes are available, returns the count, or -1 for the end.
+     */
+    private long awaitReadable() throws IOException {
+      long position = readPosition;
+      for (;;) {
+        if (inClosed) {
+          throw new IOException("The InputStream is closed");
+        }
+        long available = writePosition - position;
+        if (available > 0) {
+          return available;
+        }
+        if (outClosed) {
+          // Check again, bytes might be written before closing
+          available = writePosition - position;
+          // No bytes available and the OutputStream is closed. So it's the end.
+          return available > 0 ? available : -1;
+        }
+
+        // Wait for OutputStream write bytes
+        checkInterrupted();
+        reader = Thread.currentThread();
+        if (writePosition == position && !outClosed && !inClosed) {
+          LockSupport.park(Pipe.this);
+        }
+        reader = null;
+      }
+    }
+
     @Override
     public int read() throws IOException {
-      synchronized (Pipe.this) {
-        byte[] bytes = new byte[1];
-        if (read(bytes, 0, 1) != -1) {
-          return bytes[0];
-        } else {
-          return -1;
-        }
+      if (awaitReadable() < 0) {
+        return -1;
       }
+      long position = readPosition;
+      int b = buffer[(int) (position % capacity)] & 0xff;
+      readPosition = position + 1;
+      unpark(writer);
+      return b;
     }
 
     @Override
     public int read(@NonNull byte[] b, int off, int len) throws IOException {
-      synchronized (Pipe.this) {
-        for (;;) {
-          if (inClosed) {
-            throw new IOException("The InputStream is closed");
-          }
-          if (len == 0) {
-            return 0;
-          }
-
-          if (head == tail && !full) {
-            if (outClosed) {
-              // No bytes available and the OutputStream is closed. So it's the end.
-              return -1;
-            } else {
-              // Wait for OutputStream write bytes
-              try {
-                Pipe.this.wait();
-              } catch (InterruptedException e) {
-                throw new IOException("The thread interrupted", e);
-              }
-            }
-          } else {
-            int read = Math.min(len, (head < tail ? tail : capacity) - head);
-            System.arraycopy(buffer, head, b, off, read);
-            head += read;
-            if (head == capacity) {
-              head = 0;
-            }
-            full = false;
-            Pipe.this.notifyAll();
-            return read;
-          }
+      if (len == 0) {
+        if (inClosed) {
+          throw new IOException("The InputStream is closed");
         }
+        return 0;
       }
+
+      long available = awaitReadable();
+      if (available < 0) {
+        return -1;
+      }
+
+      // Copy the continuous part, then the wrapped part
+      long position = readPosition;
+      int read = (int) Math.min(len, available);
+      int start = (int) (position % capacity);
+      int first = Math.min(read, capacity - start);
+      System.arraycopy(buffer, start, b, off, first);
+      if (first < read) {
+        System.arraycopy(buffer, 0, b, off + first, read - first);
+      }
+      readPosition = position + read;
+      unpark(writer);
+      return read;
+    }
+
+    @Override
+    public int available() {
+      return (int) (writePosition - readPosition);
     }
 
     @Override
     public void close() {
-      synchronized (Pipe.this) {
-        inClosed = true;
-        Pipe.this.notifyAll();
-      }
+      inClosed = true;
+      unpark(writer);
     }
   };
 
   private OutputStream outputStream = new OutputStream() {
+
+    /**
+     * Waits until there is space, returns the size of it.
+     */
+    private int awaitWritable() throws IOException {
+      long position = writePosition;
+      for (;;) {
+        if (outClosed) {
+          throw new IOException("The OutputStream is closed");
+        }
+        if (inClosed) {
+          throw new IOException("The InputStream is closed");
+        }
+        int space = (int) (capacity - (position - readPosition));
+        if (space > 0) {
+          return space;
+        }
+
+        // The buffer is full, wait for InputStream read bytes
+        checkInterrupted();
+        writer = Thread.currentThread();
+        if (position - readPosition == capacity && !inClosed) {
+          LockSupport.park(Pipe.this);
+        }
+        writer = null;
+      }
+    }
+
     @Override
     public void write(int b) throws IOException {
-      synchronized (Pipe.this) {
-        byte[] bytes = new byte[] { (byte) b};
-        write(bytes, 0, 1);
-      }
+      awaitWritable();
+      long position = writePosition;
+      buffer[(int) (position % capacity)] = (byte) b;
+      writePosition = position + 1;
+      unpark(reader);
     }
 
     @Override
     public void write(@NonNull byte[] b, int off, int len) throws IOException {
-      synchronized (Pipe.this) {
-        while (len != 0) {
-          if (outClosed) {
-            throw new IOException("The OutputStream is closed");
-          }
-          if (inClosed) {
-            throw new IOException("The InputStream is closed");
-          }
-
-          if (head == tail && full) {
-            // The buffer is full, wait for InputStream read bytes
-            try {
-              Pipe.this.wait();
-            } catch (InterruptedException e) {
-              throw new IOException("The thread interrupted", e);
-            }
-          } else {
-            int write = Math.min(len, (head <= tail ? capacity : head) - tail);
-            System.arraycopy(b, off, buffer, tail, write);
-            off += write;
-            len -= write;
-            tail += write;
-            if (tail == capacity) {
-              tail = 0;
-            }
-            if (head == tail) {
-              full = true;
-            }
-            Pipe.this.notifyAll();
-          }
+      while (len != 0) {
+        int space = awaitWritable();
+
+        // Copy the continuous part, then the wrapped part
+        long position = writePosition;
+        int write = Math.min(len, space);
+        int start = (int) (position % capacity);
+        int first = Math.min(write, capacity - start);
+        System.arraycopy(b, off, buffer, start, first);
+        if (first < write) {
+          System.arraycopy(b, off + first, buffer, 0, write - first);
         }
+        off += write;
+        len -= write;
+        writePosition = position + write;
+        unpark(reader);
       }
     }
 
     @Override
     public void close() {
-      synchronized (Pipe.this) {
-        outClosed = true;
-        Pipe.this.notifyAll();
-      }
+      outClosed = true;
+      unpark(reader);
     }
   };
 
@@ -0,0 +1,67 @@
+/*
+ * Copyright 2019 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.ehviewer.gallery;
+
+import androidx.annotation.Nullable;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * Data of prefetched pages in memory, the eldest ones are removed
+ * when they are over the max size.
+ */
+final class PrefetchBuffer {
+
+  private final int maxSize;
+  private final LinkedHashMap<Integer, byte[]> pages = new LinkedHashMap<>();
+  private int size;
+
+  PrefetchBuffer(int maxSize) {
+    this.maxSize = maxSize;
+  }
+
+  /**
+   * Pages larger than half of the max size are not worth keeping.
+   */
+  boolean accepts(int dataSize) {
+    return dataSize > 0 && dataSize <= maxSize / 2;
+  }
+
+  synchronized boolean contains(int index) {
+    return pages.containsKey(index);
+  }
+
+  @Nullable
+  synchronized byte[] take(int index) {
+    byte[] data = pages.remove(index);
+    if (data != null) {
+      size -= data.length;
+    }
+    return data;
+  }
+
+  synchronized void put(int index, byte[] data) {
+    byte[] old = pages.put(index, data);
+    size += data.length - (old != null ? old.length : 0);
+    // Remove the eldest
+    Iterator<byte[]> iterator = pages.values().iterator();
+    while (size > maxSize && iterator.hasNext()) {
+      size -= iterator.next().length;
+      iterator.remove();
+    }
+  }
+}
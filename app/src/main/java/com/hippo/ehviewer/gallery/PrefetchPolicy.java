@@ -0,0 +1,46 @@
+/*
+ * Copyright 2019 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.ehviewer.gallery;
+
+import androidx.annotation.NonNull;
+import java.util.List;
+
+/**
+ * Decides which pages to fetch ahead of the reader. Pages are fetched
+ * to the place where the provider keeps them before decoding, like
+ * the download dir of {@code SpiderQueen} or the memory for archives.
+ */
+public interface PrefetchPolicy {
+
+  /**
+   * Called when the page on screen is changed.
+   */
+  void onCurrentIndexChanged(int index);
+
+  /**
+   * Called when a page is fetched, it took the time in milliseconds.
+   */
+  void onPageFetched(long bytes, long time);
+
+  /**
+   * Returns the pages to prefetch for the requested page, the most wanted one first.
+   *
+   * @param size the count of pages, pages out of range are never returned
+   */
+  @NonNull
+  List<Integer> getPrefetchPages(int index, int size);
+}
@@ -0,0 +1,232 @@
+/*
+ * Copyright 2019 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.ehviewer.gallery;
+
+import androidx.annotation.NonNull;
+import com.hippo.unifile.UniRandomAccessFile;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Finds the stored (not compressed) entries of a ZIP file from its central directory.
+ * Their data can be read by offset, no extraction is needed.
+ */
+final class ZipStoredEntries {
+
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  private static final int SIGNATURE_LOCAL_HEADER = 0x04034b50;
+  private static final int SIGNATURE_CENTRAL_HEADER = 0x02014b50;
+  private static final int SIGNATURE_END = 0x06054b50;
+
+  private static final int LOCAL_HEADER_SIZE = 30;
+  private static final int CENTRAL_HEADER_SIZE = 46;
+  private static final int END_SIZE = 22;
+  private static final int MAX_COMMENT_SIZE = 0xffff;
+  private static final int MAX_CENTRAL_DIRECTORY_SIZE = 16 * 1024 * 1024;
+
+  private static final int FLAG_ENCRYPTED = 1;
+  private static final int FLAG_UTF_8 = 1 << 11;
+  private static final int METHOD_STORED = 0;
+  private static final long ZIP64_MAGIC = 0xffffffffL;
+
+  static final class Entry {
+    private final long headerOffset;
+    private final long size;
+
+    private Entry(long headerOffset, long size) {
+      this.headerOffset = headerOffset;
+      this.size = size;
+    }
+  }
+
+  private ZipStoredEntries() {}
+
+  private static int getShort(byte[] b, int off) {
+    return (b[off] & 0xff) | (b[off + 1] & 0xff) << 8;
+  }
+
+  private static long getInt(byte[] b, int off) {
+    return (getShort(b, off) | (long) getShort(b, off + 2) << 16) & 0xffffffffL;
+  }
+
+  private static void readFully(UniRandomAccessFile file, long pos, byte[] b) throws IOException {
+    file.seek(pos);
+    int off = 0;
+    while (off < b.length) {
+      int n = file.read(b, off, b.length - off);
+      if (n < 0) {
+        throw new IOException("Unexpected end of file");
+      }
+      off += n;
+    }
+  }
+
+  private static boolean isAscii(byte[] b, int off, int len) {
+    for (int i = off, end = off + len; i < end; i++) {
+      if (b[i] < 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Returns path to stored entry. It's empty if it's not a ZIP file,
+   * or the ZIP file needs ZIP64.
+   */
+  @NonNull
+  static Map<String, Entry> read(UniRandomAccessFile file) {
+    try {
+      return readInternal(file);
+    } catch (IOException e) {
+      return Collections.emptyMap();
+    }
+  }
+
+  private static Map<String, Entry> readInternal(UniRandomAccessFile file) throws IOException {
+    long length = file.length();
+    if (length < END_SIZE) {
+      return Collections.emptyMap();
+    }
+
+    // Look for the end of central directory record from the end
+    int tailSize = (int) Math.min(length, END_SIZE + MAX_COMMENT_SIZE);
+    byte[] tail = new byte[tailSize];
+    readFully(file, length - tailSize, tail);
+    int end = -1;
+    for (int i = tailSize - END_SIZE; i >= 0; i--) {
+      if (getInt(tail, i) == SIGNATURE_END) {
+        end = i;
+        break;
+      }
+    }
+    if (end < 0) {
+      return Collections.emptyMap();
+    }
+
+    int count = getShort(tail, end + 10);
+    long directorySize = getInt(tail, end + 12);
+    long directoryOffset = getInt(tail, end + 16);
+    if (count == 0xffff || directorySize == ZIP64_MAGIC || directoryOffset == ZIP64_MAGIC ||
+        directorySize > MAX_CENTRAL_DIRECTORY_SIZE || directoryOffset + directorySize > length) {
+      return Collections.emptyMap();
+    }
+
+    byte[] directory = new byte[(int) directorySize];
+    readFully(file, directoryOffset, directory);
+
+    Map<String, Entry> entries = new HashMap<>();
+    int off = 0;
+    for (int i = 0; i < count && off + CENTRAL_HEADER_SIZE <= directory.length; i++) {
+      if (getInt(directory, off) != SIGNATURE_CENTRAL_HEADER) {
+        break;
+      }
+      int flags = getShort(directory, off + 8);
+      int method = getShort(directory, off + 10);
+      long compressedSize = getInt(directory, off + 20);
+      long size = getInt(directory, off + 24);
+      int nameLength = getShort(directory, off + 28);
+      int extraLength = getShort(directory, off + 30);
+      int commentLength = getShort(directory, off + 32);
+      long headerOffset = getInt(directory, off + 42);
+      int nameOffset = off + CENTRAL_HEADER_SIZE;
+      if (nameOffset + nameLength > directory.length) {
+        break;
+      }
+
+      // Names in other charsets might not be the same as the names from the archive library
+      boolean utf8 = (flags & FLAG_UTF_8) != 0;
+      if (method == METHOD_STORED && (flags & FLAG_ENCRYPTED) == 0 && compressedSize == size &&
+          size != ZIP64_MAGIC && headerOffset != ZIP64_MAGIC &&
+          (utf8 || isAscii(directory, nameOffset, nameLength))) {
+        String name = new String(directory, nameOffset, nameLength, UTF_8);
+        entries.put(name, new Entry(headerOffset, size));
+      }
+
+      off = nameOffset + nameLength + extraLength + commentLength;
+    }
+    return entries;
+  }
+
+  /**
+   * Opens the data of the entry. The stream seeks the file on every read,
+   * so the file must not be used by others until the stream is closed.
+   */
+  static InputStream openStream(UniRandomAccessFile file, Entry entry) throws IOException {
+    byte[] header = new byte[LOCAL_HEADER_SIZE];
+    readFully(file, entry.headerOffset, header);
+    if (getInt(header, 0) != SIGNATURE_LOCAL_HEADER) {
+      throw new IOException("Invalid local header");
+    }
+    long start = entry.headerOffset + LOCAL_HEADER_SIZE + getShort(header, 26) + getShort(header, 28);
+    return new RangeInputStream(file, start, entry.size);
+  }
+
+  private static class RangeInputStream extends InputStream {
+
+    private final UniRandomAccessFile file;
+    private long position;
+    private long remaining;
+
+    private RangeInputStream(UniRandomAccessFile file, long start, long length) {
+      this.file = file;
+      this.position = start;
+      this.remaining = length;
+    }
+
+    @Override
+    public int read() throws IOException {
+      byte[] b = new byte[1];
+      return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+    }
+
+    @Override
+    public int read(@NonNull byte[] b, int off, int len) throws IOException {
+      if (len == 0) {
+        return 0;
+      }
+      if (remaining <= 0) {
+        return -1;
+      }
+      file.seek(position);
+      int n = file.read(b, off, (int) Math.min(len, remaining));
+      if (n > 0) {
+        position += n;
+        remaining -= n;
+      }
+      return n;
+    }
+
+    @Override
+    public long skip(long n) {
+      long skipped = Math.max(0, Math.min(n, remaining));
+      position += skipped;
+      remaining -= skipped;
+      return skipped;
+    }
+
+    @Override
+    public int available() {
+      return (int) Math.min(Integer.MAX_VALUE, remaining);
+    }
+  }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright 2019 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.ehviewer.spider;
+
+import java.util.Arrays;
+import java.util.TreeSet;
+
+/**
+ * Decode requests of a {@link SpiderQueen}, shared by its decoder threads.
+ * The request nearest to the current page is taken first, so the page
+ * on screen goes before the pages around it. A page is never queued
+ * twice or queued while it's being decoded.
+ */
+final class DecodeScheduler {
+
+    static final int NONE = -1;
+
+    private final TreeSet<Integer> mRequests = new TreeSet<>();
+    // The page each decoder thread is decoding, or NONE
+    private final int[] mDecoding;
+    private int mCurrentIndex;
+
+    DecodeScheduler(int threadCount) {
+        mDecoding = new int[threadCount];
+        Arrays.fill(mDecoding, NONE);
+    }
+
+    int getThreadCount() {
+        return mDecoding.length;
+    }
+
+    synchronized void request(int index) {
+        for (int decoding : mDecoding) {
+            if (decoding == index) {
+                return;
+            }
+        }
+        if (mRequests.add(index)) {
+            notify();
+        }
+    }
+
+    /**
+     * Drops the request, the page isn't shown any more.
+     */
+    synchronized void cancel(int index) {
+        mRequests.remove(index);
+    }
+
+    synchronized void setCurrentIndex(int index) {
+        mCurrentIndex = index;
+    }
+
+    /**
+     * Waits for a request and marks it decoding by the thread,
+     * until {@link #finish(int)} is called.
+     */
+    synchronized int take(int thread) throws InterruptedException {
+        while (mRequests.isEmpty()) {
+            wait();
+        }
+
+        Integer after = mRequests.ceiling(mCurrentIndex);
+        Integer before = mRequests.lower(mCurrentIndex);
+        int index;
+        if (after == null) {
+            index = before;
+        } else if (before == null) {
+            index = after;
+        } else {
+            // Pages after are more likely to be read next, they go first on a tie
+            index = after - mCurrentIndex <= mCurrentIndex - before ? after : before;
+        }
+        mRequests.remove(index);
+        mDecoding[thread] = index;
+        return index;
+    }
+
+    synchronized void finish(int thread) {
+        mDecoding[thread] = NONE;
+    }
+}
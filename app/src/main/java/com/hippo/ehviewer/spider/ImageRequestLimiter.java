@@ -0,0 +1,108 @@
+/*
+ * Copyright 2019 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.ehviewer.spider;
+
+import androidx.annotation.NonNull;
+import com.hippo.ehviewer.Settings;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Limits in-flight image requests across all {@link SpiderQueen}s.
+ * The slots are shared fairly between the hosts which are requested,
+ * one host can't take more than its share while other hosts wait.
+ * The count of slots is the multi-thread download setting.
+ */
+final class ImageRequestLimiter {
+
+    private static ImageRequestLimiter sInstance;
+
+    static synchronized ImageRequestLimiter getInstance() {
+        if (sInstance == null) {
+            ImageRequestLimiter limiter = new ImageRequestLimiter(Settings.getMultiThreadDownload());
+            Settings.addOnSnapshotChangedListener(snapshot -> limiter.setMaxCount(snapshot.multiThreadDownload));
+            sInstance = limiter;
+        }
+        return sInstance;
+    }
+
+    // host -> { running, waiting }
+    private final Map<String, int[]> mHostMap = new HashMap<>();
+    private int mRunning;
+    private int mMaxCount;
+
+    ImageRequestLimiter(int maxCount) {
+        mMaxCount = Math.max(1, maxCount);
+    }
+
+    synchronized void setMaxCount(int maxCount) {
+        mMaxCount = Math.max(1, maxCount);
+        notifyAll();
+    }
+
+    private int getHostMaxCount() {
+        int hosts = Math.max(1, mHostMap.size());
+        return Math.max(1, (mMaxCount + hosts - 1) / hosts);
+    }
+
+    /**
+     * Wait until a request to the host is allowed.
+     * Each successful acquire must be paired with {@link #release(String)}.
+     */
+    synchronized void acquire(@NonNull String host) throws InterruptedException {
+        int[] counts = mHostMap.get(host);
+        if (counts == null) {
+            counts = new int[2];
+            mHostMap.put(host, counts);
+        }
+
+        counts[1]++;
+        try {
+            while (mRunning >= mMaxCount || counts[0] >= getHostMaxCount()) {
+                wait();
+            }
+        } catch (InterruptedException e) {
+            counts[1]--;
+            removeIfIdle(host, counts);
+            throw e;
+        }
+        counts[1]--;
+
+        counts[0]++;
+        mRunning++;
+    }
+
+    synchronized void release(@NonNull String host) {
+        int[] counts = mHostMap.get(host);
+        if (counts == null || counts[0] <= 0) {
+            return;
+        }
+
+        counts[0]--;
+        mRunning--;
+        removeIfIdle(host, counts);
+        notifyAll();
+    }
+
+    private void removeIfIdle(String host, int[] counts) {
+        if (counts[0] == 0 && counts[1] == 0) {
+            mHostMap.remove(host);
+            // Fewer hosts, larger share for the others
+            notifyAll();
+        }
+    }
+}
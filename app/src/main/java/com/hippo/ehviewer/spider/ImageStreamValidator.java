@@ -0,0 +1,159 @@
+/*
+ * Copyright 2019 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.ehviewer.spider;
+
+import androidx.annotation.Nullable;
+import com.hippo.yorozuya.NumberUtils;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Checks the image data while it is being downloaded,
+ * so the file doesn't need to be read again.
+ */
+final class ImageStreamValidator {
+
+    static final String ERROR_EMPTY = "Empty image";
+    static final String ERROR_PLAIN_TEXT = "Plain text, not an image";
+    static final String ERROR_UNKNOWN_FORMAT = "Unknown image format";
+    static final String ERROR_SIZE_MISMATCH = "Image size mismatch";
+    static final String ERROR_CHECKSUM_MISMATCH = "Image checksum mismatch";
+
+    static final int HEAD_SIZE = 12;
+
+    // H@H file id: sha1-size-width-height-type
+    private static final Pattern PATTERN_FILE_ID = Pattern.compile("/h/([0-9a-f]{40})-(\\d+)-");
+
+    private final byte[] mHead = new byte[HEAD_SIZE];
+    private int mHeadLength;
+    private boolean mBinary;
+    private long mSize;
+
+    @Nullable
+    private MessageDigest mDigest;
+    @Nullable
+    private String mExpectedSha1;
+    private long mExpectedSize = -1;
+
+    /**
+     * @param url the final url of the image, checksum and size are taken from it if possible
+     */
+    ImageStreamValidator(@Nullable String url) {
+        if (url == null) {
+            return;
+        }
+        Matcher m = PATTERN_FILE_ID.matcher(url);
+        if (m.find()) {
+            mExpectedSha1 = m.group(1);
+            mExpectedSize = NumberUtils.parseLongSafely(m.group(2), -1L);
+            try {
+                mDigest = MessageDigest.getInstance("SHA-1");
+            } catch (NoSuchAlgorithmException e) {
+                mDigest = null;
+            }
+        }
+    }
+
+    /**
+     * The download continues a partial image. Only the head of it is known,
+     * so checksum is skipped.
+     */
+    void resume(byte[] head, int headLength, long size) {
+        mHeadLength = Math.min(headLength, HEAD_SIZE);
+        System.arraycopy(head, 0, mHead, 0, mHeadLength);
+        for (int i = 0; i < mHeadLength; i++) {
+            if ((head[i] & 0xff) > 126) {
+                mBinary = true;
+                break;
+            }
+        }
+        mSize = size;
+        mDigest = null;
+    }
+
+    void update(byte[] data, int offset, int length) {
+        if (mHeadLength < HEAD_SIZE) {
+            int n = Math.min(HEAD_SIZE - mHeadLength, length);
+            System.arraycopy(data, offset, mHead, mHeadLength, n);
+            mHeadLength += n;
+        }
+        if (!mBinary) {
+            for (int i = offset, end = offset + length; i < end; i++) {
+                if ((data[i] & 0xff) > 126) {
+                    mBinary = true;
+                    break;
+                }
+            }
+        }
+        if (mDigest != null) {
+            mDigest.update(data, offset, length);
+        }
+        mSize += length;
+    }
+
+    private boolean startsWith(int... bytes) {
+        if (mHeadLength < bytes.length) {
+            return false;
+        }
+        for (int i = 0; i < bytes.length; i++) {
+            if ((mHead[i] & 0xff) != bytes[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean isImageHead() {
+        return startsWith(0xff, 0xd8, 0xff) || // JPEG
+                startsWith(0x89, 'P', 'N', 'G', 0x0d, 0x0a, 0x1a, 0x0a) || // PNG
+                startsWith('G', 'I', 'F', '8') || // GIF
+                startsWith('B', 'M') || // BMP
+                (startsWith('R', 'I', 'F', 'F') && mHeadLength >= 12 &&
+                        mHead[8] == 'W' && mHead[9] == 'E' && mHead[10] == 'B' && mHead[11] == 'P'); // WebP
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(String.format(Locale.US, "%02x", b & 0xff));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @return the reason why it is not a valid image, null for valid
+     */
+    @Nullable
+    String getError() {
+        if (mSize == 0) {
+            return ERROR_EMPTY;
+        }
+        if (!isImageHead()) {
+            return mBinary ? ERROR_UNKNOWN_FORMAT : ERROR_PLAIN_TEXT;
+        }
+        if (mExpectedSize >= 0 && mExpectedSize != mSize) {
+            return ERROR_SIZE_MISMATCH;
+        }
+        if (mDigest != null && mExpectedSha1 != null && !mExpectedSha1.equals(toHex(mDigest.digest()))) {
+            return ERROR_CHECKSUM_MISMATCH;
+        }
+        return null;
+    }
+}
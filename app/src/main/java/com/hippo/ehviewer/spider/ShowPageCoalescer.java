@@ -0,0 +1,134 @@
+/*
+ * Copyright 2019 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.ehviewer.spider;
+
+import android.util.SparseArray;
+import androidx.annotation.NonNull;
+import com.hippo.ehviewer.client.parser.GalleryPageApiParser;
+import com.hippo.util.ExceptionUtils;
+import com.hippo.yorozuya.ObjectUtils;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Merges showpage api requests of one gallery.
+ * The api only takes one page, so requests can't be packed together,
+ * but a request for a page which is already in flight with the same show key
+ * waits for that result instead of sending another one.
+ */
+final class ShowPageCoalescer {
+
+    interface Fetcher {
+        GalleryPageApiParser.Result fetch() throws Exception;
+    }
+
+    private static class Flight {
+        private final String mShowKey;
+        private final CountDownLatch mLatch = new CountDownLatch(1);
+        private GalleryPageApiParser.Result mResult;
+        private Exception mError;
+        // The owner is interrupted, waiters should request it again
+        private boolean mInterrupted;
+
+        private Flight(String showKey) {
+            mShowKey = showKey;
+        }
+    }
+
+    private final SparseArray<Flight> mFlights = new SparseArray<>();
+    private final AtomicInteger mRequestCount = new AtomicInteger();
+    private final AtomicInteger mSavedCount = new AtomicInteger();
+
+    /**
+     * @throws InterruptedException if this thread is interrupted while waiting for another request
+     */
+    GalleryPageApiParser.Result fetch(int index, String showKey, @NonNull Fetcher fetcher) throws Exception {
+        for (;;) {
+            Flight flight;
+            boolean owner;
+            synchronized (mFlights) {
+                flight = mFlights.get(index);
+                if (flight != null && ObjectUtils.equal(flight.mShowKey, showKey)) {
+                    owner = false;
+                } else {
+                    flight = new Flight(showKey);
+                    mFlights.put(index, flight);
+                    owner = true;
+                }
+            }
+
+            if (owner) {
+                mRequestCount.incrementAndGet();
+                try {
+                    flight.mResult = fetcher.fetch();
+                    return flight.mResult;
+                } catch (Exception e) {
+                    flight.mError = e;
+                    flight.mInterrupted = isInterruption(e);
+                    throw e;
+                } catch (Throwable t) {
+                    // Waiters get no result, they request it again
+                    ExceptionUtils.throwIfFatal(t);
+                    throw t;
+                } finally {
+                    synchronized (mFlights) {
+                        if (mFlights.get(index) == flight) {
+                            mFlights.remove(index);
+                        }
+                    }
+                    flight.mLatch.countDown();
+                }
+            }
+
+            mSavedCount.incrementAndGet();
+            flight.mLatch.await();
+            if (flight.mInterrupted) {
+                // Not the fault of the page, send it by this thread
+                mSavedCount.decrementAndGet();
+                continue;
+            }
+            if (flight.mError != null) {
+                throw flight.mError;
+            }
+            if (flight.mResult == null) {
+                // The owner failed without exception, send it by this thread
+                mSavedCount.decrementAndGet();
+                continue;
+            }
+            return flight.mResult;
+        }
+    }
+
+    private static boolean isInterruption(Exception e) {
+        // InterruptedIOException may be a timeout, check the thread
+        return e instanceof InterruptedException || Thread.currentThread().isInterrupted();
+    }
+
+    /**
+     * The count of requests which are sent
+     */
+    int getRequestCount() {
+        return mRequestCount.get();
+    }
+
+    /**
+     * The count of requests which are merged into others
+     */
+    int getSavedCount() {
+        return mSavedCount.get();
+    }
+}
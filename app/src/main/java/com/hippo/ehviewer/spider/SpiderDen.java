@@ -18,6 +18,7 @@ package com.hippo.ehviewer.spider;
 
 import android.content.Context;
 import android.graphics.BitmapFactory;
+import android.text.TextUtils;
 import android.webkit.MimeTypeMap;
 import androidx.annotation.Nullable;
 import com.hippo.beerbelly.SimpleDiskCache;
@@ -39,11 +40,16 @@ import com.hippo.yorozuya.MathUtils;
 import com.hippo.yorozuya.Utilities;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.OutputStreamWriter;
 import java.util.Locale;
 
 public final class SpiderDen {
 
+    private static final String PARTIAL_EXTENSION = ".part";
+    private static final String PARTIAL_INFO_EXTENSION = ".partinfo";
+
     @Nullable
     private final UniFile mDownloadDir;
     private volatile int mMode = SpiderQueen.MODE_READ;
@@ -289,6 +295,163 @@ public final class SpiderDen {
         return result;
     }
 
+    /**
+     * The head of an image which failed to download,
+     * kept in download dir to resume from.
+     */
+    public static class PartialImage {
+        public long length;
+        // Without dot
+        public String extension;
+        // ETag or Last-Modified for If-Range
+        public String validator;
+        // The first bytes of the partial image
+        public byte[] head;
+        public int headLength;
+    }
+
+    private static String generatePartialFilename(int index, String extension) {
+        return String.format(Locale.US, "%08d%s", index + 1, extension);
+    }
+
+    /**
+     * Only images in download dir can be resumed, disk cache can't be appended.
+     */
+    public boolean isResumable() {
+        return mMode == SpiderQueen.MODE_DOWNLOAD && getDownloadDir() != null;
+    }
+
+    @Nullable
+    public PartialImage getPartialImage(int index) {
+        UniFile dir = getDownloadDir();
+        if (dir == null) {
+            return null;
+        }
+
+        UniFile file = dir.findFile(generatePartialFilename(index, PARTIAL_EXTENSION));
+        UniFile infoFile = dir.findFile(generatePartialFilename(index, PARTIAL_INFO_EXTENSION));
+        if (file == null || infoFile == null) {
+            return null;
+        }
+
+        PartialImage partial = new PartialImage();
+        InputStream is = null;
+        try {
+            is = infoFile.openInputStream();
+            partial.extension = IOUtils.readAsciiLine(is);
+            partial.validator = IOUtils.readAsciiLine(is);
+        } catch (IOException e) {
+            return null;
+        } finally {
+            IOUtils.closeQuietly(is);
+        }
+        partial.length = file.length();
+
+        if (partial.length <= 0 || TextUtils.isEmpty(partial.validator)) {
+            return null;
+        }
+
+        // Read head for checking image format
+        partial.head = new byte[ImageStreamValidator.HEAD_SIZE];
+        try {
+            is = file.openInputStream();
+            int n;
+            while (partial.headLength < partial.head.length &&
+                    (n = is.read(partial.head, partial.headLength, partial.head.length - partial.headLength)) != -1) {
+                partial.headLength += n;
+            }
+        } catch (IOException e) {
+            return null;
+        } finally {
+            IOUtils.closeQuietly(is);
+        }
+
+        return partial;
+    }
+
+    /**
+     * @param extension without dot
+     * @param validator null for not resumable
+     * @param append true to append to the partial image
+     */
+    @Nullable
+    public OutputStream openPartialOutputStream(int index, @Nullable String extension,
+            @Nullable String validator, boolean append) throws IOException {
+        UniFile dir = getDownloadDir();
+        if (dir == null) {
+            return null;
+        }
+
+        if (!append) {
+            UniFile infoFile = dir.createFile(generatePartialFilename(index, PARTIAL_INFO_EXTENSION));
+            if (infoFile == null) {
+                return null;
+            }
+            if (validator != null) {
+                OutputStreamWriter writer = null;
+                try {
+                    writer = new OutputStreamWriter(infoFile.openOutputStream());
+                    writer.write(extension != null ? extension : "");
+                    writer.write("\n");
+                    writer.write(validator);
+                    writer.write("\n");
+                    writer.flush();
+                } finally {
+                    IOUtils.closeQuietly(writer);
+                }
+            } else {
+                infoFile.delete();
+            }
+        }
+
+        UniFile file = dir.createFile(generatePartialFilename(index, PARTIAL_EXTENSION));
+        if (file == null) {
+            return null;
+        }
+        return file.openOutputStream(append);
+    }
+
+    /**
+     * Turn the partial image into the image.
+     *
+     * @param extension without dot
+     */
+    public boolean commitPartialImage(int index, @Nullable String extension) {
+        UniFile dir = getDownloadDir();
+        if (dir == null) {
+            return false;
+        }
+
+        UniFile file = dir.findFile(generatePartialFilename(index, PARTIAL_EXTENSION));
+        if (file == null) {
+            return false;
+        }
+
+        removeFromDownloadDir(index);
+        boolean result = file.renameTo(generateImageFilename(index, fixExtension('.' + extension)));
+        UniFile infoFile = dir.findFile(generatePartialFilename(index, PARTIAL_INFO_EXTENSION));
+        if (infoFile != null) {
+            infoFile.delete();
+        }
+        return result;
+    }
+
+    public void removePartialImage(int index) {
+        UniFile dir = getDownloadDir();
+        if (dir == null) {
+            return;
+        }
+
+        UniFile file = dir.subFile(generatePartialFilename(index, PARTIAL_EXTENSION));
+        if (file != null) {
+            file.delete();
+        }
+        UniFile infoFile = dir.subFile(generatePartialFilename(index, PARTIAL_INFO_EXTENSION));
+        if (infoFile != null) {
+            infoFile.delete();
+        }
+    }
+
     @Nullable
     private OutputStreamPipe openCacheOutputStreamPipe(int index) {
         if (sCache == null) {
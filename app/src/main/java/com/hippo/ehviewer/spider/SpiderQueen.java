@@ -20,9 +20,11 @@ import android.content.Context;
 import android.graphics.BitmapFactory;
 import android.os.AsyncTask;
 import android.os.Process;
+import android.os.SystemClock;
 import android.text.TextUtils;
 import android.util.Log;
 import android.util.SparseArray;
+import android.util.SparseBooleanArray;
 import android.webkit.MimeTypeMap;
 import androidx.annotation.IntDef;
 import androidx.annotation.NonNull;
@@ -44,8 +46,10 @@ import com.hippo.ehviewer.client.parser.GalleryDetailParser;
 import com.hippo.ehviewer.client.parser.GalleryPageApiParser;
 import com.hippo.ehviewer.client.parser.GalleryPageParser;
 import com.hippo.ehviewer.client.parser.GalleryPageUrlParser;
+import com.hippo.ehviewer.gallery.DirectionalPrefetchPolicy;
 import com.hippo.ehviewer.gallery.GalleryProvider2;
-import com.hippo.glgallery.GalleryPageView;
+import com.hippo.ehviewer.gallery.PageDecoder;
+import com.hippo.ehviewer.gallery.PrefetchPolicy;
 import com.hippo.glgallery.GalleryProvider;
 import com.hippo.image.Image;
 import com.hippo.streampipe.InputStreamPipe;
@@ -55,13 +59,13 @@ import com.hippo.util.ExceptionUtils;
 import com.hippo.util.IoThreadPoolExecutor;
 import com.hippo.yorozuya.IOUtils;
 import com.hippo.yorozuya.MathUtils;
+import com.hippo.yorozuya.NumberUtils;
 import com.hippo.yorozuya.OSUtils;
 import com.hippo.yorozuya.StringUtils;
 import com.hippo.yorozuya.Utilities;
 import com.hippo.yorozuya.collect.SparseJLArray;
 import com.hippo.yorozuya.thread.PriorityThread;
 import com.hippo.yorozuya.thread.PriorityThreadFactory;
-import java.io.BufferedInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -79,6 +83,7 @@ import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 import okhttp3.Call;
+import okhttp3.HttpUrl;
 import okhttp3.MediaType;
 import okhttp3.OkHttpClient;
 import okhttp3.Request;
@@ -108,7 +113,9 @@ public final class SpiderQueen implements Runnable {
     public static final int STATE_FINISHED = 2;
     public static final int STATE_FAILED = 3;
 
-    public static final int DECODE_THREAD_NUM = 1;
+    private static final int MAX_WORKER_COUNT = 10;
+
+    private static final long RESOLVER_IDLE_WAIT = 1000;
 
     public static final String SPIDER_INFO_FILENAME = ".ehviewer";
 
@@ -136,9 +143,10 @@ public final class SpiderQueen implements Runnable {
     private volatile Thread mQueenThread;
     private final Object mQueenLock = new Object();
 
-    private final Thread[] mDecodeThreadArray = new Thread[DECODE_THREAD_NUM];
-    private final int[] mDecodeIndexArray = new int[DECODE_THREAD_NUM];
-    private final Queue<Integer> mDecodeRequestQueue = new LinkedList<>();
+    // One core is left for rendering
+    private final DecodeScheduler mDecodeScheduler = new DecodeScheduler(
+            MathUtils.clamp(Runtime.getRuntime().availableProcessors() - 1, 1, 4));
+    private final Thread[] mDecodeThreadArray = new Thread[mDecodeScheduler.getThreadCount()];
 
     private final Object mWorkerLock = new Object();
     private ThreadPoolExecutor mWorkerPoolExecutor;
@@ -165,6 +173,15 @@ public final class SpiderQueen implements Runnable {
 
     private AtomicReference<String> showKey = new AtomicReference<>();
     private final Object showKeyLock = new Object();
+    private final ShowPageCoalescer mShowPageCoalescer = new ShowPageCoalescer();
+
+    @Nullable
+    private volatile Thread mResolverThread;
+    // Store image urls resolved ahead of workers, guarded by itself
+    private final SparseArray<ResolvedPage> mResolvedPages = new SparseArray<>();
+    // Store pages found in SpiderDen by resolver, no need to resolve them
+    private final SparseBooleanArray mResolveSkipPages = new SparseBooleanArray();
+    private final int mResolveAheadCount;
 
     // Store page error
     private final ConcurrentHashMap<Integer, String> mPageErrorMap = new ConcurrentHashMap<>();
@@ -173,8 +190,10 @@ public final class SpiderQueen implements Runnable {
 
     private final List<OnSpiderListener> mSpiderListeners = new ArrayList<>();
 
-    private final int mWorkerMaxCount;
-    private final int mPreloadNumber;
+    private final WorkerController mWorkerController;
+    @NonNull
+    private volatile PrefetchPolicy mPrefetchPolicy;
+    private volatile int mDecodeTargetSize;
 
     private SpiderQueen(EhApplication application, @NonNull GalleryInfo galleryInfo) {
         mHttpClient = EhApplication.getOkHttpClient(application);
@@ -182,16 +201,18 @@ public final class SpiderQueen implements Runnable {
         mGalleryInfo = galleryInfo;
         mSpiderDen = new SpiderDen(mGalleryInfo);
 
-        mWorkerMaxCount = MathUtils.clamp(Settings.getMultiThreadDownload(), 1, 10);
-        mPreloadNumber = MathUtils.clamp(Settings.getPreloadImage(), 0, 100);
+        // The setting is the most workers of one gallery. Reading doesn't adjust the count,
+        // so it starts from there, downloading cuts it when the site pushes back
+        int workerCount = MathUtils.clamp(Settings.getMultiThreadDownload(), 1, MAX_WORKER_COUNT);
+        mWorkerController = new WorkerController(workerCount, workerCount);
+        mPrefetchPolicy = new DirectionalPrefetchPolicy(MathUtils.clamp(Settings.getPreloadImage(), 0, 100));
+        mResolveAheadCount = workerCount * 2;
 
-        for (int i = 0; i < DECODE_THREAD_NUM; i++) {
-            mDecodeIndexArray[i] = GalleryPageView.INVALID_INDEX;
-        }
-
-        mWorkerPoolExecutor = new ThreadPoolExecutor(mWorkerMaxCount, mWorkerMaxCount,
-                0, TimeUnit.SECONDS, new LinkedBlockingDeque<Runnable>(),
+        mWorkerPoolExecutor = new ThreadPoolExecutor(MAX_WORKER_COUNT, MAX_WORKER_COUNT,
+                30, TimeUnit.SECONDS, new LinkedBlockingDeque<Runnable>(),
                 new PriorityThreadFactory(SpiderWorker.class.getSimpleName(), Process.THREAD_PRIORITY_BACKGROUND));
+        // Threads of retired workers are not kept
+        mWorkerPoolExecutor.allowCoreThreadTimeOut(true);
     }
 
     public void addOnSpiderListener(OnSpiderListener listener) {
@@ -464,6 +485,13 @@ public final class SpiderQueen implements Runnable {
 
         if (startWorkers) {
             ensureWorkers();
+            notifyResolver();
+        }
+    }
+
+    private void notifyResolver() {
+        synchronized (mResolvedPages) {
+            mResolvedPages.notify();
         }
     }
 
@@ -475,9 +503,33 @@ public final class SpiderQueen implements Runnable {
         synchronized (mRequestPageQueue) {
             mRequestPageQueue.remove(index);
         }
-        synchronized (mDecodeRequestQueue) {
-            mDecodeRequestQueue.remove(index);
-        }
+        mDecodeScheduler.cancel(index);
+    }
+
+    /**
+     * The policy which decides the pages to download ahead of the reader.
+     */
+    @NonNull
+    public PrefetchPolicy getPrefetchPolicy() {
+        return mPrefetchPolicy;
+    }
+
+    public void setPrefetchPolicy(@NonNull PrefetchPolicy policy) {
+        mPrefetchPolicy = policy;
+    }
+
+    /**
+     * Pages nearest to the current page are decoded first.
+     */
+    public void setCurrentIndex(int index) {
+        mDecodeScheduler.setCurrentIndex(index);
+    }
+
+    /**
+     * @see GalleryProvider2#setDecodeTargetSize(int)
+     */
+    public void setDecodeTargetSize(int size) {
+        mDecodeTargetSize = size;
     }
 
     /**
@@ -512,7 +564,7 @@ public final class SpiderQueen implements Runnable {
                 }
             }
 
-            // Add next some pages to request queue
+            // Add pages around it to prefetch
             if (addNeighbor) {
                 mRequestPageQueue2.clear();
                 int[] pageStateArray = mPageStateArray;
@@ -522,7 +574,7 @@ public final class SpiderQueen implements Runnable {
                 } else {
                     size = Integer.MAX_VALUE;
                 }
-                for (int i = index + 1, n = index + 1 + mPreloadNumber; i < n && i < size; i++) {
+                for (int i : mPrefetchPolicy.getPrefetchPages(index, size)) {
                     if (STATE_NONE == getPageState(i)) {
                         mRequestPageQueue2.add(i);
                     }
@@ -548,12 +600,7 @@ public final class SpiderQueen implements Runnable {
                 result = error;
                 break;
             case STATE_FINISHED:
-                synchronized (mDecodeRequestQueue) {
-                    if (!contain(mDecodeIndexArray, index) && !mDecodeRequestQueue.contains(index)) {
-                        mDecodeRequestQueue.add(index);
-                        mDecodeRequestQueue.notify();
-                    }
-                }
+                mDecodeScheduler.request(index);
                 result = null;
                 break;
         }
@@ -563,15 +610,6 @@ public final class SpiderQueen implements Runnable {
         return result;
     }
 
-    public static boolean contain(int[] array, int value) {
-        for (int v: array) {
-            if (v == value) {
-                return true;
-            }
-        }
-        return false;
-    }
-
     private void ensureWorkers() {
         synchronized (mWorkerLock) {
             if (null == mWorkerPoolExecutor) {
@@ -579,7 +617,7 @@ public final class SpiderQueen implements Runnable {
                 return;
             }
 
-            for (; mWorkerCount < mWorkerMaxCount; mWorkerCount++) {
+            for (int target = mWorkerController.getTarget(); mWorkerCount < target; mWorkerCount++) {
                 mWorkerPoolExecutor.execute(new SpiderWorker());
             }
         }
@@ -872,13 +910,19 @@ public final class SpiderQueen implements Runnable {
         tryToEnsureWorkers();
 
         // Start decoder
-        for (int i = 0; i < DECODE_THREAD_NUM; i++) {
+        for (int i = 0; i < mDecodeThreadArray.length; i++) {
             Thread decoderThread = new PriorityThread(new SpiderDecoder(i),
                     "SpiderDecoder-" + i, Process.THREAD_PRIORITY_DEFAULT);
             mDecodeThreadArray[i] = decoderThread;
             decoderThread.start();
         }
 
+        // Start resolver
+        Thread resolverThread = new PriorityThread(new SpiderResolver(),
+                "SpiderResolver-" + mGalleryInfo.gid, Process.THREAD_PRIORITY_BACKGROUND);
+        mResolverThread = resolverThread;
+        resolverThread.start();
+
         // handle pToken request
         while (!Thread.currentThread().isInterrupted()) {
             Integer index = mRequestPTokenQueue.poll();
@@ -947,6 +991,13 @@ public final class SpiderQueen implements Runnable {
             }
         }
 
+        // Interrupt resolver
+        Thread resolverThread = mResolverThread;
+        if (resolverThread != null) {
+            resolverThread.interrupt();
+            mResolverThread = null;
+        }
+
         // Interrupt all workers
         synchronized (mWorkerLock) {
             mWorkerPoolExecutor.shutdownNow();
@@ -955,10 +1006,62 @@ public final class SpiderQueen implements Runnable {
         notifyFinish();
 
         if (DEBUG_LOG) {
+            Log.d(TAG, "Gallery " + mGalleryInfo.gid + ": " + getShowPageRequestCount() +
+                    " showpage requests, " + getSavedShowPageRequestCount() + " saved");
             Log.i(TAG, Thread.currentThread().getName() + ": end");
         }
     }
 
+    /**
+     * @return the count of showpage api requests sent for this gallery
+     */
+    public int getShowPageRequestCount() {
+        return mShowPageCoalescer.getRequestCount();
+    }
+
+    /**
+     * @return the count of showpage api requests merged into others for this gallery
+     */
+    public int getSavedShowPageRequestCount() {
+        return mShowPageCoalescer.getSavedCount();
+    }
+
+    /**
+     * @return the count of workers wanted now, it changes with throughput and errors
+     */
+    public int getWorkerTarget() {
+        return mWorkerController.getTarget();
+    }
+
+    /**
+     * @return why the count of workers is changed last time, null if never changed
+     */
+    @Nullable
+    public String getWorkerTargetReason() {
+        switch (mWorkerController.getReason()) {
+            case WorkerController.REASON_509:
+                return GetText.getString(R.string.worker_reason_509);
+            case WorkerController.REASON_ERROR:
+                return GetText.getString(R.string.worker_reason_error);
+            case WorkerController.REASON_LATENCY:
+                return GetText.getString(R.string.worker_reason_latency);
+            case WorkerController.REASON_THROUGHPUT:
+                return GetText.getString(R.string.worker_reason_throughput);
+            case WorkerController.REASON_NO_GAIN:
+                return GetText.getString(R.string.worker_reason_no_gain);
+            default:
+                return null;
+        }
+    }
+
+    private void onWorkerTargetChanged() {
+        if (DEBUG_LOG) {
+            Log.d(TAG, "Worker target " + mWorkerController.getTarget() + ", " + getWorkerTargetReason());
+        }
+        // Start more workers if it grows, workers retire by themselves if it shrinks
+        tryToEnsureWorkers();
+    }
+
     private void updatePageState(int index, @State int state) {
         updatePageState(index, state, null);
     }
@@ -1008,6 +1111,215 @@ public final class SpiderQueen implements Runnable {
         }
     }
 
+    private GalleryPageParser.Result fetchPageResultFromHtml(int index, String pageUrl) throws Throwable {
+        GalleryPageParser.Result result = EhEngine.getGalleryPage(null, mHttpClient, pageUrl, mGalleryInfo.gid, mGalleryInfo.token);
+        if (StringUtils.endsWith(result.imageUrl, URL_509_SUFFIX_ARRAY)) {
+            // Get 509
+            // Notify listeners
+            notifyGet509(index);
+            throw new Image509Exception();
+        }
+
+        return result;
+    }
+
+    private GalleryPageApiParser.Result fetchPageResultFromApi(long gid, int index, String pToken, String showKey, String previousPToken) throws Exception {
+        // Resolver and workers may ask for the same page at the same time
+        return mShowPageCoalescer.fetch(index, showKey, () -> {
+            GalleryPageApiParser.Result result;
+            try {
+                result = EhEngine.getGalleryPageApi(null, mHttpClient, gid, index, pToken, showKey, previousPToken);
+            } catch (Exception | Error e) {
+                throw e;
+            } catch (Throwable e) {
+                // EhEngine declares Throwable, but it only throws exceptions and errors
+                throw new IllegalStateException(e);
+            }
+            if (StringUtils.endsWith(result.imageUrl, URL_509_SUFFIX_ARRAY)) {
+                // Get 509
+                // Notify listeners
+                notifyGet509(index);
+                throw new Image509Exception();
+            }
+
+            return result;
+        });
+    }
+
+    private static class ResolvedPage {
+        public String imageUrl;
+        public String skipHathKey;
+        public String originImageUrl;
+    }
+
+    @Nullable
+    private ResolvedPage takeResolvedPage(int index) {
+        ResolvedPage page;
+        synchronized (mResolvedPages) {
+            page = mResolvedPages.get(index);
+            if (page != null) {
+                mResolvedPages.remove(index);
+                // A slot is free, resolve more
+                mResolvedPages.notify();
+            }
+        }
+        return page;
+    }
+
+    /**
+     * Resolves image urls of the pages which workers are going to download,
+     * so workers only wait for the image, not for the page.
+     * Only show key api is used, workers get the show key from page html.
+     */
+    private class SpiderResolver implements Runnable {
+
+        private final List<Integer> mCandidates = new ArrayList<>();
+
+        private void collectCandidates(int size) {
+            List<Integer> candidates = mCandidates;
+            candidates.clear();
+            synchronized (mRequestPageQueue) {
+                candidates.addAll(mRequestPageQueue);
+                candidates.addAll(mRequestPageQueue2);
+                int downloadPage = mDownloadPage;
+                if (downloadPage >= 0) {
+                    for (int i = downloadPage, n = Math.min(size, downloadPage + mResolveAheadCount);
+                            i < n && candidates.size() < mResolveAheadCount; i++) {
+                        candidates.add(i);
+                    }
+                }
+            }
+        }
+
+        // -1 for nothing to resolve now
+        private int nextIndex(SpiderInfo spiderInfo) {
+            int size = mPageStateArray.length;
+            collectCandidates(size);
+
+            synchronized (mResolvedPages) {
+                // Drop pages which are done or no longer wanted,
+                // keep the downloading ones for the workers which are taking them
+                for (int i = mResolvedPages.size() - 1; i >= 0; i--) {
+                    int index = mResolvedPages.keyAt(i);
+                    int state = getPageState(index);
+                    if (isStateDone(state) || (state == STATE_NONE && !mCandidates.contains(index))) {
+                        mResolvedPages.removeAt(i);
+                    }
+                }
+                if (mResolvedPages.size() >= mResolveAheadCount) {
+                    return -1;
+                }
+            }
+
+            for (int index : mCandidates) {
+                if (index < 0 || index >= size || getPageState(index) != STATE_NONE ||
+                        mResolveSkipPages.get(index)) {
+                    continue;
+                }
+                synchronized (mResolvedPages) {
+                    if (mResolvedPages.indexOfKey(index) >= 0) {
+                        continue;
+                    }
+                }
+                // Only pages whose tokens are known, the queen thread is for workers
+                synchronized (mPTokenLock) {
+                    String pToken = spiderInfo.pTokenMap.get(index);
+                    if (pToken == null || SpiderInfo.TOKEN_FAILED.equals(pToken) ||
+                            (index > 0 && spiderInfo.pTokenMap.get(index - 1) == null)) {
+                        continue;
+                    }
+                }
+                if (mSpiderDen.contain(index)) {
+                    mResolveSkipPages.put(index, true);
+                    continue;
+                }
+                return index;
+            }
+
+            return -1;
+        }
+
+        @Nullable
+        private ResolvedPage resolve(SpiderInfo spiderInfo, int index) {
+            String localShowKey = showKey.get();
+            if (localShowKey == null) {
+                return null;
+            }
+
+            String pToken;
+            String previousPToken;
+            synchronized (mPTokenLock) {
+                pToken = spiderInfo.pTokenMap.get(index);
+                previousPToken = index > 0 ? spiderInfo.pTokenMap.get(index - 1) : null;
+            }
+
+            try {
+                GalleryPageApiParser.Result result = fetchPageResultFromApi(
+                        mGalleryInfo.gid, index, pToken, localShowKey, previousPToken);
+                ResolvedPage page = new ResolvedPage();
+                page.imageUrl = result.imageUrl;
+                page.skipHathKey = result.skipHathKey;
+                page.originImageUrl = result.originImageUrl;
+                return page;
+            } catch (InterruptedException e) {
+                // Stop resolving
+                Thread.currentThread().interrupt();
+                return null;
+            } catch (Throwable e) {
+                if (e instanceof ParseException && "Key mismatch".equals(e.getMessage())) {
+                    // Let workers get the new show key
+                    showKey.compareAndSet(localShowKey, null);
+                }
+                ExceptionUtils.throwIfFatal(e);
+                return null;
+            }
+        }
+
+        @Override
+        public void run() {
+            if (DEBUG_LOG) {
+                Log.i(TAG, Thread.currentThread().getName() + ": start");
+            }
+
+            SpiderInfo spiderInfo = mSpiderInfo.get();
+            while (spiderInfo != null && !Thread.currentThread().isInterrupted()) {
+                int index = showKey.get() != null ? nextIndex(spiderInfo) : -1;
+
+                if (index < 0) {
+                    // Nothing to resolve, wait for requests or free slots
+                    synchronized (mResolvedPages) {
+                        try {
+                            mResolvedPages.wait(RESOLVER_IDLE_WAIT);
+                        } catch (InterruptedException e) {
+                            break;
+                        }
+                    }
+                    continue;
+                }
+
+                ResolvedPage page = resolve(spiderInfo, index);
+                if (page != null && getPageState(index) == STATE_NONE) {
+                    synchronized (mResolvedPages) {
+                        mResolvedPages.put(index, page);
+                    }
+                } else if (page == null) {
+                    // Don't retry at once, workers will handle it
+                    synchronized (mResolvedPages) {
+                        try {
+                            mResolvedPages.wait(RESOLVER_IDLE_WAIT);
+                        } catch (InterruptedException e) {
+                            break;
+                        }
+                    }
+                }
+            }
+
+            if (DEBUG_LOG) {
+                Log.i(TAG, Thread.currentThread().getName() + ": end");
+            }
+        }
+    }
+
     private class SpiderWorker implements Runnable {
 
         private final long mGid;
@@ -1035,32 +1347,31 @@ public final class SpiderQueen implements Runnable {
             return pageUrl;
         }
 
-        private GalleryPageParser.Result fetchPageResultFromHtml(int index, String pageUrl) throws Throwable {
-            GalleryPageParser.Result result = EhEngine.getGalleryPage(null, mHttpClient, pageUrl, mGalleryInfo.gid, mGalleryInfo.token);
-            if (StringUtils.endsWith(result.imageUrl, URL_509_SUFFIX_ARRAY)) {
-                // Get 509
-                // Notify listeners
-                notifyGet509(index);
-                throw new Image509Exception();
+        @Nullable
+        private String getResumeValidator(Response response) {
+            // If-Range only works with strong ETag
+            String eTag = response.header("ETag");
+            if (eTag != null && !eTag.startsWith("W/")) {
+                return eTag;
             }
-
-            return result;
+            return response.header("Last-Modified");
         }
 
-        private GalleryPageApiParser.Result fetchPageResultFromApi(long gid, int index, String pToken, String showKey, String previousPToken) throws Throwable {
-            GalleryPageApiParser.Result result = EhEngine.getGalleryPageApi(null, mHttpClient, gid, index, pToken, showKey, previousPToken);
-            if (StringUtils.endsWith(result.imageUrl, URL_509_SUFFIX_ARRAY)) {
-                // Get 509
-                // Notify listeners
-                notifyGet509(index);
-                throw new Image509Exception();
+        // Content-Range: bytes 1000-1999/2000
+        private boolean isContentRangeFrom(@Nullable String contentRange, long start) {
+            if (contentRange == null || !contentRange.startsWith("bytes ")) {
+                return false;
             }
-
-            return result;
+            int end = contentRange.indexOf('-');
+            if (end < 0) {
+                return false;
+            }
+            return NumberUtils.parseLongSafely(contentRange.substring("bytes ".length(), end).trim(), -1L) == start;
         }
 
         // false for stop
-        private boolean downloadImage(long gid, int index, String pToken, String previousPToken, boolean force) {
+        private boolean downloadImage(long gid, int index, String pToken, String previousPToken,
+                boolean force, @Nullable ResolvedPage resolvedPage) {
             String skipHathKey = null;
             List<String> skipHathKeys = new ArrayList<>(5);
             String originImageUrl = null;
@@ -1069,15 +1380,23 @@ public final class SpiderQueen implements Runnable {
             boolean forceHtml = false;
             boolean interrupt = false;
             boolean leakSkipHathKey = false;
+            boolean get509 = false;
 
             for (int i = 0; i < 5; i++) {
                 String imageUrl = null;
                 String localShowKey;
 
+                // Use the image url resolved ahead for the first try
+                if (i == 0 && resolvedPage != null) {
+                    imageUrl = resolvedPage.imageUrl;
+                    skipHathKey = resolvedPage.skipHathKey;
+                    originImageUrl = resolvedPage.originImageUrl;
+                }
+
                 // Check show key
                 synchronized (showKeyLock) {
                     localShowKey = showKey.get();
-                    if (localShowKey == null || forceHtml) {
+                    if (imageUrl == null && (localShowKey == null || forceHtml)) {
                         if (leakSkipHathKey) {
                             break;
                         }
@@ -1105,9 +1424,15 @@ public final class SpiderQueen implements Runnable {
                             showKey.lazySet(result.showKey);
                         } catch (Image509Exception e) {
                             error = GetText.getString(R.string.error_509);
+                            get509 = true;
                             break;
                         } catch (Throwable e) {
                             ExceptionUtils.throwIfFatal(e);
+                            if (Thread.currentThread().isInterrupted()) {
+                                error = "Interrupted";
+                                interrupt = true;
+                                break;
+                            }
                             error = ExceptionUtils.getReadableString(e);
                             break;
                         }
@@ -1134,8 +1459,19 @@ public final class SpiderQueen implements Runnable {
                         originImageUrl = result.originImageUrl;
                     } catch (Image509Exception e) {
                         error = GetText.getString(R.string.error_509);
+                        get509 = true;
+                        break;
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        error = "Interrupted";
+                        interrupt = true;
                         break;
                     } catch (Throwable e) {
+                        if (Thread.currentThread().isInterrupted()) {
+                            error = "Interrupted";
+                            interrupt = true;
+                            break;
+                        }
                         if (e instanceof ParseException && "Key mismatch".equals(e.getMessage())) {
                             // Show key is wrong, enter a new loop to get the new show key
                             showKey.compareAndSet(localShowKey, null);
@@ -1174,12 +1510,32 @@ public final class SpiderQueen implements Runnable {
 
                 // Download image
                 InputStream is = null;
+                String limitedHost = null;
                 try {
+                    // Image requests of all downloading galleries share the slots
+                    if (mDownloadPage >= 0) {
+                        HttpUrl httpUrl = HttpUrl.parse(targetImageUrl);
+                        if (httpUrl != null) {
+                            ImageRequestLimiter.getInstance().acquire(httpUrl.host());
+                            limitedHost = httpUrl.host();
+                        }
+                    }
+
                     if (DEBUG_LOG) {
                         Log.d(TAG, "Start download image " + index);
                     }
+                    long startTime = SystemClock.elapsedRealtime();
+
+                    // Resume from the partial image if there is one
+                    boolean resumable = mSpiderDen.isResumable();
+                    SpiderDen.PartialImage partial = resumable ? mSpiderDen.getPartialImage(index) : null;
+                    EhRequestBuilder builder = new EhRequestBuilder(targetImageUrl, referer);
+                    if (partial != null) {
+                        builder.addHeader("Range", "bytes=" + partial.length + "-");
+                        builder.addHeader("If-Range", partial.validator);
+                    }
 
-                    Call call = mHttpClient.newCall(new EhRequestBuilder(targetImageUrl, referer).build());
+                    Call call = mHttpClient.newCall(builder.build());
                     Response response = call.execute();
                     ResponseBody responseBody = response.body();
 
@@ -1188,6 +1544,10 @@ public final class SpiderQueen implements Runnable {
                         response.close();
                         error = "Bad code: " + response.code();
                         forceHtml = true;
+                        if (partial != null && response.code() == 416) {
+                            // Range Not Satisfiable, the partial image is useless
+                            mSpiderDen.removePartialImage(index);
+                        }
                         continue;
                     }
 
@@ -1197,11 +1557,25 @@ public final class SpiderQueen implements Runnable {
                         continue;
                     }
 
+                    // The server may ignore Range or the image may be changed,
+                    // then it is a full response
+                    boolean resume = partial != null && response.code() == 206;
+                    if (resume && !isContentRangeFrom(response.header("Content-Range"), partial.length)) {
+                        response.close();
+                        mSpiderDen.removePartialImage(index);
+                        error = "Bad content range";
+                        continue;
+                    }
+
                     // Get extension
                     String extension = null;
-                    MediaType mediaType = responseBody.contentType();
-                    if (mediaType != null) {
-                        extension = MimeTypeMap.getSingleton().getExtensionFromMimeType(mediaType.toString());
+                    if (resume) {
+                        extension = partial.extension;
+                    } else {
+                        MediaType mediaType = responseBody.contentType();
+                        if (mediaType != null) {
+                            extension = MimeTypeMap.getSingleton().getExtensionFromMimeType(mediaType.toString());
+                        }
                     }
                     // Ensure extension
                     if (!Utilities.contain(GalleryProvider2.SUPPORT_IMAGE_EXTENSIONS, extension)) {
@@ -1209,10 +1583,23 @@ public final class SpiderQueen implements Runnable {
                     }
 
                     OutputStreamPipe osPipe = null;
+                    OutputStream os = null;
+                    String validateError;
+                    long bytesReceived;
                     try {
-                        // Get out put pipe
-                        osPipe = mSpiderDen.openOutputStreamPipe(index, extension);
-                        if (osPipe == null) {
+                        if (resumable) {
+                            // Download to partial image, keep it if failed
+                            os = mSpiderDen.openPartialOutputStream(index, extension,
+                                    getResumeValidator(response), resume);
+                        } else {
+                            // Get out put pipe
+                            osPipe = mSpiderDen.openOutputStreamPipe(index, extension);
+                            if (osPipe != null) {
+                                osPipe.obtain();
+                                os = osPipe.open();
+                            }
+                        }
+                        if (os == null) {
                             // Can't get pipe
                             error = GetText.getString(R.string.error_write_failed);
                             response.close();
@@ -1220,12 +1607,22 @@ public final class SpiderQueen implements Runnable {
                         }
 
                         long contentLength = responseBody.contentLength();
+                        long receivedSize = 0;
+                        if (resume) {
+                            receivedSize = partial.length;
+                            if (contentLength >= 0) {
+                                contentLength += partial.length;
+                            }
+                        }
                         is = responseBody.byteStream();
-                        osPipe.obtain();
-                        OutputStream os = osPipe.open();
+
+                        // Check image data while writing it
+                        ImageStreamValidator validator = new ImageStreamValidator(response.request().url().toString());
+                        if (resume) {
+                            validator.resume(partial.head, partial.headLength, partial.length);
+                        }
 
                         final byte[] data = new byte[1024 * 4];
-                        long receivedSize = 0;
 
                         while (!Thread.currentThread().isInterrupted()) {
                             int bytesRead = is.read(data);
@@ -1234,6 +1631,7 @@ public final class SpiderQueen implements Runnable {
                                 break;
                             }
                             os.write(data, 0, bytesRead);
+                            validator.update(data, 0, bytesRead);
                             receivedSize += bytesRead;
                             // Update page percent
                             if (contentLength > 0) {
@@ -1244,6 +1642,14 @@ public final class SpiderQueen implements Runnable {
                         }
                         os.flush();
 
+                        // The read loop ends silently when interrupted, the image is incomplete.
+                        // Keep the partial image to resume it later
+                        if (Thread.currentThread().isInterrupted()) {
+                            interrupt = true;
+                            error = "Interrupted";
+                            break;
+                        }
+
                         // check download size
                         if (contentLength >= 0) {
                             if (receivedSize < contentLength) {
@@ -1255,53 +1661,31 @@ public final class SpiderQueen implements Runnable {
                                 Log.w(TAG, "Received data is more than contentLength");
                             }
                         }
+
+                        validateError = validator.getError();
+                        bytesReceived = receivedSize - (resume ? partial.length : 0);
                     } finally {
                         if (osPipe != null) {
                             osPipe.close();
                             osPipe.release();
+                        } else {
+                            IOUtils.closeQuietly(os);
                         }
                     }
 
-                    InputStreamPipe isPipe = null;
-                    try {
-                        // Get InputStreamPipe
-                        isPipe = mSpiderDen.openInputStreamPipe(index);
-                        if (isPipe == null) {
-                            // Can't get pipe
-                            error = GetText.getString(R.string.error_reading_failed);
-                            break;
-                        }
-
-                        // Check plain txt
-                        isPipe.obtain();
-                        InputStream inputStream = new BufferedInputStream(isPipe.open());
-                        boolean isPlainTxt = true;
-                        for (;;) {
-                            int b = inputStream.read();
-                            if (b == -1) {
-                                break;
-                            }
-                            if (b > 126) {
-                                isPlainTxt = false;
-                                break;
-                            }
-                        }
-                        if (isPlainTxt) {
-                            error = GetText.getString(R.string.error_reading_failed);
-                            forceHtml = true;
-                            continue;
-                        }
-                    } finally {
-                        if (isPipe != null) {
-                            isPipe.close();
-                            isPipe.release();
+                    if (validateError != null) {
+                        // Not a valid image, drop it
+                        if (resumable) {
+                            mSpiderDen.removePartialImage(index);
                         }
+                        error = validateError;
+                        forceHtml = true;
+                        continue;
                     }
 
-                    // Check interrupted
-                    if (Thread.currentThread().isInterrupted()) {
-                        interrupt = true;
-                        error = "Interrupted";
+                    // The image is complete here
+                    if (resumable && !mSpiderDen.commitPartialImage(index, extension)) {
+                        error = GetText.getString(R.string.error_write_failed);
                         break;
                     }
 
@@ -1311,13 +1695,31 @@ public final class SpiderQueen implements Runnable {
 
                     // Download finished
                     updatePageState(index, STATE_FINISHED);
+                    long now = SystemClock.elapsedRealtime();
+                    mPrefetchPolicy.onPageFetched(bytesReceived, now - startTime);
+                    if (mDownloadPage >= 0 && mWorkerController.onPageSuccess(bytesReceived, now - startTime, now)) {
+                        onWorkerTargetChanged();
+                    }
                     return true;
+                } catch (InterruptedException e) {
+                    interrupt = true;
+                    error = "Interrupted";
+                    break;
                 } catch (IOException e) {
+                    if (Thread.currentThread().isInterrupted()) {
+                        // Stopped while reading, keep the partial image
+                        interrupt = true;
+                        error = "Interrupted";
+                        break;
+                    }
                     e.printStackTrace();
                     error = GetText.getString(R.string.error_socket);
                     forceHtml = true;
                 } finally {
                     IOUtils.closeQuietly(is);
+                    if (limitedHost != null) {
+                        ImageRequestLimiter.getInstance().release(limitedHost);
+                    }
 
                     if (DEBUG_LOG) {
                         Log.d(TAG, "End download image " + index);
@@ -1328,6 +1730,11 @@ public final class SpiderQueen implements Runnable {
             // Remove download failed image
             mSpiderDen.remove(index);
 
+            if (mDownloadPage >= 0 && !interrupt &&
+                    mWorkerController.onPageFailure(get509, SystemClock.elapsedRealtime())) {
+                onWorkerTargetChanged();
+            }
+
             updatePageState(index, STATE_FAILED, error);
             return !interrupt;
         }
@@ -1470,8 +1877,9 @@ public final class SpiderQueen implements Runnable {
                 return true;
             }
 
-            // Get image url
-            return downloadImage(mGid, index, pToken, previousPToken, force);
+            // Get image url, force request always gets a new one
+            ResolvedPage resolvedPage = takeResolvedPage(index);
+            return downloadImage(mGid, index, pToken, previousPToken, force, force ? null : resolvedPage);
         }
 
         @Override
@@ -1481,7 +1889,24 @@ public final class SpiderQueen implements Runnable {
                 Log.i(TAG, Thread.currentThread().getName() + ": start");
             }
 
-            while (mSpiderDen.isReady() && !Thread.currentThread().isInterrupted() && runInternal());
+            boolean retired = false;
+            while (mSpiderDen.isReady() && !Thread.currentThread().isInterrupted() && runInternal()) {
+                // Fewer workers are wanted now
+                synchronized (mWorkerLock) {
+                    if (mWorkerCount > mWorkerController.getTarget()) {
+                        mWorkerCount--;
+                        retired = true;
+                        break;
+                    }
+                }
+            }
+
+            if (retired) {
+                if (DEBUG_LOG) {
+                    Log.i(TAG, Thread.currentThread().getName() + ": retired");
+                }
+                return;
+            }
 
             boolean finish;
             // Clear in spider worker array
@@ -1513,9 +1938,7 @@ public final class SpiderQueen implements Runnable {
         }
 
         private void resetDecodeIndex() {
-            synchronized (mDecodeRequestQueue) {
-                mDecodeIndexArray[mThreadIndex] = GalleryPageView.INVALID_INDEX;
-            }
+            mDecodeScheduler.finish(mThreadIndex);
         }
 
         @Override
@@ -1526,18 +1949,11 @@ public final class SpiderQueen implements Runnable {
 
             while (!Thread.currentThread().isInterrupted()) {
                 int index;
-                synchronized (mDecodeRequestQueue) {
-                    if (mDecodeRequestQueue.isEmpty()) {
-                        try {
-                            mDecodeRequestQueue.wait();
-                        } catch (InterruptedException e) {
-                            // Interrupted
-                            break;
-                        }
-                        continue;
-                    }
-                    index = mDecodeRequestQueue.remove();
-                    mDecodeIndexArray[mThreadIndex] = index;
+                try {
+                    index = mDecodeScheduler.take(mThreadIndex);
+                } catch (InterruptedException e) {
+                    // Interrupted
+                    break;
                 }
 
                 // Check index valid
@@ -1573,9 +1989,13 @@ public final class SpiderQueen implements Runnable {
                 }
 
                 if (is != null) {
-                    image = Image.decode(is, true);
-                    if (image == null) {
-                        error = GetText.getString(R.string.error_decoding_failed);
+                    try {
+                        image = PageDecoder.decode(is, mDecodeTargetSize);
+                        if (image == null) {
+                            error = GetText.getString(R.string.error_decoding_failed);
+                        }
+                    } catch (IOException e) {
+                        error = GetText.getString(R.string.error_reading_failed);
                     }
                 }
 
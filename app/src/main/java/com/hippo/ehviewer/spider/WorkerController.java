@@ -0,0 +1,183 @@
+/*
+ * Copyright 2019 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.ehviewer.spider;
+
+/**
+ * Decides how many workers a {@link SpiderQueen} runs, AIMD-style.
+ * Pages are measured in windows. The target grows by one while throughput
+ * grows with it, and is cut in half on 509 or too many errors.
+ */
+final class WorkerController {
+
+    static final int REASON_NONE = 0;
+    // Got 509, bandwidth exceeded
+    static final int REASON_509 = 1;
+    // Too many pages failed
+    static final int REASON_ERROR = 2;
+    // Pages take much longer than before with the same count of workers
+    static final int REASON_LATENCY = 3;
+    // More workers, more throughput
+    static final int REASON_THROUGHPUT = 4;
+    // The last added worker didn't bring more throughput
+    static final int REASON_NO_GAIN = 5;
+
+    private static final int MIN_WINDOW_PAGES = 3;
+    private static final long MIN_WINDOW_TIME = 5000;
+    private static final float MAX_ERROR_RATE = 0.3f;
+    private static final float MAX_LATENCY_RISE = 2.0f;
+    private static final float MIN_THROUGHPUT_GAIN = 1.1f;
+    // Windows to wait before trying to grow again
+    private static final int HOLD_WINDOWS = 3;
+
+    private final int mMaxCount;
+    private int mTarget;
+    private int mReason = REASON_NONE;
+
+    private long mWindowStart = -1;
+    private int mWindowPages;
+    private int mWindowErrors;
+    private long mWindowBytes;
+    private long mWindowLatency;
+
+    // The best page latency seen with each count of workers
+    private final float[] mBestLatency;
+    private boolean mIncreased;
+    private float mThroughputBeforeIncrease;
+    private int mHoldWindows;
+    // The first window after a change is mixed with the old count of workers
+    private boolean mWarmUp;
+    private long mLast509 = -1;
+
+    WorkerController(int initCount, int maxCount) {
+        mMaxCount = Math.max(1, maxCount);
+        mTarget = Math.max(1, Math.min(initCount, mMaxCount));
+        mBestLatency = new float[mMaxCount + 1];
+    }
+
+    synchronized int getTarget() {
+        return mTarget;
+    }
+
+    /**
+     * The reason of the last change of the target.
+     */
+    synchronized int getReason() {
+        return mReason;
+    }
+
+    private void startWindow(long now) {
+        mWindowStart = now;
+        mWindowPages = 0;
+        mWindowErrors = 0;
+        mWindowBytes = 0;
+        mWindowLatency = 0;
+    }
+
+    private boolean setTarget(int target, int reason, long now) {
+        target = Math.max(1, Math.min(target, mMaxCount));
+        startWindow(now);
+        if (target == mTarget) {
+            return false;
+        }
+        mIncreased = target > mTarget;
+        mWarmUp = true;
+        mTarget = target;
+        mReason = reason;
+        return true;
+    }
+
+    /**
+     * @return true if the target is changed
+     */
+    synchronized boolean onPageSuccess(long bytes, long latency, long now) {
+        if (mWindowStart < 0) {
+            startWindow(now);
+        }
+        mWindowPages++;
+        mWindowBytes += bytes;
+        mWindowLatency += latency;
+        return evaluate(now);
+    }
+
+    /**
+     * @return true if the target is changed
+     */
+    synchronized boolean onPageFailure(boolean is509, long now) {
+        if (mWindowStart < 0) {
+            startWindow(now);
+        }
+        if (is509) {
+            // Workers running together get 509 together, only cut once
+            if (mLast509 >= 0 && now - mLast509 < MIN_WINDOW_TIME) {
+                return false;
+            }
+            mLast509 = now;
+            mHoldWindows = HOLD_WINDOWS;
+            return setTarget(mTarget / 2, REASON_509, now);
+        }
+        mWindowErrors++;
+        return evaluate(now);
+    }
+
+    private boolean evaluate(long now) {
+        int count = mWindowPages + mWindowErrors;
+        long time = now - mWindowStart;
+        if (count < Math.max(MIN_WINDOW_PAGES, mTarget) || time < MIN_WINDOW_TIME) {
+            return false;
+        }
+
+        if ((float) mWindowErrors / count > MAX_ERROR_RATE) {
+            mHoldWindows = HOLD_WINDOWS;
+            return setTarget(mTarget / 2, REASON_ERROR, now);
+        }
+        if (mWindowPages == 0 || mWarmUp) {
+            mWarmUp = false;
+            startWindow(now);
+            return false;
+        }
+
+        float throughput = mWindowBytes * 1000.0f / time;
+        float latency = (float) mWindowLatency / mWindowPages;
+        // Workers share the bandwidth, only compare latency with the same count of workers
+        float bestLatency = mBestLatency[mTarget];
+        if (bestLatency <= 0 || latency < bestLatency) {
+            mBestLatency[mTarget] = latency;
+        }
+        boolean increased = mIncreased;
+        mIncreased = false;
+
+        if (increased && throughput < mThroughputBeforeIncrease * MIN_THROUGHPUT_GAIN) {
+            mHoldWindows = HOLD_WINDOWS;
+            return setTarget(mTarget - 1, REASON_NO_GAIN, now);
+        }
+        if (bestLatency > 0 && latency > bestLatency * MAX_LATENCY_RISE && mTarget > 1) {
+            mHoldWindows = HOLD_WINDOWS;
+            return setTarget(mTarget - 1, REASON_LATENCY, now);
+        }
+        if (mHoldWindows > 0) {
+            mHoldWindows--;
+            startWindow(now);
+            return false;
+        }
+        if (mTarget < mMaxCount) {
+            mThroughputBeforeIncrease = throughput;
+            return setTarget(mTarget + 1, REASON_THROUGHPUT, now);
+        }
+        startWindow(now);
+        return false;
+    }
+}
@@ -32,6 +32,7 @@ import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
 import android.text.TextUtils;
+import android.util.DisplayMetrics;
 import android.view.KeyEvent;
 import android.view.LayoutInflater;
 import android.view.View;
@@ -276,6 +277,9 @@ public class GalleryActivity extends EhActivity implements SeekBar.OnSeekBarChan
             finish();
             return;
         }
+        // Pages are fit to the screen, rotating it doesn't decode them again
+        DisplayMetrics metrics = getResources().getDisplayMetrics();
+        mGalleryProvider.setDecodeTargetSize(Math.max(metrics.widthPixels, metrics.heightPixels));
         mGalleryProvider.start();
 
         // Get start page
@@ -347,6 +351,7 @@ public class GalleryActivity extends EhActivity implements SeekBar.OnSeekBarChan
 
         mSize = mGalleryProvider.size();
         mCurrentIndex = startPage;
+        mGalleryProvider.setCurrentIndex(startPage);
         mLayoutMode = mGalleryView.getLayoutMode();
         updateSlider();
 
@@ -441,6 +446,15 @@ public class GalleryActivity extends EhActivity implements SeekBar.OnSeekBarChan
         }
     }
 
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+
+        if (mGalleryProvider != null) {
+            mGalleryProvider.trimMemory(level);
+        }
+    }
+
     @Override
     public void onWindowFocusChanged(boolean hasFocus) {
         super.onWindowFocusChanged(hasFocus);
@@ -616,6 +630,7 @@ public class GalleryActivity extends EhActivity implements SeekBar.OnSeekBarChan
     public void onUpdateCurrentIndex(int index) {
         if (null != mGalleryProvider) {
             mGalleryProvider.putStartPage(index);
+            mGalleryProvider.setCurrentIndex(index);
         }
 
         NotifyTask task = mNotifyTaskPool.pop();
@@ -29,16 +29,20 @@ import com.hippo.ehviewer.AppConfig;
 import com.hippo.ehviewer.EhApplication;
 import com.hippo.ehviewer.EhDB;
 import com.hippo.ehviewer.R;
+import com.hippo.util.IoThreadPoolExecutor;
 import com.hippo.util.LogCat;
 import com.hippo.util.ReadableTime;
 import java.io.File;
+import java.io.IOException;
 import java.util.Arrays;
+import okhttp3.Cache;
 
 public class AdvancedFragment extends PreferenceFragment
     implements Preference.OnPreferenceClickListener, Preference.OnPreferenceChangeListener {
 
     private static final String KEY_DUMP_LOGCAT = "dump_logcat";
     private static final String KEY_CLEAR_MEMORY_CACHE = "clear_memory_cache";
+    private static final String KEY_CLEAR_PAGE_CACHE = "clear_page_cache";
     private static final String KEY_APP_LANGUAGE = "app_language";
     private static final String KEY_IMPORT_DATA = "import_data";
 
@@ -49,11 +53,13 @@ public class AdvancedFragment extends PreferenceFragment
 
         Preference dumpLogcat = findPreference(KEY_DUMP_LOGCAT);
         Preference clearMemoryCache = findPreference(KEY_CLEAR_MEMORY_CACHE);
+        Preference clearPageCache = findPreference(KEY_CLEAR_PAGE_CACHE);
         Preference appLanguage = findPreference(KEY_APP_LANGUAGE);
         Preference importData = findPreference(KEY_IMPORT_DATA);
 
         dumpLogcat.setOnPreferenceClickListener(this);
         clearMemoryCache.setOnPreferenceClickListener(this);
+        clearPageCache.setOnPreferenceClickListener(this);
         importData.setOnPreferenceClickListener(this);
 
         appLanguage.setOnPreferenceChangeListener(this);
@@ -85,6 +91,19 @@ public class AdvancedFragment extends PreferenceFragment
         } else if (KEY_CLEAR_MEMORY_CACHE.equals(key)) {
             ((EhApplication) getActivity().getApplication()).clearMemoryCache();
             Runtime.getRuntime().gc();
+        } else if (KEY_CLEAR_PAGE_CACHE.equals(key)) {
+            final Cache cache = EhApplication.getHttpCache(getActivity());
+            IoThreadPoolExecutor.getInstance().execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        cache.evictAll();
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                    }
+                }
+            });
+            return true;
         } else if (KEY_IMPORT_DATA.equals(key)) {
             importData(getActivity());
             getActivity().setResult(Activity.RESULT_OK);
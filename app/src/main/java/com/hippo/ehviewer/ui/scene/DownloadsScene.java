@@ -29,6 +29,7 @@ import android.graphics.drawable.Drawable;
 import android.os.AsyncTask;
 import android.os.Build;
 import android.os.Bundle;
+import android.text.TextUtils;
 import android.util.Log;
 import android.util.SparseBooleanArray;
 import android.view.Display;
@@ -58,6 +59,7 @@ import com.github.amlcurran.showcaseview.targets.ViewTarget;
 import com.google.android.material.floatingactionbutton.FloatingActionButton;
 import com.hippo.android.resource.AttrResources;
 import com.hippo.app.CheckBoxDialogBuilder;
+import com.hippo.app.EditTextDialogBuilder;
 import com.hippo.conaco.DataContainer;
 import com.hippo.conaco.ProgressNotifier;
 import com.hippo.drawerlayout.DrawerLayout;
@@ -116,6 +118,7 @@ public class DownloadsScene extends ToolbarScene
 
     public static final String KEY_ACTION = "action";
     private static final String KEY_LABEL = "label";
+    private static final String KEY_KEYWORD = "keyword";
 
     public static final String ACTION_CLEAR_DOWNLOAD_SERVICE = "clear_download_service";
 
@@ -127,6 +130,12 @@ public class DownloadsScene extends ToolbarScene
     @Nullable
     private String mLabel;
     @Nullable
+    private String mKeyword;
+    // The list of the label in download manager
+    @Nullable
+    private List<DownloadInfo> mLabelList;
+    // The shown list, mLabelList or the search result of it
+    @Nullable
     private List<DownloadInfo> mList;
 
     /*---------------
@@ -166,6 +175,7 @@ public class DownloadsScene extends ToolbarScene
             DownloadInfo info = mDownloadManager.getDownloadInfo(gid);
             if (null != info) {
                 mLabel = info.getLabel();
+                mKeyword = null;
                 updateForLabel();
                 updateView();
 
@@ -208,6 +218,7 @@ public class DownloadsScene extends ToolbarScene
     @Override
     public void onDestroy() {
         super.onDestroy();
+        mLabelList = null;
         mList = null;
 
         DownloadManager manager = mDownloadManager;
@@ -233,14 +244,15 @@ public class DownloadsScene extends ToolbarScene
         }
 
         if (mLabel == null) {
-            mList = mDownloadManager.getDefaultDownloadInfoList();
+            mLabelList = mDownloadManager.getDefaultDownloadInfoList();
         } else {
-            mList = mDownloadManager.getLabelDownloadInfoList(mLabel);
-            if (mList == null) {
+            mLabelList = mDownloadManager.getLabelDownloadInfoList(mLabel);
+            if (mLabelList == null) {
                 mLabel = null;
-                mList = mDownloadManager.getDefaultDownloadInfoList();
+                mLabelList = mDownloadManager.getDefaultDownloadInfoList();
             }
         }
+        mList = mKeyword != null ? searchLabelList(mDownloadManager, mKeyword) : mLabelList;
 
         if (mAdapter != null) {
             mAdapter.notifyDataSetChanged();
@@ -250,9 +262,44 @@ public class DownloadsScene extends ToolbarScene
         Settings.putRecentDownloadLabel(mLabel);
     }
 
+    // Downloads of the label matched by the keyword, ranked by the search index
+    private List<DownloadInfo> searchLabelList(@NonNull DownloadManager manager, @NonNull String keyword) {
+        List<DownloadInfo> result = new ArrayList<>();
+        for (DownloadInfo info : EhDB.searchDownloadInfo(keyword)) {
+            // The one in download manager has the current state
+            DownloadInfo current = manager.getDownloadInfo(info.gid);
+            if (null != current && ObjectUtils.equal(current.getLabel(), mLabel)) {
+                result.add(current);
+            }
+        }
+        return result;
+    }
+
     private void updateTitle() {
-        setTitle(getString(R.string.scene_download_title,
-                mLabel != null ? mLabel : getString(R.string.default_download_label_name)));
+        String label = mLabel != null ? mLabel : getString(R.string.default_download_label_name);
+        if (mKeyword != null) {
+            setTitle(getString(R.string.scene_download_title_2, label, mKeyword));
+        } else {
+            setTitle(getString(R.string.scene_download_title, label));
+        }
+    }
+
+    private void search(@Nullable String keyword) {
+        mKeyword = TextUtils.isEmpty(keyword) ? null : keyword;
+        updateForLabel();
+        updateView();
+    }
+
+    private void showSearchDialog() {
+        Context context = getContext2();
+        if (null == context) {
+            return;
+        }
+
+        final EditTextDialogBuilder builder = new EditTextDialogBuilder(context, mKeyword, getString(R.string.search));
+        builder.setTitle(R.string.search);
+        builder.setPositiveButton(android.R.string.ok, (dialog, which) -> search(builder.getText().trim()));
+        builder.show();
     }
 
     private void onInit() {
@@ -264,6 +311,7 @@ public class DownloadsScene extends ToolbarScene
 
     private void onRestore(@NonNull Bundle savedInstanceState) {
         mLabel = savedInstanceState.getString(KEY_LABEL);
+        mKeyword = savedInstanceState.getString(KEY_KEYWORD);
         updateForLabel();
     }
 
@@ -271,6 +319,7 @@ public class DownloadsScene extends ToolbarScene
     public void onSaveInstanceState(Bundle outState) {
         super.onSaveInstanceState(outState);
         outState.putString(KEY_LABEL, mLabel);
+        outState.putString(KEY_KEYWORD, mKeyword);
     }
 
     @Nullable
@@ -476,6 +525,10 @@ public class DownloadsScene extends ToolbarScene
 
         int id = item.getItemId();
         switch (id) {
+            case R.id.action_search: {
+                showSearchDialog();
+                return true;
+            }
             case R.id.action_start_all: {
                 Intent intent = new Intent(activity, DownloadService.class);
                 intent.setAction(DownloadService.ACTION_START_ALL);
@@ -610,6 +663,8 @@ public class DownloadsScene extends ToolbarScene
 
         if (mRecyclerView != null && mRecyclerView.isInCustomChoice()) {
             mRecyclerView.outOfCustomChoiceMode();
+        } else if (mKeyword != null) {
+            search(null);
         } else {
             super.onBackPressed();
         }
@@ -773,10 +828,13 @@ public class DownloadsScene extends ToolbarScene
 
     @Override
     public void onAdd(@NonNull DownloadInfo info, @NonNull List<DownloadInfo> list, int position) {
-        if (mList != list) {
+        if (mLabelList != list) {
             return;
         }
-        if (mAdapter != null) {
+        if (mList != list) {
+            // Search again
+            updateForLabel();
+        } else if (mAdapter != null) {
             mAdapter.notifyItemInserted(position);
         }
         updateView();
@@ -784,11 +842,11 @@ public class DownloadsScene extends ToolbarScene
 
     @Override
     public void onUpdate(@NonNull DownloadInfo info, @NonNull List<DownloadInfo> list) {
-        if (mList != list) {
+        if (mLabelList != list || mList == null) {
             return;
         }
 
-        int index = list.indexOf(info);
+        int index = mList.indexOf(info);
         if (index >= 0 && mAdapter != null) {
             mAdapter.notifyItemChanged(index);
         }
@@ -803,7 +861,10 @@ public class DownloadsScene extends ToolbarScene
 
     @Override
     public void onReload() {
-        if (mAdapter != null) {
+        if (mKeyword != null) {
+            // Search again
+            updateForLabel();
+        } else if (mAdapter != null) {
             mAdapter.notifyDataSetChanged();
         }
         updateView();
@@ -829,10 +890,13 @@ public class DownloadsScene extends ToolbarScene
 
     @Override
     public void onRemove(@NonNull DownloadInfo info, @NonNull List<DownloadInfo> list, int position) {
-        if (mList != list) {
+        if (mLabelList != list) {
             return;
         }
-        if (mAdapter != null) {
+        if (mList != list) {
+            // Search again
+            updateForLabel();
+        } else if (mAdapter != null) {
             mAdapter.notifyItemRemoved(position);
         }
         updateView();
@@ -60,6 +60,7 @@ import com.hippo.drawerlayout.DrawerLayout;
 import com.hippo.ehviewer.AppConfig;
 import com.hippo.ehviewer.EhApplication;
 import com.hippo.ehviewer.EhDB;
+import com.hippo.ehviewer.GalleryDetailCache;
 import com.hippo.ehviewer.R;
 import com.hippo.ehviewer.Settings;
 import com.hippo.ehviewer.UrlOpener;
@@ -647,7 +648,8 @@ public class GalleryDetailScene extends BaseScene implements View.OnClickListene
         }
 
         // Get from cache
-        mGalleryDetail = EhApplication.getGalleryDetailCache(context).get(gid);
+        GalleryDetailCache cache = EhApplication.getGalleryDetailCache(context);
+        mGalleryDetail = cache.getFromMemory(gid);
         if (mGalleryDetail != null) {
             return true;
         }
@@ -658,8 +660,26 @@ public class GalleryDetailScene extends BaseScene implements View.OnClickListene
             return true;
         }
 
-        // Do request
-        return request();
+        // Request if it's not on disk
+        cache.getFromDisk(gid, this::onGetGalleryDetailFromDisk);
+        return true;
+    }
+
+    private void onGetGalleryDetailFromDisk(@Nullable GalleryDetail result) {
+        if (null == mViewTransition2 || null != mGalleryDetail) {
+            // View destroyed or it's got
+            return;
+        }
+        if (null != result) {
+            if (ACTION_GID_TOKEN.equals(mAction)) {
+                // Add history, it's only added by the network request on this path
+                EhDB.putHistoryInfo(result);
+            }
+            onGetGalleryDetailSuccess(result);
+        } else if (!request()) {
+            mTip.setText(R.string.error_cannot_find_gallery);
+            adjustViewVisibility(STATE_FAILED, true);
+        }
     }
 
     private boolean request() {
@@ -1943,7 +1963,7 @@ public class GalleryDetailScene extends BaseScene implements View.OnClickListene
             getApplication().removeGlobalStuff(this);
 
             // Put gallery detail to cache
-            EhApplication.getGalleryDetailCache(getApplication()).put(result.gid, result);
+            EhApplication.getGalleryDetailCache(getApplication()).put(result);
 
             // Add history
             EhDB.putHistoryInfo(result);
@@ -2035,10 +2055,15 @@ public class GalleryDetailScene extends BaseScene implements View.OnClickListene
                 scene.onRateGallerySuccess(result);
             } else {
                 // Update rating in cache
-                GalleryDetail gd = EhApplication.getGalleryDetailCache(getApplication()).get(mGid);
+                GalleryDetailCache cache = EhApplication.getGalleryDetailCache(getApplication());
+                GalleryDetail gd = cache.getFromMemory(mGid);
                 if (gd != null) {
                     gd.rating = result.rating;
                     gd.ratingCount = result.ratingCount;
+                    cache.update(gd);
+                } else {
+                    // Drop the stale one on disk
+                    cache.remove(mGid);
                 }
             }
         }
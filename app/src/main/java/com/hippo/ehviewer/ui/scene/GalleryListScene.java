@@ -68,6 +68,7 @@ import com.hippo.ehviewer.R;
 import com.hippo.ehviewer.Settings;
 import com.hippo.ehviewer.client.EhClient;
 import com.hippo.ehviewer.client.EhRequest;
+import com.hippo.ehviewer.client.EhTagDatabase;
 import com.hippo.ehviewer.client.EhUrl;
 import com.hippo.ehviewer.client.EhUtils;
 import com.hippo.ehviewer.client.data.GalleryInfo;
@@ -92,6 +93,7 @@ import com.hippo.scene.Announcer;
 import com.hippo.scene.SceneFragment;
 import com.hippo.util.AppHelper;
 import com.hippo.util.DrawableManager;
+import com.hippo.util.IoThreadPoolExecutor;
 import com.hippo.view.ViewTransition;
 import com.hippo.widget.ContentLayout;
 import com.hippo.widget.FabLayout;
@@ -100,13 +102,17 @@ import com.hippo.yorozuya.AnimationUtils;
 import com.hippo.yorozuya.AssertUtils;
 import com.hippo.yorozuya.MathUtils;
 import com.hippo.yorozuya.SimpleAnimatorListener;
+import com.hippo.yorozuya.SimpleHandler;
 import com.hippo.yorozuya.StringUtils;
 import com.hippo.yorozuya.ViewUtils;
 import java.io.File;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 public final class GalleryListScene extends BaseScene
         implements EasyRecyclerView.OnItemClickListener, EasyRecyclerView.OnItemLongClickListener,
@@ -120,6 +126,8 @@ public final class GalleryListScene extends BaseScene
 
     private static final int BACK_PRESSED_INTERVAL = 2000;
 
+    private static final int MAX_TAG_SUGGESTIONS = 20;
+
     public final static int REQUEST_CODE_SELECT_IMAGE = 0;
 
     public final static String KEY_ACTION = "action";
@@ -175,6 +183,9 @@ public final class GalleryListScene extends BaseScene
     @Nullable
     private AddDeleteDrawable mActionFabDrawable;
 
+    // The latest tag suggestion task, older ones are skipped
+    private volatile int mTagSuggestionId;
+
     @Nullable
     private final Animator.AnimatorListener mActionFabAnimatorListener = new SimpleAnimatorListener() {
         @Override
@@ -392,10 +403,112 @@ public final class GalleryListScene extends BaseScene
             if (result2 != null) {
                 return Collections.singletonList(new GalleryPageUrlSuggestion(result2.gid, result2.pToken, result2.page));
             }
-            return null;
+            return getTagSuggestions(text);
         });
     }
 
+    @Nullable
+    private List<SearchBar.Suggestion> getTagSuggestions(String text) {
+        int id = ++mTagSuggestionId;
+        Context context = getContext2();
+        if (context == null || !Settings.getShowTagTranslations()) {
+            return null;
+        }
+        EhTagDatabase ehTags = EhTagDatabase.getInstance(context);
+        if (ehTags == null) {
+            return null;
+        }
+
+        // Only complete the last keyword
+        int start = text.lastIndexOf(' ') + 1;
+        String keyword = text.substring(start).trim();
+        if (keyword.isEmpty()) {
+            return null;
+        }
+
+        String prefix = text.substring(0, start);
+        Set<String> tags = new HashSet<>();
+        List<SearchBar.Suggestion> suggestions = toTagSuggestions(ehTags, prefix,
+                ehTags.prefixSearch(keyword, MAX_TAG_SUGGESTIONS), tags);
+
+        // Substring search scans all tags, one char matches too many
+        int limit = MAX_TAG_SUGGESTIONS - suggestions.size();
+        if (keyword.length() >= 2 && limit > 0) {
+            IoThreadPoolExecutor.getInstance().execute(() -> {
+                if (id != mTagSuggestionId) {
+                    return;
+                }
+                List<String> keys = ehTags.substringSearch(keyword, limit);
+                SimpleHandler.getInstance().post(() -> {
+                    if (id == mTagSuggestionId && mSearchBar != null) {
+                        mSearchBar.addSuggestions(text, toTagSuggestions(ehTags, prefix, keys, tags));
+                    }
+                });
+            });
+        }
+        return suggestions;
+    }
+
+    // Skips the tags in the set, and adds new tags to it
+    private List<SearchBar.Suggestion> toTagSuggestions(EhTagDatabase ehTags, String prefix,
+            List<String> keys, Set<String> tags) {
+        List<SearchBar.Suggestion> suggestions = new ArrayList<>(keys.size());
+        for (String key : keys) {
+            String value = ehTags.getTranslation(key);
+            if (value == null) {
+                continue;
+            }
+            // Translations map to tags too, tags are always ascii
+            String tag = isAscii(key) ? key : value;
+            String translation = isAscii(key) ? value : key;
+            if (tags.add(tag)) {
+                suggestions.add(new TagSuggestion(prefix, tag, translation));
+            }
+        }
+        return suggestions;
+    }
+
+    private static boolean isAscii(String str) {
+        for (int i = 0, n = str.length(); i < n; i++) {
+            if (str.charAt(i) > 127) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private class TagSuggestion extends SearchBar.Suggestion {
+        private String mPrefix;
+        private String mTag;
+        private String mTranslation;
+
+        private TagSuggestion(String prefix, String tag, String translation) {
+            mPrefix = prefix;
+            mTag = tag;
+            mTranslation = translation;
+        }
+
+        @Override
+        public CharSequence getText(float textSize) {
+            return mTranslation + "  " + mTag;
+        }
+
+        @Override
+        public void onClick() {
+            if (mSearchBar == null) {
+                return;
+            }
+            // a:foo bar -> a:"foo bar$"
+            int index = mTag.indexOf(':');
+            String keyword = mTag.substring(0, index + 1) + "\"" + mTag.substring(index + 1) + "$\"";
+            mSearchBar.setText(mPrefix + keyword + " ");
+            mSearchBar.cursorToEnd();
+        }
+
+        @Override
+        public void onLongClick() { }
+    }
+
     private abstract class UrlSuggestion extends SearchBar.Suggestion {
         @Override
         public CharSequence getText(float textSize) {
@@ -1516,8 +1629,13 @@ public final class GalleryListScene extends BaseScene
                 String url = mUrlBuilder.build();
                 EhRequest request = new EhRequest();
                 request.setMethod(EhClient.METHOD_GET_GALLERY_LIST);
-                request.setCallback(new GetGalleryListListener(getContext(),
-                        activity.getStageId(), getTag(), taskId));
+                if (isCacheFirst(type)) {
+                    request.setCallback(new GetCachedGalleryListListener(getContext(),
+                            activity.getStageId(), getTag(), taskId));
+                } else {
+                    request.setCallback(new GetGalleryListListener(getContext(),
+                            activity.getStageId(), getTag(), taskId));
+                }
                 request.setArgs(url);
                 mClient.execute(request);
             }
@@ -1573,6 +1691,13 @@ public final class GalleryListScene extends BaseScene
         }
     }
 
+    private void onGetGalleryListCacheSuccess(GalleryListParser.Result result, int taskId) {
+        if (mHelper != null && mSearchBarMover != null &&
+                mHelper.isCurrentTask(taskId)) {
+            mHelper.onGetCachedPageData(taskId, result.pages, result.nextPage, result.galleryInfoList);
+        }
+    }
+
     private void onGetGalleryListSuccess(GalleryListParser.Result result, int taskId) {
         if (mHelper != null && mSearchBarMover != null &&
                 mHelper.isCurrentTask(taskId)) {
@@ -1625,6 +1750,22 @@ public final class GalleryListScene extends BaseScene
         }
     }
 
+    private static class GetCachedGalleryListListener extends GetGalleryListListener
+            implements EhClient.CacheCallback<GalleryListParser.Result> {
+
+        public GetCachedGalleryListListener(Context context, int stageId, String sceneTag, int taskId) {
+            super(context, stageId, sceneTag, taskId);
+        }
+
+        @Override
+        public void onCacheSuccess(GalleryListParser.Result result) {
+            GalleryListScene scene = getScene();
+            if (scene != null) {
+                scene.onGetGalleryListCacheSuccess(result, super.mTaskId);
+            }
+        }
+    }
+
     private static class AddToFavoriteListener extends EhCallback<GalleryListScene, Void> {
 
         public AddToFavoriteListener(Context context, int stageId, String sceneTag) {
@@ -56,6 +56,7 @@ import com.hippo.yorozuya.AssertUtils;
 import com.hippo.yorozuya.LayoutUtils;
 import com.hippo.yorozuya.ViewUtils;
 import java.util.ArrayList;
+import java.util.List;
 import java.util.Locale;
 
 public class GalleryPreviewsScene extends ToolbarScene implements EasyRecyclerView.OnItemClickListener {
@@ -299,8 +300,13 @@ public class GalleryPreviewsScene extends ToolbarScene implements EasyRecyclerVi
             String url = EhUrl.getGalleryDetailUrl(mGalleryInfo.gid, mGalleryInfo.token, page, false);
             EhRequest request = new EhRequest();
             request.setMethod(EhClient.METHOD_GET_PREVIEW_SET);
-            request.setCallback(new GetPreviewSetListener(getContext(),
-                    activity.getStageId(), getTag(), taskId));
+            if (isCacheFirst(type)) {
+                request.setCallback(new GetCachedPreviewSetListener(getContext(),
+                        activity.getStageId(), getTag(), taskId));
+            } else {
+                request.setCallback(new GetPreviewSetListener(getContext(),
+                        activity.getStageId(), getTag(), taskId));
+            }
             request.setArgs(url);
             mClient.execute(request);
         }
@@ -337,16 +343,24 @@ public class GalleryPreviewsScene extends ToolbarScene implements EasyRecyclerVi
         }
     }
 
-    private void onGetPreviewSetSuccess(Pair<PreviewSet, Integer> result, int taskId) {
+    private List<GalleryPreview> toGalleryPreviewList(@NonNull GalleryInfo galleryInfo, @NonNull PreviewSet previewSet) {
+        int size = previewSet.size();
+        ArrayList<GalleryPreview> list = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            list.add(previewSet.getGalleryPreview(galleryInfo.gid, i));
+        }
+        return list;
+    }
+
+    private void onGetPreviewSetCacheSuccess(Pair<PreviewSet, Integer> result, int taskId) {
         if (null != mHelper && mHelper.isCurrentTask(taskId) && null != mGalleryInfo) {
-            PreviewSet previewSet = result.first;
-            int size = previewSet.size();
-            ArrayList<GalleryPreview> list = new ArrayList<>(size);
-            for (int i = 0; i < size; i++) {
-                list.add(previewSet.getGalleryPreview(mGalleryInfo.gid, i));
-            }
+            mHelper.onGetCachedPageData(taskId, result.second, 0, toGalleryPreviewList(mGalleryInfo, result.first));
+        }
+    }
 
-            mHelper.onGetPageData(taskId, result.second, 0, list);
+    private void onGetPreviewSetSuccess(Pair<PreviewSet, Integer> result, int taskId) {
+        if (null != mHelper && mHelper.isCurrentTask(taskId) && null != mGalleryInfo) {
+            mHelper.onGetPageData(taskId, result.second, 0, toGalleryPreviewList(mGalleryInfo, result.first));
         }
     }
 
@@ -392,6 +406,22 @@ public class GalleryPreviewsScene extends ToolbarScene implements EasyRecyclerVi
         }
     }
 
+    private static class GetCachedPreviewSetListener extends GetPreviewSetListener
+            implements EhClient.CacheCallback<Pair<PreviewSet, Integer>> {
+
+        public GetCachedPreviewSetListener(Context context, int stageId, String sceneTag, int taskId) {
+            super(context, stageId, sceneTag, taskId);
+        }
+
+        @Override
+        public void onCacheSuccess(Pair<PreviewSet, Integer> result) {
+            GalleryPreviewsScene scene = getScene();
+            if (scene != null) {
+                scene.onGetPreviewSetCacheSuccess(result, super.mTaskId);
+            }
+        }
+    }
+
     private class GoToDialogHelper implements View.OnClickListener,
             DialogInterface.OnDismissListener {
 
@@ -24,6 +24,7 @@ import android.graphics.drawable.ColorDrawable;
 import android.graphics.drawable.Drawable;
 import android.os.Build;
 import android.os.Bundle;
+import android.text.TextUtils;
 import android.view.LayoutInflater;
 import android.view.MenuItem;
 import android.view.View;
@@ -45,6 +46,7 @@ import com.h6ah4i.android.widget.advrecyclerview.swipeable.action.SwipeResultAct
 import com.h6ah4i.android.widget.advrecyclerview.touchguard.RecyclerViewTouchActionGuardManager;
 import com.h6ah4i.android.widget.advrecyclerview.utils.AbstractSwipeableItemViewHolder;
 import com.hippo.android.resource.AttrResources;
+import com.hippo.app.EditTextDialogBuilder;
 import com.hippo.easyrecyclerview.EasyRecyclerView;
 import com.hippo.easyrecyclerview.FastScroller;
 import com.hippo.easyrecyclerview.HandlerDrawable;
@@ -69,6 +71,7 @@ import com.hippo.widget.recyclerview.AutoStaggeredGridLayoutManager;
 import com.hippo.yorozuya.AssertUtils;
 import com.hippo.yorozuya.ViewUtils;
 import de.greenrobot.dao.query.LazyList;
+import java.util.List;
 
 public class HistoryScene extends ToolbarScene
         implements EasyRecyclerView.OnItemClickListener,
@@ -84,7 +87,9 @@ public class HistoryScene extends ToolbarScene
     @Nullable
     private RecyclerView.Adapter<?> mAdapter;
     @Nullable
-    private LazyList<HistoryInfo> mLazyList;
+    private List<HistoryInfo> mList;
+    @Nullable
+    private String mKeyword;
 
     @Override
     public int getNavCheckedItem() {
@@ -145,8 +150,10 @@ public class HistoryScene extends ToolbarScene
         handlerDrawable.setColor(AttrResources.getAttrColor(context, R.attr.widgetColorThemeAccent));
         fastScroller.setHandlerDrawable(handlerDrawable);
 
-        updateLazyList();
+        updateList();
         updateView(false);
+        // Show the latest visits
+        EhDB.flushHistoryInfoAsync(this::onHistoryFlushed);
 
         return view;
     }
@@ -154,7 +161,7 @@ public class HistoryScene extends ToolbarScene
     @Override
     public void onViewCreated(View view, @Nullable Bundle savedInstanceState) {
         super.onViewCreated(view, savedInstanceState);
-        setTitle(R.string.history);
+        updateTitle();
         setNavigationIcon(R.drawable.v_arrow_left_dark_x24);
     }
 
@@ -162,9 +169,9 @@ public class HistoryScene extends ToolbarScene
     public void onDestroyView() {
         super.onDestroyView();
 
-        if (null != mLazyList) {
-            mLazyList.close();
-            mLazyList = null;
+        if (null != mList) {
+            closeList(mList);
+            mList = null;
             if (mAdapter != null) {
                 mAdapter.notifyDataSetChanged();
             }
@@ -178,13 +185,64 @@ public class HistoryScene extends ToolbarScene
         mAdapter = null;
     }
 
+    private void onHistoryFlushed() {
+        if (null == mAdapter) {
+            return;
+        }
+        updateList();
+        mAdapter.notifyDataSetChanged();
+        updateView(true);
+    }
+
     // Remember to notify
-    private void updateLazyList() {
-        LazyList<HistoryInfo> lazyList = EhDB.getHistoryLazyList();
-        if (mLazyList != null) {
-            mLazyList.close();
+    private void updateList() {
+        List<HistoryInfo> list;
+        if (mKeyword != null) {
+            list = EhDB.searchHistoryInfo(mKeyword);
+        } else {
+            list = EhDB.getHistoryLazyList();
+        }
+        if (mList != null) {
+            closeList(mList);
+        }
+        mList = list;
+    }
+
+    private static void closeList(List<HistoryInfo> list) {
+        if (list instanceof LazyList) {
+            ((LazyList<?>) list).close();
+        }
+    }
+
+    private void updateTitle() {
+        if (mKeyword != null) {
+            setTitle(getString(R.string.history_title_2, mKeyword));
+        } else {
+            setTitle(R.string.history);
+        }
+    }
+
+    private void search(@Nullable String keyword) {
+        mKeyword = TextUtils.isEmpty(keyword) ? null : keyword;
+        updateTitle();
+        if (null == mAdapter) {
+            return;
+        }
+        updateList();
+        mAdapter.notifyDataSetChanged();
+        updateView(true);
+    }
+
+    private void showSearchDialog() {
+        Context context = getContext2();
+        if (null == context) {
+            return;
         }
-        mLazyList = lazyList;
+
+        final EditTextDialogBuilder builder = new EditTextDialogBuilder(context, mKeyword, getString(R.string.search));
+        builder.setTitle(R.string.search);
+        builder.setPositiveButton(android.R.string.ok, (dialog, which) -> search(builder.getText().trim()));
+        builder.show();
     }
 
     private void updateView(boolean animation) {
@@ -204,6 +262,15 @@ public class HistoryScene extends ToolbarScene
         onBackPressed();
     }
 
+    @Override
+    public void onBackPressed() {
+        if (mKeyword != null) {
+            search(null);
+        } else {
+            super.onBackPressed();
+        }
+    }
+
     @Override
     public int getMenuResId() {
         return R.menu.scene_history;
@@ -220,7 +287,7 @@ public class HistoryScene extends ToolbarScene
                         }
 
                         EhDB.clearHistoryInfo();
-                        updateLazyList();
+                        updateList();
                         mAdapter.notifyDataSetChanged();
                         updateView(true);
                     }
@@ -237,6 +304,10 @@ public class HistoryScene extends ToolbarScene
 
         int id = item.getItemId();
         switch (id) {
+            case R.id.action_search: {
+                showSearchDialog();
+                return true;
+            }
             case R.id.action_clear_all: {
                 showClearAllDialog();
                 return true;
@@ -247,13 +318,13 @@ public class HistoryScene extends ToolbarScene
 
     @Override
     public boolean onItemClick(EasyRecyclerView parent, View view, int position, long id) {
-        if (null == mLazyList) {
+        if (null == mList) {
             return false;
         }
 
         Bundle args = new Bundle();
         args.putString(GalleryDetailScene.KEY_ACTION, GalleryDetailScene.ACTION_GALLERY_INFO);
-        args.putParcelable(GalleryDetailScene.KEY_GALLERY_INFO, mLazyList.get(position));
+        args.putParcelable(GalleryDetailScene.KEY_GALLERY_INFO, mList.get(position));
         Announcer announcer = new Announcer(GalleryDetailScene.class).setArgs(args);
         View thumb;
         if (null != (thumb = view.findViewById(R.id.thumb))) {
@@ -267,11 +338,11 @@ public class HistoryScene extends ToolbarScene
     public boolean onItemLongClick(EasyRecyclerView parent, View view, int position, long id) {
         final Context context = getContext2();
         final MainActivity activity = getActivity2();
-        if (null == context || null == activity || null == mLazyList) {
+        if (null == context || null == activity || null == mList) {
             return false;
         }
 
-        final GalleryInfo gi = mLazyList.get(position);
+        final GalleryInfo gi = mList.get(position);
         new AlertDialog.Builder(context)
                 .setTitle(EhUtils.getSuitableTitle(gi))
                 .setItems(R.array.gallery_list_menu_entries, new DialogInterface.OnClickListener() {
@@ -340,10 +411,10 @@ public class HistoryScene extends ToolbarScene
 
         @Override
         public long getItemId(int position) {
-            if (null == mLazyList) {
+            if (null == mList) {
                 return super.getItemId(position);
             } else {
-                return mLazyList.get(position).gid;
+                return mList.get(position).gid;
             }
         }
 
@@ -361,11 +432,11 @@ public class HistoryScene extends ToolbarScene
 
         @Override
         public void onBindViewHolder(HistoryHolder holder, int position) {
-            if (null == mLazyList) {
+            if (null == mList) {
                 return;
             }
 
-            GalleryInfo gi = mLazyList.get(position);
+            GalleryInfo gi = mList.get(position);
             holder.thumb.load(EhCacheKeyFactory.getThumbKey(gi.gid), gi.thumb);
             holder.title.setText(EhUtils.getSuitableTitle(gi));
             holder.uploader.setText(gi.uploader);
@@ -388,7 +459,7 @@ public class HistoryScene extends ToolbarScene
 
         @Override
         public int getItemCount() {
-            return null != mLazyList ? mLazyList.size() : 0;
+            return null != mList ? mList.size() : 0;
         }
 
         @Override
@@ -426,13 +497,13 @@ public class HistoryScene extends ToolbarScene
         @Override
         protected void onPerformAction() {
             super.onPerformAction();
-            if (null == mLazyList || null == mAdapter) {
+            if (null == mList || null == mAdapter) {
                 return;
             }
 
-            HistoryInfo info = mLazyList.get(mPosition);
+            HistoryInfo info = mList.get(mPosition);
             EhDB.deleteHistoryInfo(info);
-            updateLazyList();
+            updateList();
             mAdapter.notifyDataSetChanged();
             updateView(true);
         }
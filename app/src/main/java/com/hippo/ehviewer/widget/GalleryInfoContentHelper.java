@@ -32,15 +32,24 @@ public abstract class GalleryInfoContentHelper extends ContentLayout.ContentHelp
 
   private static final String KEY_DATA_MAP = "data_map";
 
+  // About 200 galleries in memory, deep lists keep constant memory
+  private static final int WINDOW_PAGES = 8;
+
   @SuppressLint("UseSparseArrays")
   private Map<Long, GalleryInfo> map = new HashMap<>();
+  // Favourite slots of galleries in the page store, to patch them when they are read back
+  @SuppressLint("UseSparseArrays")
+  private Map<Long, Integer> evictedSlots = new HashMap<>();
   private FavouriteStatusRouter.Listener listener;
 
   public GalleryInfoContentHelper() {
+    setWindowPages(WINDOW_PAGES);
     listener = (gid, slot) -> {
       GalleryInfo info = map.get(gid);
       if (info != null) {
         info.favoriteSlot = slot;
+      } else if (evictedSlots.containsKey(gid)) {
+        evictedSlots.put(gid, slot);
       }
     };
     EhApplication.getFavouriteStatusRouter().addListener(listener);
@@ -50,15 +59,23 @@ public abstract class GalleryInfoContentHelper extends ContentLayout.ContentHelp
     EhApplication.getFavouriteStatusRouter().removeListener(listener);
   }
 
+  private void putData(GalleryInfo info) {
+    Integer slot = evictedSlots.remove(info.gid);
+    if (slot != null) {
+      info.favoriteSlot = slot;
+    }
+    map.put(info.gid, info);
+  }
+
   @Override
   protected void onAddData(GalleryInfo data) {
-    map.put(data.gid, data);
+    putData(data);
   }
 
   @Override
   protected void onAddData(List<GalleryInfo> data) {
     for (GalleryInfo info : data) {
-      map.put(info.gid, info);
+      putData(info);
     }
   }
 
@@ -74,9 +91,18 @@ public abstract class GalleryInfoContentHelper extends ContentLayout.ContentHelp
     }
   }
 
+  @Override
+  protected void onEvictData(List<GalleryInfo> data) {
+    for (GalleryInfo info : data) {
+      map.remove(info.gid);
+      evictedSlots.put(info.gid, info.favoriteSlot);
+    }
+  }
+
   @Override
   protected void onClearData() {
     map.clear();
+    evictedSlots.clear();
   }
 
   @Override
@@ -86,6 +112,7 @@ public abstract class GalleryInfoContentHelper extends ContentLayout.ContentHelp
     // TODO It's a bad design
     FavouriteStatusRouter router = EhApplication.getFavouriteStatusRouter();
     int id = router.saveDataMap(map);
+    router.saveSlotMap(id, evictedSlots);
     bundle.putInt(KEY_DATA_MAP, id);
 
     return bundle;
@@ -102,6 +129,10 @@ public abstract class GalleryInfoContentHelper extends ContentLayout.ContentHelp
       if (map != null) {
         this.map = map;
       }
+      Map<Long, Integer> evictedSlots = router.restoreSlotMap(id);
+      if (evictedSlots != null) {
+        this.evictedSlots = evictedSlots;
+      }
     }
 
     return super.restoreInstanceState(state);
@@ -84,6 +84,8 @@ public class SearchBar extends CardView implements View.OnClickListener,
 
     private SearchDatabase mSearchDatabase;
     private List<Suggestion> mSuggestionList;
+    // Suggestions from provider are at the head of mSuggestionList
+    private int mProviderSuggestionCount;
     private SuggestionAdapter mSuggestionAdapter;
 
     private Helper mHelper;
@@ -167,6 +169,7 @@ public class SearchBar extends CardView implements View.OnClickListener,
 
     private void updateSuggestions(boolean scrollToTop) {
         mSuggestionList.clear();
+        mProviderSuggestionCount = 0;
 
         String text = mEditText.getText().toString();
 
@@ -174,6 +177,7 @@ public class SearchBar extends CardView implements View.OnClickListener,
             List<Suggestion> suggestions = mSuggestionProvider.providerSuggestions(text);
             if (suggestions != null && !suggestions.isEmpty()) {
                 mSuggestionList.addAll(suggestions);
+                mProviderSuggestionCount = suggestions.size();
             }
         }
 
@@ -194,6 +198,21 @@ public class SearchBar extends CardView implements View.OnClickListener,
         }
     }
 
+    /**
+     * Appends suggestions to the ones from provider, for the suggestions which take time.
+     * They are dropped if the text is changed.
+     */
+    public void addSuggestions(String text, List<Suggestion> suggestions) {
+        if (suggestions.isEmpty() || !text.equals(mEditText.getText().toString())) {
+            return;
+        }
+
+        mSuggestionList.addAll(mProviderSuggestionCount, suggestions);
+        mProviderSuggestionCount += suggestions.size();
+        addListHeader();
+        mSuggestionAdapter.notifyDataSetChanged();
+    }
+
     public void setAllowEmptySearch(boolean allowEmptySearch) {
         mAllowEmptySearch = allowEmptySearch;
     }
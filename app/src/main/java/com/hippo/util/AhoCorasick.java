@@ -0,0 +1,156 @@
+/*
+ * Copyright 2019 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.util;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Immutable Aho-Corasick automaton. Checks whether a text contains
+ * any of the patterns in one pass over the text.
+ */
+public final class AhoCorasick {
+
+  // Sorted children chars and target states of each state
+  private final char[][] keys;
+  private final int[][] targets;
+  private final int[] fail;
+  private final boolean[] output;
+  private final boolean empty;
+
+  public AhoCorasick(Collection<String> patterns) {
+    List<TreeMap<Character, Integer>> trie = new ArrayList<>();
+    List<Boolean> terminal = new ArrayList<>();
+    trie.add(new TreeMap<>());
+    terminal.add(false);
+
+    for (String pattern : patterns) {
+      int state = 0;
+      for (int i = 0, n = pattern.length(); i < n; i++) {
+        char c = pattern.charAt(i);
+        Integer next = trie.get(state).get(c);
+        if (next == null) {
+          next = trie.size();
+          trie.add(new TreeMap<>());
+          terminal.add(false);
+          trie.get(state).put(c, next);
+        }
+        state = next;
+      }
+      terminal.set(state, true);
+    }
+
+    int size = trie.size();
+    keys = new char[size][];
+    targets = new int[size][];
+    fail = new int[size];
+    output = new boolean[size];
+    empty = patterns.isEmpty();
+
+    for (int i = 0; i < size; i++) {
+      TreeMap<Character, Integer> children = trie.get(i);
+      char[] k = new char[children.size()];
+      int[] t = new int[children.size()];
+      int j = 0;
+      for (Map.Entry<Character, Integer> entry : children.entrySet()) {
+        k[j] = entry.getKey();
+        t[j] = entry.getValue();
+        j++;
+      }
+      keys[i] = k;
+      targets[i] = t;
+      output[i] = terminal.get(i);
+    }
+
+    // Breadth-first, so the fail state is always done before
+    int[] queue = new int[size];
+    int head = 0;
+    int tail = 0;
+    for (int child : targets[0]) {
+      fail[child] = 0;
+      queue[tail++] = child;
+    }
+    while (head < tail) {
+      int state = queue[head++];
+      char[] k = keys[state];
+      int[] t = targets[state];
+      for (int i = 0; i < k.length; i++) {
+        int child = t[i];
+        int f = fail[state];
+        int next;
+        while ((next = next(f, k[i])) == -1 && f != 0) {
+          f = fail[f];
+        }
+        fail[child] = next == -1 ? 0 : next;
+        output[child] |= output[fail[child]];
+        queue[tail++] = child;
+      }
+    }
+  }
+
+  private int next(int state, char c) {
+    char[] k = keys[state];
+    int low = 0;
+    int high = k.length - 1;
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      char key = k[mid];
+      if (key < c) {
+        low = mid + 1;
+      } else if (key > c) {
+        high = mid - 1;
+      } else {
+        return targets[state][mid];
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Returns {@code true} if there is no pattern.
+   */
+  public boolean isEmpty() {
+    return empty;
+  }
+
+  /**
+   * Returns {@code true} if the text contains any pattern.
+   */
+  public boolean containsAny(CharSequence text) {
+    if (output[0]) {
+      // Empty pattern
+      return true;
+    }
+
+    int state = 0;
+    for (int i = 0, n = text.length(); i < n; i++) {
+      char c = text.charAt(i);
+      int next;
+      while ((next = next(state, c)) == -1 && state != 0) {
+        state = fail[state];
+      }
+      state = next == -1 ? 0 : next;
+      if (output[state]) {
+        return true;
+      }
+    }
+    return false;
+  }
+}
@@ -180,6 +180,12 @@ public class ContentLayout extends FrameLayout {
         private static final String KEY_START_PAGE = "start_page";
         private static final String KEY_END_PAGE = "end_page";
         private static final String KEY_PAGES = "pages";
+        private static final String KEY_NEXT_PAGE = "next_page";
+        private static final String KEY_PAGE_STORE = "page_store";
+        private static final String KEY_STORED_PAGES = "stored_pages";
+
+        // Keep pages around the viewport at least
+        private static final int MIN_WINDOW_PAGES = 3;
 
         public static final int TYPE_REFRESH = 0;
         public static final int TYPE_PRE_PAGE = 1;
@@ -238,9 +244,21 @@ public class ContentLayout extends FrameLayout {
 
         private int mNextPage;
 
+        /**
+         * Max page count in <code>mData</code>, 0 for no limit.
+         * Pages out of the window are put to <code>mPageStore</code>,
+         * and read from it when they are needed again.
+         */
+        private int mWindowPages;
+
+        @Nullable
+        private ContentPageStore<E> mPageStore;
+
         private int mCurrentTaskId;
         private int mCurrentTaskType;
         private int mCurrentTaskPage;
+        // The task which has shown the cached page
+        private int mCachedTaskId = IntIdGenerator.INVALID_ID;
 
         private int mNextPageScrollSize;
 
@@ -264,7 +282,7 @@ public class ContentLayout extends FrameLayout {
                     mCurrentTaskId = mIdGenerator.nextId();
                     mCurrentTaskType = TYPE_PRE_PAGE_KEEP_POS;
                     mCurrentTaskPage = mStartPage - 1;
-                    getPageData(mCurrentTaskId, mCurrentTaskType, mCurrentTaskPage);
+                    requestPageData(mCurrentTaskId, mCurrentTaskType, mCurrentTaskPage);
                 } else {
                     doRefresh();
                 }
@@ -284,7 +302,7 @@ public class ContentLayout extends FrameLayout {
                     mCurrentTaskId = mIdGenerator.nextId();
                     mCurrentTaskType = TYPE_NEXT_PAGE_KEEP_POS;
                     mCurrentTaskPage = mEndPage;
-                    getPageData(mCurrentTaskId, mCurrentTaskType, mCurrentTaskPage);
+                    requestPageData(mCurrentTaskId, mCurrentTaskType, mCurrentTaskPage);
                 } else if (mEndPage == mPages) {
                     // Refresh last page
                     mCurrentTaskId = mIdGenerator.nextId();
@@ -350,6 +368,29 @@ public class ContentLayout extends FrameLayout {
 
         protected abstract void notifyItemRangeInserted(int positionStart, int itemCount);
 
+        /**
+         * Gets the page from the page store if it is there,
+         * otherwise {@link #getPageData(int, int, int)}.
+         */
+        private void requestPageData(final int taskId, final int type, final int page) {
+            ContentPageStore<E> store = mPageStore;
+            if (store == null || !store.contains(page)) {
+                getPageData(taskId, type, page);
+                return;
+            }
+
+            store.get(page, (nextPage, data) -> {
+                if (mCurrentTaskId != taskId) {
+                    return;
+                }
+                if (data != null) {
+                    onGetPageData(taskId, mPages, nextPage, data);
+                } else {
+                    getPageData(taskId, type, page);
+                }
+            });
+        }
+
         protected void onScrollToPosition(int postion) {}
 
         @Override
@@ -371,6 +412,74 @@ public class ContentLayout extends FrameLayout {
             mEmptyString = str;
         }
 
+        /**
+         * Only keeps the pages around the viewport in memory,
+         * other pages are put to disk. 0 for no limit.
+         */
+        public void setWindowPages(int pages) {
+            mWindowPages = pages <= 0 ? 0 : Math.max(MIN_WINDOW_PAGES, pages);
+        }
+
+        private ContentPageStore<E> getPageStore() {
+            if (mPageStore == null) {
+                mPageStore = ContentPageStore.create(getContext());
+            }
+            return mPageStore;
+        }
+
+        private void clearPageStore() {
+            if (mPageStore != null) {
+                mPageStore.clear();
+                mPageStore = null;
+            }
+        }
+
+        /**
+         * Moves pages out of <code>mData</code> to the page store.
+         *
+         * @param fromStart remove the first pages or the last pages
+         * @param count the count of pages to remove
+         */
+        private void evictPages(boolean fromStart, int count) {
+            int pageCount = mEndPage - mStartPage;
+            count = Math.min(count, pageCount);
+            if (count <= 0) {
+                return;
+            }
+
+            ContentPageStore<E> store = getPageStore();
+            int firstIndex = fromStart ? 0 : pageCount - count;
+            int lastIndex = firstIndex + count;
+            for (int i = firstIndex; i < lastIndex; i++) {
+                int page = mStartPage + i;
+                int nextPage = page == mEndPage - 1 ? mNextPage : page + 1;
+                store.put(page, nextPage, mData.subList(getPageStart(page), getPageEnd(page)));
+            }
+
+            int start = getPageStart(mStartPage + firstIndex);
+            int end = getPageEnd(mStartPage + lastIndex - 1);
+            int removed = end - start;
+            IntList pageDivider = new IntList();
+            for (int i = 0; i < pageCount; i++) {
+                if (i < firstIndex || i >= lastIndex) {
+                    pageDivider.add(mPageDivider.get(i) - (fromStart ? removed : 0));
+                }
+            }
+            mPageDivider = pageDivider;
+            if (fromStart) {
+                mStartPage += count;
+            } else {
+                mEndPage -= count;
+                // The next page is in the page store
+                mNextPage = mEndPage;
+            }
+
+            List<E> toRemove = mData.subList(start, end);
+            onEvictData(toRemove);
+            toRemove.clear();
+            notifyItemRangeRemoved(start, removed);
+        }
+
         public List<E> getData() {
             return mData;
         }
@@ -456,6 +565,14 @@ public class ContentLayout extends FrameLayout {
 
         protected void onRemoveData(List<E> data) { }
 
+        /**
+         * Called when the data is moved to the page store.
+         * It is passed to {@link #onAddData(List)} again if the page is read back.
+         */
+        protected void onEvictData(List<E> data) {
+            onRemoveData(data);
+        }
+
         protected void onClearData() { }
 
         public void onGetPageData(int taskId, int pages, int nextPage, List<E> data) {
@@ -464,6 +581,7 @@ public class ContentLayout extends FrameLayout {
 
                 switch (mCurrentTaskType) {
                     case TYPE_REFRESH:
+                        clearPageStore();
                         mStartPage = 0;
                         mEndPage = 1;
                         mPages = pages;
@@ -505,8 +623,8 @@ public class ContentLayout extends FrameLayout {
                             mRefreshLayout.setFooterRefreshing(false);
                             showContent();
 
-                            // RecyclerView scroll
-                            if (mRecyclerView.isAttachedToWindow()) {
+                            // RecyclerView scroll, not again for the page replacing the cached one
+                            if (mCachedTaskId != taskId && mRecyclerView.isAttachedToWindow()) {
                                 mRecyclerView.stopScroll();
                                 LayoutManagerUtils.scrollToPositionWithOffset(mRecyclerView.getLayoutManager(), 0, 0);
                                 onScrollToPosition(0);
@@ -517,6 +635,10 @@ public class ContentLayout extends FrameLayout {
                     case TYPE_PRE_PAGE_KEEP_POS:
                         removeDuplicateData(data, 0, CHECK_DUPLICATE_RANGE);
                         dataSize = data.size();
+                        if (mWindowPages > 0 && dataSize > 0) {
+                            // Make room for the new page, far from the viewport
+                            evictPages(false, mEndPage - mStartPage + 1 - mWindowPages);
+                        }
                         for (int i = 0, n = mPageDivider.size(); i < n; i++) {
                             mPageDivider.set(i, mPageDivider.get(i) + dataSize);
                         }
@@ -552,7 +674,7 @@ public class ContentLayout extends FrameLayout {
                                 mCurrentTaskId = mIdGenerator.nextId();
                                 // Keep mCurrentTaskType
                                 mCurrentTaskPage = mStartPage - 1;
-                                getPageData(mCurrentTaskId, mCurrentTaskType, mCurrentTaskPage);
+                                requestPageData(mCurrentTaskId, mCurrentTaskType, mCurrentTaskPage);
                             }
                         } else {
                             mData.addAll(0, data);
@@ -582,6 +704,10 @@ public class ContentLayout extends FrameLayout {
                     case TYPE_NEXT_PAGE_KEEP_POS:
                         removeDuplicateData(data, mData.size() - CHECK_DUPLICATE_RANGE, mData.size());
                         dataSize = data.size();
+                        if (mWindowPages > 0 && dataSize > 0) {
+                            // Make room for the new page, far from the viewport
+                            evictPages(true, mEndPage - mStartPage + 1 - mWindowPages);
+                        }
                         int oldDataSize = mData.size();
                         mPageDivider.add(oldDataSize + dataSize);
                         mEndPage++;
@@ -615,7 +741,7 @@ public class ContentLayout extends FrameLayout {
                                 mCurrentTaskId = mIdGenerator.nextId();
                                 // Keep mCurrentTaskType
                                 mCurrentTaskPage = mEndPage;
-                                getPageData(mCurrentTaskId, mCurrentTaskType, mCurrentTaskPage);
+                                requestPageData(mCurrentTaskId, mCurrentTaskType, mCurrentTaskPage);
                             }
                         } else {
                             mData.addAll(data);
@@ -640,6 +766,7 @@ public class ContentLayout extends FrameLayout {
                         }
                         break;
                     case TYPE_SOMEWHERE:
+                        clearPageStore();
                         mStartPage = mCurrentTaskPage;
                         mEndPage = mCurrentTaskPage + 1;
                         mNextPage = nextPage;
@@ -681,8 +808,8 @@ public class ContentLayout extends FrameLayout {
                             mRefreshLayout.setFooterRefreshing(false);
                             showContent();
 
-                            if (mRecyclerView.isAttachedToWindow()) {
-                                // RecyclerView scroll
+                            if (mCachedTaskId != taskId && mRecyclerView.isAttachedToWindow()) {
+                                // RecyclerView scroll, not again for the page replacing the cached one
                                 mRecyclerView.stopScroll();
                                 LayoutManagerUtils.scrollToPositionWithOffset(mRecyclerView.getLayoutManager(), 0, 0);
                                 onScrollToPosition(0);
@@ -741,6 +868,28 @@ public class ContentLayout extends FrameLayout {
             }
         }
 
+        /**
+         * Whether the page of the task type could be shown from cache
+         * by {@link #onGetCachedPageData(int, int, int, List)} first.
+         */
+        public boolean isCacheFirst(int type) {
+            return type == TYPE_REFRESH || type == TYPE_SOMEWHERE;
+        }
+
+        /**
+         * Shows the cached page of the current task, and keeps the task going.
+         * The page from {@link #onGetPageData(int, int, int, List)} of the task replaces it.
+         */
+        public void onGetCachedPageData(int taskId, int pages, int nextPage, List<E> data) {
+            if (mCurrentTaskId != taskId || !isCacheFirst(mCurrentTaskType) || data.isEmpty()) {
+                return;
+            }
+
+            onGetPageData(taskId, pages, nextPage, data);
+            mCachedTaskId = taskId;
+            mRefreshLayout.setHeaderRefreshing(true);
+        }
+
         public void onGetException(int taskId, Exception e) {
             if (mCurrentTaskId == taskId) {
                 mRefreshLayout.setHeaderRefreshing(false);
@@ -907,7 +1056,7 @@ public class ContentLayout extends FrameLayout {
                 mCurrentTaskId = mIdGenerator.nextId();
                 mCurrentTaskType = TYPE_PRE_PAGE;
                 mCurrentTaskPage = page;
-                getPageData(mCurrentTaskId, mCurrentTaskType, mCurrentTaskPage);
+                requestPageData(mCurrentTaskId, mCurrentTaskType, mCurrentTaskPage);
             } else if (page == mEndPage) {
                 mRefreshLayout.setHeaderRefreshing(false);
                 mRefreshLayout.setFooterRefreshing(true);
@@ -915,7 +1064,7 @@ public class ContentLayout extends FrameLayout {
                 mCurrentTaskId = mIdGenerator.nextId();
                 mCurrentTaskType = TYPE_NEXT_PAGE;
                 mCurrentTaskPage = page;
-                getPageData(mCurrentTaskId, mCurrentTaskType, mCurrentTaskPage);
+                requestPageData(mCurrentTaskId, mCurrentTaskType, mCurrentTaskPage);
             } else {
                 mRefreshLayout.setFooterRefreshing(false);
                 mRefreshLayout.setHeaderRefreshing(true);
@@ -950,6 +1099,12 @@ public class ContentLayout extends FrameLayout {
             bundle.putInt(KEY_START_PAGE, mStartPage);
             bundle.putInt(KEY_END_PAGE, mEndPage);
             bundle.putInt(KEY_PAGES, mPages);
+            bundle.putInt(KEY_NEXT_PAGE, mNextPage);
+            // Only the reference, pages are on disk
+            if (mPageStore != null) {
+                bundle.putString(KEY_PAGE_STORE, mPageStore.getName());
+                bundle.putIntArray(KEY_STORED_PAGES, mPageStore.getPages());
+            }
             return bundle;
         }
 
@@ -975,6 +1130,17 @@ public class ContentLayout extends FrameLayout {
                 mStartPage = bundle.getInt(KEY_START_PAGE);
                 mEndPage = bundle.getInt(KEY_END_PAGE);
                 mPages = bundle.getInt(KEY_PAGES);
+                mNextPage = bundle.getInt(KEY_NEXT_PAGE);
+
+                String pageStoreName = bundle.getString(KEY_PAGE_STORE);
+                int[] storedPages = bundle.getIntArray(KEY_STORED_PAGES);
+                if (pageStoreName != null && storedPages != null) {
+                    mPageStore = ContentPageStore.open(getContext(), pageStoreName, storedPages);
+                    if (newData == null) {
+                        // Written by the dead process
+                        clearPageStore();
+                    }
+                }
 
                 notifyDataSetChanged();
 
@@ -0,0 +1,257 @@
+/*
+ * Copyright 2019 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.widget;
+
+import android.content.Context;
+import android.os.Parcel;
+import android.os.Parcelable;
+import androidx.annotation.Nullable;
+import com.hippo.util.IoThreadPoolExecutor;
+import com.hippo.yorozuya.FileUtils;
+import com.hippo.yorozuya.IOUtils;
+import com.hippo.yorozuya.SimpleHandler;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Pages of {@link ContentLayout.ContentHelper} out of the window, keyed by page number.
+ * Each page is a file in cache dir. Files are only valid in the process
+ * which writes them, the format is {@link Parcel}.
+ * All methods must be called in main thread, callbacks are called in main thread.
+ */
+final class ContentPageStore<E extends Parcelable> {
+
+    private static final String DIR_NAME = "content_pages";
+
+    // Stores of the last process are useless
+    private static boolean sSwept;
+
+    interface Callback<E> {
+        /**
+         * @param data {@code null} if the page can't be read
+         */
+        void onGetPage(int nextPage, @Nullable List<E> data);
+    }
+
+    private static class Page<E> {
+        private final int nextPage;
+        private final List<E> data;
+
+        private Page(int nextPage, List<E> data) {
+            this.nextPage = nextPage;
+            this.data = data;
+        }
+    }
+
+    private final String name;
+    private final File dir;
+    private final ClassLoader classLoader;
+    private final Set<Integer> pages = new HashSet<>();
+    // Pages not written yet, guarded by itself
+    private final Map<Integer, Page<E>> pending = new HashMap<>();
+    // Guards files in dir and closed
+    private final Object diskLock = new Object();
+    // Set by clear(), no file is written after that
+    private boolean closed;
+
+    private ContentPageStore(Context context, String name) {
+        this.name = name;
+        this.dir = new File(new File(context.getCacheDir(), DIR_NAME), name);
+        this.classLoader = context.getClassLoader();
+    }
+
+    static <E extends Parcelable> ContentPageStore<E> create(Context context) {
+        String name = UUID.randomUUID().toString();
+        if (!sSwept) {
+            sSwept = true;
+            File root = new File(context.getCacheDir(), DIR_NAME);
+            IoThreadPoolExecutor.getInstance().execute(() -> {
+                File[] files = root.listFiles();
+                if (files != null) {
+                    for (File file : files) {
+                        // The new store may be written now
+                        if (!name.equals(file.getName())) {
+                            FileUtils.delete(file);
+                        }
+                    }
+                }
+            });
+        }
+        return new ContentPageStore<>(context, name);
+    }
+
+    /**
+     * Opens the store saved in state, with the pages it had.
+     */
+    static <E extends Parcelable> ContentPageStore<E> open(Context context, String name, int[] pages) {
+        ContentPageStore<E> store = new ContentPageStore<>(context, name);
+        for (int page : pages) {
+            store.pages.add(page);
+        }
+        return store;
+    }
+
+    String getName() {
+        return name;
+    }
+
+    int[] getPages() {
+        int[] result = new int[pages.size()];
+        int i = 0;
+        for (int page : pages) {
+            result[i++] = page;
+        }
+        return result;
+    }
+
+    boolean contains(int page) {
+        return pages.contains(page);
+    }
+
+    void put(int page, int nextPage, List<E> data) {
+        Page<E> p = new Page<>(nextPage, new ArrayList<>(data));
+        pages.add(page);
+        synchronized (pending) {
+            pending.put(page, p);
+        }
+
+        IoThreadPoolExecutor.getInstance().execute(() -> {
+            synchronized (pending) {
+                // Replaced or removed
+                if (pending.get(page) != p) {
+                    return;
+                }
+            }
+            synchronized (diskLock) {
+                if (!closed) {
+                    write(page, p);
+                }
+            }
+            synchronized (pending) {
+                if (pending.get(page) == p) {
+                    pending.remove(page);
+                }
+            }
+        });
+    }
+
+    void get(int page, Callback<E> callback) {
+        Page<E> p;
+        synchronized (pending) {
+            p = pending.get(page);
+        }
+        if (p != null) {
+            List<E> data = new ArrayList<>(p.data);
+            SimpleHandler.getInstance().post(() -> callback.onGetPage(p.nextPage, data));
+            return;
+        }
+
+        IoThreadPoolExecutor.getInstance().execute(() -> {
+            Page<E> read = read(page);
+            SimpleHandler.getInstance().post(() -> {
+                if (read != null) {
+                    callback.onGetPage(read.nextPage, read.data);
+                } else {
+                    pages.remove(page);
+                    callback.onGetPage(0, null);
+                }
+            });
+        });
+    }
+
+    /**
+     * Removes all pages. The store can't be used after that.
+     */
+    void clear() {
+        pages.clear();
+        synchronized (pending) {
+            pending.clear();
+        }
+        IoThreadPoolExecutor.getInstance().execute(() -> {
+            synchronized (diskLock) {
+                // Writes which are running or queued can't recreate files
+                closed = true;
+                FileUtils.delete(dir);
+            }
+        });
+    }
+
+    private File getFile(int page) {
+        return new File(dir, Integer.toString(page));
+    }
+
+    private void write(int page, Page<E> p) {
+        if (!FileUtils.ensureDirectory(dir)) {
+            return;
+        }
+
+        Parcel parcel = Parcel.obtain();
+        OutputStream os = null;
+        try {
+            parcel.writeInt(p.nextPage);
+            parcel.writeList(p.data);
+            os = new FileOutputStream(getFile(page));
+            os.write(parcel.marshall());
+        } catch (IOException e) {
+            // Read it from network again
+            getFile(page).delete();
+        } finally {
+            IOUtils.closeQuietly(os);
+            parcel.recycle();
+        }
+    }
+
+    @Nullable
+    @SuppressWarnings("unchecked")
+    private Page<E> read(int page) {
+        File file = getFile(page);
+        if (!file.isFile()) {
+            return null;
+        }
+
+        Parcel parcel = Parcel.obtain();
+        InputStream is = null;
+        try {
+            is = new FileInputStream(file);
+            ByteArrayOutputStream os = new ByteArrayOutputStream((int) file.length());
+            IOUtils.copy(is, os);
+            byte[] bytes = os.toByteArray();
+            parcel.unmarshall(bytes, 0, bytes.length);
+            parcel.setDataPosition(0);
+            int nextPage = parcel.readInt();
+            List<E> data = parcel.readArrayList(classLoader);
+            return new Page<>(nextPage, data);
+        } catch (IOException | RuntimeException e) {
+            return null;
+        } finally {
+            IOUtils.closeQuietly(is);
+            parcel.recycle();
+        }
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright 2019 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.ehviewer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.hippo.ehviewer.client.data.GalleryComment;
+import com.hippo.ehviewer.client.data.GalleryCommentList;
+import com.hippo.ehviewer.client.data.GalleryDetail;
+import com.hippo.ehviewer.client.data.GalleryInfo;
+import com.hippo.ehviewer.client.data.GalleryPreview;
+import com.hippo.ehviewer.client.data.GalleryTagGroup;
+import com.hippo.ehviewer.client.data.LargePreviewSet;
+import com.hippo.ehviewer.client.data.NormalPreviewSet;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import org.junit.Test;
+
+public class GalleryDetailCacheTest {
+
+  private static GalleryDetailCache.Entry writeAndRead(GalleryDetail gd, long time) throws IOException {
+    ByteArrayOutputStream os = new ByteArrayOutputStream();
+    GalleryDetailCache.write(gd, time, os);
+    return GalleryDetailCache.read(new ByteArrayInputStream(os.toByteArray()));
+  }
+
+  @Test
+  public void testWriteRead() throws IOException {
+    GalleryDetail gd = new GalleryDetail();
+    gd.gid = 1234567;
+    gd.token = "abcdef1234";
+    gd.title = "Title";
+    gd.titleJpn = null;
+    gd.category = 2;
+    gd.rating = 4.5f;
+    gd.simpleTags = new String[] { "a", null, "c" };
+    ((GalleryInfo) gd).pages = 12;
+    gd.favoriteSlot = 3;
+    gd.apiUid = 42;
+    gd.apiKey = "key";
+    gd.pages = 24;
+    gd.isFavorited = true;
+    gd.previewPages = 2;
+
+    GalleryTagGroup group = new GalleryTagGroup();
+    group.groupName = "female";
+    group.addTag("glasses");
+    group.addTag("メガネ");
+    gd.tags = new GalleryTagGroup[] { group };
+
+    GalleryComment comment = new GalleryComment();
+    comment.id = 9;
+    comment.voteUpAble = true;
+    comment.user = "user";
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < 30000; i++) {
+      sb.append("é");
+    }
+    comment.comment = sb.toString();
+    comment.time = 1000;
+    gd.comments = new GalleryCommentList(new GalleryComment[] { comment }, true);
+
+    NormalPreviewSet previewSet = new NormalPreviewSet();
+    previewSet.addItem(0, "https://ehgt.org/m/001.jpg", 0, 0, 100, 140, "https://e-hentai.org/s/1/1-1");
+    previewSet.addItem(1, "https://ehgt.org/m/001.jpg", 100, 0, 100, 142, "https://e-hentai.org/s/2/1-2");
+    gd.previewSet = previewSet;
+
+    GalleryDetailCache.Entry entry = writeAndRead(gd, 5678);
+    assertEquals(5678, entry.time);
+    GalleryDetail result = entry.detail;
+    assertEquals(gd.gid, result.gid);
+    assertEquals(gd.token, result.token);
+    assertEquals(gd.title, result.title);
+    assertNull(result.titleJpn);
+    assertEquals(gd.category, result.category);
+    assertEquals(gd.rating, result.rating, 0.0f);
+    assertArrayEquals(gd.simpleTags, result.simpleTags);
+    assertEquals(12, ((GalleryInfo) result).pages);
+    assertEquals(24, result.pages);
+    assertEquals(3, result.favoriteSlot);
+    assertEquals(42, result.apiUid);
+    assertEquals("key", result.apiKey);
+    assertTrue(result.isFavorited);
+    assertEquals(2, result.previewPages);
+
+    assertEquals(1, result.tags.length);
+    assertEquals("female", result.tags[0].groupName);
+    assertEquals(2, result.tags[0].size());
+    assertEquals("メガネ", result.tags[0].getTagAt(1));
+
+    assertTrue(result.comments.hasMore);
+    assertEquals(1, result.comments.comments.length);
+    GalleryComment c = result.comments.comments[0];
+    assertEquals(9, c.id);
+    assertTrue(c.voteUpAble);
+    assertEquals("user", c.user);
+    assertEquals(comment.comment, c.comment);
+    assertEquals(1000, c.time);
+
+    assertTrue(result.previewSet instanceof NormalPreviewSet);
+    assertEquals(2, result.previewSet.size());
+    GalleryPreview p1 = previewSet.getGalleryPreview(gd.gid, 1);
+    GalleryPreview p2 = result.previewSet.getGalleryPreview(gd.gid, 1);
+    assertEquals(p1.getPosition(), p2.getPosition());
+    assertEquals(p1.getImageUrl(), p2.getImageUrl());
+    assertEquals(p1.getPageUrl(), p2.getPageUrl());
+    assertEquals(p1.getOffsetX(), p2.getOffsetX());
+    assertEquals(p1.getClipHeight(), p2.getClipHeight());
+  }
+
+  @Test
+  public void testLargePreviewSet() throws IOException {
+    GalleryDetail gd = new GalleryDetail();
+    gd.gid = 1;
+    LargePreviewSet previewSet = new LargePreviewSet();
+    previewSet.addItem(40, "https://ehgt.org/l/041.jpg", "https://e-hentai.org/s/3/1-41");
+    gd.previewSet = previewSet;
+
+    GalleryDetail result = writeAndRead(gd, 0).detail;
+    assertNull(result.tags);
+    assertNull(result.comments);
+    assertTrue(result.previewSet instanceof LargePreviewSet);
+    assertEquals(1, result.previewSet.size());
+    assertEquals(40, result.previewSet.getPosition(0));
+    assertEquals("https://e-hentai.org/s/3/1-41", result.previewSet.getPageUrlAt(0));
+  }
+
+  @Test
+  public void testInvalid() throws IOException {
+    assertNull(GalleryDetailCache.read(new ByteArrayInputStream(new byte[8])));
+  }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright 2019 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.ehviewer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import org.junit.Test;
+
+public class GallerySearchIndexTest {
+
+  @Test
+  public void testToDocument() {
+    assertNull(GallerySearchIndex.toDocument(null));
+    assertEquals("Hello World", GallerySearchIndex.toDocument("Hello World"));
+    assertEquals("[Ab] 東  方 ", GallerySearchIndex.toDocument("[Ab]東方"));
+    assertEquals(" あ   い ", GallerySearchIndex.toDocument("あ、い"));
+  }
+
+  @Test
+  public void testToQuery() {
+    assertNull(GallerySearchIndex.toQuery(null));
+    assertNull(GallerySearchIndex.toQuery("  \"*- "));
+    assertEquals("\"hello*\" \"world*\"", GallerySearchIndex.toQuery(" Hello  WORLD "));
+    assertEquals("\"c92*\" \"a b*\"", GallerySearchIndex.toQuery("(C92) a-b"));
+    assertEquals("\"東 方*\"", GallerySearchIndex.toQuery("東方"));
+    assertEquals("\"or*\" \"near*\"", GallerySearchIndex.toQuery("OR NEAR"));
+  }
+
+  private static byte[] matchinfo(int phraseCount, int columnCount, int... hitsAndRows) {
+    ByteBuffer buffer = ByteBuffer.allocate((2 + phraseCount * columnCount * 3) * 4)
+        .order(ByteOrder.nativeOrder());
+    buffer.putInt(phraseCount).putInt(columnCount);
+    for (int i = 0; i < phraseCount * columnCount; i++) {
+      buffer.putInt(hitsAndRows[i * 2]).putInt(0).putInt(hitsAndRows[i * 2 + 1]);
+    }
+    return buffer.array();
+  }
+
+  @Test
+  public void testScore() {
+    float none = GallerySearchIndex.score(matchinfo(1, 4, 0, 5, 0, 0, 0, 0, 0, 0));
+    float title = GallerySearchIndex.score(matchinfo(1, 4, 1, 5, 0, 0, 0, 0, 0, 0));
+    float uploader = GallerySearchIndex.score(matchinfo(1, 4, 0, 0, 0, 0, 1, 5, 0, 0));
+    float common = GallerySearchIndex.score(matchinfo(1, 4, 1, 50, 0, 0, 0, 0, 0, 0));
+    float twice = GallerySearchIndex.score(matchinfo(1, 4, 2, 5, 0, 0, 0, 0, 0, 0));
+
+    assertEquals(0.0f, none, 0.0f);
+    assertTrue(title > uploader);
+    assertTrue(title > common);
+    assertTrue(twice > title);
+    assertTrue(twice < title * 2);
+  }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright 2019 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.ehviewer.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Test;
+
+public class AddressTableTest {
+
+  private static InetAddress address(int last) throws UnknownHostException {
+    return InetAddress.getByAddress(new byte[] { 10, 0, 0, (byte) last });
+  }
+
+  @Test
+  public void testSort() throws UnknownHostException {
+    InetAddress a1 = address(1);
+    InetAddress a2 = address(2);
+    InetAddress a3 = address(3);
+    InetAddress a4 = address(4);
+    List<InetAddress> addresses = Arrays.asList(a1, a2, a3, a4);
+
+    AddressTable table = new AddressTable();
+    // Unknown addresses keep the order
+    assertEquals(addresses, table.sort(addresses, 0));
+
+    table.onFailed(a1, 0);
+    table.onConnected(a3, 200);
+    table.onConnected(a4, 100);
+    assertEquals(Arrays.asList(a4, a3, a2, a1), table.sort(addresses, 1000));
+
+    // Failure penalty expires
+    assertEquals(Arrays.asList(a4, a3, a1, a2),
+        table.sort(addresses, AddressTable.FAILURE_PENALTY));
+  }
+
+  @Test
+  public void testHealthy() throws UnknownHostException {
+    InetAddress a = address(1);
+    AddressTable table = new AddressTable();
+    assertFalse(table.isHealthy(a, 0));
+
+    table.onConnected(a, 100);
+    assertTrue(table.isHealthy(a, 0));
+
+    table.onFailed(a, 1000);
+    assertFalse(table.isHealthy(a, 2000));
+    assertTrue(table.isHealthy(a, 1000 + AddressTable.FAILURE_PENALTY));
+
+    table.onFailed(a, 3000);
+    table.onConnected(a, 100);
+    assertTrue(table.isHealthy(a, 3000));
+  }
+}
@@ -0,0 +1,183 @@
+/*
+ * Copyright 2019 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.ehviewer.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import okhttp3.CacheControl;
+import okhttp3.Call;
+import okhttp3.Connection;
+import okhttp3.Interceptor;
+import okhttp3.MediaType;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import org.junit.Test;
+
+public class EhCacheInterceptorTest {
+
+  private static final String URL = "https://e-hentai.org/";
+
+  private static Request get() {
+    return new Request.Builder().url(URL).build();
+  }
+
+  private static Request post() {
+    return new Request.Builder()
+        .url(URL)
+        .post(RequestBody.create(MediaType.parse("text/plain"), "a"))
+        .build();
+  }
+
+  private static Response.Builder response(Request request, int code) {
+    return new Response.Builder()
+        .request(request)
+        .protocol(Protocol.HTTP_1_1)
+        .code(code)
+        .message("message")
+        .header("Cache-Control", "no-cache, no-store")
+        .header("Pragma", "no-cache")
+        .header("Expires", "Thu, 01 Jan 1970 00:00:00 GMT");
+  }
+
+  private static void assertRewritten(Response response, String vary) {
+    assertEquals("max-age=0", response.header("Cache-Control"));
+    assertNull(response.header("Pragma"));
+    assertNull(response.header("Expires"));
+    assertEquals(vary, response.header("Vary"));
+  }
+
+  @Test
+  public void testRewriteGet() throws IOException {
+    Request request = get();
+    Response response = response(request, 200).build();
+    assertRewritten(new EhCacheInterceptor().intercept(new FakeChain(request, response)), "Cookie");
+  }
+
+  @Test
+  public void testRewriteNotModified() throws IOException {
+    Request request = get();
+    Response response = response(request, 304).header("Vary", "Accept-Encoding").build();
+    assertRewritten(new EhCacheInterceptor().intercept(new FakeChain(request, response)),
+        "Accept-Encoding, Cookie");
+  }
+
+  @Test
+  public void testKeepPost() throws IOException {
+    Request request = post();
+    Response response = response(request, 200).build();
+    assertSame(response, new EhCacheInterceptor().intercept(new FakeChain(request, response)));
+  }
+
+  @Test
+  public void testKeepError() throws IOException {
+    Request request = get();
+    for (int code : new int[] { 302, 404, 503 }) {
+      Response response = response(request, code).build();
+      assertSame(response, new EhCacheInterceptor().intercept(new FakeChain(request, response)));
+    }
+  }
+
+  @Test
+  public void testCacheOnly() throws IOException {
+    Request request = get();
+    Response cached = response(request, 200).build();
+    Response response = response(request, 200).cacheResponse(cached).build();
+    FakeChain chain = new FakeChain(request, response);
+    assertSame(response, new EhCacheInterceptor.CacheOnlyInterceptor().intercept(chain));
+    assertEquals(CacheControl.FORCE_CACHE.toString(), chain.proceeded.header("Cache-Control"));
+
+    // Not in cache, OkHttp gives 504 with an empty body
+    try {
+      Response unsatisfiable = response(request, 504).body(ResponseBody.create(null, "")).build();
+      new EhCacheInterceptor.CacheOnlyInterceptor().intercept(new FakeChain(request, unsatisfiable));
+      fail();
+    } catch (IOException e) {
+      // Expected
+    }
+  }
+
+  private static class FakeChain implements Interceptor.Chain {
+
+    private final Request request;
+    private final Response response;
+    private Request proceeded;
+
+    FakeChain(Request request, Response response) {
+      this.request = request;
+      this.response = response;
+    }
+
+    @Override
+    public Request request() {
+      return request;
+    }
+
+    @Override
+    public Response proceed(Request request) {
+      proceeded = request;
+      return response;
+    }
+
+    @Override
+    public Connection connection() {
+      return null;
+    }
+
+    @Override
+    public Call call() {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public int connectTimeoutMillis() {
+      return 0;
+    }
+
+    @Override
+    public Interceptor.Chain withConnectTimeout(int timeout, TimeUnit unit) {
+      return this;
+    }
+
+    @Override
+    public int readTimeoutMillis() {
+      return 0;
+    }
+
+    @Override
+    public Interceptor.Chain withReadTimeout(int timeout, TimeUnit unit) {
+      return this;
+    }
+
+    @Override
+    public int writeTimeoutMillis() {
+      return 0;
+    }
+
+    @Override
+    public Interceptor.Chain withWriteTimeout(int timeout, TimeUnit unit) {
+      return this;
+    }
+  }
+}
@@ -21,6 +21,8 @@ import static org.junit.Assert.assertNull;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Collections;
 import okio.BufferedSource;
 import okio.Okio;
 import org.junit.Test;
@@ -51,4 +53,21 @@ public class EhTagDatabaseTest {
     assertEquals("1234", db.getTranslation("abcd"));
     assertNull(db.getTranslation("21"));
   }
+
+  @Test
+  public void searchTheList() throws IOException {
+    InputStream resource = EhTagDatabaseTest.class.getResourceAsStream("EhTagDatabaseTest");
+
+    EhTagDatabase db;
+    try (BufferedSource source = Okio.buffer(Okio.source(resource))) {
+      db = new EhTagDatabase("EhTagDatabaseTest", source);
+    }
+
+    assertEquals(Arrays.asList("12", "123", "1234"), db.prefixSearch("12", 10));
+    assertEquals(Arrays.asList("12", "123"), db.prefixSearch("12", 2));
+    assertEquals(Collections.emptyList(), db.prefixSearch("2", 10));
+    assertEquals(Arrays.asList("123", "1234", "abc", "abcd"), db.substringSearch("bc", 10));
+    assertEquals(Arrays.asList("1", "12"), db.substringSearch("a", 2));
+    assertEquals(Collections.emptyList(), db.substringSearch("", 10));
+  }
 }
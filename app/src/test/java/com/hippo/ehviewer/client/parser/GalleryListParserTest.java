@@ -23,7 +23,10 @@ import static org.junit.Assert.assertNull;
 
 import com.hippo.ehviewer.client.EhUtils;
 import edu.emory.mathcs.backport.java.util.Arrays;
+import com.hippo.ehviewer.client.data.GalleryInfo;
+import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
 import java.util.List;
 import okio.BufferedSource;
 import okio.Okio;
@@ -68,6 +71,45 @@ public class GalleryListParserTest {
     this.file = file;
   }
 
+  private static List<String> readLines(String file) throws IOException {
+    InputStream resource = GalleryListParserTest.class.getResourceAsStream(file);
+    List<String> lines = new ArrayList<>();
+    try (BufferedSource source = Okio.buffer(Okio.source(resource))) {
+      String line;
+      while ((line = source.readUtf8Line()) != null) {
+        lines.add(line);
+      }
+    }
+    return lines;
+  }
+
+  private static String toLine(GalleryInfo gi) {
+    return gi.gid + "\t" + gi.token + "\t" + gi.title + "\t" +
+        (gi.simpleTags == null ? "null" : String.join(",", gi.simpleTags)) + "\t" +
+        gi.category + "\t" + gi.thumb + "\t" + gi.thumbWidth + "x" + gi.thumbHeight + "\t" +
+        gi.posted + "\t" + gi.rating + "\t" + gi.uploader + "\t" + gi.pages + "\t" + gi.favoriteSlot;
+  }
+
+  /**
+   * The golden file has the pages of the result in the first line,
+   * then a line for each gallery. It's from the old jsoup Document parser.
+   */
+  @Test
+  public void testGolden() throws Exception {
+    InputStream resource = GalleryListParserTest.class.getResourceAsStream(file);
+    BufferedSource source = Okio.buffer(Okio.source(resource));
+    String body = source.readUtf8();
+
+    GalleryListParser.Result result = GalleryListParser.parse(body);
+
+    List<String> golden = readLines(file.replace(".html", ".txt"));
+    assertEquals(golden.get(0), result.pages + "\t" + result.nextPage + "\t" + result.noWatchedTags);
+    assertEquals(golden.size() - 1, result.galleryInfoList.size());
+    for (int i = 0, n = result.galleryInfoList.size(); i < n; i++) {
+      assertEquals(golden.get(i + 1), toLine(result.galleryInfoList.get(i)));
+    }
+  }
+
   @Test
   public void testParse() throws Exception {
     InputStream resource = GalleryPageApiParserTest.class.getResourceAsStream(file);
@@ -0,0 +1,83 @@
+/*
+ * Copyright 2019 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.ehviewer.client.parser;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class HtmlTokenizerTest {
+
+  @Test
+  public void testTokens() {
+    HtmlTokenizer tokenizer = new HtmlTokenizer(
+        "<!DOCTYPE html><!-- <div> --><DIV class=a>x<br/><script>if (a<b) {}</script></div>");
+
+    assertEquals(HtmlTokenizer.START_TAG, tokenizer.next());
+    assertTrue(tokenizer.isName("div"));
+    assertFalse(tokenizer.isSelfClosing());
+    assertEquals(HtmlTokenizer.TEXT, tokenizer.next());
+    assertEquals(HtmlTokenizer.START_TAG, tokenizer.next());
+    assertTrue(tokenizer.isName("br"));
+    assertTrue(tokenizer.isSelfClosing());
+    assertEquals(HtmlTokenizer.START_TAG, tokenizer.next());
+    assertTrue(tokenizer.isName("script"));
+    assertEquals(HtmlTokenizer.END_TAG, tokenizer.next());
+    assertTrue(tokenizer.isName("script"));
+    assertEquals(HtmlTokenizer.END_TAG, tokenizer.next());
+    assertTrue(tokenizer.isName("div"));
+    assertEquals(HtmlTokenizer.EOF, tokenizer.next());
+  }
+
+  @Test
+  public void testAttributes() {
+    HtmlTokenizer tokenizer = new HtmlTokenizer(
+        "<a HREF='/g/1/?a=1&amp;b=2' title=\"x > y\" id=posted_1 class=\" it5  GLNAME \" href=x>");
+    assertEquals(HtmlTokenizer.START_TAG, tokenizer.next());
+    int offset = tokenizer.getTagOffset();
+
+    assertEquals("/g/1/?a=1&b=2", tokenizer.getAttribute(offset, "href"));
+    assertEquals("x > y", tokenizer.getAttribute(offset, "title"));
+    assertEquals("posted_1", tokenizer.getAttribute(offset, "id"));
+    assertNull(tokenizer.getAttribute(offset, "style"));
+    assertEquals("", tokenizer.attr(offset, "style"));
+    assertTrue(tokenizer.attributeStartsWith(offset, "id", "posted_"));
+
+    assertTrue(tokenizer.hasClass(offset, "it5"));
+    assertTrue(tokenizer.hasClass(offset, "glname"));
+    assertFalse(tokenizer.hasClass(offset, "it"));
+    assertEquals(HtmlTokenizer.EOF, tokenizer.next());
+  }
+
+  @Test
+  public void testText() {
+    HtmlTokenizer tokenizer = new HtmlTokenizer(" a \n\tb&amp;c&nbsp; d ");
+    assertEquals(HtmlTokenizer.TEXT, tokenizer.next());
+
+    StringBuilder sb = new StringBuilder();
+    tokenizer.appendNormalisedText(sb, tokenizer.getTextStart(), tokenizer.getTextEnd());
+    assertEquals(" a b&c d ", sb.toString());
+
+    sb.setLength(0);
+    sb.append("x ");
+    tokenizer.appendNormalisedText(sb, tokenizer.getTextStart(), tokenizer.getTextEnd());
+    assertEquals("x a b&c d ", sb.toString());
+  }
+}
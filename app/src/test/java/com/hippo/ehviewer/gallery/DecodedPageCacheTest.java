@@ -0,0 +1,87 @@
+/*
+ * Copyright 2019 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.ehviewer.gallery;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Test;
+
+public class DecodedPageCacheTest {
+
+  @Test
+  public void testEvictFarthest() {
+    List<Integer> evicted = new ArrayList<>();
+    DecodedPageCache cache = new DecodedPageCache(30, evicted::add);
+    cache.setCurrentIndex(5);
+    cache.put(2, 10);
+    cache.put(5, 10);
+    cache.put(9, 10);
+    assertEquals(30, cache.size());
+
+    // 9 is farther than 2
+    cache.put(6, 10);
+    assertEquals(Arrays.asList(9), evicted);
+
+    // 2 is behind, it goes first on a tie
+    cache.put(8, 10);
+    assertEquals(Arrays.asList(9, 2), evicted);
+    assertEquals(30, cache.size());
+  }
+
+  @Test
+  public void testKeepCurrent() {
+    List<Integer> evicted = new ArrayList<>();
+    DecodedPageCache cache = new DecodedPageCache(10, evicted::add);
+    cache.setCurrentIndex(3);
+    cache.put(2, 10);
+    cache.put(3, 10);
+    cache.put(4, 10);
+    assertEquals(30, cache.size());
+    assertEquals(0, evicted.size());
+
+    // Moving away makes them evictable
+    cache.setCurrentIndex(10);
+    assertEquals(Arrays.asList(2, 3), evicted);
+    assertEquals(10, cache.size());
+  }
+
+  @Test
+  public void testTrim() {
+    List<Integer> evicted = new ArrayList<>();
+    DecodedPageCache cache = new DecodedPageCache(100, evicted::add);
+    cache.setCurrentIndex(0);
+    for (int i = 0; i < 10; i++) {
+      cache.put(i, 10);
+    }
+    cache.put(3, 5);
+    assertEquals(95, cache.size());
+
+    cache.trim(0.5f);
+    assertEquals(Arrays.asList(9, 8, 7, 6, 5), evicted);
+    assertEquals(45, cache.size());
+
+    cache.trim(0.0f);
+    assertEquals(20, cache.size());
+
+    cache.remove(1);
+    cache.clear();
+    assertEquals(0, cache.size());
+  }
+}
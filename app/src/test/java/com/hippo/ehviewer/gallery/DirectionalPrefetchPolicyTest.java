@@ -0,0 +1,74 @@
+/*
+ * Copyright 2019 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.ehviewer.gallery;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.Collections;
+import org.junit.Test;
+
+public class DirectionalPrefetchPolicyTest {
+
+  @Test
+  public void testDirection() {
+    DirectionalPrefetchPolicy policy = new DirectionalPrefetchPolicy(3);
+    assertEquals(Arrays.asList(6, 7, 8, 4), policy.getPrefetchPages(5, 100));
+
+    // Paging backward
+    policy.onCurrentIndexChanged(10, 0);
+    policy.onCurrentIndexChanged(9, 1000);
+    assertEquals(Arrays.asList(8, 7, 6, 10), policy.getPrefetchPages(9, 100));
+
+    // A jump doesn't change the direction
+    policy.onCurrentIndexChanged(50, 2000);
+    assertEquals(Arrays.asList(49, 48, 47, 51), policy.getPrefetchPages(50, 100));
+  }
+
+  @Test
+  public void testRange() {
+    DirectionalPrefetchPolicy policy = new DirectionalPrefetchPolicy(3);
+    assertEquals(Arrays.asList(9, 7), policy.getPrefetchPages(8, 10));
+    assertEquals(Collections.emptyList(), new DirectionalPrefetchPolicy(0).getPrefetchPages(8, 10));
+  }
+
+  @Test
+  public void testDepth() {
+    DirectionalPrefetchPolicy policy = new DirectionalPrefetchPolicy(10);
+    // Nothing observed
+    assertEquals(10, policy.getDepth());
+
+    // One page per second, fetching takes 0.5 second
+    for (int i = 0; i < 10; i++) {
+      policy.onCurrentIndexChanged(i, i * 1000);
+      policy.onPageFetched(100 * 1024, 500);
+    }
+    assertEquals(2, policy.getDepth());
+
+    // Fetching slows down to 3 seconds
+    for (int i = 0; i < 20; i++) {
+      policy.onPageFetched(100 * 1024, 3000);
+    }
+    assertEquals(6, policy.getDepth());
+
+    // Fetching is too slow, the depth is limited
+    for (int i = 0; i < 20; i++) {
+      policy.onPageFetched(100 * 1024, 60000);
+    }
+    assertEquals(10, policy.getDepth());
+  }
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright 2019 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.ehviewer.gallery;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+public class PageDecoderTest {
+
+  private static byte[] bytes(int... values) {
+    byte[] data = new byte[values.length];
+    for (int i = 0; i < values.length; i++) {
+      data[i] = (byte) values[i];
+    }
+    return data;
+  }
+
+  @Test
+  public void testComputeSampleSize() {
+    assertEquals(1, PageDecoder.computeSampleSize(1000, 1500, 1920));
+    assertEquals(1, PageDecoder.computeSampleSize(3000, 4000, 1920));
+    assertEquals(2, PageDecoder.computeSampleSize(3840, 5000, 1920));
+    assertEquals(4, PageDecoder.computeSampleSize(8000, 12000, 1920));
+    // The short side decides
+    assertEquals(1, PageDecoder.computeSampleSize(1000, 20000, 600));
+    assertEquals(1, PageDecoder.computeSampleSize(8000, 12000, 0));
+  }
+
+  @Test
+  public void testReadPngSize() {
+    byte[] png = bytes(
+        0x89, 'P', 'N', 'G', 0x0d, 0x0a, 0x1a, 0x0a,
+        0, 0, 0, 13, 'I', 'H', 'D', 'R',
+        0, 0, 0x0f, 0xa0, 0, 0, 0x13, 0x88);
+    assertArrayEquals(new int[] {4000, 5000}, PageDecoder.readSize(png, png.length));
+    assertNull(PageDecoder.readSize(png, 20));
+  }
+
+  @Test
+  public void testReadJpegSize() {
+    byte[] jpeg = bytes(
+        0xff, 0xd8,
+        // APP0 with 4 bytes of data
+        0xff, 0xe0, 0, 6, 'J', 'F', 'I', 'F',
+        // Fill byte
+        0xff,
+        // DHT, not a frame
+        0xff, 0xc4, 0, 3, 0,
+        // SOF2: length, precision, height, width
+        0xff, 0xc2, 0, 17, 8, 0x17, 0x70, 0x0f, 0xa0);
+    assertArrayEquals(new int[] {4000, 6000}, PageDecoder.readSize(jpeg, jpeg.length));
+    // Frame is out of the head
+    assertNull(PageDecoder.readSize(jpeg, 20));
+  }
+
+  @Test
+  public void testReadSizeOfOtherFormats() {
+    byte[] gif = bytes('G', 'I', 'F', '8', '9', 'a', 0x10, 0, 0x10, 0);
+    assertNull(PageDecoder.readSize(gif, gif.length));
+    byte[] jpeg = bytes(0xff, 0xd8, 0xff, 0xda, 0, 2);
+    assertNull(PageDecoder.readSize(jpeg, jpeg.length));
+    assertNull(PageDecoder.readSize(new byte[0], 0));
+  }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright 2019 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.ehviewer.gallery;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Random;
+import org.junit.Test;
+
+public class PipeTest {
+
+  @Test
+  public void testTransfer() throws Exception {
+    byte[] data = new byte[1024 * 1024];
+    new Random(1).nextBytes(data);
+
+    // Odd capacity and chunk sizes to wrap around at different places
+    Pipe pipe = new Pipe(1000);
+    Thread writer = new Thread(() -> {
+      try (OutputStream os = pipe.getOutputStream()) {
+        int off = 0;
+        int chunk = 1;
+        while (off < data.length) {
+          int len = Math.min(chunk, data.length - off);
+          if (len == 1) {
+            os.write(data[off]);
+          } else {
+            os.write(data, off, len);
+          }
+          off += len;
+          chunk = chunk * 7 % 1500 + 1;
+        }
+      } catch (IOException e) {
+        throw new IllegalStateException(e);
+      }
+    });
+    writer.start();
+
+    ByteArrayOutputStream result = new ByteArrayOutputStream();
+    InputStream is = pipe.getInputStream();
+    byte[] buffer = new byte[333];
+    for (int i = 0; ; i++) {
+      if (i % 2 == 0) {
+        int b = is.read();
+        if (b == -1) {
+          break;
+        }
+        result.write(b);
+      } else {
+        int n = is.read(buffer);
+        if (n == -1) {
+          break;
+        }
+        result.write(buffer, 0, n);
+      }
+    }
+    writer.join();
+
+    assertArrayEquals(data, result.toByteArray());
+  }
+
+  @Test
+  public void testCloseInputStream() throws Exception {
+    Pipe pipe = new Pipe(16);
+    boolean[] failed = new boolean[1];
+    Thread writer = new Thread(() -> {
+      try {
+        pipe.getOutputStream().write(new byte[1024]);
+      } catch (IOException e) {
+        failed[0] = true;
+      }
+    });
+    writer.start();
+
+    assertEquals(0, pipe.getInputStream().read());
+    pipe.getInputStream().close();
+    // The writer must not be blocked forever
+    writer.join();
+    assertTrue(failed[0]);
+  }
+}
@@ -0,0 +1,186 @@
+/*
+ * Copyright 2019 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.ehviewer.gallery;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.hippo.unifile.UniFile;
+import com.hippo.unifile.UniRandomAccessFile;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ZipStoredEntriesTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private UniRandomAccessFile file;
+
+  private static byte[] randomBytes(int seed, int size) {
+    byte[] data = new byte[size];
+    new Random(seed).nextBytes(data);
+    return data;
+  }
+
+  private static void putStored(ZipOutputStream zos, String name, byte[] data) throws IOException {
+    ZipEntry entry = new ZipEntry(name);
+    entry.setMethod(ZipEntry.STORED);
+    entry.setSize(data.length);
+    CRC32 crc = new CRC32();
+    crc.update(data);
+    entry.setCrc(crc.getValue());
+    zos.putNextEntry(entry);
+    zos.write(data);
+    zos.closeEntry();
+  }
+
+  private static void putDeflated(ZipOutputStream zos, String name, byte[] data) throws IOException {
+    ZipEntry entry = new ZipEntry(name);
+    entry.setMethod(ZipEntry.DEFLATED);
+    zos.putNextEntry(entry);
+    zos.write(data);
+    zos.closeEntry();
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    if (file != null) {
+      file.close();
+    }
+  }
+
+  private UniRandomAccessFile open(byte[] bytes) throws IOException {
+    tearDown();
+    File path = folder.newFile();
+    try (OutputStream os = new FileOutputStream(path)) {
+      os.write(bytes);
+    }
+    return UniFile.fromFile(path).createRandomAccessFile("r");
+  }
+
+  private byte[] readEntry(ZipStoredEntries.Entry entry) throws IOException {
+    ByteArrayOutputStream os = new ByteArrayOutputStream();
+    try (InputStream is = ZipStoredEntries.openStream(file, entry)) {
+      byte[] buffer = new byte[777];
+      int n;
+      while ((n = is.read(buffer)) != -1) {
+        os.write(buffer, 0, n);
+      }
+    }
+    return os.toByteArray();
+  }
+
+  @Test
+  public void testStoredEntries() throws Exception {
+    byte[] first = randomBytes(1, 10000);
+    byte[] second = randomBytes(2, 3000);
+    byte[] third = randomBytes(3, 0);
+
+    ByteArrayOutputStream zip = new ByteArrayOutputStream();
+    try (ZipOutputStream zos = new ZipOutputStream(zip)) {
+      putStored(zos, "001.jpg", first);
+      putDeflated(zos, "002.jpg", randomBytes(4, 5000));
+      putStored(zos, "dir/003.png", second);
+      putStored(zos, "004.gif", third);
+    }
+
+    file = open(zip.toByteArray());
+    Map<String, ZipStoredEntries.Entry> entries = ZipStoredEntries.read(file);
+    assertEquals(3, entries.size());
+    assertArrayEquals(first, readEntry(entries.get("001.jpg")));
+    assertArrayEquals(second, readEntry(entries.get("dir/003.png")));
+    assertArrayEquals(third, readEntry(entries.get("004.gif")));
+  }
+
+  @Test
+  public void testArchiveComment() throws Exception {
+    byte[] data = randomBytes(5, 100);
+
+    ByteArrayOutputStream zip = new ByteArrayOutputStream();
+    try (ZipOutputStream zos = new ZipOutputStream(zip)) {
+      putStored(zos, "001.jpg", data);
+      char[] comment = new char[1000];
+      Arrays.fill(comment, 'c');
+      zos.setComment(new String(comment));
+    }
+
+    file = open(zip.toByteArray());
+    Map<String, ZipStoredEntries.Entry> entries = ZipStoredEntries.read(file);
+    assertEquals(1, entries.size());
+    assertArrayEquals(data, readEntry(entries.get("001.jpg")));
+  }
+
+  @Test
+  public void testNames() throws Exception {
+    byte[] data = randomBytes(6, 100);
+
+    // UTF-8 names are flagged
+    ByteArrayOutputStream zip = new ByteArrayOutputStream();
+    try (ZipOutputStream zos = new ZipOutputStream(zip)) {
+      putStored(zos, "画像.jpg", data);
+    }
+    file = open(zip.toByteArray());
+    Map<String, ZipStoredEntries.Entry> entries = ZipStoredEntries.read(file);
+    assertEquals(1, entries.size());
+    assertArrayEquals(data, readEntry(entries.get("画像.jpg")));
+
+    // Non-ASCII names in other charsets are skipped
+    zip = new ByteArrayOutputStream();
+    try (ZipOutputStream zos = new ZipOutputStream(zip, Charset.forName("Shift_JIS"))) {
+      putStored(zos, "画像.jpg", data);
+      putStored(zos, "001.jpg", data);
+    }
+    file = open(zip.toByteArray());
+    entries = ZipStoredEntries.read(file);
+    assertEquals(1, entries.size());
+    assertArrayEquals(data, readEntry(entries.get("001.jpg")));
+  }
+
+  @Test
+  public void testNotZip() throws Exception {
+    file = open(new byte[0]);
+    assertTrue(ZipStoredEntries.read(file).isEmpty());
+    file = open(randomBytes(7, 1000));
+    assertTrue(ZipStoredEntries.read(file).isEmpty());
+
+    // Truncated, the end of central directory is lost
+    ByteArrayOutputStream zip = new ByteArrayOutputStream();
+    try (ZipOutputStream zos = new ZipOutputStream(zip)) {
+      putStored(zos, "001.jpg", randomBytes(8, 1000));
+    }
+    byte[] bytes = zip.toByteArray();
+    file = open(Arrays.copyOf(bytes, bytes.length / 2));
+    assertTrue(ZipStoredEntries.read(file).isEmpty());
+  }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright 2019 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.ehviewer.spider;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class DecodeSchedulerTest {
+
+  @Test
+  public void testNearestFirst() throws InterruptedException {
+    DecodeScheduler scheduler = new DecodeScheduler(1);
+    scheduler.setCurrentIndex(5);
+    scheduler.request(9);
+    scheduler.request(2);
+    scheduler.request(7);
+    scheduler.request(3);
+    scheduler.request(5);
+
+    assertEquals(5, scheduler.take(0));
+    scheduler.finish(0);
+    // 7 and 3 have the same distance, the page after goes first
+    assertEquals(7, scheduler.take(0));
+    scheduler.finish(0);
+    assertEquals(3, scheduler.take(0));
+    scheduler.finish(0);
+
+    // The current page moves
+    scheduler.setCurrentIndex(10);
+    assertEquals(9, scheduler.take(0));
+    scheduler.finish(0);
+    assertEquals(2, scheduler.take(0));
+    scheduler.finish(0);
+  }
+
+  @Test
+  public void testNoDuplicate() throws InterruptedException {
+    DecodeScheduler scheduler = new DecodeScheduler(2);
+    scheduler.request(1);
+    scheduler.request(1);
+    assertEquals(1, scheduler.take(0));
+
+    // It's being decoded
+    scheduler.request(1);
+    scheduler.request(2);
+    assertEquals(2, scheduler.take(1));
+
+    // Decoded, it can be requested again
+    scheduler.finish(0);
+    scheduler.request(1);
+    assertEquals(1, scheduler.take(0));
+  }
+
+  @Test
+  public void testCancel() throws InterruptedException {
+    DecodeScheduler scheduler = new DecodeScheduler(1);
+    scheduler.request(0);
+    scheduler.request(1);
+    scheduler.cancel(0);
+    assertEquals(1, scheduler.take(0));
+  }
+
+  @Test
+  public void testWait() throws InterruptedException {
+    DecodeScheduler scheduler = new DecodeScheduler(1);
+    Thread thread = new Thread(() -> {
+      try {
+        Thread.sleep(100);
+      } catch (InterruptedException e) {
+        return;
+      }
+      scheduler.request(3);
+    });
+    thread.start();
+    assertEquals(3, scheduler.take(0));
+    thread.join();
+  }
+}
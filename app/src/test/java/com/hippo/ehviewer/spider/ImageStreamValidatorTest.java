@@ -0,0 +1,83 @@
+/*
+ * Copyright 2019 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.ehviewer.spider;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.nio.charset.StandardCharsets;
+import org.junit.Test;
+
+public class ImageStreamValidatorTest {
+
+  private static final byte[] JPEG = {
+      (byte) 0xff, (byte) 0xd8, (byte) 0xff, (byte) 0xe0, 0x00, 0x10, 'J', 'F', 'I', 'F', 0x00, 0x01
+  };
+
+  // SHA-1 of JPEG
+  private static final String JPEG_SHA1 = "a543ff694fd10870906acd948d92769b4c086ace";
+
+  private static String validate(String url, byte[] data, int chunk) {
+    ImageStreamValidator validator = new ImageStreamValidator(url);
+    for (int i = 0; i < data.length; i += chunk) {
+      validator.update(data, i, Math.min(chunk, data.length - i));
+    }
+    return validator.getError();
+  }
+
+  @Test
+  public void testImage() {
+    assertNull(validate(null, JPEG, 1));
+    assertNull(validate(null, JPEG, 5));
+    assertNull(validate("https://ehgt.org/a.jpg", JPEG, JPEG.length));
+  }
+
+  @Test
+  public void testEmpty() {
+    assertEquals(ImageStreamValidator.ERROR_EMPTY, validate(null, new byte[0], 1));
+  }
+
+  @Test
+  public void testPlainText() {
+    byte[] text = "You have exceeded your image viewing limits.".getBytes(StandardCharsets.US_ASCII);
+    assertEquals(ImageStreamValidator.ERROR_PLAIN_TEXT, validate(null, text, 7));
+  }
+
+  @Test
+  public void testUnknownFormat() {
+    byte[] data = {0x00, (byte) 0x80, 0x12, 0x34};
+    assertEquals(ImageStreamValidator.ERROR_UNKNOWN_FORMAT, validate(null, data, 4));
+  }
+
+  @Test
+  public void testFileId() {
+    String size = Integer.toString(JPEG.length);
+    assertNull(validate("https://a.hath.network/h/" + JPEG_SHA1 + "-" + size + "-1-1-jpg/keystamp=1/1.jpg", JPEG, 3));
+    assertEquals(ImageStreamValidator.ERROR_SIZE_MISMATCH,
+        validate("https://a.hath.network/h/" + JPEG_SHA1 + "-999-1-1-jpg/keystamp=1/1.jpg", JPEG, 3));
+    assertEquals(ImageStreamValidator.ERROR_CHECKSUM_MISMATCH,
+        validate("https://a.hath.network/h/0000000000000000000000000000000000000000-" + size + "-1-1-jpg/keystamp=1/1.jpg", JPEG, 3));
+  }
+
+  @Test
+  public void testResume() {
+    ImageStreamValidator validator = new ImageStreamValidator(null);
+    validator.resume(JPEG, 4, 4);
+    validator.update(JPEG, 4, JPEG.length - 4);
+    assertNull(validator.getError());
+  }
+}
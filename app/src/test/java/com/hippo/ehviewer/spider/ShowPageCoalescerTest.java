@@ -0,0 +1,164 @@
+/*
+ * Copyright 2019 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.ehviewer.spider;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import com.hippo.ehviewer.client.parser.GalleryPageApiParser;
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+@Config(manifest = Config.NONE)
+@RunWith(RobolectricTestRunner.class)
+public class ShowPageCoalescerTest {
+
+  private final ShowPageCoalescer coalescer = new ShowPageCoalescer();
+
+  private Thread fetchInBackground(String showKey, ShowPageCoalescer.Fetcher fetcher,
+      AtomicReference<Object> out) {
+    Thread thread = new Thread(() -> {
+      try {
+        out.set(coalescer.fetch(0, showKey, fetcher));
+      } catch (Throwable t) {
+        out.set(t);
+      }
+    });
+    thread.start();
+    return thread;
+  }
+
+  private void waitForWaiter() throws InterruptedException {
+    while (coalescer.getSavedCount() == 0) {
+      Thread.sleep(1);
+    }
+  }
+
+  @Test
+  public void testShareResult() throws Exception {
+    GalleryPageApiParser.Result result = new GalleryPageApiParser.Result();
+    CountDownLatch release = new CountDownLatch(1);
+    AtomicReference<Object> owner = new AtomicReference<>();
+    AtomicReference<Object> waiter = new AtomicReference<>();
+
+    Thread ownerThread = fetchInBackground("key", () -> {
+      release.await();
+      return result;
+    }, owner);
+    while (coalescer.getRequestCount() == 0) {
+      Thread.sleep(1);
+    }
+    Thread waiterThread = fetchInBackground("key", () -> {
+      throw new AssertionError("Sent twice");
+    }, waiter);
+    waitForWaiter();
+    release.countDown();
+    ownerThread.join();
+    waiterThread.join();
+
+    assertSame(result, owner.get());
+    assertSame(result, waiter.get());
+    assertEquals(1, coalescer.getRequestCount());
+    assertEquals(1, coalescer.getSavedCount());
+  }
+
+  @Test
+  public void testShareError() throws Exception {
+    IOException error = new IOException();
+    CountDownLatch release = new CountDownLatch(1);
+    AtomicReference<Object> owner = new AtomicReference<>();
+    AtomicReference<Object> waiter = new AtomicReference<>();
+
+    Thread ownerThread = fetchInBackground("key", () -> {
+      release.await();
+      throw error;
+    }, owner);
+    while (coalescer.getRequestCount() == 0) {
+      Thread.sleep(1);
+    }
+    Thread waiterThread = fetchInBackground("key", () -> {
+      throw new AssertionError("Sent twice");
+    }, waiter);
+    waitForWaiter();
+    release.countDown();
+    ownerThread.join();
+    waiterThread.join();
+
+    assertSame(error, owner.get());
+    assertSame(error, waiter.get());
+  }
+
+  @Test
+  public void testRetryWhenOwnerInterrupted() throws Exception {
+    GalleryPageApiParser.Result result = new GalleryPageApiParser.Result();
+    AtomicReference<Object> owner = new AtomicReference<>();
+    AtomicReference<Object> waiter = new AtomicReference<>();
+
+    Thread ownerThread = fetchInBackground("key", () -> {
+      Thread.sleep(60 * 1000);
+      throw new AssertionError("Not interrupted");
+    }, owner);
+    while (coalescer.getRequestCount() == 0) {
+      Thread.sleep(1);
+    }
+    Thread waiterThread = fetchInBackground("key", () -> result, waiter);
+    waitForWaiter();
+    ownerThread.interrupt();
+    ownerThread.join();
+    waiterThread.join();
+
+    assertTrue(owner.get() instanceof InterruptedException);
+    // The waiter sends it by itself
+    assertSame(result, waiter.get());
+    assertEquals(2, coalescer.getRequestCount());
+    assertEquals(0, coalescer.getSavedCount());
+  }
+
+  @Test
+  public void testRetryWhenOwnerThrowsError() throws Exception {
+    GalleryPageApiParser.Result result = new GalleryPageApiParser.Result();
+    AssertionError error = new AssertionError();
+    CountDownLatch release = new CountDownLatch(1);
+    AtomicReference<Object> owner = new AtomicReference<>();
+    AtomicReference<Object> waiter = new AtomicReference<>();
+
+    Thread ownerThread = fetchInBackground("key", () -> {
+      release.await();
+      throw error;
+    }, owner);
+    while (coalescer.getRequestCount() == 0) {
+      Thread.sleep(1);
+    }
+    Thread waiterThread = fetchInBackground("key", () -> result, waiter);
+    waitForWaiter();
+    release.countDown();
+    ownerThread.join();
+    waiterThread.join();
+
+    assertSame(error, owner.get());
+    // The waiter sends it by itself
+    assertSame(result, waiter.get());
+    assertEquals(2, coalescer.getRequestCount());
+    assertEquals(0, coalescer.getSavedCount());
+  }
+}
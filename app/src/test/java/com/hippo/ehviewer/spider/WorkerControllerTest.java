@@ -0,0 +1,97 @@
+/*
+ * Copyright 2019 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.ehviewer.spider;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class WorkerControllerTest {
+
+  // Each worker gets 100 KB/s, one page is 200 KB
+  private static long runWindow(WorkerController controller, long now, int bandwidthLimit) {
+    int target = controller.getTarget();
+    long speed = Math.min(target * 100, bandwidthLimit) * 1024L / target;
+    long latency = 200 * 1024L * 1000 / speed;
+    // Workers finish pages one after another
+    long step = latency / target;
+    int pages = (int) Math.max(target, 6000 / step + 1);
+    for (int i = 0; i < pages; i++) {
+      now += step;
+      controller.onPageSuccess(200 * 1024, latency, now);
+    }
+    return now;
+  }
+
+  @Test
+  public void testGrowUntilNoGain() {
+    WorkerController controller = new WorkerController(1, 10);
+    long now = 0;
+    // Bandwidth allows 4 workers
+    for (int i = 0; i < 20; i++) {
+      now = runWindow(controller, now, 400);
+    }
+    int target = controller.getTarget();
+    assertTrue("target " + target, target >= 3 && target <= 5);
+  }
+
+  @Test
+  public void testGrowToMax() {
+    WorkerController controller = new WorkerController(1, 3);
+    long now = 0;
+    for (int i = 0; i < 10; i++) {
+      now = runWindow(controller, now, Integer.MAX_VALUE);
+    }
+    assertEquals(3, controller.getTarget());
+    assertEquals(WorkerController.REASON_THROUGHPUT, controller.getReason());
+  }
+
+  @Test
+  public void test509() {
+    WorkerController controller = new WorkerController(8, 10);
+    assertTrue(controller.onPageFailure(true, 1000));
+    assertEquals(4, controller.getTarget());
+    assertEquals(WorkerController.REASON_509, controller.getReason());
+
+    // Other workers get 509 at the same time
+    assertFalse(controller.onPageFailure(true, 1500));
+    assertEquals(4, controller.getTarget());
+
+    assertTrue(controller.onPageFailure(true, 10000));
+    assertEquals(2, controller.getTarget());
+    assertTrue(controller.onPageFailure(true, 20000));
+    assertEquals(1, controller.getTarget());
+    assertFalse(controller.onPageFailure(true, 30000));
+    assertEquals(1, controller.getTarget());
+  }
+
+  @Test
+  public void testErrors() {
+    WorkerController controller = new WorkerController(4, 10);
+    long now = 0;
+    boolean changed = false;
+    for (int i = 0; i < 4 && !changed; i++) {
+      now += 2000;
+      changed = controller.onPageFailure(false, now);
+    }
+    assertTrue(changed);
+    assertEquals(2, controller.getTarget());
+    assertEquals(WorkerController.REASON_ERROR, controller.getReason());
+  }
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright 2019 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.hippo.ehviewer.widget;
+
+import static org.junit.Assert.assertEquals;
+
+import android.content.Context;
+import android.os.Bundle;
+import android.view.ContextThemeWrapper;
+import com.hippo.ehviewer.EhApplication;
+import com.hippo.ehviewer.R;
+import com.hippo.ehviewer.client.data.GalleryInfo;
+import com.hippo.widget.ContentLayout;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.shadows.ShadowLooper;
+
+@RunWith(RobolectricTestRunner.class)
+public class GalleryInfoContentHelperTest {
+
+  private static final int PAGE_SIZE = 10;
+
+  private Context context;
+  private final List<Helper> helpers = new ArrayList<>();
+
+  @Before
+  public void setUp() {
+    context = new ContextThemeWrapper(RuntimeEnvironment.application, R.style.AppTheme);
+  }
+
+  @After
+  public void tearDown() {
+    for (Helper helper : helpers) {
+      helper.destroy();
+    }
+  }
+
+  private static List<GalleryInfo> page(int page) {
+    List<GalleryInfo> list = new ArrayList<>();
+    for (int i = 0; i < PAGE_SIZE; i++) {
+      GalleryInfo info = new GalleryInfo();
+      info.gid = page * PAGE_SIZE + i;
+      info.favoriteSlot = -1;
+      list.add(info);
+    }
+    return list;
+  }
+
+  private Helper newHelper() {
+    Helper helper = new Helper(context);
+    new ContentLayout(context).setHelper(helper);
+    helper.setWindowPages(3);
+    helpers.add(helper);
+    return helper;
+  }
+
+  // Loads page 0 to 3, page 0 is put to the page store
+  private static void load(Helper helper) {
+    helper.firstRefresh();
+    helper.respond(page(0));
+    for (int i = 1; i < 4; i++) {
+      helper.goTo(i);
+      helper.respond(page(i));
+    }
+    assertEquals(10, helper.getData().get(0).gid);
+  }
+
+  // Page store callbacks are posted from IO threads
+  private static GalleryInfo readFirstPageBack(Helper helper) throws InterruptedException {
+    helper.goTo(0);
+    for (int i = 0; i < 500 && helper.getData().get(0).gid != 0; i++) {
+      Thread.sleep(10);
+      ShadowLooper.runUiThreadTasksIncludingDelayedTasks();
+    }
+    GalleryInfo info = helper.getData().get(0);
+    assertEquals(0, info.gid);
+    return info;
+  }
+
+  @Test
+  public void testModifyEvictedGallery() throws InterruptedException {
+    Helper helper = newHelper();
+    load(helper);
+
+    EhApplication.getFavouriteStatusRouter().modifyFavourites(0, 5);
+    assertEquals(5, readFirstPageBack(helper).favoriteSlot);
+  }
+
+  @Test
+  public void testModifyEvictedGalleryInSavedState() throws InterruptedException {
+    Helper helper = newHelper();
+    load(helper);
+    Bundle state = (Bundle) helper.saveInstanceState(null);
+    helper.destroy();
+    // The restored page store can only read written pages
+    File file = new File(new File(new File(context.getCacheDir(), "content_pages"),
+        state.getString("page_store")), "0");
+    long length = -1;
+    for (int i = 0; i < 500 && (!file.isFile() || file.length() != length); i++) {
+      length = file.length();
+      Thread.sleep(10);
+    }
+
+    EhApplication.getFavouriteStatusRouter().modifyFavourites(0, 5);
+
+    Helper restored = newHelper();
+    restored.restoreInstanceState(state);
+    assertEquals(5, readFirstPageBack(restored).favoriteSlot);
+  }
+
+  private static class Helper extends GalleryInfoContentHelper {
+
+    private final Context context;
+    private int taskId;
+    private int page;
+
+    private Helper(Context context) {
+      this.context = context;
+    }
+
+    private void respond(List<GalleryInfo> data) {
+      onGetPageData(taskId, 5, page + 1, data);
+    }
+
+    @Override
+    protected void getPageData(int taskId, int type, int page) {
+      this.taskId = taskId;
+      this.page = page;
+    }
+
+    @Override
+    protected Context getContext() {
+      return context;
+    }
+
+    @Override
+    protected void notifyDataSetChanged() {}
+
+    @Override
+    protected void notifyItemRangeRemoved(int positionStart, int itemCount) {}
+
+    @Override
+    protected void notifyItemRangeInserted(int positionStart, int itemCount) {}
+
+    @Override
+    protected boolean isDuplicate(GalleryInfo d1, GalleryInfo d2) {
+      return d1.gid == d2.gid;
+    }
+  }
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright 2019 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.util;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import org.junit.Test;
+
+public class AhoCorasickTest {
+
+  @Test
+  public void testContainsAny() {
+    AhoCorasick matcher = new AhoCorasick(Arrays.asList("he", "she", "his", "hers"));
+    assertTrue(matcher.containsAny("ushers"));
+    assertTrue(matcher.containsAny("ahis"));
+    assertTrue(matcher.containsAny("she"));
+    assertFalse(matcher.containsAny("hi"));
+    assertFalse(matcher.containsAny(""));
+  }
+
+  @Test
+  public void testFailLink() {
+    // "abcd" fails at 'x', "bcx" must still be found
+    AhoCorasick matcher = new AhoCorasick(Arrays.asList("abcd", "bcx"));
+    assertTrue(matcher.containsAny("abcx"));
+    assertFalse(matcher.containsAny("abcb"));
+
+    // Shorter pattern inside a longer one
+    matcher = new AhoCorasick(Arrays.asList("abcde", "c"));
+    assertTrue(matcher.containsAny("abcxx"));
+  }
+
+  @Test
+  public void testEmpty() {
+    AhoCorasick matcher = new AhoCorasick(Collections.emptyList());
+    assertTrue(matcher.isEmpty());
+    assertFalse(matcher.containsAny("abc"));
+
+    // Like String.contains("")
+    matcher = new AhoCorasick(Collections.singletonList(""));
+    assertFalse(matcher.isEmpty());
+    assertTrue(matcher.containsAny("abc"));
+    assertTrue(matcher.containsAny(""));
+  }
+}
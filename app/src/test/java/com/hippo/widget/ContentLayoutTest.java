@@ -0,0 +1,275 @@
+/*
+ * Copyright 2019 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.widget;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import android.content.Context;
+import android.os.Bundle;
+import android.os.Parcel;
+import android.os.Parcelable;
+import android.view.ContextThemeWrapper;
+import com.hippo.ehviewer.R;
+import com.hippo.yorozuya.collect.IntList;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.shadows.ShadowLooper;
+
+@RunWith(RobolectricTestRunner.class)
+public class ContentLayoutTest {
+
+  private static final int PAGE_SIZE = 10;
+
+  private Context context;
+
+  @Before
+  public void setUp() {
+    context = new ContextThemeWrapper(RuntimeEnvironment.application, R.style.AppTheme);
+  }
+
+  private static List<Item> page(int page) {
+    List<Item> list = new ArrayList<>();
+    for (int i = 0; i < PAGE_SIZE; i++) {
+      list.add(new Item(page * PAGE_SIZE + i));
+    }
+    return list;
+  }
+
+  private Helper newHelper(int windowPages) {
+    Helper helper = new Helper(context);
+    new ContentLayout(context).setHelper(helper);
+    helper.setWindowPages(windowPages);
+    return helper;
+  }
+
+  // Loads page 0 to pages - 1, every page has the next page after it
+  private static void load(Helper helper, int pages) {
+    helper.firstRefresh();
+    helper.respond(pages + 1, page(0));
+    for (int i = 1; i < pages; i++) {
+      helper.goTo(i);
+      helper.respond(pages + 1, page(i));
+    }
+  }
+
+  private static void assertData(Helper helper, int firstItem, int lastItem) {
+    List<Item> data = helper.getData();
+    assertEquals(lastItem - firstItem + 1, data.size());
+    for (int i = 0, n = data.size(); i < n; i++) {
+      assertEquals(firstItem + i, data.get(i).value);
+    }
+  }
+
+  private static void assertState(Bundle state, int startPage, int endPage, int nextPage, int... pageDivider) {
+    assertEquals(startPage, state.getInt("start_page"));
+    assertEquals(endPage, state.getInt("end_page"));
+    assertEquals(nextPage, state.getInt("next_page"));
+    IntList divider = state.getParcelable("page_divider");
+    int[] actual = new int[divider.size()];
+    for (int i = 0; i < actual.length; i++) {
+      actual[i] = divider.get(i);
+    }
+    assertArrayEquals(pageDivider, actual);
+  }
+
+  // Page store callbacks are posted from IO threads
+  private static void waitForRequest(Helper helper, int requests) throws InterruptedException {
+    for (int i = 0; i < 500 && helper.requests.size() < requests && helper.getData().size() == helper.size; i++) {
+      Thread.sleep(10);
+      ShadowLooper.runUiThreadTasksIncludingDelayedTasks();
+    }
+  }
+
+  // The new page store can only read written pages
+  private static void waitForFile(File file) throws InterruptedException {
+    long length = -1;
+    for (int i = 0; i < 500 && (!file.isFile() || file.length() != length); i++) {
+      length = file.length();
+      Thread.sleep(10);
+    }
+  }
+
+  @Test
+  public void testEvictStartPages() {
+    Helper helper = newHelper(3);
+    load(helper, 5);
+
+    // Page 0 and page 1 are out of the window
+    assertData(helper, 20, 49);
+    assertState(helper.saveState(), 2, 5, 5, 10, 20, 30);
+  }
+
+  @Test
+  public void testEvictEndPages() throws InterruptedException {
+    Helper helper = newHelper(3);
+    load(helper, 4);
+    assertData(helper, 10, 39);
+
+    // Page 0 is read from the page store, page 3 is out of the window
+    helper.size = helper.getData().size();
+    helper.goTo(0);
+    waitForRequest(helper, 5);
+    assertEquals(4, helper.requests.size());
+    assertData(helper, 0, 29);
+    // The next page is in the page store now
+    assertState(helper.saveState(), 0, 3, 3, 10, 20, 30);
+  }
+
+  @Test
+  public void testNoEvictForDuplicatePage() {
+    Helper helper = newHelper(3);
+    load(helper, 3);
+
+    // All items are removed as duplicates, nothing to make room for
+    helper.goTo(3);
+    helper.respond(4, page(2));
+    assertData(helper, 0, 29);
+    assertState(helper.saveState(), 0, 4, 4, 10, 20, 30, 30);
+  }
+
+  @Test
+  public void testRestore() throws InterruptedException {
+    Helper helper = newHelper(3);
+    load(helper, 4);
+    Bundle state = helper.saveState();
+    waitForFile(new File(new File(new File(context.getCacheDir(), "content_pages"),
+        state.getString("page_store")), "0"));
+
+    Helper restored = newHelper(3);
+    restored.restoreInstanceState(state);
+    assertData(restored, 10, 39);
+    assertState(restored.saveState(), 1, 4, 4, 10, 20, 30);
+
+    // Page 0 is still in the page store
+    restored.size = restored.getData().size();
+    restored.goTo(0);
+    waitForRequest(restored, 1);
+    assertEquals(0, restored.requests.size());
+    assertData(restored, 0, 29);
+  }
+
+  @Test
+  public void testCachedPage() {
+    Helper helper = newHelper(0);
+    helper.firstRefresh();
+    int taskId = helper.taskId;
+
+    // The cached page is shown, the task goes on
+    helper.onGetCachedPageData(taskId, 2, 1, page(1));
+    assertData(helper, 10, 19);
+    assertTrue(helper.isCurrentTask(taskId));
+
+    // The page from network replaces it
+    helper.respond(2, page(0));
+    assertData(helper, 0, 9);
+    assertState(helper.saveState(), 0, 1, 1, 10);
+
+    // Only for pages replacing all data
+    helper.goTo(1);
+    helper.onGetCachedPageData(helper.taskId, 2, 2, page(2));
+    assertData(helper, 0, 9);
+    helper.respond(2, page(1));
+    assertData(helper, 0, 19);
+  }
+
+  public static class Item implements Parcelable {
+
+    private final int value;
+
+    private Item(int value) {
+      this.value = value;
+    }
+
+    @Override
+    public int describeContents() {
+      return 0;
+    }
+
+    @Override
+    public void writeToParcel(Parcel dest, int flags) {
+      dest.writeInt(value);
+    }
+
+    public static final Creator<Item> CREATOR = new Creator<Item>() {
+      @Override
+      public Item createFromParcel(Parcel source) {
+        return new Item(source.readInt());
+      }
+
+      @Override
+      public Item[] newArray(int size) {
+        return new Item[size];
+      }
+    };
+  }
+
+  private static class Helper extends ContentLayout.ContentHelper<Item> {
+
+    private final Context context;
+    // Pages requested from getPageData()
+    private final List<Integer> requests = new ArrayList<>();
+    private int taskId;
+    // Data size before waiting for the page store
+    private int size;
+
+    private Helper(Context context) {
+      this.context = context;
+    }
+
+    private void respond(int pages, List<Item> data) {
+      int page = requests.get(requests.size() - 1);
+      onGetPageData(taskId, pages, page + 1, data);
+    }
+
+    private Bundle saveState() {
+      return (Bundle) saveInstanceState(null);
+    }
+
+    @Override
+    protected void getPageData(int taskId, int type, int page) {
+      this.taskId = taskId;
+      requests.add(page);
+    }
+
+    @Override
+    protected Context getContext() {
+      return context;
+    }
+
+    @Override
+    protected void notifyDataSetChanged() {}
+
+    @Override
+    protected void notifyItemRangeRemoved(int positionStart, int itemCount) {}
+
+    @Override
+    protected void notifyItemRangeInserted(int positionStart, int itemCount) {}
+
+    @Override
+    protected boolean isDuplicate(Item d1, Item d2) {
+      return d1.value == d2.value;
+    }
+  }
+}
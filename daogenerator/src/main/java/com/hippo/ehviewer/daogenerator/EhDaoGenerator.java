@@ -260,6 +260,8 @@ public class EhDaoGenerator {
         javaClass.addField("public int finished");
         javaClass.addField("public int downloaded");
         javaClass.addField("public int total");
+        javaClass.addField("public int workers");
+        javaClass.addField("public String workersReason");
         // Add from GalleryInfo constructor
         javaClass.addMethod("\tpublic DownloadInfo(GalleryInfo galleryInfo) {\n" +
                 "\t\tthis.gid = galleryInfo.gid;\n" +